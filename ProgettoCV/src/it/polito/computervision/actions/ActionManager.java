@@ -3,18 +3,36 @@
  */
 package it.polito.computervision.actions;
 
-import java.util.HashMap;
-
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import it.polito.computervision.gestures.Gesture;
 import it.polito.computervision.gestures.GestureData;
 import it.polito.computervision.gestures.GestureListener;
 import it.polito.computervision.gestures.GestureManager;
+import it.polito.computervision.gestures.GestureNames;
+import it.polito.computervision.gestures.GestureReconfiguration;
+import it.polito.computervision.journal.EventJournal;
+import it.polito.computervision.journal.EventType;
+import it.polito.computervision.journal.Level;
 
 /**
  * Singleton that acts as a dispatcher for {@link Gesture} events.
- * Only one {@link GestureListener} can be bound to a specific {@link Gesture} at any time.
+ * Several {@link GestureListener}s can be bound to the same {@link Gesture}, each with a priority (see {@link GestureBinding}):
+ * listeners are notified from the highest priority to the lowest, and a listener can consume an event (see {@link GestureData#consume()})
+ * so that the following ones are not notified, e.g. an overlay handling a click before the graph below it.
+ * Listeners can be bound one by one (see {@link #addListener(String, GestureListener, int)}), or through a stack of {@link GestureContext}s,
+ * whose bindings come first among the ones with the same priority. Changing the active contexts swaps both the bindings and the gestures
+ * registered to the {@link GestureManager} in a single step (the gestures change at the start of the next frame).
+ * Bindings are compiled into an immutable table indexed by the IDs of the gesture names (see {@link GestureNames}) whenever they change,
+ * so dispatching an event is a lock-free array read.
+ * By default listeners are invoked on the Swing event dispatch thread, so that they can act on the user interface, and consecutive
+ * in progress events of a gesture are coalesced if the event thread falls behind (see {@link #setEventThreadDispatch(boolean)}).
  * 
  * @author Giovanni Piumatti
  *
@@ -23,10 +41,30 @@ public class ActionManager implements GestureListener {
 
 	private static ActionManager instance = null;
 	
-	private Map<String, GestureListener> bindings;
+	private List<GestureBinding> bindings;
+	/**
+	 * The stacked contexts, from the bottom one
+	 */
+	private List<GestureContext> contexts;
+	/**
+	 * The gestures registered on behalf of the active contexts
+	 */
+	private Set<Gesture> contextGestures;
+	/**
+	 * The listeners bound to each gesture name, indexed by the ID of the name and sorted by priority (null if none is bound),
+	 * rebuilt when the bindings or the active contexts change
+	 */
+	private volatile GestureListener[][] table;
+	private final EventThreadQueue queue;
+	private volatile boolean eventThreadDispatch;
 	
 	private ActionManager() {
-		bindings = new HashMap<String, GestureListener>();
+		bindings = new ArrayList<GestureBinding>();
+		contexts = new ArrayList<GestureContext>();
+		contextGestures = Collections.emptySet();
+		table = new GestureListener[0][];
+		queue = new EventThreadQueue();
+		eventThreadDispatch = true;
 	}
 	
 	public static ActionManager getInstance() {
@@ -51,66 +89,315 @@ public class ActionManager implements GestureListener {
 	}
 	
 	/**
-	 * Binds a {@link GestureListener} to a specific {@link Gesture} referenced by its unique name (i.e. {@link Gesture#getName()}).
-	 * If a listener is already bound to this {@link Gesture} it will be overridden.
+	 * Binds a {@link GestureListener} to a specific {@link Gesture} referenced by its unique name (i.e. {@link Gesture#getName()}), with the default priority.
+	 * The listeners already bound to this {@link Gesture} with this method or {@link #addListener(String, GestureListener, int)} will be unbound.
 	 * @param gestureName The name of the {@link Gesture} to bind to.
 	 * @param listener The {@link GestureListener} to bind.
 	 */
 	public synchronized void bind(String gestureName, GestureListener listener) {
-		bindings.put(gestureName, listener);
+		removeBindings(gestureName, null);
+		bindings.add(new GestureBinding(gestureName, listener, GestureBinding.DEFAULT_PRIORITY));
+		compileBindings();
 	}
 	
 	/**
-	 * Unbinds the {@link GestureListener} bound to this {@link Gesture}.
+	 * Unbinds the {@link GestureListener}s bound to this {@link Gesture} with {@link #bind(String, GestureListener)} or {@link #addListener(String, GestureListener, int)}.
 	 * @param gestureName The name of the {@link Gesture} to unbind from.
 	 */
 	public synchronized void unbind(String gestureName) {
-		bindings.remove(gestureName);
+		if(removeBindings(gestureName, null))
+			compileBindings();
 	}
 	
 	/**
-	 * Checks if the {@link Gesture} with the given name is bound to a {@link GestureListener}
+	 * Binds a {@link GestureListener} to a specific {@link Gesture} referenced by its unique name, in addition to the listeners already bound to it.
+	 * @param gestureName The name of the {@link Gesture} to bind to.
+	 * @param listener The {@link GestureListener} to bind.
+	 * @param priority The priority of the listener: listeners with higher priority are notified first, and can consume the events.
+	 */
+	public synchronized void addListener(String gestureName, GestureListener listener, int priority) {
+		bindings.add(new GestureBinding(gestureName, listener, priority));
+		compileBindings();
+	}
+	
+	/**
+	 * Unbinds a {@link GestureListener} bound with {@link #bind(String, GestureListener)} or {@link #addListener(String, GestureListener, int)}.
+	 * @param gestureName The name of the {@link Gesture} to unbind from.
+	 * @param listener The {@link GestureListener} to unbind.
+	 */
+	public synchronized void removeListener(String gestureName, GestureListener listener) {
+		if(listener != null && removeBindings(gestureName, listener))
+			compileBindings();
+	}
+	
+	/**
+	 * Checks if the {@link Gesture} with the given name is bound to a {@link GestureListener}, either directly or by an active {@link GestureContext}
 	 * @param gestureName The name of the {@link Gesture}
 	 * @return true if a gesture with such name is bound to a listener, false otherwise
 	 */
-	public synchronized boolean isBound(String gestureName) {
-		return bindings.containsKey(gestureName);
+	public boolean isBound(String gestureName) {
+		int id = GestureNames.getInstance().lookup(gestureName);
+		GestureListener[][] t = table;
+		return id >= 0 && id < t.length && t[id] != null;
+	}
+	
+	/**
+	 * Removes direct bindings
+	 * @param gestureName The name of the gesture
+	 * @param listener The listener to remove, or null to remove all the listeners bound to the gesture
+	 * @return true if any binding has been removed
+	 */
+	private boolean removeBindings(String gestureName, GestureListener listener) {
+		boolean removed = false;
+		Iterator<GestureBinding> it = bindings.iterator();
+		while(it.hasNext()) {
+			GestureBinding b = it.next();
+			if(b.getGestureName().equals(gestureName) && (listener == null || b.getListener() == listener)) {
+				it.remove();
+				removed = true;
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Sets the thread the bound listeners are invoked on.
+	 * If enabled (the default), events are copied and posted to the Swing event dispatch thread, and the thread delivering them (i.e. the sensor thread)
+	 * never waits for the listeners. While an in progress event is waiting to be delivered, a newer one of the same gesture replaces it.
+	 * If disabled, listeners are invoked directly on the thread delivering the events, and must not keep the events
+	 * if the {@link GestureManager} recycles them.
+	 * @param enable true to invoke listeners on the event dispatch thread, false to invoke them directly
+	 */
+	public void setEventThreadDispatch(boolean enable) {
+		eventThreadDispatch = enable;
+	}
+	
+	/**
+	 * 
+	 * @return true if listeners are invoked on the event dispatch thread
+	 * @see #setEventThreadDispatch(boolean)
+	 */
+	public boolean isEventThreadDispatch() {
+		return eventThreadDispatch;
+	}
+	
+	/**
+	 * 
+	 * @return the number of in progress events that have been replaced by newer ones before reaching the event dispatch thread
+	 */
+	public long getCoalescedCount() {
+		return queue.getCoalescedCount();
+	}
+	
+	/**
+	 * Replaces the stack of {@link GestureContext}s, e.g. to switch between interaction modes.
+	 * The gestures of the contexts that are no longer active are unregistered, and the ones of the new contexts are registered, all in one reconfiguration.
+	 * The gestures of the contexts must not be registered to the {@link GestureManager} directly.
+	 * @param contexts The new stack of contexts, from the bottom one
+	 */
+	public synchronized void setContexts(GestureContext... contexts) {
+		List<GestureContext> newContexts = new ArrayList<GestureContext>(contexts.length);
+		for(GestureContext c : contexts) {
+			if(c == null)
+				throw new IllegalArgumentException("null context");
+			newContexts.add(c);
+		}
+		this.contexts = newContexts;
+		activateContexts();
+	}
+	
+	/**
+	 * Pushes a {@link GestureContext} on top of the stack
+	 * @param context The context to push
+	 * @see #setContexts(GestureContext...)
+	 */
+	public synchronized void pushContext(GestureContext context) {
+		if(context == null)
+			throw new IllegalArgumentException("null context");
+		
+		contexts.add(context);
+		activateContexts();
+	}
+	
+	/**
+	 * Removes the {@link GestureContext} on top of the stack
+	 * @return the removed context, or null if the stack is empty
+	 * @see #setContexts(GestureContext...)
+	 */
+	public synchronized GestureContext popContext() {
+		if(contexts.isEmpty())
+			return null;
+		
+		GestureContext top = contexts.remove(contexts.size() - 1);
+		activateContexts();
+		return top;
+	}
+	
+	/**
+	 * Removes a {@link GestureContext} from the stack, wherever it is
+	 * @param context The context to remove
+	 * @return true if the context was in the stack
+	 */
+	public synchronized boolean removeContext(GestureContext context) {
+		if(!contexts.remove(context))
+			return false;
+		
+		activateContexts();
+		return true;
+	}
+	
+	/**
+	 * 
+	 * @return the stack of {@link GestureContext}s, from the bottom one
+	 */
+	public synchronized List<GestureContext> getContexts() {
+		return Collections.unmodifiableList(new ArrayList<GestureContext>(contexts));
+	}
+	
+	/**
+	 * 
+	 * @param context A {@link GestureContext}
+	 * @return true if the context is in the stack and is not hidden by a modal context above it
+	 */
+	public synchronized boolean isActive(GestureContext context) {
+		for(int i = contexts.size() - 1; i >= 0; --i) {
+			if(contexts.get(i) == context)
+				return true;
+			if(contexts.get(i).isModal())
+				return false;
+		}
+		return false;
+	}
+	
+	/**
+	 * 
+	 * @return the index of the lowest active context
+	 */
+	private int getBottomActiveContext() {
+		int bottom = contexts.size() - 1;
+		while(bottom > 0 && !contexts.get(bottom).isModal())
+			--bottom;
+		return Math.max(bottom, 0);
+	}
+	
+	/**
+	 * Registers the gestures of the active contexts and unregisters the others, then rebuilds the bindings
+	 */
+	private void activateContexts() {
+		Set<Gesture> gestures = new LinkedHashSet<Gesture>();
+		for(int i = contexts.size() - 1; i >= getBottomActiveContext(); --i)
+			gestures.addAll(contexts.get(i).getGestures());
+		
+		GestureReconfiguration reconfiguration = GestureManager.getInstance().reconfigure();
+		for(Gesture g : contextGestures)
+			if(!gestures.contains(g))
+				reconfiguration.unregister(g);
+		reconfiguration.registerAll(gestures).commit();
+		
+		contextGestures = gestures;
+		compileBindings();
+	}
+	
+	/**
+	 * Rebuilds the table of the listeners from the bindings of the active contexts (the upper ones first) and the ones made directly,
+	 * sorting the listeners of each gesture by priority
+	 */
+	private void compileBindings() {
+		List<GestureBinding> all = new ArrayList<GestureBinding>();
+		for(int i = contexts.size() - 1; i >= getBottomActiveContext(); --i)
+			all.addAll(contexts.get(i).getBindings());
+		all.addAll(bindings);
+		
+		//the sort is stable, so listeners with the same priority keep the order above
+		Collections.sort(all, new Comparator<GestureBinding>() {
+			
+			@Override
+			public int compare(GestureBinding a, GestureBinding b) {
+				return a.getPriority() > b.getPriority() ? -1 : a.getPriority() < b.getPriority() ? 1 : 0;
+			}
+		});
+		
+		int[] counts = new int[GestureNames.getInstance().size()];
+		for(GestureBinding b : all)
+			++counts[b.getNameId()];
+		
+		GestureListener[][] newTable = new GestureListener[counts.length][];
+		for(GestureBinding b : all) {
+			int id = b.getNameId();
+			if(newTable[id] == null)
+				newTable[id] = new GestureListener[counts[id]];
+			newTable[id][newTable[id].length - counts[id]--] = b.getListener();
+		}
+		table = newTable;
+	}
+	
+	/**
+	 * @param gesture An event
+	 * @return the listeners bound to the gesture, or null if there are none
+	 */
+	private GestureListener[] getListeners(GestureData gesture) {
+		int id = gesture.getNameId();
+		GestureListener[][] t = table;
+		return id < t.length ? t[id] : null;
 	}
 	
 	@Override
 	protected void finalize() {
 		stop();
 		bindings.clear();
+		contexts.clear();
+		table = new GestureListener[0][];
 	}
 	
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized void onGestureStarted(GestureData gesture) {
-		GestureListener l = bindings.get(gesture.getName());
-		if(l != null)
-			l.onGestureStarted(gesture);
+	public void onGestureStarted(GestureData gesture) {
+		GestureListener[] ls = getListeners(gesture);
+		if(ls != null) {
+			EventJournal.getInstance().record(Level.INFO, EventType.ACTION, gesture.getName(), gesture.getState(), null, gesture.getSessionId());
+			if(eventThreadDispatch)
+				queue.postStarted(ls, gesture);
+			else {
+				for(int i = 0; i < ls.length && !gesture.isConsumed(); ++i)
+					ls[i].onGestureStarted(gesture);
+			}
+		}
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized void onGestureInProgress(GestureData gesture) {
-		GestureListener l = bindings.get(gesture.getName());
-		if(l != null)
-			l.onGestureInProgress(gesture);
+	public void onGestureInProgress(GestureData gesture) {
+		GestureListener[] ls = getListeners(gesture);
+		if(ls != null) {
+			EventJournal.getInstance().record(Level.DEBUG, EventType.ACTION, gesture.getName(), gesture.getState(), null, gesture.getSessionId());
+			if(eventThreadDispatch)
+				queue.postInProgress(ls, gesture);
+			else {
+				for(int i = 0; i < ls.length && !gesture.isConsumed(); ++i)
+					ls[i].onGestureInProgress(gesture);
+			}
+		}
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized void onGestureCompleted(GestureData gesture) {
-		GestureListener l = bindings.get(gesture.getName());
-		if(l != null)
-			l.onGestureCompleted(gesture);
+	public void onGestureCompleted(GestureData gesture) {
+		GestureListener[] ls = getListeners(gesture);
+		if(ls != null) {
+			EventJournal.getInstance().record(Level.INFO, EventType.ACTION, gesture.getName(), gesture.getState(), null, gesture.getSessionId());
+			if(eventThreadDispatch)
+				queue.postCompleted(ls, gesture);
+			else {
+				for(int i = 0; i < ls.length && !gesture.isConsumed(); ++i)
+					ls[i].onGestureCompleted(gesture);
+			}
+		}
 	}
 
 }
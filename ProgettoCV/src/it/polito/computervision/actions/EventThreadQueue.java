@@ -0,0 +1,146 @@
+package it.polito.computervision.actions;
+
+import java.util.ArrayList;
+
+import javax.swing.SwingUtilities;
+
+import it.polito.computervision.gestures.GestureData;
+import it.polito.computervision.gestures.GestureListener;
+
+/**
+ * Hands gesture notifications over to the Swing event dispatch thread, so that listeners can safely act on Swing components.
+ * Notifications are queued and delivered in batches: at most one task is pending on the event thread at any time, and it delivers
+ * everything that has been queued until it runs. Posting never blocks on the event thread.
+ * Each notification is delivered to the listeners bound to the gesture, in order, until one of them consumes the event.
+ * While a notification is waiting, a newer in progress notification of the same live gesture (same name, session and listeners) replaces it,
+ * so that a slow event thread receives one update per batch instead of falling behind. Since the newer event carries the latest state of the gesture,
+ * listeners that compute their changes relative to the last event they received (e.g. the ratio between the current and the last distance of a zoom)
+ * get the same cumulative result.
+ * Events are copied when posted (see {@link GestureData#copy()}), since the {@link it.polito.computervision.gestures.GestureManager} may recycle them.
+ * @author Giovanni Piumatti
+ *
+ */
+class EventThreadQueue {
+
+	private static enum Kind { STARTED, IN_PROGRESS, COMPLETED }
+
+	private static class Notification {
+		private final GestureListener[] listeners;
+		private final Kind kind;
+		private final GestureData event;
+
+		private Notification(GestureListener[] listeners, Kind kind, GestureData event) {
+			this.listeners = listeners;
+			this.kind = kind;
+			this.event = event;
+		}
+	}
+
+	private final Object lock;
+	private ArrayList<Notification> pending, delivering;
+	private boolean scheduled;
+	private long coalesced;
+	private final Runnable drain;
+
+	EventThreadQueue() {
+		lock = new Object();
+		pending = new ArrayList<Notification>();
+		delivering = new ArrayList<Notification>();
+		scheduled = false;
+		coalesced = 0;
+		drain = new Runnable() {
+
+			@Override
+			public void run() {
+				deliver();
+			}
+		};
+	}
+
+	void postStarted(GestureListener[] listeners, GestureData event) {
+		post(new Notification(listeners, Kind.STARTED, event.copy()));
+	}
+
+	void postInProgress(GestureListener[] listeners, GestureData event) {
+		post(new Notification(listeners, Kind.IN_PROGRESS, event.copy()));
+	}
+
+	void postCompleted(GestureListener[] listeners, GestureData event) {
+		post(new Notification(listeners, Kind.COMPLETED, event.copy()));
+	}
+
+	/**
+	 *
+	 * @return the number of in progress notifications that have been replaced by newer ones so far
+	 */
+	long getCoalescedCount() {
+		synchronized(lock) {
+			return coalesced;
+		}
+	}
+
+	private void post(Notification n) {
+		synchronized(lock) {
+			if(n.kind == Kind.IN_PROGRESS) {
+				//replace the last waiting notification of the same gesture, if it is an update as well
+				for(int i = pending.size() - 1; i >= 0; --i) {
+					Notification p = pending.get(i);
+					if(p.listeners == n.listeners && p.event.getSessionId() == n.event.getSessionId() && p.event.getNameId() == n.event.getNameId()) {
+						if(p.kind == Kind.IN_PROGRESS) {
+							pending.remove(i);
+							++coalesced;
+						}
+						break;
+					}
+				}
+			}
+			pending.add(n);
+
+			if(scheduled)
+				return;
+			scheduled = true;
+		}
+		SwingUtilities.invokeLater(drain);
+	}
+
+	/**
+	 * Delivers the queued notifications. Runs on the event dispatch thread.
+	 */
+	private void deliver() {
+		ArrayList<Notification> batch;
+		synchronized(lock) {
+			batch = pending;
+			pending = delivering;
+			delivering = batch;
+			scheduled = false;
+		}
+
+		try {
+			for(int i = 0; i < batch.size(); ++i) {
+				Notification n = batch.get(i);
+				for(int j = 0; j < n.listeners.length && !n.event.isConsumed(); ++j) {
+					try {
+						switch(n.kind) {
+						case STARTED:
+							n.listeners[j].onGestureStarted(n.event);
+							break;
+						case IN_PROGRESS:
+							n.listeners[j].onGestureInProgress(n.event);
+							break;
+						case COMPLETED:
+							n.listeners[j].onGestureCompleted(n.event);
+							break;
+						}
+					}
+					catch(RuntimeException e) {
+						//do not lose the rest of the batch
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+		finally {
+			batch.clear();
+		}
+	}
+}
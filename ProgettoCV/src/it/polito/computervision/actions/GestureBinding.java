@@ -0,0 +1,63 @@
+package it.polito.computervision.actions;
+
+import it.polito.computervision.gestures.GestureListener;
+import it.polito.computervision.gestures.GestureNames;
+
+/**
+ * A {@link GestureListener} bound to a gesture with a priority. When several listeners are bound to the same gesture,
+ * the ones with higher priority are notified first, and can consume the events (see {@link it.polito.computervision.gestures.GestureData#consume()}).
+ * @author Giovanni Piumatti
+ *
+ */
+public class GestureBinding {
+
+	/**
+	 * The priority of the listeners bound without specifying one
+	 */
+	public static final int DEFAULT_PRIORITY = 0;
+
+	private final String gestureName;
+	private final int nameId;
+	private final GestureListener listener;
+	private final int priority;
+
+	/**
+	 * @param gestureName The name of the gesture
+	 * @param listener The listener to bind
+	 * @param priority The priority of the listener
+	 */
+	public GestureBinding(String gestureName, GestureListener listener, int priority) {
+		if(gestureName == null || listener == null)
+			throw new IllegalArgumentException("Args null");
+
+		this.gestureName = gestureName;
+		this.nameId = GestureNames.getInstance().intern(gestureName);
+		this.listener = listener;
+		this.priority = priority;
+	}
+
+	public String getGestureName() {
+		return gestureName;
+	}
+
+	/**
+	 *
+	 * @return the ID of the name of the gesture (see {@link GestureNames})
+	 */
+	public int getNameId() {
+		return nameId;
+	}
+
+	public GestureListener getListener() {
+		return listener;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	@Override
+	public String toString() {
+		return gestureName + "@" + priority + ": " + listener;
+	}
+}
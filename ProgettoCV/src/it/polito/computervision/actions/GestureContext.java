@@ -0,0 +1,142 @@
+package it.polito.computervision.actions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import it.polito.computervision.gestures.Gesture;
+import it.polito.computervision.gestures.GestureListener;
+
+/**
+ * A named interaction mode: a set of {@link Gesture}s together with the {@link GestureListener}s bound to them (see {@link GestureBinding}).
+ * Contexts are activated through the {@link ActionManager}, which registers their gestures and installs their bindings at once,
+ * and unregisters the gestures of the contexts that are no longer active, so that they do not cost anything per frame.
+ * Contexts can be stacked (see {@link ActionManager#pushContext(GestureContext)}): the gestures of all the stacked contexts are active,
+ * and so are their bindings: among listeners with the same priority, the ones of the upper contexts are notified first.
+ * A modal context hides all the contexts below it (e.g. a modal overlay).
+ * Contexts are immutable and are created with a {@link Builder}.
+ * @author Giovanni Piumatti
+ *
+ */
+public class GestureContext {
+
+	/**
+	 * Collects the gestures and bindings of a {@link GestureContext}
+	 */
+	public static class Builder {
+		private final String name;
+		private final List<Gesture> gestures;
+		private final List<GestureBinding> bindings;
+		private boolean modal;
+
+		/**
+		 * @param name The name of the context
+		 */
+		public Builder(String name) {
+			if(name == null || name.isEmpty())
+				throw new IllegalArgumentException("name null or empty");
+
+			this.name = name;
+			gestures = new ArrayList<Gesture>();
+			bindings = new ArrayList<GestureBinding>();
+			modal = false;
+		}
+
+		/**
+		 * Adds a {@link Gesture} to the context, binding a {@link GestureListener} to it with the default priority
+		 * @param gesture The {@link Gesture} to add
+		 * @param listener The {@link GestureListener} to bind to the gesture, or null if the gesture should only be recognized
+		 * (e.g. so that it can be bound by another context)
+		 * @return this builder
+		 * @throws IllegalArgumentException if the gesture is null or another gesture with the same name has already been added
+		 */
+		public Builder bind(Gesture gesture, GestureListener listener) {
+			return bind(gesture, listener, GestureBinding.DEFAULT_PRIORITY);
+		}
+
+		/**
+		 * Adds a {@link Gesture} to the context, binding a {@link GestureListener} to it. Several listeners can be bound to the same gesture.
+		 * @param gesture The {@link Gesture} to add
+		 * @param listener The {@link GestureListener} to bind to the gesture, or null if the gesture should only be recognized
+		 * @param priority The priority of the listener
+		 * @return this builder
+		 * @throws IllegalArgumentException if the gesture is null or another gesture with the same name has already been added
+		 */
+		public Builder bind(Gesture gesture, GestureListener listener, int priority) {
+			if(gesture == null)
+				throw new IllegalArgumentException("gesture is null");
+			for(Gesture g : gestures)
+				if(g.getName().equals(gesture.getName()) && g != gesture)
+					throw new IllegalArgumentException("Another gesture is named " + gesture.getName());
+
+			if(!gestures.contains(gesture))
+				gestures.add(gesture);
+			if(listener != null)
+				bindings.add(new GestureBinding(gesture.getName(), listener, priority));
+			return this;
+		}
+
+		/**
+		 * Sets whether the context hides the contexts below it in the stack
+		 * @param modal true to hide the contexts below, false to add to them (the default)
+		 * @return this builder
+		 */
+		public Builder setModal(boolean modal) {
+			this.modal = modal;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return a new context with the gestures and bindings collected so far
+		 */
+		public GestureContext build() {
+			return new GestureContext(name, gestures, bindings, modal);
+		}
+	}
+
+	private final String name;
+	private final List<Gesture> gestures;
+	private final List<GestureBinding> bindings;
+	private final boolean modal;
+
+	private GestureContext(String name, List<Gesture> gestures, List<GestureBinding> bindings, boolean modal) {
+		this.name = name;
+		this.gestures = Collections.unmodifiableList(new ArrayList<Gesture>(gestures));
+		this.bindings = Collections.unmodifiableList(new ArrayList<GestureBinding>(bindings));
+		this.modal = modal;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 *
+	 * @return the gestures of this context
+	 */
+	public List<Gesture> getGestures() {
+		return gestures;
+	}
+
+	/**
+	 *
+	 * @return the listeners of this context, in the order they were bound
+	 */
+	public List<GestureBinding> getBindings() {
+		return bindings;
+	}
+
+	/**
+	 *
+	 * @return true if this context hides the contexts below it in the stack
+	 */
+	public boolean isModal() {
+		return modal;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,211 @@
+package it.polito.computervision.benchmark;
+
+import it.polito.computervision.journal.EventJournal;
+import it.polito.computervision.journal.Level;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates the gesture recognition accuracy and latency on a set of annotated {@link Recording}s, for each configuration of a grid of thresholds.
+ * Each recording is replayed for each configuration (see {@link Evaluator}); replays run in parallel on all cores.
+ * Prints a table with precision, recall, mean latency and false resets of each gesture for each configuration,
+ * followed by the configurations ranked by their mean F1 score (ties are broken by the mean latency).
+ * @author Giovanni Piumatti
+ *
+ */
+public class Benchmark {
+
+	public static final String DEFAULT_GESTURES = "click,long-press,pan,zoom";
+
+	/**
+	 * The results of a configuration, aggregated over all recordings
+	 */
+	private static class Result {
+		private final Configuration configuration;
+		private final Map<String, GestureStats> stats;
+
+		public Result(Configuration configuration) {
+			this.configuration = configuration;
+			stats = new TreeMap<String, GestureStats>();
+		}
+
+		public void merge(Map<String, GestureStats> other) {
+			for(Map.Entry<String, GestureStats> e : other.entrySet()) {
+				GestureStats s = stats.get(e.getKey());
+				if(s == null) {
+					s = new GestureStats();
+					stats.put(e.getKey(), s);
+				}
+				s.merge(e.getValue());
+			}
+		}
+
+		public double getMeanF1() {
+			double sum = 0;
+			for(GestureStats s : stats.values())
+				sum += s.getF1();
+			return stats.isEmpty() ? 0 : sum / stats.size();
+		}
+
+		public double getMeanLatencyMs() {
+			double sum = 0;
+			int n = 0;
+			for(GestureStats s : stats.values()) {
+				if(s.getTruePositives() > 0) {
+					sum += s.getMeanLatencyMs();
+					++n;
+				}
+			}
+			return n == 0 ? Double.POSITIVE_INFINITY : sum / n;
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Syntax: [options] <recording>...");
+		System.err.println("--gestures <names>: comma separated names of the gestures to register (default: " + DEFAULT_GESTURES + ")");
+		System.err.println("--grid <grid>: thresholds to evaluate, e.g. \"pan.detection=60,80,100;zoom.detection=20,35\" (default: the default thresholds)");
+		System.err.println("--realtime: replay frames at the recorded pace (timeouts expire on the frame timestamps anyway, this only exercises the timer fallback)");
+		System.err.println("--threads <n>: number of parallel replays (default: number of cores)");
+		System.err.println("Parameters: " + Configuration.getParameterNames());
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String gestures = DEFAULT_GESTURES, grid = null;
+		boolean realTime = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<Recording> recordings = new ArrayList<Recording>();
+
+		try {
+			for(int i = 0; i < args.length; ++i) {
+				if(args[i].equals("--gestures"))
+					gestures = args[++i];
+				else if(args[i].equals("--grid"))
+					grid = args[++i];
+				else if(args[i].equals("--realtime"))
+					realTime = true;
+				else if(args[i].equals("--threads"))
+					threads = Integer.parseInt(args[++i]);
+				else
+					recordings.add(Recording.load(new File(args[i])));
+			}
+		}
+		catch(ArrayIndexOutOfBoundsException e) {
+			recordings.clear();
+		}
+
+		if(recordings.isEmpty() || threads < 1) {
+			usage();
+			System.exit(1);
+		}
+
+		//gesture transitions would flood the output
+		EventJournal.getInstance().setLevel(Level.WARN);
+
+		List<String> gestureNames = Arrays.asList(gestures.split(","));
+		List<Configuration> configurations = Configuration.parseGrid(grid);
+		//fail before replaying anything if a configuration is not valid
+		for(Configuration c : configurations) {
+			try {
+				c.createGestures(gestureNames);
+			}
+			catch(IllegalArgumentException e) {
+				System.err.println("Invalid configuration " + c + ": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+
+		List<Result> results = run(recordings, configurations, gestureNames, realTime, threads);
+		print(results);
+	}
+
+	/**
+	 * Evaluates all configurations on all recordings
+	 * @param recordings The recordings to replay
+	 * @param configurations The configurations to evaluate
+	 * @param gestureNames The names of the gestures to register
+	 * @param realTime Whether to replay frames at the recorded pace
+	 * @param threads The number of parallel replays
+	 * @return the results, in the order of the configurations
+	 * @throws InterruptedException if interrupted while waiting for the replays
+	 */
+	private static List<Result> run(List<Recording> recordings, List<Configuration> configurations, List<String> gestureNames, boolean realTime, int threads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Evaluator> evaluators = new ArrayList<Evaluator>();
+			for(Configuration c : configurations)
+				for(Recording r : recordings)
+					evaluators.add(new Evaluator(r, c, gestureNames, realTime));
+
+			List<Future<Map<String, GestureStats>>> futures = executor.invokeAll(evaluators);
+
+			List<Result> results = new ArrayList<Result>(configurations.size());
+			for(int c = 0, e = 0; c < configurations.size(); ++c) {
+				Result result = new Result(configurations.get(c));
+				for(int r = 0; r < recordings.size(); ++r, ++e) {
+					try {
+						result.merge(futures.get(e).get());
+					}
+					catch(ExecutionException ex) {
+						throw new IllegalStateException("Replay of " + recordings.get(r).getName() + " failed", ex.getCause());
+					}
+				}
+				results.add(result);
+			}
+
+			return results;
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Prints the comparison table
+	 * @param results The results to print
+	 */
+	private static void print(List<Result> results) {
+		String format = "%-4s %-14s %5s %5s %5s %9s %7s %6s %9s %9s %7s%n";
+		System.out.printf(format, "#", "gesture", "TP", "FP", "FN", "precision", "recall", "F1", "lat(fr)", "lat(ms)", "resets");
+		for(int i = 0; i < results.size(); ++i) {
+			Result r = results.get(i);
+			System.out.println("[" + i + "] " + r.configuration);
+			for(Map.Entry<String, GestureStats> e : r.stats.entrySet()) {
+				GestureStats s = e.getValue();
+				System.out.printf(format, i, e.getKey(), s.getTruePositives(), s.getFalsePositives(), s.getFalseNegatives(),
+						String.format("%.3f", s.getPrecision()), String.format("%.3f", s.getRecall()), String.format("%.3f", s.getF1()),
+						String.format("%.1f", s.getMeanLatencyFrames()), String.format("%.1f", s.getMeanLatencyMs()), s.getFalseResets());
+			}
+		}
+
+		List<Integer> ranking = new ArrayList<Integer>();
+		for(int i = 0; i < results.size(); ++i)
+			ranking.add(i);
+
+		final List<Result> res = results;
+		Collections.sort(ranking, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer a, Integer b) {
+				int cmp = Double.compare(res.get(b).getMeanF1(), res.get(a).getMeanF1());
+				return cmp != 0 ? cmp : Double.compare(res.get(a).getMeanLatencyMs(), res.get(b).getMeanLatencyMs());
+			}
+		});
+
+		System.out.println();
+		System.out.println("Ranking by mean F1 (then mean latency):");
+		for(int i : ranking)
+			System.out.printf("[%d] %.3f %.1fms %s%n", i, results.get(i).getMeanF1(), results.get(i).getMeanLatencyMs(), results.get(i).configuration);
+	}
+}
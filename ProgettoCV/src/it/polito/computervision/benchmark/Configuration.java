@@ -0,0 +1,192 @@
+package it.polito.computervision.benchmark;
+
+import it.polito.computervision.gestures.Gesture;
+import it.polito.computervision.gestures.ThresholdAdapter;
+import it.polito.computervision.gestures.impl.DoubleClickGesture;
+import it.polito.computervision.gestures.impl.LongPressGesture;
+import it.polito.computervision.gestures.impl.PanGesture;
+import it.polito.computervision.gestures.impl.RotateGesture;
+import it.polito.computervision.gestures.impl.ZoomGesture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of gesture thresholds to evaluate. Parameters not set explicitly take the default values of the gestures.
+ * Gestures are created with the names used by the application (click, long-press, pan, zoom, rotate, swipe-up, swipe-down, swipe-left, swipe-right).
+ * If adaptive.min-scale or adaptive.max-scale differ from 1, pan, swipe and zoom gestures adapt their thresholds within those bounds (see {@link ThresholdAdapter}).
+ * @author Giovanni Piumatti
+ *
+ */
+public class Configuration {
+
+	private static final Map<String, Float> DEFAULTS;
+
+	static {
+		Map<String, Float> defaults = new LinkedHashMap<String, Float>();
+		defaults.put("pan.detection", PanGesture.DETECTION_THRESHOLD);
+		defaults.put("pan.completion", PanGesture.COMPLETION_THRESHOLD);
+		defaults.put("swipe.detection", PanGesture.DETECTION_THRESHOLD);
+		defaults.put("swipe.completion", PanGesture.COMPLETION_THRESHOLD);
+		defaults.put("swipe.flick", PanGesture.FLICK_VELOCITY_THRESHOLD);
+		defaults.put("zoom.detection", ZoomGesture.DETECTION_THRESHOLD);
+		defaults.put("zoom.completion", ZoomGesture.COMPLETION_THRESHOLD);
+		defaults.put("rotate.detection", (float) Math.toDegrees(RotateGesture.DETECTION_THRESHOLD));
+		defaults.put("rotate.completion", (float) Math.toDegrees(RotateGesture.COMPLETION_THRESHOLD));
+		defaults.put("click.window", (float) DoubleClickGesture.WINDOW);
+		defaults.put("click.tolerance", DoubleClickGesture.TOLERANCE);
+		defaults.put("long-press.duration", (float) LongPressGesture.DURATION);
+		defaults.put("long-press.tolerance", LongPressGesture.TOLERANCE);
+		defaults.put("adaptive.min-scale", 1.f);
+		defaults.put("adaptive.max-scale", 1.f);
+		DEFAULTS = Collections.unmodifiableMap(defaults);
+	}
+
+	private final Map<String, Float> parameters;
+
+	/**
+	 * Creates a configuration with the given parameters
+	 * @param parameters The parameters that differ from the defaults (see {@link #getParameterNames()})
+	 */
+	public Configuration(Map<String, Float> parameters) {
+		for(String name : parameters.keySet())
+			if(!DEFAULTS.containsKey(name))
+				throw new IllegalArgumentException("Unknown parameter: " + name);
+
+		this.parameters = Collections.unmodifiableMap(new LinkedHashMap<String, Float>(parameters));
+	}
+
+	/**
+	 *
+	 * @return the names of the parameters that can be configured
+	 */
+	public static List<String> getParameterNames() {
+		return new ArrayList<String>(DEFAULTS.keySet());
+	}
+
+	/**
+	 * Parses a grid of parameters and returns all its combinations. The grid is a list of parameter values separated by semicolons,
+	 * e.g. "pan.detection=60,80,100;zoom.detection=20,35".
+	 * @param grid The grid to parse, or null for the default configuration only
+	 * @return a configuration for each combination of values
+	 */
+	public static List<Configuration> parseGrid(String grid) {
+		List<Map<String, Float>> combinations = new ArrayList<Map<String, Float>>();
+		combinations.add(new LinkedHashMap<String, Float>());
+		if(grid != null && !grid.trim().isEmpty()) {
+			for(String axis : grid.split(";")) {
+				String[] nameValues = axis.split("=");
+				if(nameValues.length != 2)
+					throw new IllegalArgumentException("Malformed grid axis: " + axis);
+
+				String name = nameValues[0].trim();
+				List<Map<String, Float>> next = new ArrayList<Map<String, Float>>();
+				for(Map<String, Float> c : combinations) {
+					for(String value : nameValues[1].split(",")) {
+						Map<String, Float> m = new LinkedHashMap<String, Float>(c);
+						m.put(name, Float.parseFloat(value.trim()));
+						next.add(m);
+					}
+				}
+				combinations = next;
+			}
+		}
+
+		List<Configuration> configurations = new ArrayList<Configuration>(combinations.size());
+		for(Map<String, Float> c : combinations)
+			configurations.add(new Configuration(c));
+
+		return configurations;
+	}
+
+	/**
+	 * @param name The name of the parameter
+	 * @return the value of the parameter in this configuration
+	 */
+	public float get(String name) {
+		Float value = parameters.get(name);
+		if(value == null)
+			value = DEFAULTS.get(name);
+		if(value == null)
+			throw new IllegalArgumentException("Unknown parameter: " + name);
+
+		return value;
+	}
+
+	/**
+	 * Creates the gestures with the given names, configured with the thresholds of this configuration
+	 * @param names The names of the gestures
+	 * @return the gestures
+	 */
+	public List<Gesture> createGestures(List<String> names) {
+		List<Gesture> gestures = new ArrayList<Gesture>(names.size());
+		for(String name : names)
+			gestures.add(createGesture(name));
+
+		return gestures;
+	}
+
+	/**
+	 * @param name The name of the gesture
+	 * @return the gesture with the given name
+	 */
+	private Gesture createGesture(String name) {
+		Gesture g = createFixedGesture(name);
+		float minScale = get("adaptive.min-scale"), maxScale = get("adaptive.max-scale");
+		if(minScale != 1 || maxScale != 1) {
+			if(g instanceof PanGesture)
+				((PanGesture) g).setAdaptiveThresholds(minScale, maxScale);
+			else if(g instanceof ZoomGesture)
+				((ZoomGesture) g).setAdaptiveThresholds(minScale, maxScale);
+		}
+		return g;
+	}
+
+	/**
+	 * @param name The name of the gesture
+	 * @return the gesture with the given name, with fixed thresholds
+	 */
+	private Gesture createFixedGesture(String name) {
+		if(name.equals("click"))
+			return new DoubleClickGesture(name, (long) get("click.window"), get("click.tolerance"));
+		else if(name.equals("long-press"))
+			return new LongPressGesture(name, (long) get("long-press.duration"), get("long-press.tolerance"));
+		else if(name.equals("pan"))
+			return new PanGesture(name, EnumSet.allOf(PanGesture.Direction.class), get("pan.detection"), get("pan.completion"), true);
+		else if(name.equals("zoom"))
+			return new ZoomGesture(name, ZoomGesture.Direction.BOTH, get("zoom.detection"), get("zoom.completion"), true);
+		else if(name.equals("rotate"))
+			return new RotateGesture(name, RotateGesture.Direction.BOTH, (float) Math.toRadians(get("rotate.detection")), (float) Math.toRadians(get("rotate.completion")), true);
+		else if(name.startsWith("swipe-")) {
+			PanGesture.Direction direction = PanGesture.Direction.valueOf(name.substring("swipe-".length()).toUpperCase());
+			return new PanGesture(name, EnumSet.of(direction), get("swipe.detection"), get("swipe.completion"), get("swipe.flick"), false);
+		}
+		else
+			throw new IllegalArgumentException("Unknown gesture: " + name);
+	}
+
+	/**
+	 * @return the parameters that differ from the defaults
+	 */
+	public Map<String, Float> getParameters() {
+		return parameters;
+	}
+
+	@Override
+	public String toString() {
+		if(parameters.isEmpty())
+			return "defaults";
+
+		StringBuilder sb = new StringBuilder();
+		for(Map.Entry<String, Float> e : parameters.entrySet()) {
+			if(sb.length() > 0)
+				sb.append(' ');
+			sb.append(e.getKey()).append('=').append(e.getValue());
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,214 @@
+package it.polito.computervision.benchmark;
+
+import it.polito.computervision.gestures.Gesture;
+import it.polito.computervision.gestures.GestureData;
+import it.polito.computervision.gestures.GestureListenerAdapter;
+import it.polito.computervision.gestures.GestureManager;
+import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.TimerWheel;
+import it.polito.computervision.gestures.impl.DoubleClickGesture;
+import it.polito.computervision.virtualscreen.HandData;
+import it.polito.computervision.virtualscreen.HandTrajectoryTracker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import org.openni.Point2D;
+
+/**
+ * Replays a {@link Recording} through a standalone {@link GestureManager} configured with a {@link Configuration},
+ * and compares the detected gestures with the annotations.
+ * A detection is the start of a live gesture, or the completion of a non-live one. It matches an annotation of the same gesture
+ * if it happens between the start of the annotation and {@link #TOLERANCE} ms after its end. Each annotation can be matched once.
+ * The latency is the time between the start of the annotation and the detection.
+ * Double clicks are reported as "double-click" detections, and the confirmations of single clicks are ignored.
+ * @author Giovanni Piumatti
+ *
+ */
+public class Evaluator implements Callable<Map<String, GestureStats>> {
+
+	/**
+	 * How late (in ms) after the end of an annotation a detection can still match it
+	 */
+	public static final long TOLERANCE = 200;
+
+	private final Recording recording;
+	private final Configuration configuration;
+	private final List<String> gestureNames;
+	private final boolean realTime;
+
+	private final List<String> detectedGestures;
+	private final List<Long> detectionTimes;
+	private long currentTimestamp;
+
+	/**
+	 * @param recording The recording to replay
+	 * @param configuration The thresholds to use
+	 * @param gestureNames The names of the gestures to register
+	 * @param realTime true to replay the frames at the recorded pace, false to replay them as fast as possible.
+	 * Timeouts expire on the frame timestamps either way, the recorded pace only matters for the {@link TimerWheel} fallback
+	 */
+	public Evaluator(Recording recording, Configuration configuration, List<String> gestureNames, boolean realTime) {
+		this.recording = recording;
+		this.configuration = configuration;
+		this.gestureNames = gestureNames;
+		this.realTime = realTime;
+		detectedGestures = new ArrayList<String>();
+		detectionTimes = new ArrayList<Long>();
+	}
+
+	/**
+	 *
+	 * @return the configuration being evaluated
+	 */
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+
+	/**
+	 * Replays the recording
+	 * @return the statistics of each gesture, indexed by gesture name
+	 */
+	@Override
+	public Map<String, GestureStats> call() throws InterruptedException {
+		GestureManager manager = new GestureManager();
+		List<Gesture> gestures = configuration.createGestures(gestureNames);
+		manager.registerGestures(gestures);
+		manager.setEventReuse(true);
+		manager.addGestureListener(new GestureListenerAdapter() {
+
+			@Override
+			public void onGestureStarted(GestureData gesture) {
+				detected(gesture.getName());
+			}
+
+			@Override
+			public void onGestureCompleted(GestureData gesture) {
+				if(gesture.isLive())
+					return;
+
+				if(gesture.has(DoubleClickGesture.CLICK_COUNT)) {
+					if(gesture.get(DoubleClickGesture.CLICK_COUNT) == 2)
+						detected("double-click");
+					else if(!Boolean.FALSE.equals(gesture.get(DoubleClickGesture.PENDING)))
+						detected(gesture.getName());
+				}
+				else
+					detected(gesture.getName());
+			}
+		});
+
+		Map<String, GestureStats> stats = new TreeMap<String, GestureStats>();
+		GestureState[] states = new GestureState[gestures.size()];
+		for(int i = 0; i < states.length; ++i)
+			states[i] = GestureState.NOT_DETECTED;
+
+		HandTrajectoryTracker trajectories = new HandTrajectoryTracker();
+		List<Recording.Frame> frames = recording.getFrames();
+		long startWall = System.nanoTime();
+		for(Recording.Frame frame : frames) {
+			long timestamp = frame.getTimestamp();
+			if(realTime) {
+				long wait = (timestamp - frames.get(0).getTimestamp()) * 1000 - (System.nanoTime() - startWall);
+				if(wait > 0)
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			}
+
+			List<HandData> hands = new ArrayList<HandData>(frame.getHandCount());
+			trajectories.beginFrame();
+			for(int i = 0; i < frame.getHandCount(); ++i) {
+				hands.add(new HandData(frame.getId(i), new Point2D<Float>(frame.getX(i), frame.getY(i)), new Point2D<Float>(frame.getProjectedX(i), frame.getProjectedY(i)),
+						frame.isTouching(i), timestamp, trajectories.update(frame.getId(i), timestamp, frame.getX(i), frame.getY(i))));
+			}
+			trajectories.endFrame();
+
+			synchronized(this) {
+				currentTimestamp = timestamp;
+			}
+			manager.onNewFrame(Collections.unmodifiableList(hands), timestamp);
+
+			//a gesture dropping back to NOT_DETECTED while the user is performing it is a false reset
+			for(int i = 0; i < states.length; ++i) {
+				GestureState state = gestures.get(i).getCurrentState();
+				if(state == GestureState.NOT_DETECTED && (states[i] == GestureState.POSSIBLE_DETECTION || states[i] == GestureState.IN_PROGRESS)
+						&& isAnnotated(gestures.get(i).getName(), timestamp))
+					getStats(stats, gestures.get(i).getName()).addFalseReset();
+				states[i] = state;
+			}
+		}
+		//cancel pending timeouts
+		manager.stop();
+
+		match(stats);
+		return stats;
+	}
+
+	/**
+	 * Records a detection at the timestamp of the current frame
+	 * @param gesture The name of the detected gesture
+	 */
+	private synchronized void detected(String gesture) {
+		detectedGestures.add(gesture);
+		detectionTimes.add(currentTimestamp);
+	}
+
+	/**
+	 * @param gesture The name of a gesture
+	 * @param timestamp A timestamp (in microseconds)
+	 * @return true if the gesture is being performed at the given time according to the annotations
+	 */
+	private boolean isAnnotated(String gesture, long timestamp) {
+		for(Recording.Annotation a : recording.getAnnotations())
+			if(a.getGesture().equals(gesture) && a.contains(timestamp))
+				return true;
+
+		return false;
+	}
+
+	private static GestureStats getStats(Map<String, GestureStats> stats, String gesture) {
+		GestureStats s = stats.get(gesture);
+		if(s == null) {
+			s = new GestureStats();
+			stats.put(gesture, s);
+		}
+		return s;
+	}
+
+	/**
+	 * Matches detections and annotations
+	 * @param stats (out) The statistics of each gesture
+	 */
+	private synchronized void match(Map<String, GestureStats> stats) {
+		List<Recording.Annotation> annotations = recording.getAnnotations();
+		boolean[] matched = new boolean[annotations.size()];
+
+		for(int d = 0; d < detectedGestures.size(); ++d) {
+			String gesture = detectedGestures.get(d);
+			long time = detectionTimes.get(d);
+
+			int match = -1;
+			for(int a = 0; a < annotations.size() && match < 0; ++a) {
+				Recording.Annotation annotation = annotations.get(a);
+				if(!matched[a] && annotation.getGesture().equals(gesture) && time >= annotation.getStart() && time <= annotation.getEnd() + TOLERANCE * 1000)
+					match = a;
+			}
+
+			if(match >= 0) {
+				matched[match] = true;
+				Recording.Annotation annotation = annotations.get(match);
+				int frames = recording.getFrameIndex(time) - recording.getFrameIndex(annotation.getStart());
+				getStats(stats, gesture).addTruePositive(frames, (time - annotation.getStart()) / 1000.0);
+			}
+			else
+				getStats(stats, gesture).addFalsePositive();
+		}
+
+		for(int a = 0; a < annotations.size(); ++a)
+			if(!matched[a])
+				getStats(stats, annotations.get(a).getGesture()).addFalseNegative();
+	}
+}
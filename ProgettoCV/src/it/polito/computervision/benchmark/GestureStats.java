@@ -0,0 +1,110 @@
+package it.polito.computervision.benchmark;
+
+/**
+ * Recognition statistics of a gesture: true and false positives, false negatives, detection latency and false resets
+ * (i.e. a gesture dropping back to NOT_DETECTED while the user is performing it).
+ * @author Giovanni Piumatti
+ *
+ */
+public class GestureStats {
+
+	private int truePositives, falsePositives, falseNegatives, falseResets;
+	private long latencyFrames;
+	private double latencyMs;
+
+	/**
+	 * Records a detection that matches a ground truth interval
+	 * @param frames The latency in frames
+	 * @param ms The latency in milliseconds
+	 */
+	public void addTruePositive(int frames, double ms) {
+		++truePositives;
+		latencyFrames += frames;
+		latencyMs += ms;
+	}
+
+	/**
+	 * Records a detection that does not match any ground truth interval
+	 */
+	public void addFalsePositive() {
+		++falsePositives;
+	}
+
+	/**
+	 * Records a ground truth interval without detection
+	 */
+	public void addFalseNegative() {
+		++falseNegatives;
+	}
+
+	/**
+	 * Records a false reset
+	 */
+	public void addFalseReset() {
+		++falseResets;
+	}
+
+	/**
+	 * Adds the statistics of another run to these
+	 * @param other The statistics to add
+	 */
+	public void merge(GestureStats other) {
+		truePositives += other.truePositives;
+		falsePositives += other.falsePositives;
+		falseNegatives += other.falseNegatives;
+		falseResets += other.falseResets;
+		latencyFrames += other.latencyFrames;
+		latencyMs += other.latencyMs;
+	}
+
+	public int getTruePositives() {
+		return truePositives;
+	}
+
+	public int getFalsePositives() {
+		return falsePositives;
+	}
+
+	public int getFalseNegatives() {
+		return falseNegatives;
+	}
+
+	public int getFalseResets() {
+		return falseResets;
+	}
+
+	/**
+	 * @return the precision, or NaN if there were no detections
+	 */
+	public double getPrecision() {
+		return (double) truePositives / (truePositives + falsePositives);
+	}
+
+	/**
+	 * @return the recall, or NaN if there were no ground truth intervals
+	 */
+	public double getRecall() {
+		return (double) truePositives / (truePositives + falseNegatives);
+	}
+
+	/**
+	 * @return the harmonic mean of precision and recall, or 0 if there were no true positives
+	 */
+	public double getF1() {
+		return truePositives == 0 ? 0 : 2 * getPrecision() * getRecall() / (getPrecision() + getRecall());
+	}
+
+	/**
+	 * @return the mean latency of the true positives in frames, or NaN if there were none
+	 */
+	public double getMeanLatencyFrames() {
+		return (double) latencyFrames / truePositives;
+	}
+
+	/**
+	 * @return the mean latency of the true positives in milliseconds, or NaN if there were none
+	 */
+	public double getMeanLatencyMs() {
+		return latencyMs / truePositives;
+	}
+}
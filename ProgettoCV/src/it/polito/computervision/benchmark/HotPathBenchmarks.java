@@ -0,0 +1,517 @@
+package it.polito.computervision.benchmark;
+
+import it.polito.computervision.actions.ActionManager;
+import it.polito.computervision.gestures.Gesture;
+import it.polito.computervision.gestures.GestureData;
+import it.polito.computervision.gestures.GestureListenerAdapter;
+import it.polito.computervision.gestures.GestureManager;
+import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.ProximityHandGrouper;
+import it.polito.computervision.gestures.impl.PanGesture;
+import it.polito.computervision.gestures.impl.ZoomGesture;
+import it.polito.computervision.journal.EventJournal;
+import it.polito.computervision.journal.Level;
+import it.polito.computervision.virtualscreen.HandData;
+import it.polito.computervision.virtualscreen.DepthHandTracker;
+import it.polito.computervision.virtualscreen.HandPoseDetector;
+import it.polito.computervision.virtualscreen.HandTrajectory;
+import it.polito.computervision.virtualscreen.HandTrajectoryTracker;
+import it.polito.computervision.virtualscreen.impl.FlatVirtualScreen;
+
+import java.lang.reflect.Constructor;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.opencv.core.Size;
+import org.openni.Point2D;
+
+import com.primesense.nite.Point3D;
+
+/**
+ * Microbenchmarks of the per-frame hot paths: {@link GestureManager#onNewFrame(List, long)} with 1, 2 and N hands,
+ * {@link Gesture#updateState(List, long, List)} of one and two hand gestures, {@link PanGesture#doUpdateState(HandData, boolean)} and
+ * {@link ZoomGesture#doUpdateState(HandData[], boolean)}, the {@link FlatVirtualScreen} projection, the {@link ActionManager} dispatch
+ * the {@link HandPoseDetector} classification and the {@link DepthHandTracker} segmentation.
+ * The frames are synthetic (see {@link #createFrames(int)}) and prepared in advance, so that no sensor is needed
+ * and the fixtures do not show up in the allocation figures.
+ * @author Giovanni Piumatti
+ *
+ */
+public class HotPathBenchmarks {
+
+	/**
+	 * Number of frames of a synthetic touch cycle
+	 */
+	public static final int PERIOD = 120;
+	/**
+	 * Time between two synthetic frames (in microseconds)
+	 */
+	public static final long FRAME_INTERVAL = 33333;
+	public static final int DEFAULT_HANDS = 6;
+
+	private static void usage() {
+		System.err.println("Syntax: [options]");
+		System.err.println("--filter <text>: only run the benchmarks whose name contains the text");
+		System.err.println("--hands <n>: number of hands of the N hands benchmarks (default: " + DEFAULT_HANDS + ")");
+		System.err.println("--warmup <n>: number of warmup batches (default: " + MicrobenchmarkRunner.DEFAULT_WARMUP_BATCHES + ")");
+		System.err.println("--batches <n>: number of measured batches (default: " + MicrobenchmarkRunner.DEFAULT_MEASUREMENT_BATCHES + ")");
+		System.err.println("--time <ms>: duration of a batch (default: " + MicrobenchmarkRunner.DEFAULT_BATCH_TIME + ")");
+	}
+
+	public static void main(String[] args) {
+		String filter = null;
+		int hands = DEFAULT_HANDS, warmup = MicrobenchmarkRunner.DEFAULT_WARMUP_BATCHES, batches = MicrobenchmarkRunner.DEFAULT_MEASUREMENT_BATCHES;
+		long time = MicrobenchmarkRunner.DEFAULT_BATCH_TIME;
+
+		try {
+			for(int i = 0; i < args.length; ++i) {
+				if(args[i].equals("--filter"))
+					filter = args[++i];
+				else if(args[i].equals("--hands"))
+					hands = Integer.parseInt(args[++i]);
+				else if(args[i].equals("--warmup"))
+					warmup = Integer.parseInt(args[++i]);
+				else if(args[i].equals("--batches"))
+					batches = Integer.parseInt(args[++i]);
+				else if(args[i].equals("--time"))
+					time = Long.parseLong(args[++i]);
+				else
+					throw new IllegalArgumentException(args[i]);
+			}
+			if(hands < 3)
+				throw new IllegalArgumentException("--hands");
+		}
+		catch(RuntimeException e) {
+			usage();
+			System.exit(1);
+		}
+
+		//gesture transitions would be measured along with the hot paths
+		EventJournal.getInstance().setLevel(Level.WARN);
+
+		List<Microbenchmark> benchmarks = new ArrayList<Microbenchmark>();
+		for(Microbenchmark b : createBenchmarks(hands))
+			if(filter == null || b.getName().contains(filter))
+				benchmarks.add(b);
+
+		new MicrobenchmarkRunner(warmup, batches, time).runAll(benchmarks);
+	}
+
+	/**
+	 * @param hands The number of hands of the N hands benchmarks
+	 * @return all the benchmarks
+	 */
+	public static List<Microbenchmark> createBenchmarks(int hands) {
+		return Arrays.asList(
+				new ManagerBenchmark(1, false),
+				new ManagerBenchmark(2, false),
+				new ManagerBenchmark(hands, false),
+				new ManagerBenchmark(hands, true),
+				new UpdateStateBenchmark("OneHandGesture.updateState(pan)", new PanGesture("pan", EnumSet.allOf(PanGesture.Direction.class), true), 1),
+				new UpdateStateBenchmark("TwoHandGesture.updateState(zoom)", new ZoomGesture("zoom", ZoomGesture.Direction.BOTH, true), 2),
+				new PanDoUpdateStateBenchmark(),
+				new ZoomDoUpdateStateBenchmark(),
+				new ProjectionBenchmark(),
+				new DispatchBenchmark(false),
+				new DispatchBenchmark(true),
+				new HandPoseBenchmark(1),
+				new HandPoseBenchmark(2),
+				new DepthHandTrackerBenchmark());
+	}
+
+	/**
+	 * Creates a cycle of {@link #PERIOD} synthetic frames. Each hand hovers for 10 frames, touches the screen for 90 frames while moving
+	 * 5 mm per frame horizontally (even hands to the right, odd hands to the left, so that each pair of hands zooms out) and then releases it.
+	 * Hands start 800 mm apart from each other.
+	 * All frames of a hand share the same trajectory, filled with the whole cycle.
+	 * @param hands The number of hands
+	 * @return the frames
+	 */
+	public static List<List<HandData>> createFrames(int hands) {
+		//not recycled by a tracker, so that the frames can be replayed
+		HandTrajectory[] trajectories = new HandTrajectory[hands];
+		for(short h = 0; h < hands; ++h)
+			trajectories[h] = new HandTrajectory(h, HandTrajectoryTracker.DEFAULT_CAPACITY);
+		List<List<HandData>> frames = new ArrayList<List<HandData>>(PERIOD);
+		for(int f = 0; f < PERIOD; ++f) {
+			long timestamp = f * FRAME_INTERVAL;
+			boolean touching = f >= 10 && f < 100;
+			int moved = Math.max(0, Math.min(f, 100) - 10);
+
+			List<HandData> frame = new ArrayList<HandData>(hands);
+			for(short h = 0; h < hands; ++h) {
+				float x = h * 800.f + (h % 2 == 0 ? 5.f : -5.f) * moved;
+				float y = (float) (20. * Math.sin(f * Math.PI / PERIOD));
+				trajectories[h].add(timestamp, x, y);
+				frame.add(new HandData(h, new Point2D<Float>(x, y), new Point2D<Float>(320.f + x / 4, 240.f - y / 4), touching,
+						timestamp, trajectories[h]));
+			}
+			frames.add(Collections.unmodifiableList(frame));
+		}
+		return frames;
+	}
+
+	/**
+	 * Drives a gesture through a frame like a gesture session would, resetting it at the start of each cycle.
+	 * Frame timestamps keep increasing across cycles.
+	 * @return the state of the gesture
+	 */
+	private static GestureState update(Gesture gesture, List<List<HandData>> frames, List<HandData> gestureHands, int iteration) {
+		int f = iteration % frames.size();
+		if(f == 0)
+			gesture.reset();
+
+		gestureHands.clear();
+		return gesture.updateState(frames.get(f), iteration * FRAME_INTERVAL, gestureHands);
+	}
+
+	/**
+	 * Drives a gesture through the frames until it is in progress
+	 * @return the index of the frame that brought the gesture in progress
+	 */
+	private static int inProgress(Gesture gesture, List<List<HandData>> frames, List<HandData> gestureHands) {
+		for(int f = 0; f < frames.size(); ++f)
+			if(update(gesture, frames, gestureHands, f) == GestureState.IN_PROGRESS)
+				return f;
+
+		throw new IllegalStateException(gesture.getName() + " is never in progress in the synthetic frames");
+	}
+
+	/**
+	 * {@link GestureManager#onNewFrame(List, long)} on a standalone manager with the gestures of the application, with event reuse
+	 */
+	private static class ManagerBenchmark extends Microbenchmark {
+		private final int hands;
+		private final boolean grouped;
+		private GestureManager manager;
+		private List<List<HandData>> frames;
+		private int events;
+
+		public ManagerBenchmark(int hands, boolean grouped) {
+			super("GestureManager.onNewFrame(" + hands + (hands == 1 ? " hand" : " hands") + (grouped ? ",grouped)" : ")"));
+			this.hands = hands;
+			this.grouped = grouped;
+		}
+
+		@Override
+		public void setUp() {
+			frames = createFrames(hands);
+			manager = new GestureManager();
+			manager.setEventReuse(true);
+			if(grouped)
+				manager.setHandGrouper(new ProximityHandGrouper());
+			manager.registerGestures(Configuration.parseGrid(null).get(0).createGestures(Arrays.asList(Benchmark.DEFAULT_GESTURES.split(","))));
+			manager.addGestureListener(new GestureListenerAdapter() {
+
+				@Override
+				public void onGestureStarted(GestureData gesture) {
+					++events;
+				}
+
+				@Override
+				public void onGestureInProgress(GestureData gesture) {
+					++events;
+				}
+
+				@Override
+				public void onGestureCompleted(GestureData gesture) {
+					++events;
+				}
+			});
+		}
+
+		@Override
+		public int run(int iteration) {
+			manager.onNewFrame(frames.get(iteration % PERIOD), iteration * FRAME_INTERVAL);
+			return events;
+		}
+
+		@Override
+		public void tearDown() {
+			manager.stop();
+		}
+	}
+
+	/**
+	 * {@link Gesture#updateState(List, long, List)} over the synthetic frames
+	 */
+	private static class UpdateStateBenchmark extends Microbenchmark {
+		private final Gesture gesture;
+		private final int hands;
+		private final List<HandData> gestureHands;
+		private List<List<HandData>> frames;
+
+		public UpdateStateBenchmark(String name, Gesture gesture, int hands) {
+			super(name);
+			this.gesture = gesture;
+			this.hands = hands;
+			gestureHands = new ArrayList<HandData>(hands);
+		}
+
+		@Override
+		public void setUp() {
+			frames = createFrames(hands);
+		}
+
+		@Override
+		public int run(int iteration) {
+			return update(gesture, frames, gestureHands, iteration).ordinal();
+		}
+	}
+
+	/**
+	 * {@link PanGesture#doUpdateState(HandData, boolean)} of a swipe in progress, which checks for flicks and the completion threshold on every frame
+	 */
+	private static class PanDoUpdateStateBenchmark extends Microbenchmark {
+		private final PanGesture gesture;
+		private List<HandData> hands;
+
+		public PanDoUpdateStateBenchmark() {
+			super("PanGesture.doUpdateState(swipe)");
+			gesture = new PanGesture("swipe", EnumSet.allOf(PanGesture.Direction.class), PanGesture.DETECTION_THRESHOLD, PanGesture.COMPLETION_THRESHOLD,
+					PanGesture.FLICK_VELOCITY_THRESHOLD, false);
+		}
+
+		@Override
+		public void setUp() {
+			List<List<HandData>> frames = createFrames(1);
+			List<HandData> gestureHands = new ArrayList<HandData>(1);
+			int f = inProgress(gesture, frames, gestureHands);
+
+			//frames before reaching the completion threshold
+			hands = new ArrayList<HandData>();
+			for(int i = f; i < f + 10; ++i)
+				hands.add(frames.get(i).get(0));
+		}
+
+		@Override
+		public int run(int iteration) {
+			return gesture.doUpdateState(hands.get(iteration % hands.size()), false).ordinal();
+		}
+	}
+
+	/**
+	 * {@link ZoomGesture#doUpdateState(HandData[], boolean)} of a live zoom in progress, which publishes the current distance on every frame
+	 */
+	private static class ZoomDoUpdateStateBenchmark extends Microbenchmark {
+		private final ZoomGesture gesture;
+		private HandData[] hands;
+
+		public ZoomDoUpdateStateBenchmark() {
+			super("ZoomGesture.doUpdateState(zoom)");
+			gesture = new ZoomGesture("zoom", ZoomGesture.Direction.BOTH, true);
+		}
+
+		@Override
+		public void setUp() {
+			List<List<HandData>> frames = createFrames(2);
+			List<HandData> gestureHands = new ArrayList<HandData>(2);
+			int f = inProgress(gesture, frames, gestureHands);
+
+			hands = frames.get(f).toArray(new HandData[2]);
+		}
+
+		@Override
+		public int run(int iteration) {
+			return gesture.doUpdateState(hands, false).ordinal();
+		}
+	}
+
+	/**
+	 * {@link FlatVirtualScreen#isTouching(Point3D)} and {@link FlatVirtualScreen#get2DProjection(Point3D)} of a hand position
+	 */
+	private static class ProjectionBenchmark extends Microbenchmark {
+		private final FlatVirtualScreen screen;
+		private List<Point3D<Float>> points;
+
+		public ProjectionBenchmark() {
+			super("FlatVirtualScreen.project");
+			screen = new FlatVirtualScreen(new Size(1200, 800), 1000.f);
+		}
+
+		@Override
+		public void setUp() {
+			points = new ArrayList<Point3D<Float>>();
+			for(int i = 0; i < 64; ++i)
+				points.add(createPoint(i * 10.f, i * 5.f, 900.f + i * 4));
+		}
+
+		@Override
+		public int run(int iteration) {
+			Point3D<Float> p = points.get(iteration % points.size());
+			return screen.isTouching(p) ? screen.get2DProjection(p).hashCode() : 0;
+		}
+
+		/**
+		 * The constructor of {@link Point3D} is only visible to NiTE, which creates the points read from the sensor
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static Point3D<Float> createPoint(float x, float y, float z) {
+			try {
+				Constructor<Point3D> c = Point3D.class.getDeclaredConstructor(Object.class, Object.class, Object.class);
+				c.setAccessible(true);
+				return c.newInstance(x, y, z);
+			}
+			catch(ReflectiveOperationException e) {
+				throw new IllegalStateException("Cannot create NiTE points", e);
+			}
+		}
+	}
+
+	/**
+	 * {@link ActionManager} dispatch of an in progress event to a bound listener, either directly or through the event dispatch thread
+	 * (where consecutive events are coalesced, so this measures the cost paid by the sensor thread)
+	 */
+	private static class DispatchBenchmark extends Microbenchmark {
+		private final boolean eventThread;
+		private boolean wasEventThread;
+		private GestureData event;
+		private volatile int events;
+
+		public DispatchBenchmark(boolean eventThread) {
+			super(eventThread ? "ActionManager.onGestureInProgress(EDT)" : "ActionManager.onGestureInProgress");
+			this.eventThread = eventThread;
+		}
+
+		@Override
+		public void setUp() {
+			wasEventThread = ActionManager.getInstance().isEventThreadDispatch();
+			ActionManager.getInstance().setEventThreadDispatch(eventThread);
+			PanGesture pan = new PanGesture("benchmark-pan");
+			List<HandData> hands = createFrames(1).get(20);
+			event = new GestureData(pan.getName(), GestureState.IN_PROGRESS, hands, pan.getPayload(), true, 0);
+			ActionManager.getInstance().bind(pan.getName(), new GestureListenerAdapter() {
+
+				@Override
+				public void onGestureInProgress(GestureData gesture) {
+					++events;
+				}
+			});
+		}
+
+		@Override
+		public int run(int iteration) {
+			ActionManager.getInstance().onGestureInProgress(event);
+			return events;
+		}
+
+		@Override
+		public void tearDown() {
+			ActionManager.getInstance().unbind(event.getName());
+			ActionManager.getInstance().setEventThreadDispatch(wasEventThread);
+		}
+	}
+
+	/**
+	 * {@link HandPoseDetector} classification of 1 or 2 hands on a synthetic 320x240 depth frame, alternating between an open hand
+	 * (a palm with five spread fingers) and a fist, 800 mm from the sensor
+	 */
+	private static class HandPoseBenchmark extends Microbenchmark {
+		private static final int WIDTH = 320, HEIGHT = 240, DEPTH = 800, BACKGROUND = 2000;
+		private final int hands;
+		private HandPoseDetector detector;
+		private ShortBuffer open, closed;
+
+		public HandPoseBenchmark(int hands) {
+			super("HandPoseDetector(" + hands + (hands == 1 ? " hand)" : " hands)"));
+			this.hands = hands;
+		}
+
+		@Override
+		public void setUp() {
+			detector = new HandPoseDetector();
+			open = createFrame(true);
+			closed = createFrame(false);
+		}
+
+		@Override
+		public int run(int iteration) {
+			detector.beginFrame((iteration / 30) % 2 == 0 ? open : closed, WIDTH, HEIGHT, WIDTH);
+			for(short h = 0; h < hands; ++h)
+				detector.add(h, (h + 1) * WIDTH / (hands + 1), HEIGHT / 2, DEPTH);
+			detector.endFrame();
+			return detector.getPose((short) 0).ordinal();
+		}
+
+		/**
+		 * Draws the hands at the positions used by {@link #run(int)}
+		 */
+		private ShortBuffer createFrame(boolean openHand) {
+			double mmPerPixel = DEPTH / (0.5 / Math.tan(Math.toRadians(HandPoseDetector.DEFAULT_HORIZONTAL_FOV) / 2) * WIDTH);
+			ShortBuffer frame = ShortBuffer.allocate(WIDTH * HEIGHT);
+			for(int y = 0; y < HEIGHT; ++y) {
+				for(int x = 0; x < WIDTH; ++x) {
+					int d = BACKGROUND;
+					for(int h = 0; h < hands; ++h) {
+						double hx = (x - (h + 1) * WIDTH / (hands + 1)) * mmPerPixel, hy = (y - HEIGHT / 2) * mmPerPixel;
+						if(openHand) {
+							if(hx*hx + hy*hy < 45*45)
+								d = DEPTH;
+							for(int k = 0; k < 5; ++k) {
+								double a = Math.toRadians(-150 + 30 * k);
+								double along = hx * Math.cos(a) + hy * Math.sin(a), across = Math.abs(hy * Math.cos(a) - hx * Math.sin(a));
+								if(along > 30 && along < 120 && across < 9)
+									d = DEPTH + 5;
+							}
+						}
+						else if(hx*hx / (42*42) + hy*hy / (48*48) < 1)
+							d = DEPTH - 20 + (int) (25 * (hx*hx + hy*hy) / (48*48)) + (int) (8 * Math.sin(hx / 6));
+					}
+					frame.put(y * WIDTH + x, (short) d);
+				}
+			}
+			return frame;
+		}
+	}
+
+	/**
+	 * {@link DepthHandTracker} update on synthetic 640x480 depth frames: a body 1.5 m from the sensor with two hands held 400 mm in front of it,
+	 * moving on a circle
+	 */
+	private static class DepthHandTrackerBenchmark extends Microbenchmark {
+		private static final int WIDTH = 640, HEIGHT = 480, FRAMES = 16, BODY = 1500, HAND = 1100, BACKGROUND = 3000;
+		private DepthHandTracker tracker;
+		private ShortBuffer[] frames;
+
+		public DepthHandTrackerBenchmark() {
+			super("DepthHandTracker.update(640x480)");
+		}
+
+		@Override
+		public void setUp() {
+			tracker = new DepthHandTracker(2);
+			frames = new ShortBuffer[FRAMES];
+			for(int i = 0; i < FRAMES; ++i)
+				frames[i] = createFrame(2 * Math.PI * i / FRAMES);
+		}
+
+		@Override
+		public int run(int iteration) {
+			//33 ms between frames
+			return tracker.update(frames[iteration % FRAMES], WIDTH, HEIGHT, WIDTH, iteration * 33333L).size();
+		}
+
+		private ShortBuffer createFrame(double angle) {
+			ShortBuffer frame = ShortBuffer.allocate(WIDTH * HEIGHT);
+			int dx = (int) (20 * Math.cos(angle)), dy = (int) (20 * Math.sin(angle));
+			for(int y = 0; y < HEIGHT; ++y) {
+				for(int x = 0; x < WIDTH; ++x) {
+					int d = BACKGROUND;
+					if(Math.abs(x - WIDTH / 2) < 110 && y > 120)
+						d = BODY;
+					for(int h = -1; h <= 1; h += 2) {
+						int hx = x - (WIDTH / 2 + h * 140 + dx), hy = y - (HEIGHT / 2 + dy);
+						if(hx*hx + hy*hy < 35*35)
+							d = HAND + (hx*hx + hy*hy) / 50;
+					}
+					frame.put(y * WIDTH + x, (short) d);
+				}
+			}
+			return frame;
+		}
+	}
+}
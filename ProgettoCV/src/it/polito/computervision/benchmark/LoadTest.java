@@ -0,0 +1,302 @@
+package it.polito.computervision.benchmark;
+
+import it.polito.computervision.actions.ActionManager;
+import it.polito.computervision.gestures.GestureData;
+import it.polito.computervision.gestures.GestureListenerAdapter;
+import it.polito.computervision.gestures.GestureManager;
+import it.polito.computervision.gestures.ProximityHandGrouper;
+import it.polito.computervision.journal.EventJournal;
+import it.polito.computervision.journal.Level;
+import it.polito.computervision.virtualscreen.HandData;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the {@link GestureManager} and the {@link ActionManager} with the frames of a {@link SyntheticSource}, at a given frame rate
+ * (1 kHz by default) or as fast as possible, and reports on each interval the frames processed, the time spent per frame,
+ * the events dispatched to the bound listeners and the memory used.
+ * In soak mode the test runs for a given number of minutes, a garbage collection is forced before each sample so that the heap figures
+ * are comparable, and at the end the growth rate of the heap and of the resident set (which includes native memory) is estimated
+ * with a least squares fit over the samples, skipping the first one as warmup.
+ * The resident set is read from /proc/self/status, and reported as NaN where it is not available.
+ * @author Giovanni Piumatti
+ *
+ */
+public class LoadTest {
+
+	public static final int DEFAULT_HANDS = 4;
+	public static final String DEFAULT_GESTURES = Benchmark.DEFAULT_GESTURES + ",swipe-left,swipe-right,swipe-up,swipe-down";
+	/**
+	 * Default duration of the test (in s)
+	 */
+	public static final long DEFAULT_DURATION = 10;
+	/**
+	 * Default time between two reports (in s)
+	 */
+	public static final long DEFAULT_INTERVAL = 1;
+	/**
+	 * Default time between two reports in soak mode (in s)
+	 */
+	public static final long DEFAULT_SOAK_INTERVAL = 60;
+
+	private static final double MB = 1024 * 1024;
+
+	/**
+	 * Counts the events dispatched by the {@link ActionManager}
+	 */
+	private static class Counter extends GestureListenerAdapter {
+		private final AtomicLong started = new AtomicLong(), inProgress = new AtomicLong(), completed = new AtomicLong();
+
+		@Override
+		public void onGestureStarted(GestureData gesture) {
+			started.incrementAndGet();
+		}
+
+		@Override
+		public void onGestureInProgress(GestureData gesture) {
+			inProgress.incrementAndGet();
+		}
+
+		@Override
+		public void onGestureCompleted(GestureData gesture) {
+			completed.incrementAndGet();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Syntax: [options]");
+		System.err.println("--hands <n>: number of hands (default: " + DEFAULT_HANDS + ")");
+		System.err.println("--script <gestures>: comma separated gestures the hands perform in a loop, among " + SyntheticSource.GESTURES + " (default: " + SyntheticSource.DEFAULT_SCRIPT + ")");
+		System.err.println("--gestures <names>: comma separated names of the gestures to register (default: " + DEFAULT_GESTURES + ")");
+		System.err.println("--rate <hz>: frames per second (default: " + SyntheticSource.DEFAULT_FRAME_RATE + ")");
+		System.err.println("--unthrottled: feed the frames as fast as possible instead of at the frame rate (timestamps still follow the frame rate)");
+		System.err.println("--noise <mm>: standard deviation of the position noise (default: 0)");
+		System.err.println("--dropout <p>: probability that a hand is missing from a frame (default: 0)");
+		System.err.println("--flicker <p>: probability that the touching flag of a hand flips in a frame (default: 0)");
+		System.err.println("--seed <n>: seed of the noise, dropouts and flicker (default: 0)");
+		System.err.println("--grouper: group the hands by proximity, so that each lane of hands gets its own gesture session");
+		System.err.println("--edt: dispatch the events on the event dispatch thread");
+		System.err.println("--duration <s>: duration of the test (default: " + DEFAULT_DURATION + ")");
+		System.err.println("--soak <minutes>: run a soak test of the given duration, tracking memory growth");
+		System.err.println("--interval <s>: time between two reports (default: " + DEFAULT_INTERVAL + ", " + DEFAULT_SOAK_INTERVAL + " in soak mode)");
+	}
+
+	public static void main(String[] args) {
+		int hands = DEFAULT_HANDS;
+		String script = SyntheticSource.DEFAULT_SCRIPT, gestures = DEFAULT_GESTURES;
+		float rate = SyntheticSource.DEFAULT_FRAME_RATE, noise = 0, dropout = 0, flicker = 0;
+		long seed = 0, duration = DEFAULT_DURATION, interval = -1;
+		boolean throttled = true, grouper = false, edt = false, soak = false;
+
+		SyntheticSource source;
+		try {
+			for(int i = 0; i < args.length; ++i) {
+				if(args[i].equals("--hands"))
+					hands = Integer.parseInt(args[++i]);
+				else if(args[i].equals("--script"))
+					script = args[++i];
+				else if(args[i].equals("--gestures"))
+					gestures = args[++i];
+				else if(args[i].equals("--rate"))
+					rate = Float.parseFloat(args[++i]);
+				else if(args[i].equals("--unthrottled"))
+					throttled = false;
+				else if(args[i].equals("--noise"))
+					noise = Float.parseFloat(args[++i]);
+				else if(args[i].equals("--dropout"))
+					dropout = Float.parseFloat(args[++i]);
+				else if(args[i].equals("--flicker"))
+					flicker = Float.parseFloat(args[++i]);
+				else if(args[i].equals("--seed"))
+					seed = Long.parseLong(args[++i]);
+				else if(args[i].equals("--grouper"))
+					grouper = true;
+				else if(args[i].equals("--edt"))
+					edt = true;
+				else if(args[i].equals("--duration"))
+					duration = Long.parseLong(args[++i]);
+				else if(args[i].equals("--soak")) {
+					duration = Long.parseLong(args[++i]) * 60;
+					soak = true;
+				}
+				else if(args[i].equals("--interval"))
+					interval = Long.parseLong(args[++i]);
+				else
+					throw new IllegalArgumentException(args[i]);
+			}
+			if(interval < 0)
+				interval = soak ? DEFAULT_SOAK_INTERVAL : DEFAULT_INTERVAL;
+			if(duration <= 0 || interval <= 0)
+				throw new IllegalArgumentException("--duration");
+
+			source = new SyntheticSource(hands, Arrays.asList(script.split(",")), seed);
+			source.setFrameRate(rate);
+			source.setNoise(noise);
+			source.setDropoutRate(dropout);
+			source.setFlickerRate(flicker);
+		}
+		catch(RuntimeException e) {
+			usage();
+			System.exit(1);
+			return;
+		}
+
+		//gesture transitions would flood the output
+		EventJournal.getInstance().setLevel(Level.WARN);
+
+		List<String> gestureNames = Arrays.asList(gestures.split(","));
+		Counter counter = new Counter();
+		GestureManager manager = GestureManager.getInstance();
+		manager.registerGestures(new Configuration(Collections.<String, Float>emptyMap()).createGestures(gestureNames));
+		if(grouper)
+			manager.setHandGrouper(new ProximityHandGrouper());
+		ActionManager actions = ActionManager.getInstance();
+		actions.setEventThreadDispatch(edt);
+		for(String name : gestureNames)
+			actions.bind(name, counter);
+		actions.start();
+
+		try {
+			run(source, manager, counter, throttled, duration, interval, soak);
+		}
+		finally {
+			actions.stop();
+			manager.stop();
+		}
+	}
+
+	/**
+	 * Feeds the frames and prints the reports
+	 */
+	private static void run(SyntheticSource source, GestureManager manager, Counter counter, boolean throttled, long duration, long interval, boolean soak) {
+		String format = "%8s %10s %10s %9s %9s %9s %10s %10s %9s %9s %9s %9s %9s %8s%n";
+		System.out.printf(format, "time(s)", "frames", "fps", "mean(us)", "max(us)", "started", "progress", "completed", "coalesced",
+				"heap(MB)", "nheap(MB)", "direct(MB)", "rss(MB)", "threads");
+
+		List<Double> times = new ArrayList<Double>(), heaps = new ArrayList<Double>(), rsss = new ArrayList<Double>();
+		long frameInterval = (long) (1000000000.0 / source.getFrameRate());
+		long start = System.nanoTime(), end = start + duration * 1000000000, nextReport = start + interval * 1000000000;
+		long frames = 0, intervalFrames = 0, intervalStart = start, totalTime = 0, maxTime = 0;
+		long deadline = start;
+		for(long now = start; now < end; ) {
+			if(throttled) {
+				deadline += frameInterval;
+				if(deadline > now)
+					LockSupport.parkNanos(deadline - now);
+			}
+
+			long timestamp = source.getTimestamp();
+			List<HandData> hands = source.nextFrame();
+			long frameStart = System.nanoTime();
+			manager.onNewFrame(hands, timestamp);
+			now = System.nanoTime();
+			totalTime += now - frameStart;
+			maxTime = Math.max(maxTime, now - frameStart);
+			++frames;
+			++intervalFrames;
+
+			if(now >= nextReport || now >= end) {
+				if(soak)
+					System.gc();
+
+				MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+				double elapsed = (now - start) / 1e9, heap = memory.getHeapMemoryUsage().getUsed() / MB, rss = getResidentSet() / MB;
+				System.out.printf(format, String.format("%.0f", elapsed), frames, String.format("%.0f", intervalFrames / ((now - intervalStart) / 1e9)),
+						String.format("%.1f", totalTime / 1000.0 / intervalFrames), String.format("%.1f", maxTime / 1000.0),
+						counter.started.get(), counter.inProgress.get(), counter.completed.get(), ActionManager.getInstance().getCoalescedCount(),
+						String.format("%.1f", heap), String.format("%.1f", memory.getNonHeapMemoryUsage().getUsed() / MB),
+						String.format("%.1f", getDirectMemory() / MB), String.format("%.1f", rss), Thread.activeCount());
+
+				times.add(elapsed);
+				heaps.add(heap);
+				rsss.add(rss);
+				intervalFrames = totalTime = maxTime = 0;
+				intervalStart = now = System.nanoTime();
+				nextReport += interval * 1000000000;
+				//the report is not part of the load
+				deadline = now;
+			}
+		}
+
+		if(soak) {
+			System.out.printf("heap growth: %.2f MB/h%n", getSlope(times, heaps) * 3600);
+			System.out.printf("rss growth: %.2f MB/h%n", getSlope(times, rsss) * 3600);
+		}
+	}
+
+	/**
+	 * @return the memory (in bytes) used by the direct and mapped buffers
+	 */
+	private static long getDirectMemory() {
+		long used = 0;
+		for(BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+			used += Math.max(0, pool.getMemoryUsed());
+		return used;
+	}
+
+	/**
+	 * @return the resident set size of the process (in bytes), or NaN if it is not available
+	 */
+	private static double getResidentSet() {
+		File status = new File("/proc/self/status");
+		if(!status.canRead())
+			return Double.NaN;
+
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(status));
+			try {
+				String line;
+				while((line = reader.readLine()) != null)
+					if(line.startsWith("VmRSS:"))
+						return Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim()) * 1024.0;
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch(IOException e) {
+			//not available
+		}
+		catch(NumberFormatException e) {
+			//not available
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Least squares slope of the samples, skipping the first one
+	 * @return the slope (in units of y per second), or NaN if there are less than 2 samples after the first one
+	 */
+	private static double getSlope(List<Double> x, List<Double> y) {
+		int n = x.size() - 1;
+		if(n < 2)
+			return Double.NaN;
+
+		double mx = 0, my = 0;
+		for(int i = 1; i <= n; ++i) {
+			mx += x.get(i);
+			my += y.get(i);
+		}
+		mx /= n;
+		my /= n;
+
+		double sxy = 0, sxx = 0;
+		for(int i = 1; i <= n; ++i) {
+			sxy += (x.get(i) - mx) * (y.get(i) - my);
+			sxx += (x.get(i) - mx) * (x.get(i) - mx);
+		}
+		return sxx > 0 ? sxy / sxx : Double.NaN;
+	}
+}
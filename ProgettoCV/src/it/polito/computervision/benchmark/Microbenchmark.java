@@ -0,0 +1,46 @@
+package it.polito.computervision.benchmark;
+
+/**
+ * A single operation to be timed by the {@link MicrobenchmarkRunner}.
+ * Fixtures must be prepared in {@link #setUp()}, so that {@link #run(int)} only contains the code being measured.
+ * @author Giovanni Piumatti
+ *
+ */
+public abstract class Microbenchmark {
+
+	private final String name;
+
+	/**
+	 * @param name The name to report
+	 */
+	public Microbenchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 *
+	 * @return the name of this benchmark
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Prepares the fixtures. Called once before the warmup.
+	 */
+	public void setUp() {
+	}
+
+	/**
+	 * Performs the operation once.
+	 * @param iteration The number of the invocation, starting from 0 (e.g. to cycle through a set of frames)
+	 * @return any value depending on the result of the operation, consumed by the runner so that the JIT cannot eliminate the operation
+	 */
+	public abstract int run(int iteration);
+
+	/**
+	 * Releases the fixtures. Called once after the measurement.
+	 */
+	public void tearDown() {
+	}
+}
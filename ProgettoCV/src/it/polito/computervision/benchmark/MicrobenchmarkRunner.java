@@ -0,0 +1,268 @@
+package it.polito.computervision.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times {@link Microbenchmark}s: a number of warmup batches, to let the JIT compile the hot paths, followed by a number of measured batches
+ * of a fixed duration. For each benchmark reports the mean time per operation and its standard deviation across batches,
+ * the bytes allocated per operation (by all threads, so that work handed to thread pools is accounted for) and the garbage collections
+ * that happened during the measurement.
+ * Allocation is measured with the thread allocation counters of HotSpot; on other JVMs it is reported as NaN.
+ * @author Giovanni Piumatti
+ *
+ */
+public class MicrobenchmarkRunner {
+
+	public static final int DEFAULT_WARMUP_BATCHES = 5;
+	public static final int DEFAULT_MEASUREMENT_BATCHES = 5;
+	/**
+	 * Default duration of a batch (in ms)
+	 */
+	public static final long DEFAULT_BATCH_TIME = 1000;
+
+	/**
+	 * Number of operations between two reads of the clock
+	 */
+	private static final int CHUNK = 256;
+
+	/**
+	 * The measurements of a {@link Microbenchmark}
+	 */
+	public static class Result {
+		private final String name;
+		private final long operations;
+		private final double nsPerOp, nsPerOpDeviation, bytesPerOp;
+		private final long gcCount, gcTime;
+
+		public Result(String name, long operations, double nsPerOp, double nsPerOpDeviation, double bytesPerOp, long gcCount, long gcTime) {
+			this.name = name;
+			this.operations = operations;
+			this.nsPerOp = nsPerOp;
+			this.nsPerOpDeviation = nsPerOpDeviation;
+			this.bytesPerOp = bytesPerOp;
+			this.gcCount = gcCount;
+			this.gcTime = gcTime;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the number of measured operations
+		 */
+		public long getOperations() {
+			return operations;
+		}
+
+		/**
+		 * @return the mean time per operation (in ns)
+		 */
+		public double getNsPerOp() {
+			return nsPerOp;
+		}
+
+		/**
+		 * @return the standard deviation of the time per operation across batches (in ns)
+		 */
+		public double getNsPerOpDeviation() {
+			return nsPerOpDeviation;
+		}
+
+		/**
+		 * @return the bytes allocated per operation, or NaN if allocation cannot be measured
+		 */
+		public double getBytesPerOp() {
+			return bytesPerOp;
+		}
+
+		/**
+		 * @return the number of garbage collections during the measurement
+		 */
+		public long getGcCount() {
+			return gcCount;
+		}
+
+		/**
+		 * @return the time spent in garbage collection during the measurement (in ms)
+		 */
+		public long getGcTime() {
+			return gcTime;
+		}
+	}
+
+	private final int warmupBatches, measurementBatches;
+	private final long batchTime;
+	private final ThreadMXBean threads;
+	private final boolean allocationSupported;
+
+	/**
+	 * Value computed from the results of the operations, published so that they cannot be optimized away
+	 */
+	private volatile int sink;
+
+	public MicrobenchmarkRunner() {
+		this(DEFAULT_WARMUP_BATCHES, DEFAULT_MEASUREMENT_BATCHES, DEFAULT_BATCH_TIME);
+	}
+
+	/**
+	 * @param warmupBatches The number of batches to run before measuring
+	 * @param measurementBatches The number of measured batches
+	 * @param batchTime The duration of a batch (in ms)
+	 */
+	public MicrobenchmarkRunner(int warmupBatches, int measurementBatches, long batchTime) {
+		if(warmupBatches < 0 || measurementBatches < 1 || batchTime < 1)
+			throw new IllegalArgumentException("At least one measured batch of at least 1 ms is required");
+
+		this.warmupBatches = warmupBatches;
+		this.measurementBatches = measurementBatches;
+		this.batchTime = batchTime;
+		threads = ManagementFactory.getThreadMXBean();
+		allocationSupported = threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+		if(allocationSupported)
+			((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+	}
+
+	/**
+	 * Runs a benchmark
+	 * @param benchmark The benchmark to run
+	 * @return the measurements
+	 */
+	public Result run(Microbenchmark benchmark) {
+		benchmark.setUp();
+		try {
+			int iteration = 0;
+			for(int b = 0; b < warmupBatches; ++b)
+				iteration = runBatch(benchmark, iteration, null);
+
+			long[] ops = new long[measurementBatches];
+			long[] times = new long[measurementBatches];
+			long gcCount = getGcCount(), gcTime = getGcTime();
+			Map<Long, Long> allocated = getAllocatedBytes();
+			for(int b = 0; b < measurementBatches; ++b) {
+				long[] opsAndTime = new long[2];
+				iteration = runBatch(benchmark, iteration, opsAndTime);
+				ops[b] = opsAndTime[0];
+				times[b] = opsAndTime[1];
+			}
+			double bytes = getAllocatedBytesSince(allocated);
+			gcCount = getGcCount() - gcCount;
+			gcTime = getGcTime() - gcTime;
+
+			long totalOps = 0;
+			double mean = 0;
+			for(int b = 0; b < measurementBatches; ++b) {
+				totalOps += ops[b];
+				mean += (double) times[b] / ops[b];
+			}
+			mean /= measurementBatches;
+
+			double variance = 0;
+			for(int b = 0; b < measurementBatches; ++b) {
+				double d = (double) times[b] / ops[b] - mean;
+				variance += d*d;
+			}
+			double deviation = measurementBatches > 1 ? Math.sqrt(variance / (measurementBatches - 1)) : 0;
+
+			return new Result(benchmark.getName(), totalOps, mean, deviation, bytes / totalOps, gcCount, gcTime);
+		}
+		finally {
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Runs a list of benchmarks, printing each result as soon as it is available
+	 * @param benchmarks The benchmarks to run
+	 */
+	public void runAll(List<Microbenchmark> benchmarks) {
+		String format = "%-40s %12s %10s %12s %8s %8s%n";
+		System.out.printf(format, "benchmark", "ns/op", "error", "B/op", "gc", "gc(ms)");
+		for(Microbenchmark b : benchmarks) {
+			Result r = run(b);
+			System.out.printf(format, r.getName(), String.format("%.1f", r.getNsPerOp()), String.format("+-%.1f", r.getNsPerOpDeviation()),
+					String.format("%.1f", r.getBytesPerOp()), r.getGcCount(), r.getGcTime());
+		}
+	}
+
+	/**
+	 * Runs the benchmark for one batch
+	 * @param benchmark The benchmark to run
+	 * @param iteration The number of the first invocation
+	 * @param opsAndTime (out) If not null, receives the number of operations and the elapsed time (in ns)
+	 * @return the number of the next invocation
+	 */
+	private int runBatch(Microbenchmark benchmark, int iteration, long[] opsAndTime) {
+		int consumed = 0;
+		long ops = 0;
+		long start = System.nanoTime(), deadline = start + batchTime * 1000000, now;
+		do {
+			for(int i = 0; i < CHUNK; ++i) {
+				consumed += benchmark.run(iteration);
+				iteration = (iteration + 1) & Integer.MAX_VALUE;
+			}
+			ops += CHUNK;
+			now = System.nanoTime();
+		} while(now < deadline);
+
+		sink += consumed;
+		if(opsAndTime != null) {
+			opsAndTime[0] = ops;
+			opsAndTime[1] = now - start;
+		}
+		return iteration;
+	}
+
+	/**
+	 * @return the bytes allocated so far by each live thread, indexed by thread ID, or null if allocation cannot be measured
+	 */
+	private Map<Long, Long> getAllocatedBytes() {
+		if(!allocationSupported)
+			return null;
+
+		long[] ids = threads.getAllThreadIds();
+		long[] bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+		Map<Long, Long> allocated = new HashMap<Long, Long>();
+		for(int i = 0; i < ids.length; ++i)
+			if(bytes[i] >= 0)
+				allocated.put(ids[i], bytes[i]);
+
+		return allocated;
+	}
+
+	/**
+	 * @param before The bytes allocated by each thread at the start of the measurement
+	 * @return the bytes allocated since then by the threads that are still alive, or NaN if allocation cannot be measured
+	 */
+	private double getAllocatedBytesSince(Map<Long, Long> before) {
+		Map<Long, Long> after = getAllocatedBytes();
+		if(before == null || after == null)
+			return Double.NaN;
+
+		long bytes = 0;
+		for(Map.Entry<Long, Long> e : after.entrySet()) {
+			Long b = before.get(e.getKey());
+			bytes += e.getValue() - (b != null ? b : 0);
+		}
+		return bytes;
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	private static long getGcTime() {
+		long time = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(0, gc.getCollectionTime());
+		return time;
+	}
+}
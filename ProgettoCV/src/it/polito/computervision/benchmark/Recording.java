@@ -0,0 +1,241 @@
+package it.polito.computervision.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recorded hand session, annotated with the ground truth gesture intervals. Recordings are plain text files, one record per line:
+ * <pre>
+ * # comment
+ * F &lt;timestamp&gt; [&lt;id&gt; &lt;x&gt; &lt;y&gt; &lt;px&gt; &lt;py&gt; &lt;touching&gt;]...
+ * A &lt;gesture&gt; &lt;start&gt; &lt;end&gt;
+ * </pre>
+ * F lines are frames: timestamp in microseconds, then for each tracked hand its ID, its position on the virtual screen (in mm),
+ * its projected position and whether it is touching the screen (1 or 0).
+ * A lines are annotations: the name of the gesture the user performed, and the timestamps (in microseconds) of its start and end.
+ * Frames must be in chronological order. Annotations can be anywhere in the file.
+ * @author Giovanni Piumatti
+ *
+ */
+public class Recording {
+
+	/**
+	 * A recorded frame
+	 */
+	public static class Frame {
+		private final long timestamp;
+		private final short[] ids;
+		private final float[] x, y, px, py;
+		private final boolean[] touching;
+
+		/**
+		 * @param timestamp The timestamp of the frame (in microseconds)
+		 * @param hands The number of hands in the frame
+		 */
+		public Frame(long timestamp, int hands) {
+			this.timestamp = timestamp;
+			ids = new short[hands];
+			x = new float[hands];
+			y = new float[hands];
+			px = new float[hands];
+			py = new float[hands];
+			touching = new boolean[hands];
+		}
+
+		/**
+		 * Sets the data of a hand
+		 * @param i The index of the hand in this frame
+		 * @param id The ID of the hand
+		 * @param x The X coordinate on the virtual screen
+		 * @param y The Y coordinate on the virtual screen
+		 * @param px The projected X coordinate
+		 * @param py The projected Y coordinate
+		 * @param touching Whether the hand is touching the virtual screen
+		 */
+		public void setHand(int i, short id, float x, float y, float px, float py, boolean touching) {
+			this.ids[i] = id;
+			this.x[i] = x;
+			this.y[i] = y;
+			this.px[i] = px;
+			this.py[i] = py;
+			this.touching[i] = touching;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public int getHandCount() {
+			return ids.length;
+		}
+
+		public short getId(int i) {
+			return ids[i];
+		}
+
+		public float getX(int i) {
+			return x[i];
+		}
+
+		public float getY(int i) {
+			return y[i];
+		}
+
+		public float getProjectedX(int i) {
+			return px[i];
+		}
+
+		public float getProjectedY(int i) {
+			return py[i];
+		}
+
+		public boolean isTouching(int i) {
+			return touching[i];
+		}
+	}
+
+	/**
+	 * A ground truth gesture interval
+	 */
+	public static class Annotation {
+		private final String gesture;
+		private final long start, end;
+
+		/**
+		 * @param gesture The name of the gesture
+		 * @param start The timestamp of the start of the gesture (in microseconds)
+		 * @param end The timestamp of the end of the gesture (in microseconds)
+		 */
+		public Annotation(String gesture, long start, long end) {
+			if(end < start)
+				throw new IllegalArgumentException("end < start");
+
+			this.gesture = gesture;
+			this.start = start;
+			this.end = end;
+		}
+
+		public String getGesture() {
+			return gesture;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * @param timestamp The timestamp to check (in microseconds)
+		 * @return true if the timestamp lies in this interval
+		 */
+		public boolean contains(long timestamp) {
+			return timestamp >= start && timestamp <= end;
+		}
+	}
+
+	private final String name;
+	private final List<Frame> frames;
+	private final List<Annotation> annotations;
+
+	/**
+	 * @param name The name of the recording
+	 * @param frames The frames, in chronological order
+	 * @param annotations The ground truth gesture intervals
+	 */
+	public Recording(String name, List<Frame> frames, List<Annotation> annotations) {
+		this.name = name;
+		this.frames = Collections.unmodifiableList(new ArrayList<Frame>(frames));
+		this.annotations = Collections.unmodifiableList(new ArrayList<Annotation>(annotations));
+	}
+
+	/**
+	 * Loads a recording from a file
+	 * @param file The file to load
+	 * @return the recording
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	public static Recording load(File file) throws IOException {
+		List<Frame> frames = new ArrayList<Frame>();
+		List<Annotation> annotations = new ArrayList<Annotation>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int lineNumber = 0;
+			long lastTimestamp = Long.MIN_VALUE;
+			while((line = reader.readLine()) != null) {
+				++lineNumber;
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#"))
+					continue;
+
+				String[] tokens = line.split("\\s+");
+				try {
+					if(tokens[0].equals("F")) {
+						if((tokens.length - 2) % 6 != 0)
+							throw new IOException(file + ":" + lineNumber + ": wrong number of fields");
+
+						Frame frame = new Frame(Long.parseLong(tokens[1]), (tokens.length - 2) / 6);
+						if(frame.getTimestamp() <= lastTimestamp)
+							throw new IOException(file + ":" + lineNumber + ": frames are not in chronological order");
+
+						for(int i = 0, t = 2; i < frame.getHandCount(); ++i, t += 6)
+							frame.setHand(i, Short.parseShort(tokens[t]), Float.parseFloat(tokens[t+1]), Float.parseFloat(tokens[t+2]),
+									Float.parseFloat(tokens[t+3]), Float.parseFloat(tokens[t+4]), !tokens[t+5].equals("0"));
+
+						lastTimestamp = frame.getTimestamp();
+						frames.add(frame);
+					}
+					else if(tokens[0].equals("A") && tokens.length == 4) {
+						annotations.add(new Annotation(tokens[1], Long.parseLong(tokens[2]), Long.parseLong(tokens[3])));
+					}
+					else
+						throw new IOException(file + ":" + lineNumber + ": unknown record");
+				}
+				catch(IllegalArgumentException e) {
+					throw new IOException(file + ":" + lineNumber + ": " + e.getMessage());
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		return new Recording(file.getName(), frames, annotations);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<Frame> getFrames() {
+		return frames;
+	}
+
+	public List<Annotation> getAnnotations() {
+		return annotations;
+	}
+
+	/**
+	 * @param timestamp A timestamp (in microseconds)
+	 * @return the index of the first frame at or after the given timestamp
+	 */
+	public int getFrameIndex(long timestamp) {
+		int lo = 0, hi = frames.size();
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(frames.get(mid).getTimestamp() < timestamp)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+}
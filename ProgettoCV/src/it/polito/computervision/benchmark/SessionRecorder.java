@@ -0,0 +1,79 @@
+package it.polito.computervision.benchmark;
+
+import it.polito.computervision.virtualscreen.HandData;
+import it.polito.computervision.virtualscreen.VirtualScreenListener;
+import it.polito.computervision.virtualscreen.VirtualScreenManager;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Records the frames of the {@link VirtualScreenManager} to a file in the format of {@link Recording}, so that sessions can be annotated
+ * and replayed by the {@link Benchmark}.
+ * @author Giovanni Piumatti
+ *
+ */
+public class SessionRecorder implements VirtualScreenListener {
+
+	private PrintWriter out;
+	private long lastTimestamp;
+
+	/**
+	 * @param file The file to write to
+	 * @throws IOException if the file cannot be opened
+	 */
+	public SessionRecorder(File file) throws IOException {
+		out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		lastTimestamp = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Starts recording the frames of the {@link VirtualScreenManager}
+	 */
+	public void start() {
+		VirtualScreenManager.getInstance().addVirtualScreenListener(this);
+	}
+
+	/**
+	 * Stops recording and closes the file
+	 */
+	public void stop() {
+		VirtualScreenManager.getInstance().removeVirtualScreenListener(this);
+		synchronized(this) {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes an annotation, i.e. a ground truth gesture interval
+	 * @param gesture The name of the gesture
+	 * @param start The timestamp of the start of the gesture (in microseconds)
+	 * @param end The timestamp of the end of the gesture (in microseconds)
+	 */
+	public synchronized void annotate(String gesture, long start, long end) {
+		out.println("A " + gesture + " " + start + " " + end);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void onNewFrame(List<HandData> hands, long timestamp) {
+		if(timestamp <= lastTimestamp)
+			return;
+
+		StringBuilder line = new StringBuilder("F ").append(timestamp);
+		for(HandData hd : hands) {
+			line.append(' ').append(hd.getId())
+				.append(' ').append(hd.getPosition().getX()).append(' ').append(hd.getPosition().getY())
+				.append(' ').append(hd.getProjectedPosition().getX()).append(' ').append(hd.getProjectedPosition().getY())
+				.append(' ').append(hd.isTouching() ? 1 : 0);
+		}
+		out.println(line);
+		lastTimestamp = timestamp;
+	}
+}
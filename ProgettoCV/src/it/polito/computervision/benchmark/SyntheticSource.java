@@ -0,0 +1,313 @@
+package it.polito.computervision.benchmark;
+
+import it.polito.computervision.gestures.impl.LongPressGesture;
+import it.polito.computervision.virtualscreen.HandData;
+import it.polito.computervision.virtualscreen.HandTrajectoryTracker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.openni.Point2D;
+
+/**
+ * Generates synthetic frames of N hands performing a script of gestures, at any frame rate, so that the gesture pipeline can be loaded
+ * far beyond what a user (or the sensor) can produce.
+ * Hands are paired in lanes, 2 m apart from each other on the virtual screen: the first hand of a lane performs the one hand gestures
+ * while the second one hovers next to it, and both hands of the lane perform zooms (a lane with a single hand hovers instead).
+ * Each lane performs the gestures of the script in a loop, starting from a different gesture, so that lanes are not in lockstep.
+ * A gesture is a hover followed by a touch (during which the hand moves), followed by a gap during which the hand hovers back to its rest position.
+ * Frames can be degraded with position noise, dropouts (hands missing from single frames) and touch flicker (the touching flag flipping for single frames).
+ * The same seed always generates the same frames.
+ * @author Giovanni Piumatti
+ *
+ */
+public class SyntheticSource {
+
+	/**
+	 * The gestures a script can contain. Idle is a gap without any touch
+	 */
+	public static final List<String> GESTURES = Collections.unmodifiableList(Arrays.asList(
+			"click", "long-press", "pan", "swipe-left", "swipe-right", "swipe-up", "swipe-down", "zoom", "idle"));
+	public static final String DEFAULT_SCRIPT = "click,pan,swipe-left,zoom,long-press,swipe-right,idle";
+	/**
+	 * Default frame rate (in Hz)
+	 */
+	public static final float DEFAULT_FRAME_RATE = 1000.f;
+	/**
+	 * Distance (in mm) between two lanes
+	 */
+	public static final float LANE_SPACING = 2000.f;
+	/**
+	 * Distance (in mm) between the hands of a lane at rest
+	 */
+	public static final float HAND_SPACING = 200.f;
+
+	/**
+	 * Time (in microseconds) the hand hovers before touching
+	 */
+	private static final long HOVER = 150000;
+	/**
+	 * Time (in microseconds) after the touch, while the hand hovers back to its rest position
+	 */
+	private static final long GAP = 600000;
+
+	private final int hands;
+	private final String[] script;
+	private final Random random;
+	private final HandTrajectoryTracker trajectories;
+	private float frameRate, noise, dropoutRate, flickerRate;
+	private long frame;
+
+	/**
+	 * The state of each lane: the index of the current gesture of the script and the timestamp its hover started at
+	 */
+	private final int[] laneStep;
+	private final long[] laneStart;
+
+	/**
+	 * The hands of the frame being generated
+	 */
+	private int count;
+	private final short[] ids;
+	private final float[] x, y;
+	private final boolean[] touching;
+
+	/**
+	 * @param hands The number of hands
+	 * @param script The gestures to perform (see {@link #GESTURES})
+	 * @param seed The seed of the noise, dropouts and flicker
+	 */
+	public SyntheticSource(int hands, List<String> script, long seed) {
+		if(hands <= 0)
+			throw new IllegalArgumentException("hands must be > 0");
+		if(script.isEmpty())
+			throw new IllegalArgumentException("script is empty");
+		for(String g : script)
+			if(!GESTURES.contains(g))
+				throw new IllegalArgumentException("Unknown gesture: " + g);
+
+		this.hands = hands;
+		this.script = script.toArray(new String[script.size()]);
+		random = new Random(seed);
+		trajectories = new HandTrajectoryTracker();
+		frameRate = DEFAULT_FRAME_RATE;
+		noise = dropoutRate = flickerRate = 0.f;
+		frame = 0;
+
+		int lanes = (hands + 1) / 2;
+		laneStep = new int[lanes];
+		laneStart = new long[lanes];
+		for(int l = 0; l < lanes; ++l)
+			laneStep[l] = l % this.script.length;
+
+		ids = new short[hands];
+		x = new float[hands];
+		y = new float[hands];
+		touching = new boolean[hands];
+	}
+
+	/**
+	 * @param frameRate The number of frames per second of synthetic time
+	 */
+	public void setFrameRate(float frameRate) {
+		if(frameRate <= 0 || frameRate > 1000000)
+			throw new IllegalArgumentException("frameRate must be in (0, 1000000]");
+
+		this.frameRate = frameRate;
+	}
+
+	public float getFrameRate() {
+		return frameRate;
+	}
+
+	/**
+	 * @param noise The standard deviation (in mm) of the gaussian noise added to the positions
+	 */
+	public void setNoise(float noise) {
+		if(noise < 0)
+			throw new IllegalArgumentException("noise < 0");
+
+		this.noise = noise;
+	}
+
+	/**
+	 * @param dropoutRate The probability that a hand is missing from a frame
+	 */
+	public void setDropoutRate(float dropoutRate) {
+		if(dropoutRate < 0 || dropoutRate > 1)
+			throw new IllegalArgumentException("dropoutRate must be in [0, 1]");
+
+		this.dropoutRate = dropoutRate;
+	}
+
+	/**
+	 * @param flickerRate The probability that the touching flag of a hand is flipped in a frame
+	 */
+	public void setFlickerRate(float flickerRate) {
+		if(flickerRate < 0 || flickerRate > 1)
+			throw new IllegalArgumentException("flickerRate must be in [0, 1]");
+
+		this.flickerRate = flickerRate;
+	}
+
+	/**
+	 *
+	 * @return the timestamp (in microseconds) of the next frame
+	 */
+	public long getTimestamp() {
+		return (long) (frame * 1000000.0 / frameRate);
+	}
+
+	/**
+	 * Generates the next frame
+	 * @return the hands of the frame
+	 */
+	public List<HandData> nextFrame() {
+		long timestamp = getTimestamp();
+		generate(timestamp, null);
+
+		List<HandData> frameHands = new ArrayList<HandData>(count);
+		trajectories.beginFrame();
+		for(int i = 0; i < count; ++i) {
+			frameHands.add(new HandData(ids[i], new Point2D<Float>(x[i], y[i]), new Point2D<Float>(320.f + x[i] / 4, 240.f - y[i] / 4), touching[i],
+					timestamp, trajectories.update(ids[i], timestamp, x[i], y[i])));
+		}
+		trajectories.endFrame();
+		return Collections.unmodifiableList(frameHands);
+	}
+
+	/**
+	 * Generates the next frames as a {@link Recording}, annotated with the gestures performed, so that it can be evaluated by the {@link Benchmark}
+	 * @param name The name of the recording
+	 * @param duration The duration of the recording (in ms)
+	 * @return the recording
+	 */
+	public Recording record(String name, long duration) {
+		List<Recording.Frame> frames = new ArrayList<Recording.Frame>();
+		List<Recording.Annotation> annotations = new ArrayList<Recording.Annotation>();
+		long end = getTimestamp() + duration * 1000;
+		for(long timestamp = getTimestamp(); timestamp < end; timestamp = getTimestamp()) {
+			generate(timestamp, annotations);
+			Recording.Frame f = new Recording.Frame(timestamp, count);
+			for(int i = 0; i < count; ++i)
+				f.setHand(i, ids[i], x[i], y[i], 320.f + x[i] / 4, 240.f - y[i] / 4, touching[i]);
+			frames.add(f);
+		}
+
+		return new Recording(name, frames, annotations);
+	}
+
+	/**
+	 * Generates the hands of a frame and moves on to the next one
+	 * @param timestamp The timestamp of the frame
+	 * @param annotations (out) The gestures completed by this frame, or null if they are not needed
+	 */
+	private void generate(long timestamp, List<Recording.Annotation> annotations) {
+		count = 0;
+		for(int l = 0; l < laneStep.length; ++l) {
+			boolean pair = 2*l + 1 < hands;
+			//move on to the next gesture when the current one is over
+			while(timestamp - laneStart[l] >= getDuration(script[laneStep[l]], pair)) {
+				String g = script[laneStep[l]];
+				long touch = getTouchDuration(g, pair);
+				if(annotations != null && touch > 0)
+					annotations.add(new Recording.Annotation(g, laneStart[l] + HOVER, laneStart[l] + HOVER + touch));
+
+				laneStart[l] += getDuration(g, pair);
+				laneStep[l] = (laneStep[l] + 1) % script.length;
+			}
+
+			String g = script[laneStep[l]];
+			long phase = timestamp - laneStart[l], touch = getTouchDuration(g, pair);
+			boolean touched = phase >= HOVER && phase < HOVER + touch;
+			//fraction of the movement done: it grows while touching and goes back to 0 during the gap
+			float progress = 0.f;
+			if(touched)
+				progress = (float) (phase - HOVER) / touch;
+			else if(touch > 0 && phase >= HOVER + touch)
+				progress = 1.f - (float) (phase - HOVER - touch) / GAP;
+
+			float laneX = l * LANE_SPACING;
+			addHand((short) (2*l), laneX - HAND_SPACING / 2 + getOffsetX(g, progress, true), getOffsetY(g, progress), touched);
+			if(pair)
+				addHand((short) (2*l + 1), laneX + HAND_SPACING / 2 + getOffsetX(g, progress, false), 0.f, touched && g.equals("zoom"));
+		}
+		++frame;
+	}
+
+	/**
+	 * Adds a hand to the frame being generated, unless it drops out, applying noise and flicker
+	 */
+	private void addHand(short id, float hx, float hy, boolean touched) {
+		if(dropoutRate > 0 && random.nextFloat() < dropoutRate)
+			return;
+
+		ids[count] = id;
+		x[count] = noise > 0 ? hx + (float) random.nextGaussian() * noise : hx;
+		y[count] = noise > 0 ? hy + (float) random.nextGaussian() * noise : hy;
+		touching[count] = flickerRate > 0 && random.nextFloat() < flickerRate ? !touched : touched;
+		++count;
+	}
+
+	/**
+	 * @return the time (in microseconds) the hand touches the screen while performing the gesture
+	 */
+	private static long getTouchDuration(String gesture, boolean pair) {
+		if(gesture.equals("click"))
+			return 120000;
+		else if(gesture.equals("long-press"))
+			return LongPressGesture.DURATION * 1500;
+		else if(gesture.equals("pan"))
+			return 700000;
+		else if(gesture.startsWith("swipe-"))
+			return 150000;
+		else if(gesture.equals("zoom") && pair)
+			return 700000;
+		else
+			return 0;
+	}
+
+	/**
+	 * @return the time (in microseconds) it takes to perform the gesture, including the hover and the gap
+	 */
+	private static long getDuration(String gesture, boolean pair) {
+		return HOVER + getTouchDuration(gesture, pair) + GAP;
+	}
+
+	/**
+	 * @param progress The fraction of the movement done
+	 * @param first Whether the hand is the first one of its lane
+	 * @return the horizontal offset (in mm) of the hand from its rest position
+	 */
+	private static float getOffsetX(String gesture, float progress, boolean first) {
+		if(gesture.equals("zoom"))
+			return (first ? -160.f : 160.f) * progress;
+		else if(!first)
+			return 0.f;
+		else if(gesture.equals("pan"))
+			return 350.f * progress;
+		//X grows to the left of the user (see PanGesture.Direction)
+		else if(gesture.equals("swipe-left"))
+			return 250.f * progress;
+		else if(gesture.equals("swipe-right"))
+			return -250.f * progress;
+		else
+			return 0.f;
+	}
+
+	/**
+	 * @param progress The fraction of the movement done
+	 * @return the vertical offset (in mm) of the first hand of a lane from its rest position
+	 */
+	private static float getOffsetY(String gesture, float progress) {
+		if(gesture.equals("swipe-up"))
+			return 250.f * progress;
+		else if(gesture.equals("swipe-down"))
+			return -250.f * progress;
+		else
+			return 0.f;
+	}
+}
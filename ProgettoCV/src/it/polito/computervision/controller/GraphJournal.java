@@ -0,0 +1,324 @@
+package it.polito.computervision.controller;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
+
+/**
+ * Undo/redo journal of the changes made to a graph. The graph must only be changed through the journal, which records each addition and removal
+ * of vertices and edges. When the layout of the changed graph has been computed, the changes are committed as a journal entry, together with
+ * a snapshot of the resulting vertex positions. Undoing and redoing an entry reverts or reapplies its changes and restores the vertex positions
+ * of the resulting view, so the layout does not need to be computed again.
+ * Memory is bounded: when the journal holds more than the maximum number of entries, or its snapshots hold more than the maximum number
+ * of vertex positions, the oldest entries are discarded and can no longer be undone.
+ * @author Giovanni Piumatti
+ *
+ * @param <V> The type of the vertices
+ * @param <E> The type of the edges
+ */
+public class GraphJournal<V, E> {
+
+	public static final int DEFAULT_MAX_ENTRIES = 50;
+	public static final int DEFAULT_MAX_POSITIONS = 20000;
+
+	private static final int ADD_VERTEX = 0, REMOVE_VERTEX = 1, ADD_EDGE = 2, REMOVE_EDGE = 3;
+
+	/**
+	 * A single change of the graph
+	 */
+	private static class Change<V, E> {
+		private final int type;
+		private final V vertex;
+		private final E edge;
+		private final Pair<V> endpoints;
+		private final EdgeType edgeType;
+
+		private Change(int type, V vertex, E edge, Pair<V> endpoints, EdgeType edgeType) {
+			this.type = type;
+			this.vertex = vertex;
+			this.edge = edge;
+			this.endpoints = endpoints;
+			this.edgeType = edgeType;
+		}
+	}
+
+	/**
+	 * The positions of the vertices of a view, as parallel arrays
+	 */
+	private static class Snapshot<V> {
+		private final Object[] vertices;
+		private final double[] coordinates;
+
+		private <E> Snapshot(Graph<V, E> graph, Layout<V, E> layout) {
+			Collection<V> vs = graph.getVertices();
+			vertices = vs.toArray();
+			coordinates = new double[2 * vertices.length];
+			for(int i = 0; i < vertices.length; ++i) {
+				@SuppressWarnings("unchecked")
+				Point2D p = layout.transform((V) vertices[i]);
+				coordinates[2*i] = p.getX();
+				coordinates[2*i + 1] = p.getY();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private <E> void applyTo(Layout<V, E> layout) {
+			for(int i = 0; i < vertices.length; ++i)
+				layout.setLocation((V) vertices[i], new Point2D.Double(coordinates[2*i], coordinates[2*i + 1]));
+		}
+
+		private int size() {
+			return vertices.length;
+		}
+	}
+
+	/**
+	 * The changes of a step, and the vertex positions after them
+	 */
+	private static class Entry<V, E> {
+		private final List<Change<V, E>> changes;
+		private Snapshot<V> after;
+
+		private Entry(List<Change<V, E>> changes, Snapshot<V> after) {
+			this.changes = changes;
+			this.after = after;
+		}
+	}
+
+	private final int maxEntries, maxPositions;
+	private final List<Entry<V, E>> entries;
+	/**
+	 * The number of entries currently applied: entries before it can be undone, the others can be redone
+	 */
+	private int cursor;
+	/**
+	 * The vertex positions before the oldest entry
+	 */
+	private Snapshot<V> base;
+	private int positions;
+	private List<Change<V, E>> pending;
+
+	public GraphJournal() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_POSITIONS);
+	}
+
+	/**
+	 * @param maxEntries The maximum number of entries to keep
+	 * @param maxPositions The maximum number of vertex positions to keep in the snapshots of all entries
+	 */
+	public GraphJournal(int maxEntries, int maxPositions) {
+		if(maxEntries < 1 || maxPositions < 1)
+			throw new IllegalArgumentException("maxEntries < 1 or maxPositions < 1");
+
+		this.maxEntries = maxEntries;
+		this.maxPositions = maxPositions;
+		entries = new ArrayList<Entry<V, E>>();
+		cursor = 0;
+		base = null;
+		positions = 0;
+		pending = new ArrayList<Change<V, E>>();
+	}
+
+	/**
+	 * Adds a vertex to the graph, recording the change
+	 * @return true if the vertex has been added
+	 */
+	public boolean addVertex(Graph<V, E> graph, V vertex) {
+		if(!graph.addVertex(vertex))
+			return false;
+
+		pending.add(new Change<V, E>(ADD_VERTEX, vertex, null, null, null));
+		return true;
+	}
+
+	/**
+	 * Removes a vertex and its incident edges from the graph, recording the changes
+	 * @return true if the vertex has been removed
+	 */
+	public boolean removeVertex(Graph<V, E> graph, V vertex) {
+		if(!graph.containsVertex(vertex))
+			return false;
+
+		for(E e : new ArrayList<E>(graph.getIncidentEdges(vertex)))
+			removeEdge(graph, e);
+		graph.removeVertex(vertex);
+		pending.add(new Change<V, E>(REMOVE_VERTEX, vertex, null, null, null));
+		return true;
+	}
+
+	/**
+	 * Adds a directed edge to the graph, recording the change
+	 * @return true if the edge has been added
+	 */
+	public boolean addEdge(Graph<V, E> graph, E edge, V source, V dest) {
+		if(!graph.addEdge(edge, source, dest, EdgeType.DIRECTED))
+			return false;
+
+		pending.add(new Change<V, E>(ADD_EDGE, null, edge, new Pair<V>(source, dest), EdgeType.DIRECTED));
+		return true;
+	}
+
+	/**
+	 * Removes an edge from the graph, recording the change
+	 * @return true if the edge has been removed
+	 */
+	public boolean removeEdge(Graph<V, E> graph, E edge) {
+		if(!graph.containsEdge(edge))
+			return false;
+
+		Pair<V> endpoints = graph.getEndpoints(edge);
+		EdgeType type = graph.getEdgeType(edge);
+		graph.removeEdge(edge);
+		pending.add(new Change<V, E>(REMOVE_EDGE, null, edge, endpoints, type));
+		return true;
+	}
+
+	/**
+	 * Commits the changes recorded since the last commit as a new entry, with the current vertex positions. The entries that had been undone are discarded.
+	 * If no change has been recorded, the vertex positions of the current view are replaced instead (e.g. the initial layout, or a layout computed again).
+	 * @param graph The changed graph
+	 * @param layout The layout of the changed graph
+	 */
+	public void commit(Graph<V, E> graph, Layout<V, E> layout) {
+		Snapshot<V> snapshot = new Snapshot<V>(graph, layout);
+		if(pending.isEmpty()) {
+			if(cursor == 0) {
+				positions += snapshot.size() - (base != null ? base.size() : 0);
+				base = snapshot;
+			}
+			else {
+				Entry<V, E> current = entries.get(cursor - 1);
+				positions += snapshot.size() - current.after.size();
+				current.after = snapshot;
+			}
+		}
+		else {
+			while(entries.size() > cursor)
+				positions -= entries.remove(entries.size() - 1).after.size();
+
+			entries.add(new Entry<V, E>(pending, snapshot));
+			positions += snapshot.size();
+			cursor = entries.size();
+			pending = new ArrayList<Change<V, E>>();
+		}
+
+		//drop the oldest applied entries, the view after the first one becomes the base
+		while(cursor > 0 && (entries.size() > maxEntries || (positions > maxPositions && entries.size() > 1))) {
+			positions -= base != null ? base.size() : 0;
+			base = entries.remove(0).after;
+			--cursor;
+		}
+	}
+
+	/**
+	 * Reverts the changes of the last applied entry. The vertex positions of the resulting view can then be restored with {@link #restorePositions(Layout)}.
+	 * @param graph The graph
+	 * @return true if an entry has been undone, false if there was nothing to undo
+	 * @throws IllegalStateException if there are uncommitted changes
+	 */
+	public boolean undo(Graph<V, E> graph) {
+		checkCommitted();
+		if(!canUndo())
+			return false;
+
+		Entry<V, E> entry = entries.get(--cursor);
+		for(int i = entry.changes.size() - 1; i >= 0; --i)
+			revert(graph, entry.changes.get(i));
+		return true;
+	}
+
+	/**
+	 * Reapplies the changes of the last undone entry. The vertex positions of the resulting view can then be restored with {@link #restorePositions(Layout)}.
+	 * @param graph The graph
+	 * @return true if an entry has been redone, false if there was nothing to redo
+	 * @throws IllegalStateException if there are uncommitted changes
+	 */
+	public boolean redo(Graph<V, E> graph) {
+		checkCommitted();
+		if(!canRedo())
+			return false;
+
+		Entry<V, E> entry = entries.get(cursor++);
+		for(Change<V, E> c : entry.changes)
+			apply(graph, c);
+		return true;
+	}
+
+	/**
+	 * Sets the vertex positions recorded for the current view (i.e. after the last applied entry) to a layout
+	 * @param layout The layout
+	 * @return true if the positions have been restored, false if none were recorded
+	 */
+	public boolean restorePositions(Layout<V, E> layout) {
+		Snapshot<V> current = cursor > 0 ? entries.get(cursor - 1).after : base;
+		if(current == null)
+			return false;
+
+		current.applyTo(layout);
+		return true;
+	}
+
+	public boolean canUndo() {
+		return cursor > 0;
+	}
+
+	public boolean canRedo() {
+		return cursor < entries.size();
+	}
+
+	/**
+	 * Discards all the entries and the uncommitted changes
+	 */
+	public void clear() {
+		entries.clear();
+		pending.clear();
+		cursor = 0;
+		base = null;
+		positions = 0;
+	}
+
+	private void apply(Graph<V, E> graph, Change<V, E> c) {
+		switch(c.type) {
+		case ADD_VERTEX:
+			graph.addVertex(c.vertex);
+			break;
+		case REMOVE_VERTEX:
+			graph.removeVertex(c.vertex);
+			break;
+		case ADD_EDGE:
+			graph.addEdge(c.edge, c.endpoints, c.edgeType);
+			break;
+		case REMOVE_EDGE:
+			graph.removeEdge(c.edge);
+			break;
+		}
+	}
+
+	private void revert(Graph<V, E> graph, Change<V, E> c) {
+		switch(c.type) {
+		case ADD_VERTEX:
+			graph.removeVertex(c.vertex);
+			break;
+		case REMOVE_VERTEX:
+			graph.addVertex(c.vertex);
+			break;
+		case ADD_EDGE:
+			graph.removeEdge(c.edge);
+			break;
+		case REMOVE_EDGE:
+			graph.addEdge(c.edge, c.endpoints, c.edgeType);
+			break;
+		}
+	}
+
+	private void checkCommitted() {
+		if(!pending.isEmpty())
+			throw new IllegalStateException("There are uncommitted changes");
+	}
+}
@@ -64,7 +64,7 @@ public class HandPointRenderer implements Paintable, VirtualScreenListener {
 	}
 
 	@Override
-	public synchronized void onNewFrame(List<HandData> hands) {
+	public synchronized void onNewFrame(List<HandData> hands, long timestamp) {
 		this.hands = hands;
 		mFrame.repaint();
 	}
@@ -0,0 +1,328 @@
+package it.polito.computervision.controller;
+
+import java.awt.Dimension;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.graph.Graph;
+
+/**
+ * Places the vertices added to a graph on top of an existing layout, without laying out the whole graph again.
+ * The vertices already placed stay where they are, so the user's mental map of the graph is preserved: only the ones close to the new vertices
+ * are gently relaxed (see the damping). New vertices are seeded on an arc around their parent, facing away from the parent's other neighbors,
+ * and then relaxed with a force-directed model (the Fruchterman-Reingold forces) restricted to their neighborhood.
+ * Placed vertices are indexed in a uniform grid, so the cost of an expansion depends on the number of new vertices (and on how crowded
+ * their neighborhood is), not on the size of the graph. The grid follows the changes made through this class; when the positions change
+ * otherwise (e.g. the layout is resized, or positions are restored), it must be invalidated and is rebuilt on the next expansion.
+ * @author Giovanni Piumatti
+ *
+ * @param <V> The type of the vertices
+ * @param <E> The type of the edges
+ */
+public class IncrementalLayout<V, E> {
+
+	public static final int DEFAULT_ITERATIONS = 50;
+	/**
+	 * Default fraction of the movement of the new vertices applied to the placed vertices near them (0 keeps them anchored)
+	 */
+	public static final double DEFAULT_DAMPING = 0.1;
+
+	private final Layout<V, E> layout;
+	private final double edgeLength;
+	private final int iterations;
+	private final double damping;
+
+	/**
+	 * The positions of the placed vertices, and the vertices in each cell of the grid
+	 */
+	private final Map<V, Point2D> positions;
+	private final Map<Long, List<V>> grid;
+	private final double cellSize;
+	private Dimension indexedSize;
+	private boolean valid;
+
+	/**
+	 * Creates an incremental layout with the default number of iterations and damping
+	 * @param layout The layout to update
+	 * @param edgeLength The ideal length of an edge
+	 */
+	public IncrementalLayout(Layout<V, E> layout, double edgeLength) {
+		this(layout, edgeLength, DEFAULT_ITERATIONS, DEFAULT_DAMPING);
+	}
+
+	/**
+	 * @param layout The layout to update
+	 * @param edgeLength The ideal length of an edge
+	 * @param iterations The number of relaxation steps of each expansion
+	 * @param damping The fraction of the movement of the new vertices applied to the placed vertices near them, between 0 (anchored) and 1
+	 */
+	public IncrementalLayout(Layout<V, E> layout, double edgeLength, int iterations, double damping) {
+		if(layout == null)
+			throw new IllegalArgumentException("layout is null");
+		if(edgeLength <= 0 || iterations < 1)
+			throw new IllegalArgumentException("edgeLength <= 0 or iterations < 1");
+		if(damping < 0 || damping > 1)
+			throw new IllegalArgumentException("damping must be in [0, 1]");
+
+		this.layout = layout;
+		this.edgeLength = edgeLength;
+		this.iterations = iterations;
+		this.damping = damping;
+		//repulsion is cut off at twice the edge length, so the neighbors of a vertex are in the 3x3 cells around it
+		cellSize = 2 * edgeLength;
+		positions = new HashMap<V, Point2D>();
+		grid = new HashMap<Long, List<V>>();
+		indexedSize = null;
+		valid = false;
+	}
+
+	/**
+	 * Discards the index of the placed vertices, because their positions have changed. It is rebuilt from the layout on the next expansion.
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * Forgets the vertices removed from the graph
+	 * @param removed The removed vertices
+	 */
+	public void remove(Collection<V> removed) {
+		if(!valid)
+			return;
+
+		for(V v : removed) {
+			Point2D p = positions.remove(v);
+			if(p != null)
+				unindex(v, p);
+		}
+	}
+
+	/**
+	 * Places the vertices added to the graph and relaxes their neighborhood. The vertices must already be in the graph of the layout.
+	 * @param added The added vertices, each with the vertex it has been expanded from (null if none, e.g. it is a root)
+	 */
+	public void place(Map<V, V> added) {
+		sync(added.keySet());
+		if(added.isEmpty())
+			return;
+
+		//the vertices that move: the new ones, then the placed ones near them
+		Map<V, Double> moving = new LinkedHashMap<V, Double>();
+		seed(added);
+		for(V v : added.keySet())
+			moving.put(v, 1.);
+		if(damping > 0) {
+			for(V v : added.keySet()) {
+				Point2D p = positions.get(v);
+				for(V u : getNeighborhood(p))
+					if(!moving.containsKey(u))
+						moving.put(u, damping);
+			}
+		}
+
+		Dimension size = layout.getSize();
+		Point2D.Double disp = new Point2D.Double();
+		for(int i = 0; i < iterations; ++i) {
+			//the temperature cools down linearly, from one edge length
+			double temperature = edgeLength * (iterations - i) / iterations;
+			for(Map.Entry<V, Double> e : moving.entrySet()) {
+				V v = e.getKey();
+				Point2D p = positions.get(v);
+				computeForce(v, p, disp);
+				double length = Math.sqrt(disp.x*disp.x + disp.y*disp.y);
+				if(length == 0)
+					continue;
+
+				double step = Math.min(length, temperature) * e.getValue() / length;
+				double x = Math.max(0, Math.min(size.getWidth(), p.getX() + disp.x * step));
+				double y = Math.max(0, Math.min(size.getHeight(), p.getY() + disp.y * step));
+				move(v, p, x, y);
+			}
+		}
+
+		for(V v : moving.keySet())
+			layout.setLocation(v, positions.get(v));
+	}
+
+	/**
+	 * Rebuilds the index of the placed vertices if it is not valid
+	 * @param added The vertices being added, which are not placed yet
+	 */
+	private void sync(Collection<V> added) {
+		if(valid && layout.getSize().equals(indexedSize))
+			return;
+
+		positions.clear();
+		grid.clear();
+		Graph<V, E> graph = layout.getGraph();
+		for(V v : graph.getVertices()) {
+			if(!added.contains(v)) {
+				Point2D p = new Point2D.Double(layout.transform(v).getX(), layout.transform(v).getY());
+				positions.put(v, p);
+				index(v, p);
+			}
+		}
+		indexedSize = new Dimension(layout.getSize());
+		valid = true;
+	}
+
+	/**
+	 * Seeds the new vertices on an arc around their parent, facing away from the other neighbors of the parent
+	 */
+	private void seed(Map<V, V> added) {
+		Map<V, List<V>> children = new LinkedHashMap<V, List<V>>();
+		for(Map.Entry<V, V> e : added.entrySet()) {
+			List<V> c = children.get(e.getValue());
+			if(c == null) {
+				c = new ArrayList<V>();
+				children.put(e.getValue(), c);
+			}
+			c.add(e.getKey());
+		}
+
+		Graph<V, E> graph = layout.getGraph();
+		Dimension size = layout.getSize();
+		for(Map.Entry<V, List<V>> e : children.entrySet()) {
+			V parent = e.getKey();
+			Point2D center = parent != null ? positions.get(parent) : null;
+			double direction = 0;
+			if(center == null)
+				center = new Point2D.Double(size.getWidth() / 2, size.getHeight() / 2);
+			else {
+				//face away from the centroid of the neighbors already placed
+				double cx = 0, cy = 0;
+				int n = 0;
+				for(V u : graph.getNeighbors(parent)) {
+					Point2D q = positions.get(u);
+					if(q != null) {
+						cx += q.getX();
+						cy += q.getY();
+						++n;
+					}
+				}
+				if(n > 0)
+					direction = Math.atan2(center.getY() - cy / n, center.getX() - cx / n);
+			}
+
+			List<V> vs = e.getValue();
+			double spread = Math.min(Math.PI / 3, 2 * Math.PI / vs.size());
+			for(int i = 0; i < vs.size(); ++i) {
+				double angle = direction + (i - (vs.size() - 1) / 2.) * spread;
+				Point2D p = new Point2D.Double(Math.max(0, Math.min(size.getWidth(), center.getX() + edgeLength * Math.cos(angle))),
+						Math.max(0, Math.min(size.getHeight(), center.getY() + edgeLength * Math.sin(angle))));
+				positions.put(vs.get(i), p);
+				index(vs.get(i), p);
+			}
+		}
+	}
+
+	/**
+	 * Computes the force on a vertex: repulsion from the vertices closer than twice the edge length, attraction towards its neighbors
+	 * @param disp (out) The force
+	 */
+	private void computeForce(V v, Point2D p, Point2D.Double disp) {
+		disp.x = disp.y = 0;
+		double k2 = edgeLength * edgeLength, cutoff2 = cellSize * cellSize;
+		long cx = cell(p.getX()), cy = cell(p.getY());
+		for(long i = cx - 1; i <= cx + 1; ++i) {
+			for(long j = cy - 1; j <= cy + 1; ++j) {
+				List<V> vs = grid.get(key(i, j));
+				if(vs == null)
+					continue;
+
+				for(int n = 0; n < vs.size(); ++n) {
+					V u = vs.get(n);
+					if(u == v)
+						continue;
+
+					Point2D q = positions.get(u);
+					double dx = p.getX() - q.getX(), dy = p.getY() - q.getY(), d2 = dx*dx + dy*dy;
+					if(d2 >= cutoff2)
+						continue;
+					if(d2 < 1e-4) {
+						//coincident vertices, push apart in an arbitrary but stable direction
+						dx = System.identityHashCode(v) < System.identityHashCode(u) ? -0.01 : 0.01;
+						d2 = dx*dx;
+					}
+					//k^2 / d along the unit vector
+					disp.x += dx * k2 / d2;
+					disp.y += dy * k2 / d2;
+				}
+			}
+		}
+
+		for(V u : layout.getGraph().getNeighbors(v)) {
+			Point2D q = positions.get(u);
+			if(q == null)
+				continue;
+
+			double dx = p.getX() - q.getX(), dy = p.getY() - q.getY(), d = Math.sqrt(dx*dx + dy*dy);
+			//d^2 / k along the unit vector
+			disp.x -= dx * d / edgeLength;
+			disp.y -= dy * d / edgeLength;
+		}
+	}
+
+	/**
+	 * @return the placed vertices closer than twice the edge length to a point
+	 */
+	private List<V> getNeighborhood(Point2D p) {
+		List<V> neighborhood = new ArrayList<V>();
+		long cx = cell(p.getX()), cy = cell(p.getY());
+		for(long i = cx - 1; i <= cx + 1; ++i) {
+			for(long j = cy - 1; j <= cy + 1; ++j) {
+				List<V> vs = grid.get(key(i, j));
+				if(vs != null)
+					for(V u : vs)
+						if(p.distanceSq(positions.get(u)) < cellSize * cellSize)
+							neighborhood.add(u);
+			}
+		}
+		return neighborhood;
+	}
+
+	private void move(V v, Point2D p, double x, double y) {
+		if(cell(p.getX()) != cell(x) || cell(p.getY()) != cell(y)) {
+			unindex(v, p);
+			p.setLocation(x, y);
+			index(v, p);
+		}
+		else
+			p.setLocation(x, y);
+	}
+
+	private void index(V v, Point2D p) {
+		Long k = key(cell(p.getX()), cell(p.getY()));
+		List<V> vs = grid.get(k);
+		if(vs == null) {
+			vs = new ArrayList<V>(4);
+			grid.put(k, vs);
+		}
+		vs.add(v);
+	}
+
+	private void unindex(V v, Point2D p) {
+		Long k = key(cell(p.getX()), cell(p.getY()));
+		List<V> vs = grid.get(k);
+		if(vs != null) {
+			vs.remove(v);
+			if(vs.isEmpty())
+				grid.remove(k);
+		}
+	}
+
+	private long cell(double coordinate) {
+		return (long) Math.floor(coordinate / cellSize);
+	}
+
+	private static long key(long cx, long cy) {
+		return (cx << 32) ^ (cy & 0xffffffffL);
+	}
+}
@@ -1,7 +1,10 @@
 package it.polito.computervision.controller;
 
 import it.polito.computervision.actions.ActionManager;
+import it.polito.computervision.benchmark.SessionRecorder;
 import it.polito.computervision.gestures.GestureManager;
+import it.polito.computervision.journal.EventJournal;
+import it.polito.computervision.virtualscreen.FingertipDetector;
 import it.polito.computervision.virtualscreen.VirtualScreenManager;
 import it.polito.computervision.virtualscreen.impl.FlatVirtualScreen;
 import it.polito.computervision.virtualscreen.impl.StaticVirtualScreenInitializer;
@@ -10,6 +13,9 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,12 +27,15 @@ import org.opencv.core.Size;
 import org.openni.Device;
 import org.openni.DeviceInfo;
 import org.openni.OpenNI;
+import org.openni.SensorType;
+import org.openni.VideoStream;
 
 import com.primesense.nite.NiTE;
 
 public class Main {
 
 	private static final int DEFAULT_VSCREEN_DISTANCE = 1500;
+	private static final int DEFAULT_HANDS = 2;
 	private JFrame mFrame;
 	private boolean mShouldRun = true;
 	@SuppressWarnings("unused")
@@ -49,6 +58,15 @@ public class Main {
 				if (arg0.getKeyCode() == KeyEvent.VK_ESCAPE) {
 					mShouldRun = false;
 				}
+				//+ and - change how many hands are tracked
+				else if (arg0.getKeyCode() == KeyEvent.VK_ADD || arg0.getKeyCode() == KeyEvent.VK_PLUS || arg0.getKeyCode() == KeyEvent.VK_EQUALS) {
+					VirtualScreenManager vsm = VirtualScreenManager.getInstance();
+					vsm.setHandsToTrack(vsm.getHandsToTrack() + 1);
+				}
+				else if ((arg0.getKeyCode() == KeyEvent.VK_SUBTRACT || arg0.getKeyCode() == KeyEvent.VK_MINUS) && VirtualScreenManager.getInstance().getHandsToTrack() > 1) {
+					VirtualScreenManager vsm = VirtualScreenManager.getInstance();
+					vsm.setHandsToTrack(vsm.getHandsToTrack() - 1);
+				}
 			}
 		});
 
@@ -76,8 +94,54 @@ public class Main {
 	}
 
 	public static void main(String argv[]) {
+		//leading options
+		boolean fallback = false, fingertips = false;
+		String recording = null, record = null, journal = null;
+		int hands = DEFAULT_HANDS;
+		int first = 0;
+		while(first < argv.length && argv[first].startsWith("--")) {
+			if(argv[first].equals("--fallback"))
+				fallback = true;
+			else if(argv[first].equals("--fingertips"))
+				fingertips = true;
+			else if(argv[first].equals("--recording") && first + 1 < argv.length)
+				recording = argv[++first];
+			else if(argv[first].equals("--record") && first + 1 < argv.length)
+				record = argv[++first];
+			else if(argv[first].equals("--journal") && first + 1 < argv.length)
+				journal = argv[++first];
+			else if(argv[first].equals("--hands") && first + 1 < argv.length) {
+				try {
+					hands = Integer.parseInt(argv[++first]);
+				}
+				catch(NumberFormatException e) {
+					hands = 0;
+				}
+				if(hands <= 0) {
+					System.err.println("The number of hands must be > 0");
+					return;
+				}
+			}
+			else {
+				System.err.println("Unknown option: " + argv[first]);
+				return;
+			}
+			++first;
+		}
+		if(first > 0) {
+			String[] rest = new String[argv.length - first];
+			System.arraycopy(argv, first, rest, 0, rest.length);
+			argv = rest;
+		}
+
 		if(argv.length < 1) {
-			System.err.println("Syntax: <ontology> [rootNodes] [virtualScreenDistance]");
+			System.err.println("Syntax: [--fallback] [--fingertips] [--recording <file>] [--record <file>] [--journal <file>] [--hands <n>] <ontology> [rootNodes] [virtualScreenDistance]");
+			System.err.println("--fallback: track the hands on the depth frames instead of using NiTE");
+			System.err.println("--fingertips: find the fingertips of the tracked hands");
+			System.err.println("--recording: play a recorded .oni file instead of using the device");
+			System.err.println("--record: record the tracked hands to a file, which can be annotated and replayed by the benchmark");
+			System.err.println("--journal: append the event journal to a file instead of printing it");
+			System.err.println("--hands: how many hands to track (default: " + DEFAULT_HANDS + "), can be changed with + and - while running");
 			System.err.println("ontology: path to the ontology");
 			System.err.println("rootNodes: names of the root nodes to start navigation from (default: hierarchy root)");
 			System.err.println("virtualScreenDistance: distance of the virtual screen from the sensor (default: 1.5 meters)");
@@ -109,32 +173,89 @@ public class Main {
 				roots = rootList.toArray(new String[rootList.size()]);
 		}
 
+		if(journal != null) {
+			try {
+				EventJournal.getInstance().setOutput(new File(journal));
+			}
+			catch(FileNotFoundException e) {
+				System.err.println("Cannot write the journal to " + journal + ": " + e.getMessage());
+				return;
+			}
+		}
+
+		SessionRecorder recorder = null;
+		if(record != null) {
+			try {
+				recorder = new SessionRecorder(new File(record));
+			}
+			catch(IOException e) {
+				System.err.println("Cannot record to " + record + ": " + e.getMessage());
+				EventJournal.getInstance().close();
+				return;
+			}
+		}
+
 		// initialize OpenNI and NiTE
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 		OpenNI.initialize();
-		NiTE.initialize();
+		if(!fallback)
+			NiTE.initialize();
 
-		List<DeviceInfo> devicesInfo = OpenNI.enumerateDevices();
-		if (devicesInfo.size() == 0) {
-			JOptionPane.showMessageDialog(null, "No device is connected", "Error", JOptionPane.ERROR_MESSAGE);
-			return;
-		}
+		Device device;
+		if(recording != null)
+			device = Device.open(recording);
+		else {
+			List<DeviceInfo> devicesInfo = OpenNI.enumerateDevices();
+			if (devicesInfo.size() == 0) {
+				JOptionPane.showMessageDialog(null, "No device is connected", "Error", JOptionPane.ERROR_MESSAGE);
+				if(recorder != null)
+					recorder.stop();
+				EventJournal.getInstance().close();
+				return;
+			}
 
-		Device.open(devicesInfo.get(0).getUri());
+			device = Device.open(devicesInfo.get(0).getUri());
+		}
 
-		VirtualScreenManager.getInstance().start(2);
+		VideoStream depthStream = null;
+		if(fallback) {
+			depthStream = VideoStream.create(device, SensorType.DEPTH);
+			depthStream.start();
+			VirtualScreenManager.getInstance().startFallback(hands, depthStream);
+		}
+		else {
+			//NiTE opens its own depth stream, the one of the device is only needed for the field of view of the sensor
+			VideoStream probe = VideoStream.create(device, SensorType.DEPTH);
+			float horizontalFov = (float) Math.toDegrees(probe.getHorizontalFieldOfView());
+			probe.destroy();
+			VirtualScreenManager.getInstance().start(hands, horizontalFov);
+		}
+		//OpenCV is loaded, so fingertips can be found
+		if(fingertips)
+			VirtualScreenManager.getInstance().setFingertipDetector(new FingertipDetector());
 		//size doesn't matter in this implementation
 		VirtualScreenManager.getInstance().initialize(new FlatVirtualScreen(), new StaticVirtualScreenInitializer(new Size(1,1), dist));		
+		if(recorder != null)
+			recorder.start();
 
 		final Main app = new Main(argv[0], roots);
 
 		System.out.println("About to run");
 		app.run();
 
+		if(recorder != null)
+			recorder.stop();
 		ActionManager.getInstance().stop();
 		GestureManager.getInstance().stop();
 		VirtualScreenManager.getInstance().destroy();
-		NiTE.shutdown();
+		if(depthStream != null) {
+			depthStream.stop();
+			depthStream.destroy();
+		}
+		else
+			NiTE.shutdown();
+		device.close();
 		OpenNI.shutdown();
+		EventJournal.getInstance().close();
 	}
 }
\ No newline at end of file
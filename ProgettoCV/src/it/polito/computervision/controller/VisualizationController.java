@@ -1,14 +1,20 @@
 package it.polito.computervision.controller;
 
 import it.polito.computervision.actions.ActionManager;
+import it.polito.computervision.actions.GestureContext;
 import it.polito.computervision.gestures.Gesture;
 import it.polito.computervision.gestures.GestureData;
 import it.polito.computervision.gestures.GestureListener;
 import it.polito.computervision.gestures.GestureListenerAdapter;
 import it.polito.computervision.gestures.GestureManager;
-import it.polito.computervision.gestures.impl.ClickGesture;
+import it.polito.computervision.gestures.impl.DoubleClickGesture;
+import it.polito.computervision.gestures.impl.GrabGesture;
+import it.polito.computervision.gestures.impl.LongPressGesture;
 import it.polito.computervision.gestures.impl.PanGesture;
+import it.polito.computervision.gestures.impl.PushGesture;
 import it.polito.computervision.gestures.impl.ZoomGesture;
+import it.polito.computervision.journal.EventJournal;
+import it.polito.computervision.journal.Level;
 import it.polito.computervision.virtualscreen.HandData;
 import it.polito.computervision.virtualscreen.VirtualScreenManager;
 
@@ -17,6 +23,9 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Paint;
 import java.awt.Shape;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Ellipse2D;
 import java.util.ArrayList;
@@ -24,12 +33,15 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
+import javax.swing.KeyStroke;
 
 import org.apache.commons.collections15.Transformer;
 import org.opencv.core.Size;
@@ -90,6 +102,15 @@ public class VisualizationController {
 
 	private Map<String, GestureListener> gestureActions;
 	private Map<String, Gesture> gestures;
+	private GestureContext commonMode, normalMode, pickedMode;
+	private GraphJournal<RDFNode, Statement> journal;
+	private IncrementalLayout<RDFNode, Statement> incremental;
+	private boolean incrementalLayout;
+	/**
+	 * The vertices added since the last layout update, each with the vertex it has been expanded from, and the ones removed
+	 */
+	private Map<RDFNode, RDFNode> addedNodes;
+	private List<RDFNode> removedNodes;
 
 
 	public VisualizationController(String rdfResource, String[] rootNames, JFrame parent) {
@@ -97,28 +118,31 @@ public class VisualizationController {
 			throw new IllegalArgumentException("Args null or empty");
 
 		this.parent = parent;
-		System.out.print("Loading model...");
+		EventJournal.getInstance().message(Level.INFO, "Loading model " + rdfResource);
 		model = ModelFactory.createOntologyModel(OntModelSpec.OWL_DL_MEM, FileManager.get().loadModel(rdfResource));
 		if(model != null) {
-			System.out.println("done");
+			EventJournal.getInstance().message(Level.INFO, "Model loaded");
 			ontology = new JenaJungGraph(model);
 			//new empty graph
 			graph = Graphs.synchronizedDirectedGraph(new DirectedSparseMultigraph<RDFNode, Statement>());
 
+			journal = new GraphJournal<RDFNode, Statement>();
+			addedNodes = new LinkedHashMap<RDFNode, RDFNode>();
+			removedNodes = new ArrayList<RDFNode>();
+			incrementalLayout = true;
 			gestureActions = new HashMap<String, GestureListener>();
 			gestures = new HashMap<String, Gesture>();
 
-			gestures.put("click", new ClickGesture("click"));
+			gestures.put("click", new DoubleClickGesture("click"));
+			gestures.put("long-press", new LongPressGesture("long-press"));
 			gestures.put("pan", new PanGesture("pan"));
+			gestures.put("grab", new GrabGesture("grab"));
 			gestures.put("zoom", new ZoomGesture("zoom"));
-			gestures.put("swipe-down", new PanGesture("swipe-down", EnumSet.of(PanGesture.Direction.DOWN), false));
-			gestures.put("swipe-up", new PanGesture("swipe-up", EnumSet.of(PanGesture.Direction.UP), false));
-			gestures.put("swipe-left", new PanGesture("swipe-left", EnumSet.of(PanGesture.Direction.LEFT), false));
-			gestures.put("swipe-right", new PanGesture("swipe-right", EnumSet.of(PanGesture.Direction.RIGHT), false));
-
-			GestureManager.getInstance().registerGesture(gestures.get("click"));
-			GestureManager.getInstance().registerGesture(gestures.get("pan"));
-			GestureManager.getInstance().registerGesture(gestures.get("zoom"));
+			gestures.put("push", new PushGesture("push"));
+			gestures.put("swipe-down", new PanGesture("swipe-down", EnumSet.of(PanGesture.Direction.DOWN), PanGesture.FLICK_VELOCITY_THRESHOLD));
+			gestures.put("swipe-up", new PanGesture("swipe-up", EnumSet.of(PanGesture.Direction.UP), PanGesture.FLICK_VELOCITY_THRESHOLD));
+			gestures.put("swipe-left", new PanGesture("swipe-left", EnumSet.of(PanGesture.Direction.LEFT), PanGesture.FLICK_VELOCITY_THRESHOLD));
+			gestures.put("swipe-right", new PanGesture("swipe-right", EnumSet.of(PanGesture.Direction.RIGHT), PanGesture.FLICK_VELOCITY_THRESHOLD));
 
 			List<RDFNode> roots = new ArrayList<RDFNode>();
 			if(rootNames != null) {
@@ -142,7 +166,7 @@ public class VisualizationController {
 				for(RDFNode n : ontology.getVertices()) {
 					if(!n.isAnon()) {
 						roots.add(n);
-						System.out.println("Added first node found");
+						EventJournal.getInstance().message(Level.INFO, "No root nodes found, added first node");
 						break;
 					}
 				}
@@ -175,6 +199,9 @@ public class VisualizationController {
 			Relaxer relaxer = new VisRunner((IterativeContext)layout);
 			relaxer.stop();
 			relaxer.prerelax();
+			//the same density as the initial layout, which has room for MAX_NODES_IN_VIEWPORT nodes (see resizeLayout)
+			incremental = new IncrementalLayout<RDFNode, Statement>(layout,
+					0.75 * Math.sqrt((double) (width - LAYOUT_BORDER) * (height - LAYOUT_BORDER) / MAX_NODES_IN_VIEWPORT));
 
 			Layout<RDFNode, Statement> staticLayout = new StaticLayout<RDFNode, Statement>(graph, layout);
 			viewer = new VisualizationViewer<RDFNode, Statement>(staticLayout, new Dimension(width - FRAME_BORDER, height - FRAME_BORDER));
@@ -220,6 +247,26 @@ public class VisualizationController {
 
 			updateLayout(roots.get(0));
 
+			//undo and redo expansions and collapses from the keyboard
+			viewer.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undo");
+			viewer.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo");
+			viewer.getActionMap().put("undo", new AbstractAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					undo();
+				}
+			});
+			viewer.getActionMap().put("redo", new AbstractAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					redo();
+				}
+			});
+
 			//setup bindings for gesture events
 
 			gestureActions.put("pan", new GestureListenerAdapter() {
@@ -328,8 +375,8 @@ public class VisualizationController {
 				}
 			});
 
-			ActionManager.getInstance().bind("zoom", new GestureListenerAdapter() {
-				private Float initialDistance;
+			gestureActions.put("zoom", new GestureListenerAdapter() {
+				private float initialDistance = -1;
 				private java.awt.geom.Point2D center;
 				private ScalingControl scaler = new CrossoverScalingControl();
 
@@ -337,11 +384,11 @@ public class VisualizationController {
 				public synchronized void onGestureInProgress(GestureData gesture) {
 					List<HandData> hands = gesture.getHands();
 					if(hands.size() == 2) {
-						if(initialDistance == null) {
-							initialDistance = gesture.getData("initialDistance");
+						if(initialDistance < 0) {
+							initialDistance = gesture.get(ZoomGesture.INITIAL_DISTANCE);
 							center = new java.awt.geom.Point2D.Float((hands.get(0).getProjectedPosition().getX() + hands.get(1).getProjectedPosition().getX())/2,(hands.get(0).getProjectedPosition().getY() + hands.get(1).getProjectedPosition().getY())/2);
 						}
-						float currDist = gesture.getData("currentDistance");
+						float currDist = gesture.get(ZoomGesture.CURRENT_DISTANCE);
 						scaler.scale(viewer, currDist/initialDistance, center);
 						initialDistance = currDist;
 					}
@@ -349,20 +396,54 @@ public class VisualizationController {
 
 				@Override
 				public synchronized void onGestureCompleted(GestureData gesture) {
-					initialDistance = null;
+					initialDistance = -1;
 					center = null;
 				}
 			});
 
-			ActionManager.getInstance().bind("pan", gestureActions.get("pan"));
+			//click, long press and push pick the node under the hand, double click expands all its neighbors
+			GestureListener pick = new GestureListenerAdapter() {
 
-			ActionManager.getInstance().bind("click", new GestureListenerAdapter() {
+				//the hand of the last push, which is still touching the screen: its release must not pick again
+				private short pushedHand = -1;
 
 				@Override
 				public synchronized void onGestureCompleted(GestureData gesture) {
-					Point2D<Float> pos = gesture.getData("initialPosition");
+					if(gesture.getName().equals("push")) {
+						pushedHand = gesture.getHands().isEmpty() ? -1 : gesture.getHands().get(0).getId();
+					}
+					else if(pushedHand >= 0 && isPushedHand(gesture)) {
+						//the click is the release of the push, the long press is the hand resting behind the screen
+						if(gesture.getName().equals("click"))
+							pushedHand = -1;
+						return;
+					}
+
+					Point2D<Float> pos = gesture.get(DoubleClickGesture.INITIAL_POSITION);
+					int clickCount = gesture.get(DoubleClickGesture.CLICK_COUNT);
+					Boolean pending = gesture.get(DoubleClickGesture.PENDING);
 
 					RDFNode clicked = viewer.getPickSupport().getVertex(viewer.getGraphLayout(), pos.getX().intValue(), pos.getY().intValue());
+
+					if(clickCount == 2) {
+						if(clicked != null) {
+							//the first click might have unpicked it
+							viewer.getPickedVertexState().clear();
+							viewer.getPickedVertexState().pick(clicked, true);
+							if(isExpandable(clicked))
+								expandNodes(ontology.getNeighbors(clicked), clicked);
+
+							updateLayout(clicked);
+						}
+
+						setPickedMode(!viewer.getPickedVertexState().getPicked().isEmpty());
+						return;
+					}
+					else if(pending != null && !pending) {
+						//confirmation of a single click we already handled speculatively
+						return;
+					}
+
 					boolean wasPicked = clicked != null && viewer.getPickedVertexState().isPicked(clicked);
 
 					//clear picked vertices
@@ -377,8 +458,38 @@ public class VisualizationController {
 
 					setPickedMode(!viewer.getPickedVertexState().getPicked().isEmpty());
 				}
-			});
 
+				private boolean isPushedHand(GestureData gesture) {
+					for(HandData hd : gesture.getHands())
+						if(hd.getId() == pushedHand)
+							return true;
+					return false;
+				}
+			};
+
+			//click, long press and zoom are always available, pan is replaced by the swipes when a node is picked
+			//grabbing drags the graph like a pan, without touching the screen
+			//pushing through the screen picks a node as soon as the hand stabs it, instead of waiting for the release of a click
+			commonMode = new GestureContext.Builder("common")
+				.bind(gestures.get("click"), pick)
+				.bind(gestures.get("long-press"), pick)
+				.bind(gestures.get("zoom"), gestureActions.get("zoom"))
+				.build();
+			normalMode = new GestureContext.Builder("normal")
+				.bind(gestures.get("pan"), gestureActions.get("pan"))
+				.bind(gestures.get("grab"), gestureActions.get("pan"))
+				.bind(gestures.get("push"), pick)
+				.build();
+			pickedMode = new GestureContext.Builder("picked")
+				.bind(gestures.get("swipe-down"), gestureActions.get("swipe-down"))
+				.bind(gestures.get("swipe-left"), gestureActions.get("swipe-left"))
+				.bind(gestures.get("swipe-up"), gestureActions.get("swipe-up"))
+				.bind(gestures.get("swipe-right"), gestureActions.get("swipe-right"))
+				.build();
+			ActionManager.getInstance().setContexts(commonMode, normalMode);
+
+			//none of the listeners above keeps the events, so they can be recycled
+			GestureManager.getInstance().setEventReuse(true);
 			GestureManager.getInstance().start();
 			ActionManager.getInstance().start();
 		}
@@ -387,55 +498,113 @@ public class VisualizationController {
 	}
 
 	/**
-	 * Toggles between picked mode and normal mode. In normal mode pan gesture is bound. In picked mode swipe gestures are.
+	 * Toggles between picked mode and normal mode. In normal mode pan and grab gestures are bound. In picked mode swipe gestures are.
+	 * Called from a click listener, i.e. on the event dispatch thread (see {@link ActionManager#setEventThreadDispatch(boolean)}), while the frame thread keeps running.
+	 * The switch is still atomic for the frame thread: the gestures change through a single reconfiguration, which the {@link GestureManager} applies
+	 * at the start of the next frame, and the bindings are replaced by publishing a new table, so each event is dispatched either with the old mode or with the new one.
+	 * Events already queued on the event dispatch thread are still delivered to the listeners of the mode they were dispatched in.
 	 * @param how true to switch to picked mode, false to normal mode.
 	 */
 	private void setPickedMode(boolean how) {
+		GestureContext mode = how ? pickedMode : normalMode;
 		ActionManager am = ActionManager.getInstance();
-		GestureManager gm = GestureManager.getInstance();
-		if(how) {
-			//unbind pan
-			if(am.isBound("pan")) {
-				am.unbind("pan");
-				gm.unregisterGesture(gestures.get("pan"));
-
-				//bind swipes
-				gm.registerGesture(gestures.get("swipe-down"));
-				gm.registerGesture(gestures.get("swipe-left"));
-				gm.registerGesture(gestures.get("swipe-up"));
-				gm.registerGesture(gestures.get("swipe-right"));
-
-				am.bind("swipe-down", gestureActions.get("swipe-down"));
-				am.bind("swipe-left", gestureActions.get("swipe-left"));
-				am.bind("swipe-up", gestureActions.get("swipe-up"));
-				am.bind("swipe-right", gestureActions.get("swipe-right"));
+		if(!am.isActive(mode))
+			am.setContexts(commonMode, mode);
+	}
 
-			}
-		}
-		else {
-			if(am.isBound("swipe-down")) {
-				//unbind swipes
-				am.unbind("swipe-down");
-				am.unbind("swipe-left");
-				am.unbind("swipe-up");
-				am.unbind("swipe-right");
-				gm.unregisterGesture(gestures.get("swipe-down"));
-				gm.unregisterGesture(gestures.get("swipe-left"));
-				gm.unregisterGesture(gestures.get("swipe-up"));
-				gm.unregisterGesture(gestures.get("swipe-right"));
-
-				//bind pan
-				am.bind("pan", gestureActions.get("pan"));
-				gm.registerGesture(gestures.get("pan"));
-			}
-		}
+	/**
+	 * Reverts the last expansion or collapse of the graph, restoring the previous view without computing its layout again.
+	 * Must be called on the event dispatch thread.
+	 * @return true if a change has been undone, false if there was nothing to undo
+	 */
+	public boolean undo() {
+		if(!journal.undo(graph))
+			return false;
+
+		restoreView();
+		return true;
+	}
+
+	/**
+	 * Reapplies the last expansion or collapse of the graph that has been undone, restoring its view without computing its layout again.
+	 * Must be called on the event dispatch thread.
+	 * @return true if a change has been redone, false if there was nothing to redo
+	 */
+	public boolean redo() {
+		if(!journal.redo(graph))
+			return false;
+
+		restoreView();
+		return true;
+	}
+
+	/**
+	 * Shows the view restored from the journal, unpicking the nodes that are no longer in the graph
+	 */
+	private void restoreView() {
+		for(RDFNode picked : new ArrayList<RDFNode>(viewer.getPickedVertexState().getPicked()))
+			if(!graph.containsVertex(picked))
+				viewer.getPickedVertexState().pick(picked, false);
+		setPickedMode(!viewer.getPickedVertexState().getPicked().isEmpty());
+
+		//positions are restored after resizing, since resizing moves them
+		resizeLayout();
+		journal.restorePositions(layout);
+		incremental.invalidate();
+		showLayout(null);
+	}
+
+	/**
+	 * Sets how the graph is laid out when it changes. Incrementally (the default), the nodes already shown stay where they are
+	 * (or move slightly to make room), and the new ones are placed around the node they have been expanded from (see {@link IncrementalLayout}).
+	 * Otherwise, the whole graph is laid out again from scratch.
+	 * Must be called on the event dispatch thread.
+	 * @param incremental true to lay out the graph incrementally, false to lay out the whole graph on each change
+	 */
+	public void setIncrementalLayout(boolean incremental) {
+		incrementalLayout = incremental;
+	}
+
+	/**
+	 * 
+	 * @return true if the graph is laid out incrementally
+	 * @see #setIncrementalLayout(boolean)
+	 */
+	public boolean isIncrementalLayout() {
+		return incrementalLayout;
 	}
 
 	/**
 	 * Updates the graph layout with an animated transition, and optionally centers the view to the given node.
+	 * The changes to the graph since the last update are committed to the journal, with the new layout.
 	 * @param central The node to center the view to (can be null).
 	 */
 	private void updateLayout(RDFNode central) {
+		resizeLayout();
+
+		if(incrementalLayout) {
+			incremental.remove(removedNodes);
+			incremental.place(addedNodes);
+		}
+		else {
+			layout.initialize();
+
+			Relaxer relaxer = new VisRunner((IterativeContext)layout);
+			relaxer.stop();
+			relaxer.prerelax();
+			incremental.invalidate();
+		}
+		addedNodes.clear();
+		removedNodes.clear();
+
+		journal.commit(graph, layout);
+		showLayout(central);
+	}
+
+	/**
+	 * Adapts the size of the layout to the number of nodes in the graph
+	 */
+	private void resizeLayout() {
 		int nodes = graph.getVertexCount();
 		//decrease layout size
 		while(nodes < lastLayoutSizeThreshold) {
@@ -456,13 +625,13 @@ public class VisualizationController {
 		}
 
 		layout.setSize(new Dimension(width - LAYOUT_BORDER, height - LAYOUT_BORDER));
+	}
 
-		layout.initialize();
-
-		Relaxer relaxer = new VisRunner((IterativeContext)layout);
-		relaxer.stop();
-		relaxer.prerelax();
-
+	/**
+	 * Shows the current positions of the layout with an animated transition, and optionally centers the view to the given node.
+	 * @param central The node to center the view to (can be null).
+	 */
+	private void showLayout(RDFNode central) {
 		if(central != null) {
 			java.awt.geom.Point2D q = layout.transform(central);
 			java.awt.geom.Point2D lvc = viewer.getRenderContext().getMultiLayerTransformer().inverseTransform(viewer.getCenter());
@@ -487,8 +656,8 @@ public class VisualizationController {
 		boolean changed = false;
 		if(nodes.size() > 0) {
 			for(RDFNode n : nodes) {
-				if(!graph.containsVertex(n)) {
-					graph.addVertex(n);
+				if(journal.addVertex(graph, n)) {
+					addedNodes.put(n, parent);
 					changed = true;
 				}
 			}
@@ -498,7 +667,7 @@ public class VisualizationController {
 					Collection<Statement> edges = ontology.findEdgeSet(parent, n);
 					for(Statement s : edges) {
 						if(!graph.containsEdge(s))
-							graph.addEdge(s, s.getSubject(), s.getObject());
+							journal.addEdge(graph, s, s.getSubject(), s.getObject());
 					}
 				}
 			}
@@ -509,28 +678,19 @@ public class VisualizationController {
 	}
 
 	/**
-	 * Removes from the graph the given nodes, except for the ones that are picked.
+	 * Removes from the graph the given nodes, except for the ones that are picked, with their edges.
 	 * @param nodes The nodes to remove
 	 * @param pickedNodes The picked nodes
 	 * @return true if the graph has changed, false otherwise (no node was removed).
 	 */
 	private boolean collapseNodes(Collection<RDFNode> nodes, Collection<RDFNode> pickedNodes) {
 		boolean changed = false;
-		HashSet<Statement> edgesToRemove = new HashSet<Statement>();
-		if(nodes.size() > 0) {
-			for(RDFNode n : nodes) {
-				if(!pickedNodes.contains(n) && graph.containsVertex(n)) {
-					graph.removeVertex(n);
-					edgesToRemove.addAll(ontology.getIncidentEdges(n));
-					changed = true;
-				}
-			}
-
-			if(changed) {
-				for(Statement s : edgesToRemove) {
-					if(graph.containsEdge(s))
-						graph.removeEdge(s);
-				}
+		for(RDFNode n : nodes) {
+			if(!pickedNodes.contains(n) && journal.removeVertex(graph, n)) {
+				//a node added and removed before the layout is updated has never been placed
+				if(addedNodes.remove(n) == null)
+					removedNodes.add(n);
+				changed = true;
 			}
 		}
 
@@ -6,23 +6,41 @@ import it.polito.computervision.virtualscreen.VirtualScreen;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 /**
  * Implements the common functionality of a gesture (getters and {@link GestureState} update).
- * Concrete implementations will need to implement the {@link #updateState(List, List)} and {@link #doReset()} methods.
+ * Concrete implementations will need to implement the {@link #updateState(List, long, List)} and {@link #doReset()} methods.
+ * Time is the timestamp of the frames (see {@link #advanceTime(long)}), so that gestures behave the same at any frame rate.
+ * Gestures with time-based transitions can arm a timeout with {@link #armTimeout(long)} and implement the transition in {@link #onTimeout(List)}.
+ * A timeout expires on the first frame whose timestamp reaches its deadline, before the frame is processed. If frames stop arriving,
+ * a {@link Timeout} on the shared {@link TimerWheel} fires it anyway, {@link #TIMEOUT_SLACK} ms after the deadline.
  * @author Giovanni Piumatti
  *
  */
 public abstract class AbstractGesture implements Gesture {
 
+	/**
+	 * How long (in ms) after its deadline a timeout is fired by the {@link TimerWheel} if no frame reaches the deadline.
+	 * Gives frames the time to arrive, so that the timeout is normally fired in sequence with them.
+	 */
+	public static final long TIMEOUT_SLACK = 100;
+	/**
+	 * How long (in ms) a tracked hand can be missing from the frames before the gesture considers it lost
+	 */
+	public static final long LOST_HAND_GRACE = 150;
+
 	private String name;
 	protected GestureState currentState;
 	private boolean live;
-	protected Map<String, Object> data;
+	protected GesturePayload data;
+	private volatile GestureSession session;
+	private Timeout timeout;
+	private long time, deadline;
+	private TimeoutListener timeoutListener;
+	private ArrayList<HandData> touchingHands;
 	
 	/**
 	 * Creates a new gesture
@@ -32,8 +50,21 @@ public abstract class AbstractGesture implements Gesture {
 	public AbstractGesture(String name, boolean live) {
 		this.name = name;
 		this.live = live;
-		data = new HashMap<String, Object>();
+		data = new GesturePayload();
 		currentState = GestureState.NOT_DETECTED;
+		session = null;
+		timeout = null;
+		time = deadline = 0;
+		touchingHands = new ArrayList<HandData>();
+		timeoutListener = new TimeoutListener() {
+
+			@Override
+			public void onTimeout(Timeout t) {
+				GestureSession s = session;
+				if(s != null)
+					s.onGestureTimeout(AbstractGesture.this, t);
+			}
+		};
 	}
 
 	/**
@@ -66,7 +97,16 @@ public abstract class AbstractGesture implements Gesture {
 	 */
 	@Override
 	public Map<String, Object> getData() {
-		return Collections.unmodifiableMap(data);
+		return data.toMap();
+	}
+
+	/**
+	 * 
+	 * {@inheritDoc}
+	 */
+	@Override
+	public GesturePayload getPayload() {
+		return data;
 	}
 	
 	/**
@@ -80,20 +120,156 @@ public abstract class AbstractGesture implements Gesture {
 	 */
 	@Override
 	public final void reset() {
+		cancelTimeout();
 		doReset();
 		currentState = GestureState.NOT_DETECTED;
 	}
+
+	/**
+	 * Sets the {@link GestureSession} this gesture is updated by, which will handle its timeouts
+	 * @param session The {@link GestureSession}, or null if the gesture has been unregistered
+	 */
+	void setSession(GestureSession session) {
+		this.session = session;
+	}
+
+	/**
+	 * Advances the time of this gesture to the timestamp of the frame being processed. Implementations of {@link #updateState(List, long, List)}
+	 * must call it before anything else. Time never goes backwards.
+	 * @param timestamp The timestamp of the frame (in microseconds)
+	 */
+	protected final void advanceTime(long timestamp) {
+		if(timestamp > time)
+			time = timestamp;
+	}
+
+	/**
+	 * 
+	 * @return the timestamp (in microseconds) of the last frame processed, or the deadline of the last timeout fired if later
+	 */
+	protected final long getTime() {
+		return time;
+	}
+
+	/**
+	 * 
+	 * @param since A timestamp (in microseconds)
+	 * @return the time elapsed since the given timestamp (in ms)
+	 */
+	protected final long getElapsed(long since) {
+		return (time - since) / 1000;
+	}
+
+	/**
+	 * Arms a timeout, cancelling the one currently armed (if any). When it expires, {@link #onTimeout(List)} will be invoked by the
+	 * {@link GestureSession} this gesture belongs to, even if no new frame arrives in the meantime.
+	 * @param delay The delay (in ms) from the current time. A delay of 0 expires on the next frame, or on the next tick of the {@link TimerWheel}.
+	 */
+	protected final void armTimeout(long delay) {
+		cancelTimeout();
+		deadline = time + delay * 1000;
+		timeout = TimerWheel.getInstance().schedule(delay == 0 ? 0 : delay + TIMEOUT_SLACK, timeoutListener);
+	}
+
+	/**
+	 * Cancels the timeout currently armed (if any)
+	 */
+	protected final void cancelTimeout() {
+		if(timeout != null) {
+			timeout.cancel();
+			timeout = null;
+		}
+	}
+
+	/**
+	 * 
+	 * @return true if a timeout is currently armed, false otherwise
+	 */
+	protected final boolean isTimeoutArmed() {
+		return timeout != null;
+	}
+
+	/**
+	 * 
+	 * @param timestamp The timestamp of a frame (in microseconds)
+	 * @return the timeout armed by this gesture if it expires by the given timestamp, null otherwise
+	 */
+	final Timeout getExpiredTimeout(long timestamp) {
+		return timeout != null && deadline <= timestamp ? timeout : null;
+	}
+
+	/**
+	 * Invoked by the {@link GestureSession} when a timeout armed by this gesture expires, either because a frame reached its deadline or
+	 * because the {@link TimerWheel} fired it. Advances the time to the deadline. Stale timeouts (i.e. cancelled or re-armed) are ignored.
+	 * @param t The expired timeout
+	 * @param gestureHands (out) The list of {@link HandData} this gesture is tracking
+	 * @return the {@link GestureState} this gesture is in after the call
+	 */
+	final GestureState fireTimeout(Timeout t, List<HandData> gestureHands) {
+		if(t == timeout) {
+			timeout.cancel();
+			timeout = null;
+			advanceTime(deadline);
+			currentState = onTimeout(gestureHands);
+		}
+
+		return currentState;
+	}
+
+	/**
+	 * Gestures with time-based transitions should override this method. It is invoked when the timeout armed with {@link #armTimeout(long)} expires,
+	 * and its semantics are the same of {@link Gesture#updateState(List,long,List)}. The default implementation does not change state.
+	 * @param gestureHands (out) The list of {@link HandData} this gesture is tracking
+	 * @return the {@link GestureState} this gesture is in after the timeout
+	 */
+	protected GestureState onTimeout(List<HandData> gestureHands) {
+		return currentState;
+	}
 	
+	/**
+	 * Finds a hand by ID. If the hands are the ones of the frame the {@link GestureSession} is processing, the hand is looked up
+	 * in the index of the frame in constant time, otherwise the list is scanned.
+	 * @param hands The hands of the current frame
+	 * @param id The ID of the hand to find
+	 * @return the hand with the given ID, or null if it is not in the list
+	 */
+	protected HandData findHand(List<HandData> hands, short id) {
+		GestureSession s = session;
+		if(s != null && s.getHandIndex().isIndexOf(hands))
+			return s.getHandIndex().get(id);
+
+		for(int i = 0; i < hands.size(); ++i)
+			if(hands.get(i).getId() == id)
+				return hands.get(i);
+
+		return null;
+	}
+
 	/**
 	 * Convenience method for obtaining a list of all hands that are currently touching the {@link VirtualScreen}.
+	 * The returned list is reused by the next call, so it must not be kept across frames, nor modified.
+	 * If the hands are the ones of the frame the {@link GestureSession} is processing, the touching hands have already been found
+	 * when the frame was indexed.
 	 * @param hands The collection of {@link HandData} to check.
 	 * @return a list of {@link HandData} of only the hands touching the screen.
 	 */
 	protected List<HandData> getTouchingHands(Collection<HandData> hands) {
-		ArrayList<HandData> touchingHands = new ArrayList<HandData>();
-		for(HandData hd : hands)
-			if(hd.isTouching())
-				touchingHands.add(hd);
+		GestureSession s = session;
+		if(s != null && hands instanceof List && s.getHandIndex().isIndexOf((List<HandData>) hands))
+			return s.getHandIndex().getTouching();
+
+		touchingHands.clear();
+		if(hands instanceof List && hands instanceof RandomAccess) {
+			List<HandData> list = (List<HandData>) hands;
+			for(int i = 0; i < list.size(); ++i)
+				if(list.get(i).isTouching())
+					touchingHands.add(list.get(i));
+		}
+		else {
+			for(HandData hd : hands)
+				if(hd.isTouching())
+					touchingHands.add(hd);
+		}
 		
 		return touchingHands;
 	}
@@ -0,0 +1,127 @@
+package it.polito.computervision.gestures;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A typed key of the data associated to a gesture (see {@link GesturePayload}).
+ * Keys are interned: there is exactly one key for each name, and each key is given a small index when it is created,
+ * so that looking up data is a plain array access instead of a string hash.
+ * Gestures should create their keys once (e.g. as static constants) through {@link FloatKey#of(String)}, {@link IntKey#of(String)}
+ * or {@link ObjectKey#of(String)}.
+ * @author Giovanni Piumatti
+ *
+ */
+public abstract class DataKey {
+
+	/**
+	 * The type of the values bound to a key
+	 */
+	public enum Type { FLOAT, INT, OBJECT }
+
+	private static final ConcurrentMap<String, DataKey> keys = new ConcurrentHashMap<String, DataKey>();
+	private static volatile DataKey[] byIndex = new DataKey[16];
+	private static volatile int count = 0;
+
+	private final String name;
+	private final int index;
+
+	DataKey(String name, int index) {
+		this.name = name;
+		this.index = index;
+	}
+
+	/**
+	 * Returns the key with the given name, creating it if necessary.
+	 * @param name The name of the key
+	 * @param type The type of the values bound to the key
+	 * @return the key
+	 * @throws IllegalArgumentException if a key with the same name but a different type already exists
+	 */
+	static synchronized DataKey intern(String name, Type type) {
+		if(name == null)
+			throw new IllegalArgumentException("name == null");
+
+		DataKey key = keys.get(name);
+		if(key == null) {
+			int index = count;
+			switch(type) {
+			case FLOAT:
+				key = new FloatKey(name, index);
+				break;
+			case INT:
+				key = new IntKey(name, index);
+				break;
+			default:
+				key = new ObjectKey<Object>(name, index);
+				break;
+			}
+
+			DataKey[] array = byIndex;
+			if(index == array.length)
+				array = Arrays.copyOf(array, index * 2);
+			array[index] = key;
+			byIndex = array;
+			count = index + 1;
+			keys.put(name, key);
+		}
+		else if(key.getType() != type)
+			throw new IllegalArgumentException("Key " + name + " already exists with type " + key.getType());
+
+		return key;
+	}
+
+	/**
+	 * Looks up a key by name
+	 * @param name The name of the key
+	 * @return the key, or null if no key with the given name exists
+	 */
+	public static DataKey forName(String name) {
+		return keys.get(name);
+	}
+
+	/**
+	 *
+	 * @param index The index of the key
+	 * @return the key with the given index
+	 */
+	static DataKey forIndex(int index) {
+		return byIndex[index];
+	}
+
+	/**
+	 *
+	 * @return the number of keys created so far
+	 */
+	static int getKeyCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return the name of this key
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 *
+	 * @return the index of this key
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 *
+	 * @return the type of the values bound to this key
+	 */
+	public abstract Type getType();
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
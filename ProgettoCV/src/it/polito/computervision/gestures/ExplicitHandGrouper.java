@@ -0,0 +1,64 @@
+package it.polito.computervision.gestures;
+
+import it.polito.computervision.virtualscreen.HandData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups hands according to an explicit hand-to-user assignment (e.g. made by the application after identifying its users).
+ * Hands that have not been assigned are put in the {@link HandGrouper#DEFAULT_GROUP}.
+ * @author Giovanni Piumatti
+ *
+ */
+public class ExplicitHandGrouper implements HandGrouper {
+
+	private Map<Short, Integer> assignments;
+
+	public ExplicitHandGrouper() {
+		assignments = new HashMap<Short, Integer>();
+	}
+
+	/**
+	 * Assigns a hand to a user
+	 * @param handId The ID of the hand
+	 * @param user The ID of the user, i.e. of the group
+	 */
+	public synchronized void assign(short handId, int user) {
+		assignments.put(handId, user);
+	}
+
+	/**
+	 * Removes the assignment of a hand, which will be put in the default group
+	 * @param handId The ID of the hand
+	 */
+	public synchronized void unassign(short handId) {
+		assignments.remove(handId);
+	}
+
+	/**
+	 * Removes all assignments
+	 */
+	public synchronized void clear() {
+		assignments.clear();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void group(List<HandData> hands, Map<Integer, List<HandData>> groups) {
+		for(HandData hd : hands) {
+			Integer user = assignments.get(hd.getId());
+			int id = user != null ? user : DEFAULT_GROUP;
+			List<HandData> group = groups.get(id);
+			if(group == null) {
+				group = new ArrayList<HandData>();
+				groups.put(id, group);
+			}
+			group.add(hd);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package it.polito.computervision.gestures;
+
+/**
+ * A {@link DataKey} bound to float values, which are stored unboxed.
+ * @author Giovanni Piumatti
+ *
+ */
+public final class FloatKey extends DataKey {
+
+	FloatKey(String name, int index) {
+		super(name, index);
+	}
+
+	/**
+	 * @param name The name of the key
+	 * @return the float key with the given name
+	 * @throws IllegalArgumentException if a key with the same name but a different type already exists
+	 */
+	public static FloatKey of(String name) {
+		return (FloatKey) intern(name, Type.FLOAT);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Type getType() {
+		return Type.FLOAT;
+	}
+}
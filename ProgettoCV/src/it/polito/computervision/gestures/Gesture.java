@@ -12,12 +12,14 @@ import java.util.Map;
  */
 public interface Gesture {
 	/**
-	 * Updates the state of the gesture
+	 * Updates the state of the gesture. Timing constraints must be evaluated against the timestamps of the frames rather than by counting frames,
+	 * so that the gesture behaves the same at any frame rate and when frames are missed.
 	 * @param hands The list of {@link HandData} of the new frame
+	 * @param timestamp The timestamp of the new frame (in microseconds)
 	 * @param gestureHands (out) The list of {@link HandData} this gesture is tracking
 	 * @return the {@link GestureState} this gesture is in after the call
 	 */
-	public GestureState updateState(List<HandData> hands, List<HandData> gestureHands);
+	public GestureState updateState(List<HandData> hands, long timestamp, List<HandData> gestureHands);
 	/**
 	 * 
 	 * @return The {@link GestureState} this gesture is currently in
@@ -36,12 +38,26 @@ public interface Gesture {
 	
 	/**
 	 * 
-	 * @return arbitrary data associated to the specific gesture
+	 * @return arbitrary data associated to the specific gesture, indexed by key name (values are boxed)
+	 * @see #getPayload()
 	 */
 	public Map<String, Object> getData();
+
+	/**
+	 * 
+	 * @return the data associated to the specific gesture, bound to typed {@link DataKey}s
+	 */
+	public GesturePayload getPayload();
 	
 	/**
 	 * Resets this gesture's {@link GestureState} to NOT_DETECTED
 	 */
 	public void reset();
+
+	/**
+	 * Creates a new gesture with the same name and configuration as this one, in state NOT_DETECTED.
+	 * Used by the {@link GestureManager} to give each gesture session its own instance.
+	 * @return a new instance of this gesture
+	 */
+	public Gesture newInstance();
 }
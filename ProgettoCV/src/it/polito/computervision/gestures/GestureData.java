@@ -2,12 +2,18 @@ package it.polito.computervision.gestures;
 
 import it.polito.computervision.virtualscreen.HandData;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * Represents data about a 2D gesture
+ * Represents data about a 2D gesture.
+ * If the {@link GestureManager} recycles events (see {@link GestureManager#setEventReuse(boolean)}), an instance is only valid for the duration
+ * of the {@link GestureListener} callback it is passed to: listeners that need to keep it must {@link #copy()} it.
+ * A listener can {@link #consume()} an event so that the listeners after it do not act on it (see {@link it.polito.computervision.actions.ActionManager}).
  * @author Giovanni Piumatti
  *
  */
@@ -18,6 +24,10 @@ public class GestureData {
 	private List<HandData> hands;
 	private boolean live;
 	private Map<String, Object> data;
+	private GesturePayload payload;
+	private int sessionId;
+	private int nameId;
+	private boolean consumed;
 	
 	/**
 	 * @param name The unique name of this gesture
@@ -27,11 +37,87 @@ public class GestureData {
 	 * @param live Whether the gesture is live or not
 	 */
 	public GestureData(String name, GestureState state, List<HandData> hands, Map<String, Object> data, boolean live) {
+		this(name, state, hands, data, live, HandGrouper.DEFAULT_GROUP);
+	}
+
+	/**
+	 * @param name The unique name of this gesture
+	 * @param state The state this gesture is in during the current frame
+	 * @param hands The hands this gesture is tracking
+	 * @param data A map of arbitrary gesture-specific data
+	 * @param live Whether the gesture is live or not
+	 * @param sessionId The ID of the gesture session (i.e. the group of hands, see {@link HandGrouper}) the gesture belongs to
+	 */
+	public GestureData(String name, GestureState state, List<HandData> hands, Map<String, Object> data, boolean live, int sessionId) {
 		this.name = name;
 		this.state = state;
 		this.hands = hands;
 		this.data = data;
+		this.payload = null;
+		this.live = live;
+		this.sessionId = sessionId;
+		this.nameId = -1;
+		this.consumed = false;
+	}
+
+	/**
+	 * @param name The unique name of this gesture
+	 * @param state The state this gesture is in during the current frame
+	 * @param hands The hands this gesture is tracking
+	 * @param payload The gesture-specific data
+	 * @param live Whether the gesture is live or not
+	 * @param sessionId The ID of the gesture session (i.e. the group of hands, see {@link HandGrouper}) the gesture belongs to
+	 */
+	public GestureData(String name, GestureState state, List<HandData> hands, GesturePayload payload, boolean live, int sessionId) {
+		this.name = name;
+		this.state = state;
+		this.hands = hands;
+		this.data = null;
+		this.payload = payload;
+		this.live = live;
+		this.sessionId = sessionId;
+		this.nameId = -1;
+		this.consumed = false;
+	}
+
+	/**
+	 * Changes all the fields of this event. Used by the {@link GestureManager} to recycle events (see {@link GestureManager#setEventReuse(boolean)}).
+	 */
+	void set(String name, GestureState state, List<HandData> hands, GesturePayload payload, boolean live, int sessionId, int nameId) {
+		this.name = name;
+		this.state = state;
+		this.hands = hands;
+		this.data = null;
+		this.payload = payload;
 		this.live = live;
+		this.sessionId = sessionId;
+		this.nameId = nameId;
+		this.consumed = false;
+	}
+
+	/**
+	 * Sets the ID of the name of the gesture, if it is already known
+	 * @param nameId The ID returned by {@link GestureNames#intern(String)} for the name
+	 */
+	void setNameId(int nameId) {
+		this.nameId = nameId;
+	}
+
+	/**
+	 * Creates a copy of this event that does not change when the gesture is updated.
+	 * Listeners must use it to keep the event after the callback returns, if the {@link GestureManager} recycles events (see {@link GestureManager#setEventReuse(boolean)}).
+	 * The copy is not consumed.
+	 * @return a copy of this event
+	 */
+	public GestureData copy() {
+		List<HandData> handsCopy = Collections.unmodifiableList(new ArrayList<HandData>(hands));
+		GestureData gd;
+		if(payload != null)
+			gd = new GestureData(name, state, handsCopy, payload.copy(), live, sessionId);
+		else
+			gd = new GestureData(name, state, handsCopy, Collections.unmodifiableMap(new HashMap<String, Object>(data)), live, sessionId);
+		gd.nameId = nameId;
+		return gd;
 	}
 
 	/**
@@ -62,7 +148,7 @@ public class GestureData {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T> T getData(String key) {
-		return (T) data.get(key);
+		return (T) (payload != null ? payload.getBoxed(key) : data.get(key));
 	}
 	
 	/**
@@ -71,6 +157,10 @@ public class GestureData {
 	 * @return true if there is data associated to the key, false otherwise
 	 */
 	public boolean hasData(String key) {
+		if(payload != null) {
+			DataKey k = DataKey.forName(key);
+			return k != null && payload.has(k);
+		}
 		return data.containsKey(key);
 	}
 	
@@ -78,7 +168,81 @@ public class GestureData {
 	 * @return A set of all keys that have data bound to them.
 	 */
 	public Set<String> getDataKeys() {
-		return data.keySet();
+		return payload != null ? payload.getKeyNames() : data.keySet();
+	}
+
+	/**
+	 * Checks if there is data bound to the given key.
+	 * @param key The key to check
+	 * @return true if there is data bound to the key, false otherwise
+	 */
+	public boolean has(DataKey key) {
+		return payload != null ? payload.has(key) : data.containsKey(key.getName());
+	}
+
+	/**
+	 * @param key The key of the data to retrieve
+	 * @return the data bound to the key, or 0 if there is none
+	 */
+	public float get(FloatKey key) {
+		if(payload != null)
+			return payload.get(key);
+		Number n = (Number) data.get(key.getName());
+		return n != null ? n.floatValue() : 0.f;
+	}
+
+	/**
+	 * @param key The key of the data to retrieve
+	 * @return the data bound to the key, or 0 if there is none
+	 */
+	public int get(IntKey key) {
+		if(payload != null)
+			return payload.get(key);
+		Number n = (Number) data.get(key.getName());
+		return n != null ? n.intValue() : 0;
+	}
+
+	/**
+	 * @param key The key of the data to retrieve
+	 * @return the data bound to the key, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(ObjectKey<T> key) {
+		return payload != null ? payload.get(key) : (T) data.get(key.getName());
+	}
+
+	/**
+	 * @return the ID of the gesture session (i.e. the group of hands, see {@link HandGrouper}) the gesture belongs to
+	 */
+	public int getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * 
+	 * @return the ID of the name of the gesture (see {@link GestureNames}). Events fired by the {@link GestureManager} carry the ID assigned
+	 * when the gesture was registered, otherwise the name is interned on the first call.
+	 */
+	public int getNameId() {
+		if(nameId < 0)
+			nameId = GestureNames.getInstance().intern(name);
+		return nameId;
+	}
+
+	/**
+	 * Marks this event as consumed, so that the listeners after the current one do not act on it
+	 */
+	public void consume() {
+		consumed = true;
+	}
+
+	/**
+	 * 
+	 * @return true if a listener has consumed this event
+	 * @see #consume()
+	 */
+	public boolean isConsumed() {
+		return consumed;
 	}
 
 	/**
@@ -1,10 +1,20 @@
 package it.polito.computervision.gestures;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import it.polito.computervision.gestures.Gesture;
 import it.polito.computervision.virtualscreen.HandData;
@@ -12,31 +22,75 @@ import it.polito.computervision.virtualscreen.VirtualScreenListener;
 import it.polito.computervision.virtualscreen.VirtualScreenManager;
 
 /**
- * This singleton manages a set of {@link Gesture}s. Invokes on each {@link Gesture#updateState(List,List)} with the {@link HandData} of the current frame.
+ * This singleton manages a set of {@link Gesture}s. Invokes on each {@link Gesture#updateState(List,long,List)} with the {@link HandData} and the timestamp of the current frame.
  * If a {@link Gesture} is in state IN_PROGRESS or COMPLETED, then only that gesture will be updated, and all the others will be {@link Gesture#reset()}.
  * It also fires {@link GestureListener} callbacks based on the {@link GestureState} a {@link Gesture} is in after the update.
+ * Timeouts armed by an {@link AbstractGesture} are handled as well: they expire on the first frame that reaches their deadline,
+ * or shortly after it if no new frame arrives.
+ *
+ * Changes to the registered gestures only take effect at the start of the next frame, so the gestures of a frame never change while it is being processed,
+ * even if a {@link GestureListener} changes them. Sets of changes that must be applied together should be made with a {@link GestureReconfiguration} (see {@link #reconfigure()}).
+ *
+ * By default all hands share a single gesture session. If a {@link HandGrouper} is set, hands are partitioned into groups (e.g. one per user),
+ * and each group gets its own session, with its own instances of the registered gestures (see {@link Gesture#newInstance()}) and its own gesture
+ * in progress. Sessions are updated concurrently, so several users can interact at the same time.
+ *
+ * If event reuse is enabled (see {@link #setEventReuse(boolean)}), each session recycles the same {@link GestureData} for all its notifications,
+ * so that live gestures do not allocate anything on each frame (when no {@link HandGrouper} is set).
  * @author Giovanni Piumatti
  *
  */
 public class GestureManager implements VirtualScreenListener {
-	
+
 	private static GestureManager instance = null;
-	
+
 	private Collection<Gesture> gestures;
-	private Gesture gestureInProgress;
-	
-	private Collection<GestureListener> listeners;
-	
-	private GestureManager() {
-		gestures = new HashSet<Gesture>();
-		gestureInProgress = null;
-		listeners = new HashSet<GestureListener>();
-	}
-	
+	/**
+	 * The set of gestures to use from the next frame on, republished whenever the registered gestures change
+	 */
+	private volatile Gesture[] pendingGestures;
+	/**
+	 * The set of gestures of the current frame, only replaced at frame boundaries (while holding the frame lock)
+	 */
+	private Gesture[] registeredGestures;
+
+	private HandGrouper grouper;
+	private Map<Integer, GestureSession> sessions;
+	private ExecutorService executor;
+
+	private final Object frameLock;
+	private ArrayList<GestureSession> frameSessions, closingSessions;
+	private ArrayList<List<HandData>> frameHands;
+	private Map<Integer, List<HandData>> groups;
+
+	private volatile GestureListener[] listeners;
+	private volatile boolean eventReuse;
+	private boolean started;
+
+	/**
+	 * Creates a standalone GestureManager, which is not connected to the {@link VirtualScreenManager} until {@link #start()} is called.
+	 * Frames can be fed directly to {@link #onNewFrame(List, long)}, e.g. to replay recorded sessions. Applications should normally use {@link #getInstance()}.
+	 */
+	public GestureManager() {
+		gestures = new LinkedHashSet<Gesture>();
+		pendingGestures = registeredGestures = new Gesture[0];
+		grouper = null;
+		sessions = new HashMap<Integer, GestureSession>();
+		executor = null;
+		frameLock = new Object();
+		frameSessions = new ArrayList<GestureSession>();
+		closingSessions = new ArrayList<GestureSession>();
+		frameHands = new ArrayList<List<HandData>>();
+		groups = new HashMap<Integer, List<HandData>>();
+		listeners = new GestureListener[0];
+		eventReuse = false;
+		started = false;
+	}
+
 	public static GestureManager getInstance() {
 		if(instance == null)
 			instance = new GestureManager();
-		
+
 		return instance;
 	}
 
@@ -44,192 +98,399 @@ public class GestureManager implements VirtualScreenListener {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized void onNewFrame(List<HandData> hands) {
-		ArrayList<HandData> gestureHands = new ArrayList<HandData>();
-		if(gestureInProgress != null) {
-			//we have a gesture in progress, only update this one
-			GestureState oldState = gestureInProgress.getCurrentState();
-			GestureState newState = gestureInProgress.updateState(hands, gestureHands);
-			if(oldState != newState)
-				System.out.println(gestureInProgress.getName() + ": " + oldState.toString() + " => " + newState.toString());
-			notifyListeners(Collections.unmodifiableList(gestureHands), gestureInProgress, oldState);
-			
-			if(newState != GestureState.IN_PROGRESS && newState != GestureState.COMPLETED) {
-				//remove it if it's no longer in progress or complete
-				gestureInProgress = null;
+	public void onNewFrame(List<HandData> hands, long timestamp) {
+		synchronized(frameLock) {
+			frameSessions.clear();
+			frameHands.clear();
+			closingSessions.clear();
+			//changes to the registered gestures take effect here, so all sessions see the same gestures for the whole frame
+			registeredGestures = pendingGestures;
+			synchronized(this) {
+				if(grouper == null) {
+					frameSessions.add(getSession(HandGrouper.DEFAULT_GROUP));
+					frameHands.add(hands);
+				}
+				else
+					partition(hands);
 			}
-		}
-		else {
-			//there's no gesture in progress, update them all
-			boolean reset = false;
-			for(Gesture g : gestures) {
-				GestureState oldState = g.getCurrentState();
-				GestureState newState = g.updateState(hands, gestureHands);
-				if(oldState != newState)
-					System.out.println(g.getName() + ": " + oldState.toString() + " -> " + newState.toString());
-				notifyListeners(Collections.unmodifiableList(gestureHands), g, oldState);
-				
-				if(newState == GestureState.IN_PROGRESS) {
-					//if a gesture is in progress, remember it, break out of the loop and reset all other gestures
-					gestureInProgress = g;
-					reset = true;
-					break;
+
+			//the lock is not held while updating, so listeners can (un)register gestures (the changes will be applied on the next frame)
+			if(frameSessions.size() == 1) {
+				frameSessions.get(0).update(frameHands.get(0), timestamp);
+			}
+			else if(frameSessions.size() > 1) {
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(frameSessions.size());
+				for(int i = 0; i < frameSessions.size(); ++i) {
+					final GestureSession session = frameSessions.get(i);
+					final List<HandData> group = frameHands.get(i);
+					final long time = timestamp;
+					tasks.add(new Callable<Void>() {
+
+						@Override
+						public Void call() {
+							session.update(group, time);
+							return null;
+						}
+					});
+				}
+
+				try {
+					for(Future<Void> f : getExecutor().invokeAll(tasks)) {
+						try {
+							f.get();
+						}
+						catch(ExecutionException e) {
+							e.getCause().printStackTrace();
+						}
+					}
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
 				}
 			}
-			
-			//reset other gestures
-			if(reset) {
-				for(Gesture g : gestures)
-					if(g != gestureInProgress)
-						g.reset();
+
+			for(int i = 0; i < closingSessions.size(); ++i)
+				closingSessions.get(i).close();
+		}
+	}
+
+	/**
+	 * Partitions the hands with the {@link HandGrouper} and prepares the sessions to update in this frame. Must be called while holding the lock.
+	 * @param hands The hands of the current frame
+	 */
+	private void partition(List<HandData> hands) {
+		groups.clear();
+		grouper.group(hands, groups);
+
+		//the sessions whose group has disappeared get a last update without hands (so that live gestures complete), then they are closed
+		Iterator<Map.Entry<Integer, GestureSession>> it = sessions.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Integer, GestureSession> e = it.next();
+			if(!groups.containsKey(e.getKey())) {
+				closingSessions.add(e.getValue());
+				frameSessions.add(e.getValue());
+				frameHands.add(Collections.<HandData>emptyList());
+				it.remove();
 			}
-			
 		}
+
+		for(Map.Entry<Integer, List<HandData>> e : groups.entrySet()) {
+			frameSessions.add(getSession(e.getKey()));
+			frameHands.add(Collections.unmodifiableList(e.getValue()));
+		}
+	}
+
+	/**
+	 * Returns the session of the given group, creating it if necessary. Must be called while holding the lock.
+	 * @param group The ID of the group
+	 * @return the {@link GestureSession} of the group
+	 */
+	private GestureSession getSession(int group) {
+		GestureSession session = sessions.get(group);
+		if(session == null) {
+			session = new GestureSession(this, group, grouper == null);
+			sessions.put(group, session);
+		}
+		return session;
+	}
+
+	/**
+	 *
+	 * @return the executor used to update the sessions concurrently
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if(executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "GestureSession-" + count++);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Sets the {@link HandGrouper} used to partition the hands into independent gesture sessions.
+	 * All current sessions are reset.
+	 * @param grouper The {@link HandGrouper}, or null to use a single session for all hands (the default)
+	 */
+	public void setHandGrouper(HandGrouper grouper) {
+		List<GestureSession> closed;
+		synchronized(this) {
+			closed = new ArrayList<GestureSession>(sessions.values());
+			sessions.clear();
+			this.grouper = grouper;
+		}
+
+		//sessions are closed without holding the lock, since they may be notifying a listener that calls back into the manager
+		for(GestureSession s : closed)
+			s.close();
+	}
+
+	/**
+	 *
+	 * @return the {@link HandGrouper} currently in use, or null if all hands share a single session
+	 */
+	public synchronized HandGrouper getHandGrouper() {
+		return grouper;
+	}
+
+	/**
+	 *
+	 * @return the gestures of the current frame, in registration order. The array is replaced (never modified) when a new frame
+	 * starts after the registered gestures have changed, and must not be modified.
+	 */
+	Gesture[] getRegisteredGestures() {
+		return registeredGestures;
 	}
-	
+
+	/**
+	 * Publishes a new set of the registered gestures, which will be used from the next frame on. Must be called while holding the lock.
+	 */
+	private void gesturesChanged() {
+		pendingGestures = gestures.toArray(new Gesture[gestures.size()]);
+	}
+
 	/**
 	 * Starts updating gestures on each frame
 	 */
 	public void start() {
+		synchronized(this) {
+			started = true;
+		}
 		VirtualScreenManager.getInstance().addVirtualScreenListener(this);
 	}
-	
+
 	/**
 	 * Stops updating gestures on each frame
 	 */
 	public void stop() {
-		VirtualScreenManager.getInstance().removeVirtualScreenListener(this);
-		for(Gesture g : gestures)
-			g.reset();
+		List<GestureSession> stopped;
+		boolean wasStarted;
+		synchronized(this) {
+			stopped = new ArrayList<GestureSession>(sessions.values());
+			wasStarted = started;
+			started = false;
+		}
+
+		if(wasStarted)
+			VirtualScreenManager.getInstance().removeVirtualScreenListener(this);
+
+		for(GestureSession s : stopped)
+			s.reset();
 	}
-	
+
 	/**
 	 * Adds a {@link GestureListener} to all registered gestures.
 	 * @param listener The listener to add
 	 */
 	public synchronized void addGestureListener(GestureListener listener) {
-		listeners.add(listener);
+		for(GestureListener l : listeners)
+			if(l == listener)
+				return;
+
+		GestureListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+		newListeners[listeners.length] = listener;
+		listeners = newListeners;
 	}
-	
+
 	/**
 	 * Removes the {@link GestureListener} from all registered gestures.
 	 * @param listener The listener to remove
 	 */
 	public synchronized void removeGestureListener(GestureListener listener) {
-		listeners.remove(listener);
+		for(int i = 0; i < listeners.length; ++i) {
+			if(listeners[i] == listener) {
+				GestureListener[] newListeners = new GestureListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, newListeners, 0, i);
+				System.arraycopy(listeners, i + 1, newListeners, i, newListeners.length - i);
+				listeners = newListeners;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Enables or disables event reuse. When enabled, the {@link GestureData} passed to {@link GestureListener}s is recycled,
+	 * and it is only valid for the duration of the callback: listeners that need to keep it must {@link GestureData#copy()} it.
+	 * Disabled by default.
+	 * @param reuse true to recycle events, false to create a new event for each notification
+	 */
+	public void setEventReuse(boolean reuse) {
+		eventReuse = reuse;
 	}
-	
+
+	/**
+	 *
+	 * @return true if events are recycled, false otherwise
+	 * @see #setEventReuse(boolean)
+	 */
+	public boolean isEventReuse() {
+		return eventReuse;
+	}
+
 	/**
-	 * Registers a {@link Gesture} to be updated at each new frame
+	 * Starts a reconfiguration of the registered {@link Gesture}s, whose changes are applied all together when it is committed.
+	 * Should be preferred to a sequence of (un)registrations when switching between sets of gestures (e.g. between interaction modes),
+	 * since a frame starting in the middle of the sequence would be processed with only part of the changes applied.
+	 * @return a new {@link GestureReconfiguration} of this manager
+	 */
+	public GestureReconfiguration reconfigure() {
+		return new GestureReconfiguration(this);
+	}
+
+	/**
+	 * Applies a committed reconfiguration
+	 * @param reconfiguration The reconfiguration to apply
+	 */
+	synchronized void commit(GestureReconfiguration reconfiguration) {
+		if(reconfiguration.applyTo(gestures))
+			gesturesChanged();
+	}
+
+	/**
+	 * Registers a {@link Gesture} to be updated at each new frame, starting from the next one.
+	 * Gestures are evaluated in registration order.
 	 * @param gesture The {@link Gesture} to register
+	 * @see #reconfigure()
 	 */
 	public synchronized void registerGesture(Gesture gesture) {
-		gestures.add(gesture);
+		if(gestures.add(gesture))
+			gesturesChanged();
 	}
-	
+
 	/**
-	 * Unregisters the {@link Gesture}. It will no longer be updated on new frames
+	 * Unregisters the {@link Gesture}. It will no longer be updated, starting from the next frame
 	 * @param gesture The {@link Gesture} to unregister
+	 * @see #reconfigure()
 	 */
 	public synchronized void unregisterGesture(Gesture gesture) {
-		gestures.remove(gesture);
-		if(gestureInProgress == gesture)
-			gestureInProgress = null;
+		if(gestures.remove(gesture))
+			gesturesChanged();
 	}
-	
+
 	/**
 	 * Registers a collection of {@link Gesture}s
 	 * @param gestures The {@link Gesture}s to register
 	 * @see #registerGesture(Gesture)
 	 */
 	public synchronized void registerGestures(Collection<Gesture> gestures) {
-		this.gestures.addAll(gestures);
+		if(this.gestures.addAll(gestures))
+			gesturesChanged();
 	}
-	
+
 	/**
 	 * Unregisters a collection of {@link Gesture}s
 	 * @param gestures The {@link Gesture}s to unregister
 	 * @see #unregisterGesture(Gesture)
 	 */
 	public synchronized void unregisterGestures(Collection<Gesture> gestures) {
-		this.gestures.removeAll(gestures);
-		if(gestureInProgress != null && gestures.contains(gestureInProgress))
-			gestureInProgress = null;
+		if(this.gestures.removeAll(gestures))
+			gesturesChanged();
 	}
-	
+
 	/**
 	 * Unregisters all {@link Gesture}s
 	 */
 	public synchronized void unregisterAllGestures() {
 		gestures.clear();
-		gestureInProgress = null;
+		gesturesChanged();
 	}
-	
+
 	@Override
 	protected void finalize() {
 		stop();
 		unregisterAllGestures();
-		listeners.clear();
+		listeners = new GestureListener[0];
+		if(executor != null)
+			executor.shutdown();
 	}
-	
+
 	/**
 	 * Notifies listeners if necessary, based on the {@link GestureState} transition that occurred.
 	 * Live {@link Gesture}s are notified of all events. Non-live gestures are only notified of gesture completion.
 	 * @param hands The hands the gesture is tracking.
 	 * @param gesture The gesture that may be firing the event.
 	 * @param oldState The old {@link GestureState} the gesture was in.
+	 * @param session The gesture session the gesture belongs to.
+	 * @param nameId The ID of the name of the gesture (see {@link GestureNames}).
 	 */
-	private void notifyListeners(List<HandData> hands, Gesture gesture, GestureState oldState) {
+	void notifyListeners(List<HandData> hands, Gesture gesture, GestureState oldState, GestureSession session, int nameId) {
 		GestureState currentState = gesture.getCurrentState();
-		
+
 		if(currentState == GestureState.IN_PROGRESS) {
 			if(oldState == GestureState.IN_PROGRESS && gesture.isLive())
-				notifyGestureInProgress(hands, gesture);
+				notifyGestureInProgress(createEvent(hands, gesture, session, nameId));
 			else if(oldState == GestureState.POSSIBLE_DETECTION && gesture.isLive())
-				notifyGestureStarted(hands, gesture);
+				notifyGestureStarted(createEvent(hands, gesture, session, nameId));
 			else if(gesture.isLive())
 				throw new IllegalStateException("Illegal state transition from: " + oldState + " to: " + currentState);
 		}
 		else if(currentState == GestureState.COMPLETED) {
 			if(oldState == GestureState.IN_PROGRESS)
-				notifyGestureCompleted(hands, gesture);
+				notifyGestureCompleted(createEvent(hands, gesture, session, nameId));
 			else if(oldState != GestureState.COMPLETED)
 				throw new IllegalStateException("Illegal state transition from: " + oldState + " to: " + currentState);
 		}
 		//else we don't care (no notification when entering other states)
 	}
-	
+
 	/**
-	 * Notifies listeners that the gesture is started (i.e. invokes {@link GestureListener#onGestureStarted(GestureData)})
-	 * @param hands The {@link HandData} of the current frame
+	 * Creates the event for a notification, or recycles the one of the session if event reuse is enabled
+	 * @param hands The hands the gesture is tracking
+	 * @param gesture The gesture firing the event
+	 * @param session The gesture session the gesture belongs to
+	 * @param nameId The ID of the name of the gesture
+	 * @return the event
 	 */
-	private void notifyGestureStarted(List<HandData> hands, Gesture gesture) {
-		GestureData gd = new GestureData(gesture.getName(), gesture.getCurrentState(), hands, gesture.getData(), gesture.isLive());
-		for(GestureListener l : listeners) {
-			l.onGestureStarted(gd);
+	private GestureData createEvent(List<HandData> hands, Gesture gesture, GestureSession session, int nameId) {
+		if(eventReuse) {
+			GestureData gd = session.getEvent();
+			gd.set(gesture.getName(), gesture.getCurrentState(), hands, gesture.getPayload(), gesture.isLive(), session.getId(), nameId);
+			return gd;
 		}
+		else {
+			//the session reuses its list of hands, the event must keep a copy of its own
+			GestureData gd = new GestureData(gesture.getName(), gesture.getCurrentState(), Collections.unmodifiableList(new ArrayList<HandData>(hands)),
+					gesture.getPayload(), gesture.isLive(), session.getId());
+			gd.setNameId(nameId);
+			return gd;
+		}
+	}
+
+	/**
+	 * Notifies listeners that the gesture is started (i.e. invokes {@link GestureListener#onGestureStarted(GestureData)})
+	 * @param gd The event to notify
+	 */
+	private void notifyGestureStarted(GestureData gd) {
+		GestureListener[] ls = listeners;
+		for(int i = 0; i < ls.length; ++i)
+			ls[i].onGestureStarted(gd);
 	}
-	
+
 	/**
 	 * Notifies listeners that the gesture is in progress (i.e. invokes {@link GestureListener#onGestureInProgress(GestureData)})
-	 * @param hands The {@link HandData} of the current frame
+	 * @param gd The event to notify
 	 */
-	private void notifyGestureInProgress(List<HandData> hands, Gesture gesture) {
-		GestureData gd = new GestureData(gesture.getName(), gesture.getCurrentState(), hands, gesture.getData(), gesture.isLive());
-		for(GestureListener l : listeners) {
-			l.onGestureInProgress(gd);
-		}
+	private void notifyGestureInProgress(GestureData gd) {
+		GestureListener[] ls = listeners;
+		for(int i = 0; i < ls.length; ++i)
+			ls[i].onGestureInProgress(gd);
 	}
-	
+
 	/**
 	 * Notifies listeners that the gesture has completed (i.e. invokes {@link GestureListener#onGestureCompleted(GestureData)})
-	 * @param hands The {@link HandData} of the current frame
+	 * @param gd The event to notify
 	 */
-	private void notifyGestureCompleted(List<HandData> hands, Gesture gesture) {
-		GestureData gd = new GestureData(gesture.getName(), gesture.getCurrentState(), hands, gesture.getData(), gesture.isLive());
-		for(GestureListener l : listeners) {
-			l.onGestureCompleted(gd);
-		}
+	private void notifyGestureCompleted(GestureData gd) {
+		GestureListener[] ls = listeners;
+		for(int i = 0; i < ls.length; ++i)
+			ls[i].onGestureCompleted(gd);
 	}
 
 }
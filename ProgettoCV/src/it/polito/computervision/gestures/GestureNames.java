@@ -0,0 +1,82 @@
+package it.polito.computervision.gestures;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Singleton that interns gesture names to small integer IDs, so that per-event lookups by name (e.g. to find the listeners bound to a gesture)
+ * can be replaced by array reads. IDs are assigned in order starting from 0, and are never reused.
+ * Names are interned when gestures are registered (see {@link GestureManager}) or bound (see {@link it.polito.computervision.actions.ActionManager}),
+ * so that the IDs are known before events are dispatched (see {@link GestureData#getNameId()}).
+ * @author Giovanni Piumatti
+ *
+ */
+public class GestureNames {
+
+	private static GestureNames instance = null;
+
+	private final Map<String, Integer> ids;
+	private volatile String[] names;
+
+	private GestureNames() {
+		ids = new HashMap<String, Integer>();
+		names = new String[0];
+	}
+
+	public static synchronized GestureNames getInstance() {
+		if(instance == null)
+			instance = new GestureNames();
+
+		return instance;
+	}
+
+	/**
+	 * Returns the ID of a gesture name, assigning a new one if the name has never been interned
+	 * @param name The name of a gesture
+	 * @return the ID of the name
+	 */
+	public synchronized int intern(String name) {
+		if(name == null)
+			throw new IllegalArgumentException("name is null");
+
+		Integer id = ids.get(name);
+		if(id == null) {
+			id = names.length;
+			ids.put(name, id);
+			String[] newNames = Arrays.copyOf(names, id + 1);
+			newNames[id] = name;
+			names = newNames;
+		}
+		return id;
+	}
+
+	/**
+	 * @param name The name of a gesture
+	 * @return the ID of the name, or -1 if it has never been interned
+	 */
+	public synchronized int lookup(String name) {
+		Integer id = ids.get(name);
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * @param id An ID returned by {@link #intern(String)}
+	 * @return the name with the given ID
+	 */
+	public String getName(int id) {
+		String[] n = names;
+		if(id < 0 || id >= n.length)
+			throw new IllegalArgumentException("Unknown gesture name ID: " + id);
+
+		return n[id];
+	}
+
+	/**
+	 *
+	 * @return the number of interned names, i.e. one more than the highest ID
+	 */
+	public int size() {
+		return names.length;
+	}
+}
@@ -0,0 +1,244 @@
+package it.polito.computervision.gestures;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The data associated to a gesture, bound to typed {@link DataKey}s.
+ * Values are stored in arrays indexed by {@link DataKey#getIndex()}, one per type, so float and int values are never boxed
+ * and updating a value on each frame does not allocate.
+ * @author Giovanni Piumatti
+ *
+ */
+public class GesturePayload {
+
+	private boolean[] present;
+	private float[] floats;
+	private int[] ints;
+	private Object[] objects;
+	private int size;
+
+	public GesturePayload() {
+		int capacity = Math.max(DataKey.getKeyCount(), 8);
+		present = new boolean[capacity];
+		floats = new float[capacity];
+		ints = new int[capacity];
+		objects = new Object[capacity];
+		size = 0;
+	}
+
+	/**
+	 * Makes sure the arrays can hold the value of the key with the given index (keys may be created after this payload)
+	 * @param index The index of the key
+	 */
+	private void ensureCapacity(int index) {
+		if(index >= present.length) {
+			int capacity = Math.max(index + 1, Math.max(DataKey.getKeyCount(), present.length * 2));
+			present = Arrays.copyOf(present, capacity);
+			floats = Arrays.copyOf(floats, capacity);
+			ints = Arrays.copyOf(ints, capacity);
+			objects = Arrays.copyOf(objects, capacity);
+		}
+	}
+
+	/**
+	 * Marks the key with the given index as bound
+	 * @param index The index of the key
+	 */
+	private void mark(int index) {
+		if(!present[index]) {
+			present[index] = true;
+			++size;
+		}
+	}
+
+	/**
+	 * Binds a value to a key
+	 * @param key The key
+	 * @param value The value
+	 */
+	public void put(FloatKey key, float value) {
+		int i = key.getIndex();
+		ensureCapacity(i);
+		floats[i] = value;
+		mark(i);
+	}
+
+	/**
+	 * Binds a value to a key
+	 * @param key The key
+	 * @param value The value
+	 */
+	public void put(IntKey key, int value) {
+		int i = key.getIndex();
+		ensureCapacity(i);
+		ints[i] = value;
+		mark(i);
+	}
+
+	/**
+	 * Binds a value to a key
+	 * @param key The key
+	 * @param value The value
+	 */
+	public <T> void put(ObjectKey<T> key, T value) {
+		int i = key.getIndex();
+		ensureCapacity(i);
+		objects[i] = value;
+		mark(i);
+	}
+
+	/**
+	 * @param key The key
+	 * @return the value bound to the key, or 0 if there is none
+	 */
+	public float get(FloatKey key) {
+		int i = key.getIndex();
+		return i < present.length && present[i] ? floats[i] : 0.f;
+	}
+
+	/**
+	 * @param key The key
+	 * @return the value bound to the key, or 0 if there is none
+	 */
+	public int get(IntKey key) {
+		int i = key.getIndex();
+		return i < present.length && present[i] ? ints[i] : 0;
+	}
+
+	/**
+	 * @param key The key
+	 * @return the value bound to the key, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(ObjectKey<T> key) {
+		int i = key.getIndex();
+		return i < present.length && present[i] ? (T) objects[i] : null;
+	}
+
+	/**
+	 * @param key The key
+	 * @return true if a value is bound to the key, false otherwise
+	 */
+	public boolean has(DataKey key) {
+		int i = key.getIndex();
+		return i < present.length && present[i];
+	}
+
+	/**
+	 * Removes the value bound to a key, if any
+	 * @param key The key
+	 */
+	public void remove(DataKey key) {
+		int i = key.getIndex();
+		if(i < present.length && present[i]) {
+			present[i] = false;
+			objects[i] = null;
+			--size;
+		}
+	}
+
+	/**
+	 * Removes all values
+	 */
+	public void clear() {
+		Arrays.fill(present, false);
+		Arrays.fill(objects, null);
+		size = 0;
+	}
+
+	/**
+	 * Replaces the values of this payload with the values of another one
+	 * @param other The payload to copy
+	 */
+	public void copyFrom(GesturePayload other) {
+		if(present.length < other.present.length) {
+			present = new boolean[other.present.length];
+			floats = new float[other.present.length];
+			ints = new int[other.present.length];
+			objects = new Object[other.present.length];
+		}
+		else
+			clear();
+
+		int n = other.present.length;
+		System.arraycopy(other.present, 0, present, 0, n);
+		System.arraycopy(other.floats, 0, floats, 0, n);
+		System.arraycopy(other.ints, 0, ints, 0, n);
+		System.arraycopy(other.objects, 0, objects, 0, n);
+		size = other.size;
+	}
+
+	/**
+	 *
+	 * @return a copy of this payload. Object values are not copied.
+	 */
+	public GesturePayload copy() {
+		GesturePayload copy = new GesturePayload();
+		copy.copyFrom(this);
+		return copy;
+	}
+
+	/**
+	 *
+	 * @return the number of keys with a value bound to them
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the value bound to a key, boxed. This is slower than the typed getters and is meant for compatibility with string keys.
+	 * @param name The name of the key
+	 * @return the value bound to the key, or null if there is none
+	 */
+	public Object getBoxed(String name) {
+		DataKey key = DataKey.forName(name);
+		return key != null && has(key) ? box(key.getIndex()) : null;
+	}
+
+	/**
+	 * @param index The index of a bound key
+	 * @return the boxed value
+	 */
+	private Object box(int index) {
+		switch(DataKey.forIndex(index).getType()) {
+		case FLOAT:
+			return floats[index];
+		case INT:
+			return ints[index];
+		default:
+			return objects[index];
+		}
+	}
+
+	/**
+	 *
+	 * @return the names of all keys with a value bound to them
+	 */
+	public Set<String> getKeyNames() {
+		Set<String> names = new HashSet<String>();
+		for(int i = 0; i < present.length; ++i)
+			if(present[i])
+				names.add(DataKey.forIndex(i).getName());
+
+		return names;
+	}
+
+	/**
+	 *
+	 * @return an unmodifiable copy of this payload as a map of boxed values indexed by key name
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		for(int i = 0; i < present.length; ++i)
+			if(present[i])
+				map.put(DataKey.forIndex(i).getName(), box(i));
+
+		return Collections.unmodifiableMap(map);
+	}
+}
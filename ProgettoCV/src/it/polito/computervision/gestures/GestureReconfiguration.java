@@ -0,0 +1,132 @@
+package it.polito.computervision.gestures;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A set of changes to the registered {@link Gesture}s that is applied as a whole. Obtained from {@link GestureManager#reconfigure()}.
+ * Changes are collected without affecting the manager until {@link #commit()} is called: then they are applied at once to the registered gestures,
+ * and the resulting set replaces the one in use at the start of the next frame. Sessions therefore never see a partially applied reconfiguration,
+ * even if it is committed from a {@link GestureListener} while the current frame is being processed, or from another thread.
+ * Changes are applied in the order they were made, on top of the gestures registered at commit time, so concurrent reconfigurations do not overwrite each other.
+ * Instances are not thread safe and can only be committed once.
+ * @author Giovanni Piumatti
+ *
+ */
+public class GestureReconfiguration {
+
+	private final GestureManager manager;
+	/**
+	 * The gestures to register (true) or unregister (false), in the order of their last change
+	 */
+	private final Map<Gesture, Boolean> changes;
+	private boolean clear, committed;
+
+	/**
+	 * @param manager The {@link GestureManager} to reconfigure
+	 */
+	GestureReconfiguration(GestureManager manager) {
+		this.manager = manager;
+		changes = new LinkedHashMap<Gesture, Boolean>();
+		clear = false;
+		committed = false;
+	}
+
+	/**
+	 * Registers a {@link Gesture}
+	 * @param gesture The {@link Gesture} to register
+	 * @return this reconfiguration
+	 * @see GestureManager#registerGesture(Gesture)
+	 */
+	public GestureReconfiguration register(Gesture gesture) {
+		return change(gesture, true);
+	}
+
+	/**
+	 * Unregisters a {@link Gesture}
+	 * @param gesture The {@link Gesture} to unregister
+	 * @return this reconfiguration
+	 * @see GestureManager#unregisterGesture(Gesture)
+	 */
+	public GestureReconfiguration unregister(Gesture gesture) {
+		return change(gesture, false);
+	}
+
+	/**
+	 * Registers a collection of {@link Gesture}s
+	 * @param gestures The {@link Gesture}s to register
+	 * @return this reconfiguration
+	 */
+	public GestureReconfiguration registerAll(Collection<? extends Gesture> gestures) {
+		for(Gesture g : gestures)
+			change(g, true);
+		return this;
+	}
+
+	/**
+	 * Unregisters a collection of {@link Gesture}s
+	 * @param gestures The {@link Gesture}s to unregister
+	 * @return this reconfiguration
+	 */
+	public GestureReconfiguration unregisterAll(Collection<? extends Gesture> gestures) {
+		for(Gesture g : gestures)
+			change(g, false);
+		return this;
+	}
+
+	/**
+	 * Unregisters all the {@link Gesture}s, including the ones registered so far by this reconfiguration
+	 * @return this reconfiguration
+	 */
+	public GestureReconfiguration clear() {
+		checkNotCommitted();
+		changes.clear();
+		clear = true;
+		return this;
+	}
+
+	/**
+	 * Applies the changes. The new set of gestures will be used from the next frame on.
+	 * @throws IllegalStateException if this reconfiguration has already been committed
+	 */
+	public void commit() {
+		checkNotCommitted();
+		committed = true;
+		manager.commit(this);
+	}
+
+	/**
+	 * Applies the changes to a set of gestures
+	 * @param gestures The gestures to change
+	 * @return true if the set has changed
+	 */
+	boolean applyTo(Collection<Gesture> gestures) {
+		boolean changed = false;
+		if(clear && !gestures.isEmpty()) {
+			gestures.clear();
+			changed = true;
+		}
+
+		for(Map.Entry<Gesture, Boolean> e : changes.entrySet())
+			changed |= e.getValue() ? gestures.add(e.getKey()) : gestures.remove(e.getKey());
+
+		return changed;
+	}
+
+	private GestureReconfiguration change(Gesture gesture, boolean register) {
+		if(gesture == null)
+			throw new IllegalArgumentException("gesture is null");
+		checkNotCommitted();
+
+		//the last change of each gesture is the one that counts
+		changes.remove(gesture);
+		changes.put(gesture, register);
+		return this;
+	}
+
+	private void checkNotCommitted() {
+		if(committed)
+			throw new IllegalStateException("Reconfiguration already committed");
+	}
+}
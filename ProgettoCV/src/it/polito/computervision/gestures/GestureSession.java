@@ -0,0 +1,272 @@
+package it.polito.computervision.gestures;
+
+import it.polito.computervision.journal.EventJournal;
+import it.polito.computervision.journal.EventType;
+import it.polito.computervision.journal.Level;
+import it.polito.computervision.virtualscreen.HandData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The gesture state of a group of hands (see {@link HandGrouper}). Each session updates its own instances of the registered {@link Gesture}s
+ * with the hands of its group only, and has its own gesture in progress, so different groups of hands (i.e. different users)
+ * do not freeze or reset each other's gestures.
+ * If a {@link Gesture} is in state IN_PROGRESS or COMPLETED, then only that gesture will be updated, and all the others will be {@link Gesture#reset()}.
+ * Sessions are updated by the {@link GestureManager}, possibly concurrently with each other.
+ * @author Giovanni Piumatti
+ *
+ */
+class GestureSession {
+
+	private final GestureManager manager;
+	private final int id;
+	private final boolean shared;
+
+	private Gesture[] registered, gestures;
+	/**
+	 * The IDs of the names of the gestures (see {@link GestureNames}), interned when they are registered
+	 */
+	private int[] nameIds;
+	private Map<Gesture, Gesture> instances;
+	private Gesture gestureInProgress;
+	private ArrayList<HandData> gestureHands;
+	private List<HandData> gestureHandsView;
+	private GestureData event;
+	private final HandIndex handIndex;
+
+	/**
+	 * @param manager The {@link GestureManager} owning this session
+	 * @param id The ID of the group of hands
+	 * @param shared true if this session should update the registered gestures themselves, false if it should use its own instances
+	 */
+	GestureSession(GestureManager manager, int id, boolean shared) {
+		this.manager = manager;
+		this.id = id;
+		this.shared = shared;
+		gestures = new Gesture[0];
+		nameIds = new int[0];
+		instances = new HashMap<Gesture, Gesture>();
+		gestureInProgress = null;
+		registered = gestures;
+		gestureHands = new ArrayList<HandData>();
+		gestureHandsView = Collections.unmodifiableList(gestureHands);
+		event = new GestureData(null, GestureState.NOT_DETECTED, gestureHandsView, (GesturePayload) null, false, id);
+		handIndex = new HandIndex();
+	}
+
+	/**
+	 *
+	 * @return the ID of the group of hands this session is tracking
+	 */
+	int getId() {
+		return id;
+	}
+
+	/**
+	 *
+	 * @return the event recycled for the notifications of this session (see {@link GestureManager#setEventReuse(boolean)})
+	 */
+	GestureData getEvent() {
+		return event;
+	}
+
+	/**
+	 *
+	 * @return the index of the hands of the frame being processed, empty between frames
+	 */
+	HandIndex getHandIndex() {
+		return handIndex;
+	}
+
+	/**
+	 * Brings the set of gestures of this session in line with the gestures registered to the manager
+	 */
+	private void syncGestures() {
+		Gesture[] current = manager.getRegisteredGestures();
+		if(current == registered)
+			return;
+
+		registered = current;
+		Map<Gesture, Gesture> newInstances = new HashMap<Gesture, Gesture>();
+		Gesture[] newGestures = new Gesture[registered.length];
+		int[] newNameIds = new int[registered.length];
+		for(int i = 0; i < registered.length; ++i) {
+			Gesture prototype = registered[i];
+			Gesture g = instances.remove(prototype);
+			if(g == null)
+				g = shared ? prototype : prototype.newInstance();
+			newInstances.put(prototype, g);
+			newGestures[i] = g;
+			newNameIds[i] = GestureNames.getInstance().intern(g.getName());
+			if(g instanceof AbstractGesture)
+				((AbstractGesture) g).setSession(this);
+		}
+
+		//detach the gestures that have been unregistered
+		for(Gesture g : instances.values()) {
+			if(g instanceof AbstractGesture)
+				((AbstractGesture) g).setSession(null);
+			if(g == gestureInProgress)
+				gestureInProgress = null;
+			if(!shared)
+				g.reset();
+		}
+		instances = newInstances;
+		gestures = newGestures;
+		nameIds = newNameIds;
+	}
+
+	/**
+	 * Updates the gestures of this session with the hands of its group in the current frame
+	 * @param hands The hands of the group
+	 * @param timestamp The timestamp of the frame (in microseconds)
+	 */
+	synchronized void update(List<HandData> hands, long timestamp) {
+		syncGestures();
+		fireExpiredTimeouts(timestamp);
+		//the gestures look up the hands through the index, which is built once for all of them
+		handIndex.build(hands);
+
+		if(gestureInProgress != null) {
+			//we have a gesture in progress, only update this one
+			gestureHands.clear();
+			GestureState oldState = gestureInProgress.getCurrentState();
+			GestureState newState = gestureInProgress.updateState(hands, timestamp, gestureHands);
+			if(oldState != newState)
+				journalTransition(gestureInProgress, oldState, newState);
+			manager.notifyListeners(gestureHandsView, gestureInProgress, oldState, this, nameIds[indexOf(gestureInProgress)]);
+
+			if(newState != GestureState.IN_PROGRESS && newState != GestureState.COMPLETED) {
+				//remove it if it's no longer in progress or complete
+				gestureInProgress = null;
+			}
+		}
+		else {
+			//there's no gesture in progress, update them all
+			for(int i = 0; i < gestures.length; ++i) {
+				Gesture g = gestures[i];
+				gestureHands.clear();
+				GestureState oldState = g.getCurrentState();
+				GestureState newState = g.updateState(hands, timestamp, gestureHands);
+				if(oldState != newState)
+					journalTransition(g, oldState, newState);
+				manager.notifyListeners(gestureHandsView, g, oldState, this, nameIds[i]);
+
+				if(newState == GestureState.IN_PROGRESS) {
+					//if a gesture is in progress, remember it, break out of the loop and reset all other gestures
+					gestureInProgress = g;
+					resetOthers();
+					break;
+				}
+			}
+		}
+		handIndex.clear();
+	}
+
+	/**
+	 * Fires the timeouts whose deadline has been reached by a frame, before the frame is processed, as if they had expired
+	 * between the previous frame and this one. Each gesture fires at most once per frame, so timeouts re-armed with no delay
+	 * expire on the next frame.
+	 * @param timestamp The timestamp of the frame (in microseconds)
+	 */
+	private void fireExpiredTimeouts(long timestamp) {
+		for(int i = 0; i < gestures.length; ++i) {
+			Gesture g = gestures[i];
+			if(g instanceof AbstractGesture) {
+				Timeout t = ((AbstractGesture) g).getExpiredTimeout(timestamp);
+				if(t != null)
+					onGestureTimeout((AbstractGesture) g, t);
+			}
+		}
+	}
+
+	/**
+	 * Invoked (from the {@link TimerWheel} thread) when a timeout armed by a gesture of this session expires.
+	 * The transition is handled as if it happened during a frame, except that only the given gesture is updated.
+	 * @param gesture The gesture that armed the timeout
+	 * @param timeout The expired timeout
+	 */
+	synchronized void onGestureTimeout(AbstractGesture gesture, Timeout timeout) {
+		int index = indexOf(gesture);
+		if(index < 0)
+			return;
+
+		if(gestureInProgress != null && gestureInProgress != gesture) {
+			//another gesture is in progress, this one should have been reset
+			gesture.reset();
+			return;
+		}
+
+		gestureHands.clear();
+		GestureState oldState = gesture.getCurrentState();
+		GestureState newState = gesture.fireTimeout(timeout, gestureHands);
+		if(oldState != newState)
+			journalTransition(gesture, oldState, newState);
+		manager.notifyListeners(gestureHandsView, gesture, oldState, this, nameIds[index]);
+
+		if(newState == GestureState.IN_PROGRESS || newState == GestureState.COMPLETED) {
+			if(gestureInProgress == null) {
+				gestureInProgress = gesture;
+				resetOthers();
+			}
+		}
+		else
+			gestureInProgress = null;
+	}
+
+	/**
+	 * Records a state transition in the {@link EventJournal}. Transitions to IN_PROGRESS or COMPLETED are recorded as INFO, the others as DEBUG.
+	 * @param gesture The gesture that changed state
+	 * @param oldState The old state
+	 * @param newState The new state
+	 */
+	private void journalTransition(Gesture gesture, GestureState oldState, GestureState newState) {
+		Level level = newState == GestureState.IN_PROGRESS || newState == GestureState.COMPLETED ? Level.INFO : Level.DEBUG;
+		EventJournal.getInstance().record(level, EventType.GESTURE, gesture.getName(), oldState, newState, id);
+	}
+
+	/**
+	 * Resets all gestures except the one in progress
+	 */
+	private void resetOthers() {
+		for(int i = 0; i < gestures.length; ++i)
+			if(gestures[i] != gestureInProgress)
+				gestures[i].reset();
+	}
+
+	/**
+	 * @return the index of the gesture among the gestures of this session, or -1 if it is not one of them
+	 */
+	private int indexOf(Gesture gesture) {
+		for(int i = 0; i < gestures.length; ++i)
+			if(gestures[i] == gesture)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Resets all the gestures of this session
+	 */
+	synchronized void reset() {
+		for(Gesture g : gestures)
+			g.reset();
+		gestureInProgress = null;
+	}
+
+	/**
+	 * Resets and detaches all the gestures of this session. The session must not be used afterwards.
+	 */
+	synchronized void close() {
+		reset();
+		for(Gesture g : gestures)
+			if(g instanceof AbstractGesture)
+				((AbstractGesture) g).setSession(null);
+		gestures = registered = new Gesture[0];
+		nameIds = new int[0];
+		instances.clear();
+	}
+}
@@ -0,0 +1,27 @@
+package it.polito.computervision.gestures;
+
+import it.polito.computervision.virtualscreen.HandData;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partitions the hands of a frame into groups (e.g. one per user). The {@link GestureManager} keeps an independent gesture session for each group.
+ * @author Giovanni Piumatti
+ *
+ */
+public interface HandGrouper {
+
+	/**
+	 * The ID of the group used when hands are not grouped
+	 */
+	public static final int DEFAULT_GROUP = 0;
+
+	/**
+	 * Partitions the hands into groups. Every hand must be put in exactly one group.
+	 * Group IDs should be stable across frames, since a group that disappears has its gesture session closed.
+	 * @param hands The list of {@link HandData} of the new frame
+	 * @param groups (out) The groups, indexed by group ID
+	 */
+	public void group(List<HandData> hands, Map<Integer, List<HandData>> groups);
+}
@@ -0,0 +1,131 @@
+package it.polito.computervision.gestures;
+
+import it.polito.computervision.virtualscreen.HandData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Index of the hands of a frame, built once per frame by the {@link GestureSession} and shared by all its gestures, so that they can find
+ * a hand by ID, and the hands touching the screen, in constant time however many hands are in the frame.
+ * IDs are mapped to their slot in the list of hands by an open addressing table, which is emptied between frames
+ * by bumping a generation counter instead of being cleared.
+ * @author Giovanni Piumatti
+ *
+ */
+class HandIndex {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private List<HandData> hands;
+	private short[] keys;
+	private int[] slots, generations;
+	private int generation, mask;
+	private final ArrayList<HandData> touching;
+	private final List<HandData> touchingView;
+
+	HandIndex() {
+		hands = null;
+		keys = new short[MIN_CAPACITY];
+		slots = new int[MIN_CAPACITY];
+		generations = new int[MIN_CAPACITY];
+		generation = 0;
+		mask = MIN_CAPACITY - 1;
+		touching = new ArrayList<HandData>();
+		touchingView = Collections.unmodifiableList(touching);
+	}
+
+	/**
+	 * Indexes the hands of a new frame. Lists that do not support fast random access are not indexed.
+	 * @param hands The hands of the frame
+	 */
+	void build(List<HandData> hands) {
+		clear();
+		if(!(hands instanceof RandomAccess))
+			return;
+
+		int size = hands.size();
+		if(size * 2 > keys.length) {
+			int capacity = Integer.highestOneBit(size * 2 - 1) << 1;
+			keys = new short[capacity];
+			slots = new int[capacity];
+			generations = new int[capacity];
+			mask = capacity - 1;
+		}
+
+		for(int i = 0; i < size; ++i) {
+			HandData hd = hands.get(i);
+			int k = hash(hd.getId());
+			while(generations[k] == generation && keys[k] != hd.getId())
+				k = (k + 1) & mask;
+			//keep the first occurrence of duplicated IDs, like a scan of the list would
+			if(generations[k] != generation) {
+				keys[k] = hd.getId();
+				slots[k] = i;
+				generations[k] = generation;
+			}
+			if(hd.isTouching())
+				touching.add(hd);
+		}
+		this.hands = hands;
+	}
+
+	/**
+	 * Empties the index
+	 */
+	void clear() {
+		hands = null;
+		touching.clear();
+		if(++generation == 0) {
+			//the counter wrapped around, stale entries could match again
+			Arrays.fill(generations, 0);
+			generation = 1;
+		}
+	}
+
+	/**
+	 * @param hands A list of hands
+	 * @return true if this is the index of the given list
+	 */
+	boolean isIndexOf(List<HandData> hands) {
+		return hands != null && this.hands == hands;
+	}
+
+	/**
+	 * @param id The ID of a hand
+	 * @return the position of the hand in the indexed list, or -1 if it is not there
+	 */
+	int slotOf(short id) {
+		if(hands == null)
+			return -1;
+
+		for(int k = hash(id); generations[k] == generation; k = (k + 1) & mask)
+			if(keys[k] == id)
+				return slots[k];
+
+		return -1;
+	}
+
+	/**
+	 * @param id The ID of a hand
+	 * @return the hand with the given ID, or null if it is not in the indexed list
+	 */
+	HandData get(short id) {
+		int slot = slotOf(id);
+		return slot >= 0 ? hands.get(slot) : null;
+	}
+
+	/**
+	 * @return the indexed hands that are touching the screen
+	 */
+	List<HandData> getTouching() {
+		return touchingView;
+	}
+
+	private int hash(short id) {
+		return (id * 0x9E3779B9 >>> 16) & mask;
+	}
+}
@@ -0,0 +1,105 @@
+package it.polito.computervision.gestures;
+
+import it.polito.computervision.virtualscreen.HandData;
+
+/**
+ * Geometry of the vector between the two hands tracked by a {@link TwoHandGesture}, computed once per frame and shared by
+ * all the quantities a two-handed gesture may need (distance, angle and center).
+ * The angle is unwrapped incrementally, so it changes continuously (i.e. it can go beyond +/- PI) as long as the pair is tracked.
+ * Angles are in radians, measured from the point of view of the user (the X axis is mirrored, like in the pan gesture),
+ * positive angles are counterclockwise.
+ * @author Giovanni Piumatti
+ *
+ */
+public class HandPair {
+
+	private static final double TWO_PI = 2 * Math.PI;
+
+	private boolean valid;
+	private float dx, dy, distance, centerX, centerY;
+	private double rawAngle, angle;
+
+	public HandPair() {
+		reset();
+	}
+
+	/**
+	 * Forgets the previous angle, so that the next update starts a new unwrapping sequence
+	 */
+	public void reset() {
+		valid = false;
+		dx = dy = distance = centerX = centerY = 0.f;
+		rawAngle = angle = 0;
+	}
+
+	/**
+	 * Updates the geometry with the hands of the current frame. The hands must always be passed in the same order.
+	 * @param first The first hand
+	 * @param second The second hand
+	 */
+	public void update(HandData first, HandData second) {
+		float x0 = first.getPosition().getX(), y0 = first.getPosition().getY();
+		float x1 = second.getPosition().getX(), y1 = second.getPosition().getY();
+		dx = x1 - x0;
+		dy = y1 - y0;
+		distance = (float) Math.sqrt(dx*dx + dy*dy);
+		centerX = (first.getProjectedPosition().getX() + second.getProjectedPosition().getX()) / 2;
+		centerY = (first.getProjectedPosition().getY() + second.getProjectedPosition().getY()) / 2;
+
+		double raw = Math.atan2(dy, -dx);
+		if(valid) {
+			//unwrap: take the shortest rotation from the previous angle
+			double delta = raw - rawAngle;
+			if(delta > Math.PI)
+				delta -= TWO_PI;
+			else if(delta < -Math.PI)
+				delta += TWO_PI;
+			angle += delta;
+		}
+		else {
+			angle = raw;
+			valid = true;
+		}
+		rawAngle = raw;
+	}
+
+	/**
+	 *
+	 * @return true if the pair has been updated at least once since the last reset
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 *
+	 * @return the distance between the two hands (in mm)
+	 */
+	public float getDistance() {
+		return distance;
+	}
+
+	/**
+	 *
+	 * @return the unwrapped angle of the vector from the first to the second hand (in radians)
+	 */
+	public double getAngle() {
+		return angle;
+	}
+
+	/**
+	 *
+	 * @return the X coordinate of the midpoint of the two hands, in depth coordinates (see {@link HandData#getProjectedPosition()})
+	 */
+	public float getCenterX() {
+		return centerX;
+	}
+
+	/**
+	 *
+	 * @return the Y coordinate of the midpoint of the two hands, in depth coordinates (see {@link HandData#getProjectedPosition()})
+	 */
+	public float getCenterY() {
+		return centerY;
+	}
+}
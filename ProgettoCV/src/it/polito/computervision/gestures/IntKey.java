@@ -0,0 +1,30 @@
+package it.polito.computervision.gestures;
+
+/**
+ * A {@link DataKey} bound to int values, which are stored unboxed.
+ * @author Giovanni Piumatti
+ *
+ */
+public final class IntKey extends DataKey {
+
+	IntKey(String name, int index) {
+		super(name, index);
+	}
+
+	/**
+	 * @param name The name of the key
+	 * @return the int key with the given name
+	 * @throws IllegalArgumentException if a key with the same name but a different type already exists
+	 */
+	public static IntKey of(String name) {
+		return (IntKey) intern(name, Type.INT);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Type getType() {
+		return Type.INT;
+	}
+}
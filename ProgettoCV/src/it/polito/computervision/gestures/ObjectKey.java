@@ -0,0 +1,33 @@
+package it.polito.computervision.gestures;
+
+/**
+ * A {@link DataKey} bound to object values of type T.
+ * @author Giovanni Piumatti
+ *
+ * @param <T> The type of the values
+ */
+public final class ObjectKey<T> extends DataKey {
+
+	ObjectKey(String name, int index) {
+		super(name, index);
+	}
+
+	/**
+	 * Returns the object key with the given name. Since keys are interned by name, all keys with the same name should be declared with the same type T.
+	 * @param name The name of the key
+	 * @return the object key with the given name
+	 * @throws IllegalArgumentException if a key with the same name but a different type already exists
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> ObjectKey<T> of(String name) {
+		return (ObjectKey<T>) intern(name, Type.OBJECT);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Type getType() {
+		return Type.OBJECT;
+	}
+}
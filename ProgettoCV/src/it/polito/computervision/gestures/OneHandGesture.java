@@ -7,6 +7,8 @@ import java.util.List;
 /**
  * Implements common functionality of one-handed gestures.
  * One hand gestures work only if there is exactly one hand touching the virtual screen.
+ * The tracked hand is found by ID (see {@link #findHand(List, short)}), so the cost of a frame does not grow with the number of hands in it.
+ * If the tracked hand is missing from a frame, the gesture keeps its state for up to {@link #LOST_HAND_GRACE} ms before considering it lost.
  * @author giovanni
  *
  */
@@ -14,22 +16,26 @@ public abstract class OneHandGesture extends AbstractGesture {
 
 	private short handId;
 	private HandData lastKnownHand;
+	private long lastSeen;
 
 	public OneHandGesture(String name, boolean live) {
 		super(name, live);
 		handId = -1;
 		lastKnownHand = null;
+		lastSeen = 0;
 	}
 	
 	@Override
 	protected void doReset() {
 		handId = -1;
 		lastKnownHand = null;
+		lastSeen = 0;
 	}
 
 
 	@Override
-	public GestureState updateState(List<HandData> hands, List<HandData> gestureHands) {
+	public GestureState updateState(List<HandData> hands, long timestamp, List<HandData> gestureHands) {
+		advanceTime(timestamp);
 		List<HandData> touching = getTouchingHands(hands);
 		boolean touchReleased = false;
 		HandData currentlyTrackedHand = null;
@@ -56,18 +62,20 @@ public abstract class OneHandGesture extends AbstractGesture {
 			//if we were tracking a hand and now it's not touching anymore
 			if(handId >= 0 && touching.isEmpty()) {				
 				//check if we find the hand we were tracking
-				for(HandData hd : hands)
-					if(hd.getId() == handId) {
-						currentlyTrackedHand = hd;
-						touchReleased = true;
-					}
+				currentlyTrackedHand = findHand(hands, handId);
+				touchReleased = currentlyTrackedHand != null;
 
-				//otherwise it was lost
+				//otherwise it was lost, unless it is only missing from this frame
+				if(currentlyTrackedHand == null && lastKnownHand != null && timestamp > 0 && getElapsed(lastSeen) < LOST_HAND_GRACE) {
+					gestureHands.add(lastKnownHand);
+					return currentState;
+				}
 			}
 		}
 		
 		if(currentlyTrackedHand != null) {
 			lastKnownHand = currentlyTrackedHand;
+			lastSeen = timestamp;
 		}
 		
 		if(lastKnownHand != null)
@@ -83,7 +91,15 @@ public abstract class OneHandGesture extends AbstractGesture {
 
 
 	/**
-	 * Concrete gestures must implement this method. The semantics are the same of {@link Gesture#updateState(List,List)}.
+	 * 
+	 * @return the last known {@link HandData} of the hand this gesture is tracking, or null if it is not tracking any hand
+	 */
+	protected HandData getLastKnownHand() {
+		return lastKnownHand;
+	}
+
+	/**
+	 * Concrete gestures must implement this method. The semantics are the same of {@link Gesture#updateState(List,long,List)}.
 	 * When a hand touches the screen, that becomes the currently tracked hand, and is passed to this method until either a {@link #reset()} is
 	 * called or the hand is lost (not tracked anymore).
 	 * @param currentlyTrackedHand The {@link HandData} currently being tracked for this gesture, or null if no hand is being tracked yet
@@ -0,0 +1,170 @@
+package it.polito.computervision.gestures;
+
+import it.polito.computervision.virtualscreen.HandData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups hands that are close to each other on the virtual screen, assuming hands of the same user are never further apart than a given distance.
+ * Groups are transitive (i.e. two hands are in the same group if there is a chain of close hands between them).
+ * Group IDs are carried over between frames: a group takes the ID the majority of its hands had in the previous frame
+ * (when a group splits, the part with most of the hands keeps it), and only groups of new hands (or the smaller parts of a split) get a new ID,
+ * so a session is not closed when a hand joins or leaves the group of a user.
+ * The grouper keeps the groups of the previous frame, so an instance must not be shared between {@link GestureManager}s.
+ * @author Giovanni Piumatti
+ *
+ */
+public class ProximityHandGrouper implements HandGrouper {
+
+	public static final float DISTANCE = 600.f;
+	/**
+	 * Marks a hand without a previous group, or a cluster without a group yet. New IDs count up from 1, so they never reach it
+	 */
+	private static final int NONE = Integer.MIN_VALUE;
+
+	private float distance;
+	/**
+	 * The hands of the previous frame and their groups, and the next new group ID
+	 */
+	private short[] previousHands;
+	private int[] previousGroups;
+	private int previousCount, nextId;
+
+	/**
+	 * Creates a ProximityHandGrouper with the default distance
+	 */
+	public ProximityHandGrouper() {
+		this(DISTANCE);
+	}
+
+	/**
+	 * @param distance The maximum distance (in mm in real world coordinates) between two hands of the same group
+	 */
+	public ProximityHandGrouper(float distance) {
+		if(distance <= 0)
+			throw new IllegalArgumentException("distance <= 0");
+
+		this.distance = distance;
+		previousHands = new short[0];
+		previousGroups = new int[0];
+		previousCount = 0;
+		nextId = DEFAULT_GROUP + 1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void group(List<HandData> hands, Map<Integer, List<HandData>> groups) {
+		int n = hands.size();
+		int[] parent = new int[n];
+		for(int i = 0; i < n; ++i)
+			parent[i] = i;
+
+		float sqDistance = distance * distance;
+		for(int i = 0; i < n; ++i) {
+			HandData a = hands.get(i);
+			for(int j = i + 1; j < n; ++j) {
+				HandData b = hands.get(j);
+				float dx = a.getPosition().getX() - b.getPosition().getX();
+				float dy = a.getPosition().getY() - b.getPosition().getY();
+				if(dx*dx + dy*dy <= sqDistance) {
+					int ra = find(parent, i), rb = find(parent, j);
+					if(ra != rb)
+						parent[ra] = rb;
+				}
+			}
+		}
+
+		//number the clusters, and find the group each hand was in
+		int clusters = 0;
+		int[] cluster = new int[n], index = new int[n], previous = new int[n];
+		for(int i = 0; i < n; ++i)
+			index[i] = -1;
+		for(int i = 0; i < n; ++i) {
+			int root = find(parent, i);
+			if(index[root] < 0)
+				index[root] = clusters++;
+			cluster[i] = index[root];
+			previous[i] = getPreviousGroup(hands.get(i).getId());
+		}
+
+		//the votes of each hand for its previous group, i.e. how many hands of its cluster were in the same group
+		int[] votes = new int[n];
+		for(int i = 0; i < n; ++i)
+			for(int j = 0; j < n; ++j)
+				if(previous[i] != NONE && cluster[j] == cluster[i] && previous[j] == previous[i])
+					++votes[i];
+
+		//the largest votes win first, so each previous ID goes to the cluster with most of its hands
+		int[] groupId = new int[clusters];
+		for(int c = 0; c < clusters; ++c)
+			groupId[c] = NONE;
+		while(true) {
+			int best = -1;
+			for(int i = 0; i < n; ++i) {
+				if(votes[i] > 0 && groupId[cluster[i]] == NONE && !contains(groupId, previous[i])
+						&& (best < 0 || votes[i] > votes[best] || (votes[i] == votes[best] && previous[i] < previous[best])))
+					best = i;
+			}
+			if(best < 0)
+				break;
+			groupId[cluster[best]] = previous[best];
+		}
+		for(int c = 0; c < clusters; ++c)
+			if(groupId[c] == NONE)
+				groupId[c] = nextId++;
+
+		if(previousHands.length < n) {
+			previousHands = new short[n];
+			previousGroups = new int[n];
+		}
+		previousCount = n;
+		for(int i = 0; i < n; ++i) {
+			int id = groupId[cluster[i]];
+			List<HandData> group = groups.get(id);
+			if(group == null) {
+				group = new ArrayList<HandData>();
+				groups.put(id, group);
+			}
+			group.add(hands.get(i));
+			previousHands[i] = hands.get(i).getId();
+			previousGroups[i] = id;
+		}
+	}
+
+	/**
+	 * @return the group of the hand in the previous frame, or {@link #NONE} if it was not there
+	 */
+	private int getPreviousGroup(short id) {
+		for(int i = 0; i < previousCount; ++i)
+			if(previousHands[i] == id)
+				return previousGroups[i];
+		return NONE;
+	}
+
+	private static boolean contains(int[] values, int value) {
+		for(int v : values)
+			if(v == value)
+				return true;
+		return false;
+	}
+
+	private static int find(int[] parent, int i) {
+		while(parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 *
+	 * @return the maximum distance (in mm) between two hands of the same group
+	 */
+	public float getDistance() {
+		return distance;
+	}
+}
@@ -0,0 +1,109 @@
+package it.polito.computervision.gestures;
+
+/**
+ * Streaming mean and variance of a series of samples (Welford's algorithm).
+ * If a window is set, once that many samples have been collected each new sample weighs as if the count stayed at the window size,
+ * so that older samples are progressively forgotten and the estimates can follow slow changes.
+ * @author Giovanni Piumatti
+ *
+ */
+public class RunningStats {
+
+	private final int window;
+	private long count;
+	private double mean, m2;
+
+	/**
+	 * Creates statistics over all samples
+	 */
+	public RunningStats() {
+		this(0);
+	}
+
+	/**
+	 * @param window The number of samples after which older samples start being forgotten, or 0 to never forget
+	 */
+	public RunningStats(int window) {
+		if(window < 0)
+			throw new IllegalArgumentException("window < 0");
+
+		this.window = window;
+		clear();
+	}
+
+	/**
+	 * Adds a sample
+	 * @param x The sample
+	 */
+	public void add(double x) {
+		if(window == 0 || count < window)
+			++count;
+		else
+			m2 *= (double) (count - 1) / count;
+
+		double delta = x - mean;
+		mean += delta / count;
+		m2 += delta * (x - mean);
+	}
+
+	/**
+	 * Adds all the samples collected by other statistics to these
+	 * @param other The statistics to merge
+	 */
+	public void merge(RunningStats other) {
+		if(other.count == 0)
+			return;
+
+		long n = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / n;
+		m2 += other.m2 + delta * delta * count * other.count / n;
+		count = n;
+		if(window > 0 && count > window) {
+			m2 *= (double) window / count;
+			count = window;
+		}
+	}
+
+	public void clear() {
+		count = 0;
+		mean = m2 = 0;
+	}
+
+	/**
+	 *
+	 * @return the number of samples (up to the window size, if set)
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return the mean of the samples, or NaN if there are none
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 *
+	 * @return the sample variance, or NaN if there are less than 2 samples
+	 */
+	public double getVariance() {
+		return count < 2 ? Double.NaN : m2 / (count - 1);
+	}
+
+	/**
+	 *
+	 * @return the sample standard deviation, or NaN if there are less than 2 samples
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + count + " mean=" + getMean() + " sd=" + getStandardDeviation();
+	}
+}
@@ -0,0 +1,323 @@
+package it.polito.computervision.gestures;
+
+/**
+ * Learns the detection and completion thresholds of a gesture for a single user, starting from the configured base thresholds.
+ * Since each gesture session has its own instances of the gestures (see {@link Gesture#newInstance()}), each session learns its own thresholds.
+ * Two quantities are learnt online:
+ * 	- the jitter of each hand: the standard deviation of its position noise, estimated from the second differences of its positions while touching,
+ * 	which cancel out any smooth movement (for white noise of variance s^2 the second difference has variance 6*s^2).
+ * 	Only evenly spaced positions are used, so that missed frames do not leak movement into the estimate.
+ * 	The detection threshold is never lower than {@link #JITTER_FACTOR} times the jitter of the hands performing the gesture, so that shaky hands
+ * 	do not trigger false starts.
+ * 	- the typical amplitude of the gesture: the peak displacement reached by each touch that was detected, or that came close to detection
+ * 	(see {@link #NEAR_MISS}). Both thresholds are scaled so that the completion threshold is {@link #AMPLITUDE_FRACTION} of the typical amplitude
+ * 	(mean minus one standard deviation, so that most gestures of the user complete), so that users with small movements can still perform gestures.
+ * The scale is bounded by the configured minimum and maximum. Thresholds are computed when a touch begins and stay fixed until it ends.
+ * All methods are thread safe, so that the adapted values can be inspected while the gesture is being updated.
+ * @author Giovanni Piumatti
+ *
+ */
+public class ThresholdAdapter {
+
+	/**
+	 * Payload key of the detection threshold in use, published by adaptive gestures
+	 */
+	public static final FloatKey DETECTION_THRESHOLD = FloatKey.of("detectionThreshold");
+	/**
+	 * Payload key of the completion threshold in use, published by adaptive gestures
+	 */
+	public static final FloatKey COMPLETION_THRESHOLD = FloatKey.of("completionThreshold");
+
+	public static final float DEFAULT_MIN_SCALE = 0.5f;
+	public static final float DEFAULT_MAX_SCALE = 2.f;
+	/**
+	 * Minimum ratio between the detection threshold and the jitter of the hands
+	 */
+	public static final float JITTER_FACTOR = 6.f;
+	/**
+	 * Ratio between the adapted completion threshold and the typical amplitude
+	 */
+	public static final float AMPLITUDE_FRACTION = 0.8f;
+	/**
+	 * Minimum ratio between the peak displacement of an undetected touch and the detection threshold for the touch to count as an attempted gesture
+	 */
+	public static final float NEAR_MISS = 0.5f;
+	/**
+	 * Number of second differences (two per frame) needed before trusting a jitter estimate
+	 */
+	public static final int MIN_JITTER_SAMPLES = 60;
+	/**
+	 * Number of gestures needed before adapting to the amplitude
+	 */
+	public static final int MIN_AMPLITUDE_SAMPLES = 3;
+	/**
+	 * Number of second differences after which older ones start being forgotten (about 30 s at 30 fps)
+	 */
+	public static final int JITTER_WINDOW = 1800;
+	/**
+	 * Number of gestures after which older ones start being forgotten
+	 */
+	public static final int AMPLITUDE_WINDOW = 20;
+
+	/**
+	 * Number of hands whose jitter is tracked individually. When more hands are seen, the least recently seen one is merged into the user's jitter.
+	 */
+	private static final int MAX_HANDS = 4;
+
+	/**
+	 * The jitter estimate of a hand, with its last two positions
+	 */
+	private static class HandJitter {
+		private short id = -1;
+		private int positions;
+		private float x1, y1, x2, y2;
+		private long t1, t2;
+		private long lastSeen;
+		private final RunningStats stats = new RunningStats(JITTER_WINDOW);
+	}
+
+	private final float baseDetection, baseCompletion, minScale, maxScale;
+	private final HandJitter[] hands;
+	/**
+	 * Second differences of the hands no longer tracked individually
+	 */
+	private final RunningStats pastJitter;
+	/**
+	 * All second differences, recomputed when needed
+	 */
+	private final RunningStats userJitter;
+	private final RunningStats amplitude;
+
+	/**
+	 * Number of observations so far, used to find the least recently seen hand
+	 */
+	private long clock;
+	private boolean touching;
+	private short firstHand, secondHand;
+	private float peak, detection, completion;
+
+	/**
+	 * Creates an adapter with the default scale bounds
+	 * @param baseDetection The detection threshold to start from
+	 * @param baseCompletion The completion threshold to start from
+	 */
+	public ThresholdAdapter(float baseDetection, float baseCompletion) {
+		this(baseDetection, baseCompletion, DEFAULT_MIN_SCALE, DEFAULT_MAX_SCALE);
+	}
+
+	/**
+	 * @param baseDetection The detection threshold to start from
+	 * @param baseCompletion The completion threshold to start from
+	 * @param minScale The minimum ratio between the adapted and the base thresholds (0 < minScale <= 1)
+	 * @param maxScale The maximum ratio between the adapted and the base thresholds (>= 1)
+	 */
+	public ThresholdAdapter(float baseDetection, float baseCompletion, float minScale, float maxScale) {
+		if(baseDetection <= 0 || baseCompletion < baseDetection)
+			throw new IllegalArgumentException("baseDetection <= 0 or baseCompletion < baseDetection");
+		if(minScale <= 0 || minScale > 1 || maxScale < 1)
+			throw new IllegalArgumentException("minScale not in (0, 1] or maxScale < 1");
+
+		this.baseDetection = baseDetection;
+		this.baseCompletion = baseCompletion;
+		this.minScale = minScale;
+		this.maxScale = maxScale;
+		hands = new HandJitter[MAX_HANDS];
+		for(int i = 0; i < MAX_HANDS; ++i)
+			hands[i] = new HandJitter();
+		pastJitter = new RunningStats(JITTER_WINDOW);
+		userJitter = new RunningStats();
+		amplitude = new RunningStats(AMPLITUDE_WINDOW);
+		clock = 0;
+		touching = false;
+		firstHand = secondHand = -1;
+		peak = 0;
+		detection = baseDetection;
+		completion = baseCompletion;
+	}
+
+	/**
+	 * @return a new adapter with the same configuration, which has not learnt anything yet
+	 */
+	public ThresholdAdapter newInstance() {
+		return new ThresholdAdapter(baseDetection, baseCompletion, minScale, maxScale);
+	}
+
+	/**
+	 * Starts a touch, computing the thresholds to use until it ends
+	 * @param firstHand The ID of the hand performing the gesture
+	 * @param secondHand The ID of the other hand performing the gesture, or -1 for one hand gestures
+	 */
+	public synchronized void beginTouch(short firstHand, short secondHand) {
+		touching = true;
+		this.firstHand = firstHand;
+		this.secondHand = secondHand;
+		peak = 0;
+
+		float scale = 1.f;
+		if(amplitude.getCount() >= MIN_AMPLITUDE_SAMPLES) {
+			double typical = amplitude.getMean() - amplitude.getStandardDeviation();
+			scale = clamp(AMPLITUDE_FRACTION * (float) typical / baseCompletion, minScale, maxScale);
+		}
+
+		float floor = getJitterFloor(firstHand, secondHand);
+		detection = clamp(Math.max(baseDetection * scale, floor), baseDetection * minScale, baseDetection * maxScale);
+		completion = Math.max(clamp(baseCompletion * scale, baseCompletion * minScale, baseCompletion * maxScale), detection);
+	}
+
+	/**
+	 * Records the position of a hand while it is touching. Must be called once per frame for each hand performing the gesture.
+	 * @param id The ID of the hand
+	 * @param timestamp The timestamp of the frame (in microseconds)
+	 * @param x The X coordinate of the hand (in mm)
+	 * @param y The Y coordinate of the hand (in mm)
+	 */
+	public synchronized void observe(short id, long timestamp, float x, float y) {
+		HandJitter h = getHand(id);
+		h.lastSeen = ++clock;
+
+		if(h.positions >= 2) {
+			long dt1 = timestamp - h.t1, dt2 = h.t1 - h.t2;
+			if(dt1 > 0 && dt2 > 0 && Math.abs(dt1 - dt2) <= dt2 / 2) {
+				h.stats.add(x - 2*h.x1 + h.x2);
+				h.stats.add(y - 2*h.y1 + h.y2);
+			}
+		}
+		else
+			++h.positions;
+
+		h.x2 = h.x1;
+		h.y2 = h.y1;
+		h.t2 = h.t1;
+		h.x1 = x;
+		h.y1 = y;
+		h.t1 = timestamp;
+	}
+
+	/**
+	 * Records the displacement of the gesture from where the touch began (e.g. distance travelled, change of distance between the hands)
+	 * @param displacement The absolute displacement (in mm)
+	 */
+	public synchronized void observeAmplitude(float displacement) {
+		peak = Math.max(peak, displacement);
+	}
+
+	/**
+	 * Ends the touch, learning its amplitude if it was an attempted gesture. Does nothing if no touch is in progress.
+	 * @param detected Whether the gesture was detected during the touch
+	 */
+	public synchronized void endTouch(boolean detected) {
+		if(!touching)
+			return;
+
+		touching = false;
+		if(detected || (peak > getJitterFloor(firstHand, secondHand) && peak >= NEAR_MISS * detection))
+			amplitude.add(peak);
+
+		//positions of different touches are not consecutive
+		for(HandJitter h : hands)
+			h.positions = 0;
+	}
+
+	/**
+	 * @return the detection threshold in use (in mm)
+	 */
+	public synchronized float getDetectionThreshold() {
+		return detection;
+	}
+
+	/**
+	 * @return the completion threshold in use (in mm)
+	 */
+	public synchronized float getCompletionThreshold() {
+		return completion;
+	}
+
+	/**
+	 * @param id The ID of a hand
+	 * @return the standard deviation of the position noise of the hand (in mm), or the one of the user if the hand has not been observed long enough,
+	 * or NaN if neither is known
+	 */
+	public synchronized float getJitter(short id) {
+		for(HandJitter h : hands)
+			if(h.id == id && h.stats.getCount() >= MIN_JITTER_SAMPLES)
+				return (float) Math.sqrt(h.stats.getVariance() / 6);
+
+		return getUserJitter();
+	}
+
+	/**
+	 * @return the standard deviation of the position noise of all the hands of the user (in mm), or NaN if not known yet
+	 */
+	public synchronized float getUserJitter() {
+		userJitter.clear();
+		userJitter.merge(pastJitter);
+		for(HandJitter h : hands)
+			userJitter.merge(h.stats);
+
+		return userJitter.getCount() >= MIN_JITTER_SAMPLES ? (float) Math.sqrt(userJitter.getVariance() / 6) : Float.NaN;
+	}
+
+	/**
+	 * @return the typical amplitude of the gestures of the user (in mm), i.e. the mean minus one standard deviation, or NaN if not known yet
+	 */
+	public synchronized float getTypicalAmplitude() {
+		return amplitude.getCount() >= MIN_AMPLITUDE_SAMPLES ? (float) (amplitude.getMean() - amplitude.getStandardDeviation()) : Float.NaN;
+	}
+
+	public float getBaseDetectionThreshold() {
+		return baseDetection;
+	}
+
+	public float getBaseCompletionThreshold() {
+		return baseCompletion;
+	}
+
+	public float getMinScale() {
+		return minScale;
+	}
+
+	public float getMaxScale() {
+		return maxScale;
+	}
+
+	/**
+	 * @return the minimum displacement that cannot be caused by the jitter of the given hands, or 0 if their jitter is not known yet
+	 */
+	private float getJitterFloor(short firstHand, short secondHand) {
+		float first = getJitter(firstHand);
+		float variance = first * first;
+		if(secondHand >= 0) {
+			float second = getJitter(secondHand);
+			variance += second * second;
+		}
+		return Float.isNaN(variance) ? 0 : JITTER_FACTOR * (float) Math.sqrt(variance);
+	}
+
+	/**
+	 * @return the jitter estimate of the hand, replacing the least recently seen one if the hand is new
+	 */
+	private HandJitter getHand(short id) {
+		HandJitter oldest = hands[0];
+		for(HandJitter h : hands) {
+			if(h.id == id)
+				return h;
+			if(h.lastSeen < oldest.lastSeen)
+				oldest = h;
+		}
+
+		pastJitter.merge(oldest.stats);
+		oldest.stats.clear();
+		oldest.id = id;
+		oldest.positions = 0;
+		return oldest;
+	}
+
+	private static float clamp(float value, float min, float max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	@Override
+	public String toString() {
+		return "detection=" + getDetectionThreshold() + " completion=" + getCompletionThreshold() + " jitter=" + getUserJitter() + " amplitude=" + getTypicalAmplitude();
+	}
+}
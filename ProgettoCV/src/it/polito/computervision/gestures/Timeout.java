@@ -0,0 +1,70 @@
+package it.polito.computervision.gestures;
+
+/**
+ * A handle to a timeout scheduled on the {@link TimerWheel}.
+ * @author Giovanni Piumatti
+ *
+ */
+public final class Timeout {
+
+	private enum State { PENDING, CANCELLED, EXPIRED }
+
+	private final TimerWheel wheel;
+	private final TimeoutListener listener;
+	private State state;
+
+	//managed by the TimerWheel while holding its lock
+	final long deadlineTick;
+	Timeout prev, next;
+	int bucket;
+
+	Timeout(TimerWheel wheel, TimeoutListener listener, long deadlineTick) {
+		this.wheel = wheel;
+		this.listener = listener;
+		this.deadlineTick = deadlineTick;
+		state = State.PENDING;
+		prev = next = null;
+		bucket = -1;
+	}
+
+	/**
+	 * Cancels this timeout. The listener will not be invoked, unless it has already expired. This is an O(1) operation.
+	 * @return true if the timeout was cancelled, false if it had already expired or been cancelled
+	 */
+	public boolean cancel() {
+		return wheel.cancel(this);
+	}
+
+	/**
+	 *
+	 * @return true if this timeout has been cancelled, false otherwise
+	 */
+	public synchronized boolean isCancelled() {
+		return state == State.CANCELLED;
+	}
+
+	/**
+	 *
+	 * @return true if this timeout has expired (i.e. its listener has been or is being invoked), false otherwise
+	 */
+	public synchronized boolean isExpired() {
+		return state == State.EXPIRED;
+	}
+
+	/**
+	 * Moves this timeout out of the PENDING state
+	 * @param expired true to mark it as expired, false to mark it as cancelled
+	 * @return true if the timeout was pending, false otherwise
+	 */
+	synchronized boolean complete(boolean expired) {
+		if(state != State.PENDING)
+			return false;
+
+		state = expired ? State.EXPIRED : State.CANCELLED;
+		return true;
+	}
+
+	TimeoutListener getListener() {
+		return listener;
+	}
+}
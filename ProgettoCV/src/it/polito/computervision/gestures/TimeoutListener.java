@@ -0,0 +1,15 @@
+package it.polito.computervision.gestures;
+
+/**
+ * This interface is implemented by classes who want to be notified when a {@link Timeout} scheduled on the {@link TimerWheel} expires.
+ * @author Giovanni Piumatti
+ *
+ */
+public interface TimeoutListener {
+	/**
+	 * Invoked from the {@link TimerWheel} thread when the timeout expires.
+	 * Implementations should return quickly, since all timeouts share the same thread.
+	 * @param timeout The expired {@link Timeout}
+	 */
+	public void onTimeout(Timeout timeout);
+}
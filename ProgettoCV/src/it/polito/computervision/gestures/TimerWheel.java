@@ -0,0 +1,182 @@
+package it.polito.computervision.gestures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Singleton hashed timer wheel shared by all {@link Gesture}s that need time-based transitions.
+ * Timeouts are hashed into a fixed number of buckets by their deadline tick, so that scheduling and cancelling are O(1) operations,
+ * and a single daemon thread advances the wheel every {@link #TICK_DURATION} ms, independently of the arrival of frames.
+ * The resolution of the timeouts is therefore one tick. While no timeout is pending the thread sleeps until one is scheduled, so an idle wheel costs no wakeups.
+ * @author Giovanni Piumatti
+ *
+ */
+public class TimerWheel implements Runnable {
+
+	/**
+	 * Duration of a tick (in ms)
+	 */
+	public static final long TICK_DURATION = 10;
+	/**
+	 * Number of buckets of the wheel (must be a power of 2)
+	 */
+	public static final int WHEEL_SIZE = 512;
+
+	private static TimerWheel instance = null;
+
+	private final Timeout[] buckets;
+	private final int mask;
+	private final long tickNanos;
+	private long startTime, tick;
+	private int pending;
+	private Thread thread;
+
+	private TimerWheel() {
+		buckets = new Timeout[WHEEL_SIZE];
+		mask = WHEEL_SIZE - 1;
+		tickNanos = TICK_DURATION * 1000000L;
+		tick = 0;
+		pending = 0;
+		thread = null;
+	}
+
+	/**
+	 *
+	 * @return the {@link TimerWheel} instance
+	 */
+	public static synchronized TimerWheel getInstance() {
+		if(instance == null)
+			instance = new TimerWheel();
+
+		return instance;
+	}
+
+	/**
+	 * Schedules a new timeout. The wheel thread is started on the first call.
+	 * @param delay The delay (in ms) after which the listener is invoked. A delay of 0 expires on the next tick.
+	 * @param listener The {@link TimeoutListener} to invoke
+	 * @return the handle to the scheduled {@link Timeout}
+	 */
+	public synchronized Timeout schedule(long delay, TimeoutListener listener) {
+		if(delay < 0)
+			throw new IllegalArgumentException("delay < 0");
+		if(listener == null)
+			throw new IllegalArgumentException("listener is null");
+
+		if(thread == null) {
+			startTime = System.nanoTime();
+			thread = new Thread(this, "TimerWheel");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		long ticks = Math.max(1, (delay + TICK_DURATION - 1) / TICK_DURATION);
+		Timeout t = new Timeout(this, listener, tick + ticks);
+		t.bucket = (int) (t.deadlineTick & mask);
+		t.next = buckets[t.bucket];
+		if(t.next != null)
+			t.next.prev = t;
+		buckets[t.bucket] = t;
+		//wake up the thread if the wheel was idle
+		if(pending++ == 0)
+			notifyAll();
+
+		return t;
+	}
+
+	/**
+	 * Cancels the timeout, removing it from its bucket
+	 * @param t The timeout to cancel
+	 * @return true if it was pending, false otherwise
+	 */
+	synchronized boolean cancel(Timeout t) {
+		if(!t.complete(false))
+			return false;
+
+		unlink(t);
+		return true;
+	}
+
+	private void unlink(Timeout t) {
+		if(t.bucket < 0)
+			return;
+
+		if(t.prev != null)
+			t.prev.next = t.next;
+		else
+			buckets[t.bucket] = t.next;
+		if(t.next != null)
+			t.next.prev = t.prev;
+
+		t.prev = t.next = null;
+		t.bucket = -1;
+		--pending;
+	}
+
+	/**
+	 * Waits until a timeout is pending. If the wheel was idle, the ticks start again from the current time.
+	 * @return the next tick to advance to
+	 */
+	private synchronized long awaitPending(long nextTick) {
+		if(pending > 0)
+			return nextTick;
+
+		while(pending == 0) {
+			try {
+				wait();
+			}
+			catch(InterruptedException e) {}
+		}
+		startTime = System.nanoTime() - tick * tickNanos;
+		return tick + 1;
+	}
+
+	/**
+	 * Advances the wheel by one tick
+	 * @param expired (out) The timeouts that expired in this tick
+	 */
+	private synchronized void advance(List<Timeout> expired) {
+		++tick;
+		Timeout t = buckets[(int) (tick & mask)];
+		while(t != null) {
+			Timeout next = t.next;
+			if(t.deadlineTick <= tick) {
+				unlink(t);
+				if(t.complete(true))
+					expired.add(t);
+			}
+			t = next;
+		}
+	}
+
+	@Override
+	public final void run() {
+		List<Timeout> expired = new ArrayList<Timeout>();
+		long nextTick = 1;
+		while(true) {
+			nextTick = awaitPending(nextTick);
+			long sleep = startTime + nextTick * tickNanos - System.nanoTime();
+			if(sleep > 0) {
+				try {
+					Thread.sleep(sleep / 1000000L, (int) (sleep % 1000000L));
+				}
+				catch(InterruptedException e) {}
+				continue;
+			}
+
+			advance(expired);
+			++nextTick;
+
+			//invoke the listeners without holding the lock, so they can schedule new timeouts
+			for(Timeout t : expired) {
+				try {
+					t.getListener().onTimeout(t);
+				}
+				catch(RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			expired.clear();
+		}
+	}
+}
@@ -6,23 +6,41 @@ import java.util.List;
 
 /**
  * Implements common functionality for two-handed gestures.
+ * The tracked hands are always passed to implementations in the same order, and the geometry of the pair is computed once per frame
+ * in a {@link HandPair} (see {@link #getHandPair()}).
+ * The tracked hands are found by ID (see {@link #findHand(List, short)}), so other hands in the frame do not prevent the release of the touch from being detected,
+ * and the cost of a frame does not grow with the number of hands in it.
+ * If a tracked hand is missing from a frame, the gesture keeps its state for up to {@link #LOST_HAND_GRACE} ms before considering it lost.
  * @author Giovanni Piumatti
  *
  */
 public abstract class TwoHandGesture extends AbstractGesture {
 
 	private short[] handIds;
-	private HandData[] lastKnownHands;
+	private boolean tracking, known;
+	private HandData[] trackedHands, lastKnownHands;
+	private HandPair handPair;
+	private long lastSeen;
 
 	public TwoHandGesture(String name, boolean live) {
 		super(name, live);
-		handIds = null;
-		lastKnownHands = null;
+		handIds = new short[2];
+		tracking = false;
+		known = false;
+		trackedHands = new HandData[2];
+		lastKnownHands = new HandData[2];
+		handPair = new HandPair();
+		lastSeen = 0;
 	}
 
-	private boolean trackingBothHands(List<HandData> hands) {
-		if(handIds != null && hands.size() == 2) {
-			short id0 = hands.get(0).getId(), id1 = hands.get(1).getId();
+	/**
+	 * 
+	 * @param touching The two hands touching the screen
+	 * @return true if they are the tracked hands
+	 */
+	private boolean trackingBothHands(List<HandData> touching) {
+		if(tracking && touching.size() == 2) {
+			short id0 = touching.get(0).getId(), id1 = touching.get(1).getId();
 			if((id0 == handIds[0] && id1 == handIds[1]) || (id0 == handIds[1] && id1 == handIds[0]))
 				return true;
 		}
@@ -31,16 +49,17 @@ public abstract class TwoHandGesture extends AbstractGesture {
 	}
 
 	@Override
-	public GestureState updateState(List<HandData> hands, List<HandData> gestureHands) {
+	public GestureState updateState(List<HandData> hands, long timestamp, List<HandData> gestureHands) {
+		advanceTime(timestamp);
 		HandData[] currentlyTrackedHands = null;
 		List<HandData> touching = getTouchingHands(hands);
 		boolean touchReleased = false;
 		if(touching.size() == 2) {
-			if(handIds != null) {
+			if(tracking) {
 				//we were tracking 2 hands, check if they're both there
 				//two hands touching, but at least one is new, something odd is happening, just reset
 				if(trackingBothHands(touching)) {
-					currentlyTrackedHands = new HandData[2];
+					currentlyTrackedHands = trackedHands;
 					currentlyTrackedHands[0] = touching.get(0);
 					currentlyTrackedHands[1] = touching.get(1);
 				}
@@ -49,8 +68,8 @@ public abstract class TwoHandGesture extends AbstractGesture {
 			}
 			else {
 				//we were not tracking, take the 2 hands that are touching now
-				handIds = new short[2];
-				currentlyTrackedHands = new HandData[2];
+				tracking = true;
+				currentlyTrackedHands = trackedHands;
 				for(int i = 0; i < 2; ++i) {
 					currentlyTrackedHands[i] = touching.get(i);
 					handIds[i] = currentlyTrackedHands[i].getId();
@@ -58,14 +77,21 @@ public abstract class TwoHandGesture extends AbstractGesture {
 			}
 		}
 		else {
-			if(handIds != null && touching.size() < 2) {
+			if(tracking && touching.size() < 2) {
 				//we were tracking two hands, now they're not touching anymore, see if we find them
-				if(trackingBothHands(hands)) {
+				HandData h0 = findHand(hands, handIds[0]), h1 = findHand(hands, handIds[1]);
+				if(h0 != null && h1 != null) {
 					//if we are still tracking the two hands, send the touchReleased
 					touchReleased = true;
-					currentlyTrackedHands = new HandData[2];
-					currentlyTrackedHands[0] = hands.get(0);
-					currentlyTrackedHands[1] = hands.get(1);
+					currentlyTrackedHands = trackedHands;
+					currentlyTrackedHands[0] = h0;
+					currentlyTrackedHands[1] = h1;
+				}
+				else if(known && timestamp > 0 && getElapsed(lastSeen) < LOST_HAND_GRACE) {
+					//a hand is missing from this frame, wait for it before considering it lost
+					gestureHands.add(lastKnownHands[0]);
+					gestureHands.add(lastKnownHands[1]);
+					return currentState;
 				}
 				else {
 					//we lost tracking on at least a hand
@@ -79,10 +105,20 @@ public abstract class TwoHandGesture extends AbstractGesture {
 		}
 
 		if(currentlyTrackedHands != null) {
-			lastKnownHands = currentlyTrackedHands;
+			//keep the hands in the order of handIds
+			if(currentlyTrackedHands[0].getId() != handIds[0]) {
+				HandData tmp = currentlyTrackedHands[0];
+				currentlyTrackedHands[0] = currentlyTrackedHands[1];
+				currentlyTrackedHands[1] = tmp;
+			}
+			lastKnownHands[0] = currentlyTrackedHands[0];
+			lastKnownHands[1] = currentlyTrackedHands[1];
+			known = true;
+			lastSeen = timestamp;
+			handPair.update(currentlyTrackedHands[0], currentlyTrackedHands[1]);
 		}
 		
-		if(lastKnownHands != null) {
+		if(known) {
 			gestureHands.add(lastKnownHands[0]);
 			gestureHands.add(lastKnownHands[1]);
 		}
@@ -95,18 +131,30 @@ public abstract class TwoHandGesture extends AbstractGesture {
 	}
 
 	/**
-	 * Concrete gestures must implement this method. The semantics are the same of {@link Gesture#updateState(List, List)}.
+	 * 
+	 * @return the geometry of the tracked hands in the current frame. It is valid only if {@link #doUpdateState(HandData[], boolean)} received non-null hands.
+	 */
+	protected HandPair getHandPair() {
+		return handPair;
+	}
+
+	/**
+	 * Concrete gestures must implement this method. The semantics are the same of {@link Gesture#updateState(List,long,List)}.
 	 * When two hands are touching the screen at the same time, those become the currently tracked hands, and are passed to this method
 	 * until either {@link #reset()} is called or any of the hands is lost (not tracked anymore)
-	 * @param currentlyTrackedHands The {@link HandData} currently being tracked or null if there are no hands being tracked yet. The array will always have a size of 2.
+	 * @param currentlyTrackedHands The {@link HandData} currently being tracked or null if there are no hands being tracked yet. The array will always have a size of 2,
+	 * and it is reused on each frame.
 	 * @return The {@link GestureState} this gesture is in after the update.
 	 */
 	protected abstract GestureState doUpdateState(HandData[] currentlyTrackedHands, boolean touchReleased);
 
 	@Override
 	protected void doReset() {
-		handIds = null;
-		lastKnownHands = null;
+		tracking = false;
+		known = false;
+		trackedHands[0] = trackedHands[1] = null;
+		lastKnownHands[0] = lastKnownHands[1] = null;
+		handPair.reset();
 	}
 
 }
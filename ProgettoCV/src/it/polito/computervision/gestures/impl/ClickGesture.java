@@ -1,15 +1,19 @@
 package it.polito.computervision.gestures.impl;
 
+import java.util.List;
+
 import org.openni.Point2D;
 
 import it.polito.computervision.gestures.Gesture;
 import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.ObjectKey;
 import it.polito.computervision.gestures.OneHandGesture;
 import it.polito.computervision.virtualscreen.HandData;
 
 /**
  * Detects a click. That is, a single hand touched the screen, then released touch.
- * Custom data:
+ * The click completes right after the release (on the next tick of the timer, see {@link #armTimeout(long)}), without waiting for the next frame.
+ * Custom data (see the key constants):
  * 	- initialPosition: Point2D<Float> (the projected position where the hand touched the screen first)
  * 
  * @author Giovanni Piumatti
@@ -17,6 +21,8 @@ import it.polito.computervision.virtualscreen.HandData;
  */
 public class ClickGesture extends OneHandGesture {
 
+	public static final ObjectKey<Point2D<Float>> INITIAL_POSITION = ObjectKey.of("initialPosition");
+
 	private Point2D<Float> initialPosition;
 	
 	/**
@@ -46,13 +52,16 @@ public class ClickGesture extends OneHandGesture {
 				return GestureState.POSSIBLE_DETECTION;
 			}
 			else if(touchReleased) {
-				data.put("initialPosition", initialPosition);
+				data.put(INITIAL_POSITION, initialPosition);
+				armTimeout(0);
 				return GestureState.IN_PROGRESS;
 			}
 			else
 				return GestureState.NOT_DETECTED;
 
 		case IN_PROGRESS:
+			//a frame arrived before the completion timeout
+			cancelTimeout();
 			return GestureState.COMPLETED;
 
 		default:	//COMPLETED or unknown state...
@@ -60,11 +69,30 @@ public class ClickGesture extends OneHandGesture {
 		}
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected GestureState onTimeout(List<HandData> gestureHands) {
+		if(getLastKnownHand() != null)
+			gestureHands.add(getLastKnownHand());
+
+		return currentState == GestureState.IN_PROGRESS ? GestureState.COMPLETED : currentState;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Gesture newInstance() {
+		return new ClickGesture(getName());
+	}
+
 	@Override
 	protected void doReset() {
 		super.doReset();
 		initialPosition = null;
-		data.remove("initialPosition");
+		data.remove(INITIAL_POSITION);
 	}
 
 }
@@ -0,0 +1,239 @@
+package it.polito.computervision.gestures.impl;
+
+import java.util.List;
+
+import org.openni.Point2D;
+
+import it.polito.computervision.gestures.Gesture;
+import it.polito.computervision.gestures.GestureListener;
+import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.IntKey;
+import it.polito.computervision.gestures.ObjectKey;
+import it.polito.computervision.gestures.OneHandGesture;
+import it.polito.computervision.virtualscreen.HandData;
+
+/**
+ * Detects single and double clicks without delaying single clicks.
+ * Each tap completes as soon as the touch is released, exactly like a {@link ClickGesture}. A first tap is reported speculatively
+ * (clickCount = 1, pending = true) and opens a double click window. If a second tap starts within the window, close to the first one,
+ * it is reported as a double click (clickCount = 2). Otherwise, when the window expires, the single click is confirmed by another
+ * completion (clickCount = 1, pending = false). {@link GestureListener}s can therefore either act immediately on the speculative click
+ * or wait for the confirmation. If another gesture starts while a click is pending, the pending click is discarded without confirmation.
+ * If the window expires while another tap is in progress, the pending click is confirmed when that tap ends, before the tap is reported in turn.
+ * The window is measured on the frame timestamps, and each click completes right after it starts (on the next tick of the timer) without waiting for the next frame.
+ * Custom data (see the key constants):
+ * 	- initialPosition: Point2D<Float> (the projected position where the hand touched the screen first)
+ * 	- clickCount: int (1 for single clicks, 2 for double clicks)
+ * 	- pending: Boolean (true if a single click could still become a double click)
+ *
+ * @author Giovanni Piumatti
+ *
+ */
+public class DoubleClickGesture extends OneHandGesture {
+
+	public static final ObjectKey<Point2D<Float>> INITIAL_POSITION = ClickGesture.INITIAL_POSITION;
+	public static final IntKey CLICK_COUNT = IntKey.of("clickCount");
+	public static final ObjectKey<Boolean> PENDING = ObjectKey.of("pending");
+
+	public static final long WINDOW = 300;
+	public static final float TOLERANCE = 40.f;
+
+	private long window;
+	private float tolerance;
+	private Point2D<Float> initialPosition, pendingPosition;
+	private float startX, startY, pendingX, pendingY;
+	private long pendingDeadline;
+	private boolean pending, secondTap, confirming, queued;
+
+	/**
+	 * Creates a DoubleClickGesture with the given name and default window and tolerance
+	 * @param name The name of this {@link Gesture}.
+	 */
+	public DoubleClickGesture(String name) {
+		this(name, WINDOW, TOLERANCE);
+	}
+
+	/**
+	 * Creates a DoubleClickGesture with the given name, window and tolerance
+	 * @param name The name of this {@link Gesture}.
+	 * @param window The maximum time (in ms) between the release of the first tap and the touch of the second one
+	 * @param tolerance The maximum distance (in mm in real world coordinates) between the two taps
+	 */
+	public DoubleClickGesture(String name, long window, float tolerance) {
+		super(name, false);
+		if(window <= 0 || tolerance <= 0)
+			throw new IllegalArgumentException("window <= 0 or tolerance <= 0");
+
+		this.window = window;
+		this.tolerance = tolerance;
+		pending = secondTap = confirming = queued = false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public GestureState doUpdateState(HandData currentlyTrackedHand, boolean touchReleased) {
+		switch(currentState) {
+		case NOT_DETECTED:
+			if(currentlyTrackedHand != null) {
+				initialPosition = currentlyTrackedHand.getProjectedPosition();
+				startX = currentlyTrackedHand.getPosition().getX();
+				startY = currentlyTrackedHand.getPosition().getY();
+				float dx = startX - pendingX, dy = startY - pendingY;
+				secondTap = pending && dx*dx + dy*dy <= tolerance*tolerance;
+				return GestureState.POSSIBLE_DETECTION;
+			}
+			else
+				return GestureState.NOT_DETECTED;
+
+		case POSSIBLE_DETECTION:
+			if(currentlyTrackedHand != null && currentlyTrackedHand.isTouching()) {
+				return GestureState.POSSIBLE_DETECTION;
+			}
+			else if(touchReleased) {
+				if(secondTap && pending) {
+					cancelTimeout();
+					pending = false;
+					data.put(INITIAL_POSITION, pendingPosition);
+					data.put(CLICK_COUNT, 2);
+					data.put(PENDING, false);
+					armTimeout(0);
+					return GestureState.IN_PROGRESS;
+				}
+				else if(pending) {
+					//this tap ends the window of the pending click: confirm it, then report this one
+					GestureState state = confirm();
+					queued = true;
+					setPending();
+					return state;
+				}
+				else {
+					setPending();
+					return report();
+				}
+			}
+			else if(pending && getTime() >= pendingDeadline) {
+				//the tap was aborted after the window expired
+				return confirm();
+			}
+			else
+				return GestureState.NOT_DETECTED;
+
+		case IN_PROGRESS:
+			//a frame arrived before the completion timeout
+			return complete();
+
+		case COMPLETED:
+			return queued ? report() : GestureState.NOT_DETECTED;
+
+		default:	//unknown state...
+			return GestureState.NOT_DETECTED;
+		}
+	}
+
+	/**
+	 * Makes the tap just released the pending click, opening its double click window
+	 */
+	private void setPending() {
+		pending = true;
+		pendingPosition = initialPosition;
+		pendingX = startX;
+		pendingY = startY;
+		pendingDeadline = getTime() + window * 1000;
+	}
+
+	/**
+	 * Reports the pending click speculatively, completing on the next tick
+	 * @return the IN_PROGRESS state
+	 */
+	private GestureState report() {
+		queued = false;
+		data.put(INITIAL_POSITION, pendingPosition);
+		data.put(CLICK_COUNT, 1);
+		data.put(PENDING, true);
+		armTimeout(0);
+		return GestureState.IN_PROGRESS;
+	}
+
+	/**
+	 * Confirms the pending single click, completing on the next tick
+	 * @return the IN_PROGRESS state
+	 */
+	private GestureState confirm() {
+		pending = false;
+		confirming = true;
+		data.put(INITIAL_POSITION, pendingPosition);
+		data.put(CLICK_COUNT, 1);
+		data.put(PENDING, false);
+		armTimeout(0);
+		return GestureState.IN_PROGRESS;
+	}
+
+	/**
+	 * Completes the click in progress, and waits for the rest of the double click window if the click is pending
+	 * @return the COMPLETED state
+	 */
+	private GestureState complete() {
+		confirming = false;
+		if(queued)
+			armTimeout(0);
+		else if(pending)
+			armTimeout(Math.max(0, (pendingDeadline - getTime()) / 1000));
+		else
+			cancelTimeout();
+
+		return GestureState.COMPLETED;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected GestureState onTimeout(List<HandData> gestureHands) {
+		switch(currentState) {
+		case NOT_DETECTED:
+		case COMPLETED:
+			if(queued)
+				return report();
+			//the window expired: confirm the single click
+			else if(pending)
+				return confirm();
+			return currentState;
+
+		case IN_PROGRESS:
+			return complete();
+
+		default:
+			//a tap is in progress: the pending click is confirmed when it ends (see doUpdateState)
+			return currentState;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Gesture newInstance() {
+		return new DoubleClickGesture(getName(), window, tolerance);
+	}
+
+	@Override
+	protected void doReset() {
+		super.doReset();
+		//the pending click survives the reset at the end of each tap, while its window is armed. A reset by another gesture
+		//cancels the timeout first, so the pending click is discarded (even if its window expired during a tap)
+		if(!isTimeoutArmed())
+			pending = queued = false;
+		initialPosition = null;
+		secondTap = false;
+		if(confirming) {
+			confirming = false;
+			cancelTimeout();
+		}
+		data.remove(INITIAL_POSITION);
+		data.remove(CLICK_COUNT);
+		data.remove(PENDING);
+	}
+
+}
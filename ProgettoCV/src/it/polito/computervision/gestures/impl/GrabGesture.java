@@ -0,0 +1,148 @@
+package it.polito.computervision.gestures.impl;
+
+import java.util.List;
+
+import org.openni.Point2D;
+
+import it.polito.computervision.gestures.AbstractGesture;
+import it.polito.computervision.gestures.Gesture;
+import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.ObjectKey;
+import it.polito.computervision.virtualscreen.HandData;
+import it.polito.computervision.virtualscreen.HandPose;
+import it.polito.computervision.virtualscreen.HandPoseDetector;
+
+/**
+ * Implements a grab-to-drag gesture: the hand closes, moves while closed and opens again to release. Unlike a {@link PanGesture}, the hand does not
+ * need to touch the virtual screen, so it can be used instead of a pan, with the same listeners (the tracked hand is the first hand of the events).
+ * Requires the pose of the hands (see {@link HandPoseDetector}): the gesture is possible as soon as exactly one hand is closed,
+ * and is detected when the closed hand has moved by the detection threshold. While the gesture is in progress, only opening the hand
+ * (or losing it) completes it: frames where the pose is not known do not interrupt the drag.
+ * The gesture is live.
+ * Custom data (see the key constants):
+ * 	- initialPosition: Point2D<Float> (the projected position where the hand closed)
+ *
+ * @author Giovanni Piumatti
+ *
+ */
+public class GrabGesture extends AbstractGesture {
+
+	public static final ObjectKey<Point2D<Float>> INITIAL_POSITION = ClickGesture.INITIAL_POSITION;
+
+	/**
+	 * Default distance (in mm) the closed hand has to travel before the drag is detected
+	 */
+	public static final float DETECTION_THRESHOLD = 20.f;
+
+	private final float detectionThreshold;
+	private short handId;
+	private HandData lastKnownHand;
+	private long lastSeen;
+	private float startX, startY;
+
+	/**
+	 * Creates a grab gesture with the given name and the default threshold
+	 * @param name The name of this {@link Gesture}
+	 */
+	public GrabGesture(String name) {
+		this(name, DETECTION_THRESHOLD);
+	}
+
+	/**
+	 * @param name The name of this {@link Gesture}
+	 * @param detectionThreshold The distance (in mm in real world coordinates) the closed hand has to travel before triggering detection
+	 */
+	public GrabGesture(String name, float detectionThreshold) {
+		super(name, true);
+		if(detectionThreshold < 0)
+			throw new IllegalArgumentException("detectionThreshold < 0");
+
+		this.detectionThreshold = detectionThreshold;
+		handId = -1;
+		lastKnownHand = null;
+		lastSeen = 0;
+		startX = startY = 0.f;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public GestureState updateState(List<HandData> hands, long timestamp, List<HandData> gestureHands) {
+		advanceTime(timestamp);
+
+		HandData hand = null;
+		if(handId < 0) {
+			//not tracking any hand, track the only closed one
+			for(int i = 0; i < hands.size(); ++i) {
+				if(hands.get(i).getPose() == HandPose.CLOSED) {
+					if(hand != null)
+						return currentState;
+					hand = hands.get(i);
+				}
+			}
+			if(hand == null)
+				return currentState;
+
+			handId = hand.getId();
+			startX = hand.getPosition().getX();
+			startY = hand.getPosition().getY();
+			data.put(INITIAL_POSITION, hand.getProjectedPosition());
+		}
+		else {
+			hand = findHand(hands, handId);
+
+			//the hand is lost, unless it is only missing from this frame
+			if(hand == null && lastKnownHand != null && timestamp > 0 && getElapsed(lastSeen) < LOST_HAND_GRACE) {
+				gestureHands.add(lastKnownHand);
+				return currentState;
+			}
+		}
+
+		if(hand != null) {
+			lastKnownHand = hand;
+			lastSeen = timestamp;
+		}
+		if(lastKnownHand != null)
+			gestureHands.add(lastKnownHand);
+
+		boolean released = hand == null || hand.getPose() == HandPose.OPEN;
+		switch(currentState) {
+		case NOT_DETECTED:
+		case POSSIBLE_DETECTION:
+			if(released)
+				reset();
+			else {
+				float dx = hand.getPosition().getX() - startX, dy = hand.getPosition().getY() - startY;
+				currentState = dx*dx + dy*dy >= detectionThreshold * detectionThreshold ? GestureState.IN_PROGRESS : GestureState.POSSIBLE_DETECTION;
+			}
+			return currentState;
+
+		case IN_PROGRESS:
+			currentState = released ? GestureState.COMPLETED : GestureState.IN_PROGRESS;
+			return currentState;
+
+		default:	//COMPLETED or unknown state...
+			reset();
+			return currentState;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Gesture newInstance() {
+		return new GrabGesture(getName(), detectionThreshold);
+	}
+
+	@Override
+	protected void doReset() {
+		handId = -1;
+		lastKnownHand = null;
+		lastSeen = 0;
+		startX = startY = 0.f;
+		data.remove(INITIAL_POSITION);
+	}
+
+}
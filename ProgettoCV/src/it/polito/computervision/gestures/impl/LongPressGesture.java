@@ -0,0 +1,142 @@
+package it.polito.computervision.gestures.impl;
+
+import java.util.List;
+
+import org.openni.Point2D;
+
+import it.polito.computervision.gestures.Gesture;
+import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.ObjectKey;
+import it.polito.computervision.gestures.OneHandGesture;
+import it.polito.computervision.gestures.TimerWheel;
+import it.polito.computervision.virtualscreen.HandData;
+
+/**
+ * Detects a long press (dwell). That is, a single hand touched the screen and held still for a given time.
+ * Unlike {@link ClickGesture}, it does not need the touch to be released, and it completes when the time elapses
+ * (using the shared {@link TimerWheel}), even if no new frame arrives.
+ * Custom data (see the key constants):
+ * 	- initialPosition: Point2D<Float> (the projected position where the hand touched the screen first)
+ *
+ * @author Giovanni Piumatti
+ *
+ */
+public class LongPressGesture extends OneHandGesture {
+
+	public static final ObjectKey<Point2D<Float>> INITIAL_POSITION = ClickGesture.INITIAL_POSITION;
+
+	public static final long DURATION = 800;
+	public static final float TOLERANCE = 20.f;
+
+	private long duration;
+	private float tolerance, startX, startY;
+	private Point2D<Float> initialPosition;
+
+	/**
+	 * Creates a LongPressGesture with the given name and default duration and tolerance
+	 * @param name The name of this {@link Gesture}.
+	 */
+	public LongPressGesture(String name) {
+		this(name, DURATION, TOLERANCE);
+	}
+
+	/**
+	 * Creates a LongPressGesture with the given name, duration and tolerance
+	 * @param name The name of this {@link Gesture}.
+	 * @param duration How long (in ms) the hand has to hold still
+	 * @param tolerance How far (in mm in real world coordinates) the hand can move from the touch point while holding
+	 */
+	public LongPressGesture(String name, long duration, float tolerance) {
+		super(name, false);
+		if(duration <= 0 || tolerance <= 0)
+			throw new IllegalArgumentException("duration <= 0 or tolerance <= 0");
+
+		this.duration = duration;
+		this.tolerance = tolerance;
+		initialPosition = null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public GestureState doUpdateState(HandData currentlyTrackedHand, boolean touchReleased) {
+		switch(currentState) {
+		case NOT_DETECTED:
+			if(currentlyTrackedHand != null && currentlyTrackedHand.isTouching()) {
+				startX = currentlyTrackedHand.getPosition().getX();
+				startY = currentlyTrackedHand.getPosition().getY();
+				initialPosition = currentlyTrackedHand.getProjectedPosition();
+				armTimeout(duration);
+				return GestureState.POSSIBLE_DETECTION;
+			}
+			else
+				return GestureState.NOT_DETECTED;
+
+		case POSSIBLE_DETECTION:
+			if(currentlyTrackedHand != null && currentlyTrackedHand.isTouching()) {
+				float dx = currentlyTrackedHand.getPosition().getX() - startX;
+				float dy = currentlyTrackedHand.getPosition().getY() - startY;
+				if(dx*dx + dy*dy <= tolerance*tolerance)
+					return GestureState.POSSIBLE_DETECTION;
+			}
+
+			cancelTimeout();
+			return GestureState.NOT_DETECTED;
+
+		case IN_PROGRESS:
+			//a frame arrived before the completion timeout
+			cancelTimeout();
+			return GestureState.COMPLETED;
+
+		case COMPLETED:
+			if(touchReleased || currentlyTrackedHand == null)
+				return GestureState.NOT_DETECTED;
+			else
+				return GestureState.COMPLETED;
+
+		default:	//unknown state...
+			return GestureState.NOT_DETECTED;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected GestureState onTimeout(List<HandData> gestureHands) {
+		if(getLastKnownHand() != null)
+			gestureHands.add(getLastKnownHand());
+
+		switch(currentState) {
+		case POSSIBLE_DETECTION:
+			//held long enough: start, and complete on the next tick
+			data.put(INITIAL_POSITION, initialPosition);
+			armTimeout(0);
+			return GestureState.IN_PROGRESS;
+
+		case IN_PROGRESS:
+			return GestureState.COMPLETED;
+
+		default:
+			return currentState;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Gesture newInstance() {
+		return new LongPressGesture(getName(), duration, tolerance);
+	}
+
+	@Override
+	protected void doReset() {
+		super.doReset();
+		cancelTimeout();
+		initialPosition = null;
+		data.remove(INITIAL_POSITION);
+	}
+
+}
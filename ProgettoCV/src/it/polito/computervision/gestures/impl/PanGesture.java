@@ -2,37 +2,62 @@ package it.polito.computervision.gestures.impl;
 
 import java.util.EnumSet;
 
-import org.opencv.core.Core;
-import org.opencv.core.Mat;
-import org.opencv.core.MatOfFloat;
 import org.openni.Point2D;
 
 import it.polito.computervision.gestures.Gesture;
 import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.ObjectKey;
 import it.polito.computervision.gestures.OneHandGesture;
+import it.polito.computervision.gestures.ThresholdAdapter;
 import it.polito.computervision.virtualscreen.HandData;
+import it.polito.computervision.virtualscreen.HandTrajectory;
 
 /**
  * Implements a pan or swipe gesture. Can be configured with allowed directions, thresholds and can be either live or non-live.
- * Custom data:
+ * Non-live gestures can also be configured to complete on a flick, i.e. when the hand moves fast enough in a consistent direction
+ * over a short time window, without having to travel the whole completion distance.
+ * Thresholds can also adapt to the user (see {@link #setAdaptiveThresholds(float, float)}).
+ * Custom data (see the key constants):
  * 	- initialPosition: Point2D<Float> (the projected position where the hand touched the screen first)
+ * 	- detectionThreshold, completionThreshold: float (the thresholds in use, only if adaptive, see {@link ThresholdAdapter})
  * 
  * @author Giovanni Piumatti
  *
  */
 public class PanGesture extends OneHandGesture {
 
+	public static final ObjectKey<Point2D<Float>> INITIAL_POSITION = ClickGesture.INITIAL_POSITION;
+
 	public enum Direction { LEFT, RIGHT, UP, DOWN }
 	 
 	public static final float DETECTION_THRESHOLD = 100.f;
 	public static final float COMPLETION_THRESHOLD = 300.f;
+	/**
+	 * Default peak velocity (in mm/s) that triggers a flick
+	 */
+	public static final float FLICK_VELOCITY_THRESHOLD = 1000.f;
+	/**
+	 * Time window (in ms) over which a flick is evaluated
+	 */
+	public static final long FLICK_WINDOW = 150;
+	/**
+	 * Minimum ratio between the net displacement and the path length over the flick window
+	 */
+	public static final float FLICK_CONSISTENCY = 0.8f;
+	/**
+	 * Minimum net displacement (in mm) over the flick window, so that a jitter spike is not mistaken for a flick
+	 */
+	public static final float FLICK_MIN_DISTANCE = 40.f;
 	
 	private static final double PI_4 = Math.PI / 4;
 
-	private MatOfFloat startPoint;
-	private float detectionThreshold, completionThreshold;
+	private float startX, startY;
+	private float detectionThreshold, completionThreshold, flickVelocityThreshold;
 	private EnumSet<Direction> directions;
 	private Point2D<Float> initialPosition;
+	private long startTime;
+	private boolean flicked, detected;
+	private ThresholdAdapter adapter;
 
 	/**
 	 * Creates a pan gesture with the given name, all directions allowed, default thresholds, live (pan).
@@ -60,35 +85,182 @@ public class PanGesture extends OneHandGesture {
 	 * @param live Whether this is a live gesture or not
 	 */
 	public PanGesture(String name, EnumSet<Direction> directions, float detectionThreshold, float completionThreshold, boolean live) {
+		this(name, directions, detectionThreshold, completionThreshold, 0, live);
+	}
+
+	/**
+	 * Creates a non-live swipe gesture with the given name and allowed directions, that also completes on a flick. Uses default thresholds.
+	 * @param name The name of the gesture
+	 * @param directions The set of allowed directions
+	 * @param flickVelocityThreshold The peak velocity (in mm/s in real world coordinates) that triggers a flick
+	 */
+	public PanGesture(String name, EnumSet<Direction> directions, float flickVelocityThreshold) {
+		this(name, directions, DETECTION_THRESHOLD, COMPLETION_THRESHOLD, flickVelocityThreshold, false);
+	}
+
+	/**
+	 * Creates a PanGesture with the given name, all other options configurable
+	 * @param name The name of this {@link Gesture}.
+	 * @param directions The directions allowed for this gesture
+	 * @param detectionThreshold The distance (in mm in real world coordinates) the hand has to travel before triggering detection
+	 * @param completionThreshold The distance (in mm in real world coordinates) the hand has to travel before triggering completion
+	 * @param flickVelocityThreshold The peak velocity (in mm/s in real world coordinates) that triggers a flick, or 0 to disable flicks.
+	 * Flicks are only supported by non-live gestures.
+	 * @param live Whether this is a live gesture or not
+	 */
+	public PanGesture(String name, EnumSet<Direction> directions, float detectionThreshold, float completionThreshold, float flickVelocityThreshold, boolean live) {
 		super(name, live);
 		if(detectionThreshold <= 0 || completionThreshold < detectionThreshold)
 			throw new IllegalArgumentException("detectionThreshold <= 0 or completionThreshold < detectionThreshold");
+		if(flickVelocityThreshold < 0 || (flickVelocityThreshold > 0 && live))
+			throw new IllegalArgumentException("flickVelocityThreshold < 0 or flick enabled on a live gesture");
 
 		this.detectionThreshold = detectionThreshold;
 		this.directions = directions;
 		this.completionThreshold = completionThreshold;
-		startPoint = null;
+		this.flickVelocityThreshold = flickVelocityThreshold;
+		startX = startY = 0.f;
 		initialPosition = null;
+		flicked = detected = false;
+		adapter = null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Gesture newInstance() {
+		PanGesture g = new PanGesture(getName(), EnumSet.copyOf(directions), detectionThreshold, completionThreshold, flickVelocityThreshold, isLive());
+		if(adapter != null)
+			g.setAdaptiveThresholds(adapter.getMinScale(), adapter.getMaxScale());
+		return g;
+	}
+
+	/**
+	 * Makes the thresholds adapt to the jitter and to the typical amplitude of the movements of the user (see {@link ThresholdAdapter}),
+	 * starting from the configured ones. Must be called before registering the gesture, so that each gesture session learns its own thresholds.
+	 * @param minScale The minimum ratio between the adapted and the configured thresholds (0 < minScale <= 1)
+	 * @param maxScale The maximum ratio between the adapted and the configured thresholds (>= 1)
+	 */
+	public void setAdaptiveThresholds(float minScale, float maxScale) {
+		adapter = new ThresholdAdapter(detectionThreshold, completionThreshold, minScale, maxScale);
+	}
+
+	/**
+	 * 
+	 * @return the {@link ThresholdAdapter} of this gesture, or null if thresholds are fixed
+	 */
+	public ThresholdAdapter getThresholdAdapter() {
+		return adapter;
+	}
+
+	/**
+	 * 
+	 * @return the detection threshold in use (in mm)
+	 */
+	public float getDetectionThreshold() {
+		return adapter != null ? adapter.getDetectionThreshold() : detectionThreshold;
+	}
+
+	/**
+	 * 
+	 * @return the completion threshold in use (in mm)
+	 */
+	public float getCompletionThreshold() {
+		return adapter != null ? adapter.getCompletionThreshold() : completionThreshold;
 	}
 
 	@Override
 	protected void doReset() {
 		super.doReset();
-		startPoint = null;
+		startX = startY = 0.f;
 		initialPosition = null;
-		data.remove("initialPosition");
+		flicked = false;
+		data.remove(INITIAL_POSITION);
+		if(adapter != null) {
+			adapter.endTouch(detected);
+			data.remove(ThresholdAdapter.DETECTION_THRESHOLD);
+			data.remove(ThresholdAdapter.COMPLETION_THRESHOLD);
+		}
+		detected = false;
+	}
+
+	/**
+	 * Checks if the vector from the start point to the current point lies in one of the allowed directions
+	 * @param dx The X component of the vector
+	 * @param dy The Y component of the vector
+	 * @return true if the direction is allowed, false otherwise
+	 */
+	private boolean isAllowedDirection(double dx, double dy) {
+		double angleRad = Math.atan2(dy, -dx);
+		return (directions.contains(Direction.RIGHT) && angleRad <= PI_4 && angleRad >= -PI_4) ||
+				(directions.contains(Direction.UP) && angleRad > PI_4 && angleRad < 3*PI_4) ||
+				(directions.contains(Direction.LEFT) && (angleRad > 3*PI_4 || angleRad < -3*PI_4)) ||
+				(directions.contains(Direction.DOWN) && angleRad >= -3*PI_4 && angleRad <= -PI_4);
+	}
+
+	/**
+	 * Checks if the hand performed a flick in one of the allowed directions since it touched the screen, over the last {@link #FLICK_WINDOW} ms.
+	 * A flick requires a peak velocity of at least the flick threshold, a net displacement of at least {@link #FLICK_MIN_DISTANCE}
+	 * and a path that is mostly straight (see {@link #FLICK_CONSISTENCY}).
+	 * @param hand The hand to check
+	 * @return true if a flick was detected, false otherwise
+	 */
+	private boolean isFlick(HandData hand) {
+		HandTrajectory trajectory = hand.getTrajectory();
+		if(flickVelocityThreshold <= 0 || trajectory == null || trajectory.size() < 2)
+			return false;
+
+		long from = Math.max(trajectory.getTimestamp(0) - FLICK_WINDOW * 1000, startTime);
+		float peak = 0.f;
+		int age = 0;
+		while(age + 1 < trajectory.size() && trajectory.getTimestamp(age + 1) >= from) {
+			float vx = trajectory.getVelocityX(age), vy = trajectory.getVelocityY(age);
+			peak = Math.max(peak, vx*vx + vy*vy);
+			++age;
+		}
+
+		if(age == 0 || peak < flickVelocityThreshold * flickVelocityThreshold)
+			return false;
+
+		float dx = trajectory.getX(0) - trajectory.getX(age), dy = trajectory.getY(0) - trajectory.getY(age);
+		double distance = Math.sqrt(dx*dx + dy*dy);
+		return distance >= FLICK_MIN_DISTANCE && distance >= FLICK_CONSISTENCY * trajectory.getPathLength(age) && isAllowedDirection(dx, dy);
 	}
 	
+	/**
+	 * Feeds the position of the touching hand to the {@link ThresholdAdapter}, starting a new touch if the gesture is not detected yet
+	 * @param hand The tracked hand
+	 */
+	private void adapt(HandData hand) {
+		float x = hand.getPosition().getX(), y = hand.getPosition().getY();
+		if(currentState == GestureState.NOT_DETECTED) {
+			adapter.beginTouch(hand.getId(), (short) -1);
+			data.put(ThresholdAdapter.DETECTION_THRESHOLD, adapter.getDetectionThreshold());
+			data.put(ThresholdAdapter.COMPLETION_THRESHOLD, adapter.getCompletionThreshold());
+		}
+		else
+			adapter.observeAmplitude((float) Math.sqrt((x - startX)*(x - startX) + (y - startY)*(y - startY)));
+
+		adapter.observe(hand.getId(), getTime(), x, y);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public GestureState doUpdateState(HandData currentlyTrackedHand, boolean touchReleased) {
+		if(adapter != null && currentlyTrackedHand != null && currentlyTrackedHand.isTouching())
+			adapt(currentlyTrackedHand);
+
+		float detection = getDetectionThreshold(), completion = getCompletionThreshold();
 		switch(currentState) {
 		case NOT_DETECTED:
 				if(currentlyTrackedHand != null) {
-					startPoint = new MatOfFloat(currentlyTrackedHand.getPosition().getX(), currentlyTrackedHand.getPosition().getY());
+					startX = currentlyTrackedHand.getPosition().getX();
+					startY = currentlyTrackedHand.getPosition().getY();
 					initialPosition = currentlyTrackedHand.getProjectedPosition();
+					startTime = currentlyTrackedHand.getTimestamp();
 					return GestureState.POSSIBLE_DETECTION;
 				}
 				else
@@ -96,17 +268,18 @@ public class PanGesture extends OneHandGesture {
 
 		case POSSIBLE_DETECTION:
 			if(currentlyTrackedHand != null && currentlyTrackedHand.isTouching()) {
-				MatOfFloat currPoint = new MatOfFloat(currentlyTrackedHand.getPosition().getX(), currentlyTrackedHand.getPosition().getY());
-				Mat vector = new Mat();
-				Core.subtract(currPoint, startPoint, vector);
-				if(Core.norm(vector) >= detectionThreshold) {
-					double angleRad = Math.atan2(currPoint.get(1, 0)[0] - startPoint.get(1, 0)[0], startPoint.get(0, 0)[0] - currPoint.get(0, 0)[0]);
-					if((directions.contains(Direction.RIGHT) && angleRad <= PI_4 && angleRad >= -PI_4) ||
-							(directions.contains(Direction.UP) && angleRad > PI_4 && angleRad < 3*PI_4) ||
-							(directions.contains(Direction.LEFT) && (angleRad > 3*PI_4 || angleRad < -3*PI_4)) ||
-							(directions.contains(Direction.DOWN) && angleRad >= -3*PI_4 && angleRad <= -PI_4)) {
+				if(isFlick(currentlyTrackedHand)) {
+					flicked = detected = true;
+					data.put(INITIAL_POSITION, initialPosition);
+					return GestureState.IN_PROGRESS;
+				}
+
+				float dx = currentlyTrackedHand.getPosition().getX() - startX, dy = currentlyTrackedHand.getPosition().getY() - startY;
+				if(dx*dx + dy*dy >= detection * detection) {
+					if(isAllowedDirection(dx, dy)) {
 						
-						data.put("initialPosition", initialPosition);
+						detected = true;
+						data.put(INITIAL_POSITION, initialPosition);
 						return GestureState.IN_PROGRESS;
 					}
 					else
@@ -122,16 +295,11 @@ public class PanGesture extends OneHandGesture {
 			//we complete the gesture even if we lose the hand (touchReleased == false)
 			if(currentlyTrackedHand != null && currentlyTrackedHand.isTouching()) {
 				if(isLive()) return GestureState.IN_PROGRESS;
+				if(flicked || isFlick(currentlyTrackedHand)) return GestureState.COMPLETED;
 				
-				MatOfFloat currPoint = new MatOfFloat(currentlyTrackedHand.getPosition().getX(), currentlyTrackedHand.getPosition().getY());
-				Mat distance = new Mat();
-				Core.subtract(currPoint, startPoint, distance);
-				if(Core.norm(distance) >= completionThreshold) {
-					double angleRad = Math.atan2(currPoint.get(1, 0)[0] - startPoint.get(1, 0)[0], startPoint.get(0, 0)[0] - currPoint.get(0, 0)[0]);
-					if((directions.contains(Direction.RIGHT) && angleRad <= PI_4 && angleRad >= -PI_4) ||
-							(directions.contains(Direction.UP) && angleRad > PI_4 && angleRad < 3*PI_4) ||
-							(directions.contains(Direction.LEFT) && (angleRad > 3*PI_4 || angleRad < -3*PI_4)) ||
-							(directions.contains(Direction.DOWN) && angleRad >= -3*PI_4 && angleRad <= -PI_4)) {
+				float dx = currentlyTrackedHand.getPosition().getX() - startX, dy = currentlyTrackedHand.getPosition().getY() - startY;
+				if(dx*dx + dy*dy >= completion * completion) {
+					if(isAllowedDirection(dx, dy)) {
 						
 						return GestureState.COMPLETED;
 					}
@@ -142,7 +310,7 @@ public class PanGesture extends OneHandGesture {
 					return GestureState.IN_PROGRESS;
 				
 			}
-			else if(isLive()) {
+			else if(isLive() || flicked) {
 				return GestureState.COMPLETED;
 			}
 			else {
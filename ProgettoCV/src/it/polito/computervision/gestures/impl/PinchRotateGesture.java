@@ -0,0 +1,131 @@
+package it.polito.computervision.gestures.impl;
+
+import it.polito.computervision.gestures.FloatKey;
+import it.polito.computervision.gestures.Gesture;
+import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.HandPair;
+import it.polito.computervision.gestures.TwoHandGesture;
+import it.polito.computervision.virtualscreen.HandData;
+
+/**
+ * Implements a live combined zoom and rotate gesture. Distance and angle of the two hands are read from the same {@link HandPair},
+ * so registering this gesture instead of a {@link ZoomGesture} and a {@link RotateGesture} costs one evaluation per frame instead of two.
+ * It is detected as soon as either the distance or the angle changes more than the respective threshold.
+ * Custom data (see the key constants):
+ * 	-initialDistance: float (the initial distance between the two hands, in mm, when both have touched the screen)
+ * 	-currentDistance: float (the current distance between the two hands, in mm)
+ * 	-initialAngle: float (the initial angle of the hand-to-hand vector, in radians)
+ * 	-currentAngle: float (the current unwrapped angle of the hand-to-hand vector, in radians)
+ *
+ * @author Giovanni Piumatti
+ *
+ */
+public class PinchRotateGesture extends TwoHandGesture {
+
+	public static final FloatKey INITIAL_DISTANCE = ZoomGesture.INITIAL_DISTANCE;
+	public static final FloatKey CURRENT_DISTANCE = ZoomGesture.CURRENT_DISTANCE;
+	public static final FloatKey INITIAL_ANGLE = RotateGesture.INITIAL_ANGLE;
+	public static final FloatKey CURRENT_ANGLE = RotateGesture.CURRENT_ANGLE;
+
+	private float distanceThreshold, angleThreshold, initialDistance, initialAngle;
+
+	/**
+	 * Creates a PinchRotateGesture with the given name and the default detection thresholds of {@link ZoomGesture} and {@link RotateGesture}.
+	 * @param name The name of this {@link Gesture}.
+	 */
+	public PinchRotateGesture(String name) {
+		this(name, ZoomGesture.DETECTION_THRESHOLD, RotateGesture.DETECTION_THRESHOLD);
+	}
+
+	/**
+	 * Creates a PinchRotateGesture with the given name and thresholds.
+	 * @param name The name of this {@link Gesture}.
+	 * @param distanceThreshold The change in distance (in mm in real world coordinates) between the two hands in order to trigger detection
+	 * @param angleThreshold The change in angle (in radians) of the hand-to-hand vector in order to trigger detection
+	 */
+	public PinchRotateGesture(String name, float distanceThreshold, float angleThreshold) {
+		super(name, true);
+		if(distanceThreshold <= 0 || angleThreshold <= 0)
+			throw new IllegalArgumentException("distanceThreshold <= 0 or angleThreshold <= 0");
+
+		this.distanceThreshold = distanceThreshold;
+		this.angleThreshold = angleThreshold;
+		initialDistance = -1;
+		initialAngle = 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Gesture newInstance() {
+		return new PinchRotateGesture(getName(), distanceThreshold, angleThreshold);
+	}
+
+	@Override
+	protected void doReset() {
+		super.doReset();
+		initialDistance = -1;
+		initialAngle = 0;
+		data.remove(INITIAL_DISTANCE);
+		data.remove(CURRENT_DISTANCE);
+		data.remove(INITIAL_ANGLE);
+		data.remove(CURRENT_ANGLE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public GestureState doUpdateState(HandData[] hands, boolean touchReleased) {
+		HandPair pair = getHandPair();
+		switch(currentState) {
+		case NOT_DETECTED:
+			if(hands != null) {
+				initialDistance = pair.getDistance();
+				initialAngle = (float) pair.getAngle();
+				return GestureState.POSSIBLE_DETECTION;
+			}
+			else
+				return GestureState.NOT_DETECTED;
+
+		case POSSIBLE_DETECTION:
+			if(hands != null) {
+				for(int i = 0; i < 2; ++i)
+					if(!hands[i].isTouching()) return GestureState.NOT_DETECTED;
+
+				if(Math.abs(pair.getDistance() - initialDistance) >= distanceThreshold || Math.abs(pair.getAngle() - initialAngle) >= angleThreshold) {
+					data.put(INITIAL_DISTANCE, initialDistance);
+					data.put(INITIAL_ANGLE, initialAngle);
+					return GestureState.IN_PROGRESS;
+				}
+				else
+					return GestureState.POSSIBLE_DETECTION;
+			}
+			else
+				return GestureState.NOT_DETECTED;
+
+		case IN_PROGRESS:
+			if(hands != null) {
+				for(int i = 0; i < 2; ++i)
+					if(!hands[i].isTouching())
+						return GestureState.COMPLETED;
+
+				data.put(CURRENT_DISTANCE, pair.getDistance());
+				data.put(CURRENT_ANGLE, (float) pair.getAngle());
+				return GestureState.IN_PROGRESS;
+			}
+			else
+				return GestureState.COMPLETED;	//even if touchReleased == false consider it complete
+
+		case COMPLETED:
+			if(hands == null || (!hands[0].isTouching() && !hands[1].isTouching()))
+				return GestureState.NOT_DETECTED;
+			else
+				return GestureState.COMPLETED;
+
+		default:	//unknown state...
+			return GestureState.NOT_DETECTED;
+		}
+	}
+}
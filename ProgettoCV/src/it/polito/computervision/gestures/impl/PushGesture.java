@@ -0,0 +1,245 @@
+package it.polito.computervision.gestures.impl;
+
+import java.util.List;
+
+import org.openni.Point2D;
+
+import it.polito.computervision.gestures.AbstractGesture;
+import it.polito.computervision.gestures.FloatKey;
+import it.polito.computervision.gestures.Gesture;
+import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.ObjectKey;
+import it.polito.computervision.virtualscreen.HandData;
+
+/**
+ * Detects a fast stroke of a hand along the Z axis through the virtual screen: either a push through it (the hand stabs from in front of the screen to behind it)
+ * or a pull back from it (the hand moves from behind the screen to in front of it).
+ * The stroke must cover at least the stroke depth within the stroke time, with little lateral movement, so it selects the point in front of the hand
+ * without the touch and release cycle of a {@link ClickGesture}. Like a click, the gesture is not live and completes right after it is detected.
+ * Since a push leaves the hand touching the screen, it should be used instead of a click rather than together with it.
+ * Requires the depth of the hands (see {@link HandData#hasDepth()}): hands without it are ignored. The hand nearest to the screen is tracked.
+ * Custom data (see the key constants):
+ * 	- initialPosition: Point2D<Float> (the projected position of the hand when the stroke started)
+ * 	- strokeVelocity: float (the mean velocity of the stroke along the Z axis, in mm/s)
+ *
+ * @author Giovanni Piumatti
+ *
+ */
+public class PushGesture extends AbstractGesture {
+
+	public static final ObjectKey<Point2D<Float>> INITIAL_POSITION = ClickGesture.INITIAL_POSITION;
+	public static final FloatKey STROKE_VELOCITY = FloatKey.of("strokeVelocity");
+
+	public enum Direction { PUSH, PULL }
+
+	/**
+	 * Default distance (in mm) the hand has to travel along the Z axis
+	 */
+	public static final float STROKE_DEPTH = 60.f;
+	/**
+	 * Default maximum duration (in ms) of the stroke
+	 */
+	public static final long STROKE_TIME = 250;
+	/**
+	 * Default maximum movement (in mm) of the hand on the virtual screen during the stroke
+	 */
+	public static final float MAX_LATERAL_MOVEMENT = 40.f;
+
+	/**
+	 * Number of recent samples of the tracked hand
+	 */
+	private static final int HISTORY = 16;
+
+	private final Direction direction;
+	private final float strokeDepth, maxLateralMovement;
+	private final long strokeTime;
+
+	private short handId;
+	private HandData lastKnownHand;
+	private final long[] times;
+	private final float[] distances, xs, ys;
+	private final Point2D<?>[] projected;
+	private int samples, next;
+
+	/**
+	 * Creates a push through gesture with the given name and default thresholds
+	 * @param name The name of this {@link Gesture}
+	 */
+	public PushGesture(String name) {
+		this(name, Direction.PUSH);
+	}
+
+	/**
+	 * Creates a push through or pull back gesture with the given name and default thresholds
+	 * @param name The name of this {@link Gesture}
+	 * @param direction The direction of the stroke
+	 */
+	public PushGesture(String name, Direction direction) {
+		this(name, direction, STROKE_DEPTH, STROKE_TIME, MAX_LATERAL_MOVEMENT);
+	}
+
+	/**
+	 * @param name The name of this {@link Gesture}
+	 * @param direction The direction of the stroke
+	 * @param strokeDepth The distance (in mm) the hand has to travel along the Z axis
+	 * @param strokeTime The maximum duration (in ms) of the stroke
+	 * @param maxLateralMovement The maximum movement (in mm) of the hand on the virtual screen during the stroke
+	 */
+	public PushGesture(String name, Direction direction, float strokeDepth, long strokeTime, float maxLateralMovement) {
+		super(name, false);
+		if(direction == null)
+			throw new IllegalArgumentException("direction is null");
+		if(strokeDepth <= 0 || strokeTime <= 0 || maxLateralMovement <= 0)
+			throw new IllegalArgumentException("strokeDepth, strokeTime or maxLateralMovement <= 0");
+
+		this.direction = direction;
+		this.strokeDepth = strokeDepth;
+		this.strokeTime = strokeTime;
+		this.maxLateralMovement = maxLateralMovement;
+		times = new long[HISTORY];
+		distances = new float[HISTORY];
+		xs = new float[HISTORY];
+		ys = new float[HISTORY];
+		projected = new Point2D<?>[HISTORY];
+		handId = -1;
+		lastKnownHand = null;
+		samples = next = 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public GestureState updateState(List<HandData> hands, long timestamp, List<HandData> gestureHands) {
+		advanceTime(timestamp);
+
+		HandData hand = null;
+		for(int i = 0; i < hands.size(); ++i) {
+			HandData hd = hands.get(i);
+			if(hd.hasDepth() && (hand == null || hd.getDistance() < hand.getDistance()))
+				hand = hd;
+		}
+
+		switch(currentState) {
+		case NOT_DETECTED:
+		case POSSIBLE_DETECTION:
+			if(hand == null) {
+				reset();
+				return currentState;
+			}
+
+			if(hand.getId() != handId) {
+				doReset();
+				handId = hand.getId();
+			}
+			lastKnownHand = hand;
+			gestureHands.add(hand);
+			addSample(timestamp, hand);
+
+			int start = findStroke();
+			if(start >= 0) {
+				float velocity = Math.abs(hand.getDistance() - distances[start]) * 1000000.f / (timestamp - times[start]);
+				@SuppressWarnings("unchecked")
+				Point2D<Float> initialPosition = (Point2D<Float>) projected[start];
+				data.put(INITIAL_POSITION, initialPosition);
+				data.put(STROKE_VELOCITY, velocity);
+				armTimeout(0);
+				currentState = GestureState.IN_PROGRESS;
+			}
+			else
+				currentState = GestureState.POSSIBLE_DETECTION;
+			return currentState;
+
+		case IN_PROGRESS:
+			//a frame arrived before the completion timeout
+			cancelTimeout();
+			if(lastKnownHand != null)
+				gestureHands.add(lastKnownHand);
+			currentState = GestureState.COMPLETED;
+			return currentState;
+
+		default:	//COMPLETED or unknown state...
+			reset();
+			return currentState;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected GestureState onTimeout(List<HandData> gestureHands) {
+		if(lastKnownHand != null)
+			gestureHands.add(lastKnownHand);
+
+		return currentState == GestureState.IN_PROGRESS ? GestureState.COMPLETED : currentState;
+	}
+
+	/**
+	 * Records a sample of the tracked hand
+	 */
+	private void addSample(long timestamp, HandData hand) {
+		times[next] = timestamp;
+		distances[next] = hand.getDistance();
+		xs[next] = hand.getPosition().getX();
+		ys[next] = hand.getPosition().getY();
+		projected[next] = hand.getProjectedPosition();
+		next = (next + 1) % HISTORY;
+		if(samples < HISTORY)
+			++samples;
+	}
+
+	/**
+	 * Looks for a stroke ending with the last sample: a sample within the stroke time, on the other side of the virtual screen,
+	 * from which the hand travelled at least the stroke depth in the right direction without moving too much laterally.
+	 * @return the index of the sample where the stroke started (the oldest one, if several qualify), or -1 if there is no stroke
+	 */
+	private int findStroke() {
+		int last = (next + HISTORY - 1) % HISTORY;
+		float d = distances[last];
+		if(direction == Direction.PUSH ? d > 0 : d <= 0)
+			return -1;
+
+		int stroke = -1;
+		float maxLateral2 = maxLateralMovement * maxLateralMovement;
+		for(int k = 1; k < samples; ++k) {
+			int i = (last + HISTORY - k) % HISTORY;
+			if((times[last] - times[i]) / 1000 > strokeTime)
+				break;
+
+			float dx = xs[last] - xs[i], dy = ys[last] - ys[i];
+			if(dx*dx + dy*dy > maxLateral2)
+				break;
+
+			float travel = direction == Direction.PUSH ? distances[i] - d : d - distances[i];
+			boolean otherSide = direction == Direction.PUSH ? distances[i] > 0 : distances[i] <= 0;
+			if(otherSide && travel >= strokeDepth)
+				stroke = i;
+		}
+		return stroke;
+	}
+
+	public Direction getDirection() {
+		return direction;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Gesture newInstance() {
+		return new PushGesture(getName(), direction, strokeDepth, strokeTime, maxLateralMovement);
+	}
+
+	@Override
+	protected void doReset() {
+		handId = -1;
+		lastKnownHand = null;
+		samples = next = 0;
+		for(int i = 0; i < HISTORY; ++i)
+			projected[i] = null;
+		data.remove(INITIAL_POSITION);
+		data.remove(STROKE_VELOCITY);
+	}
+
+}
@@ -0,0 +1,171 @@
+package it.polito.computervision.gestures.impl;
+
+import it.polito.computervision.gestures.FloatKey;
+import it.polito.computervision.gestures.Gesture;
+import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.HandPair;
+import it.polito.computervision.gestures.TwoHandGesture;
+import it.polito.computervision.virtualscreen.HandData;
+
+/**
+ * Implements a two-handed rotate gesture, tracking the angle of the vector between the two hands (see {@link HandPair}).
+ * Can be configured with allowed directions, thresholds and whether it is live or not.
+ * Custom data (see the key constants):
+ * 	-initialAngle: float (the initial angle of the hand-to-hand vector, in radians, when both have touched the screen)
+ * 	-currentAngle: float (the current unwrapped angle of the hand-to-hand vector, in radians)
+ *
+ * @author Giovanni Piumatti
+ *
+ */
+public class RotateGesture extends TwoHandGesture {
+
+	public static final FloatKey INITIAL_ANGLE = FloatKey.of("initialAngle");
+	public static final FloatKey CURRENT_ANGLE = FloatKey.of("currentAngle");
+
+	public enum Direction { CLOCKWISE, COUNTERCLOCKWISE, BOTH }
+
+	public static final float DETECTION_THRESHOLD = (float) Math.toRadians(15);
+	public static final float COMPLETION_THRESHOLD = (float) Math.toRadians(90);
+
+	private float detectionThreshold, initialAngle, completionThreshold;
+	private Direction direction;
+
+	/**
+	 * Creates a RotateGesture with the given name, both directions allowed, default thresholds, live.
+	 * @param name The name of this {@link Gesture}.
+	 */
+	public RotateGesture(String name) {
+		this(name, Direction.BOTH, true);
+	}
+
+	/**
+	 * Creates a rotate gesture with the given name, direction, live or not, using default thresholds.
+	 * @param name The name of the gesture
+	 * @param direction The allowed direction
+	 * @param live Whether it is a live gesture or not
+	 */
+	public RotateGesture(String name, Direction direction, boolean live) {
+		this(name, direction, DETECTION_THRESHOLD, COMPLETION_THRESHOLD, live);
+	}
+
+	/**
+	 * Creates a completely configurable rotate gesture.
+	 * @param name The name of the gesture
+	 * @param direction The allowed directions
+	 * @param detectionThreshold The difference (in radians) between initial angle and current angle of the two hands in order to trigger detection
+	 * @param completionThreshold The difference (in radians) between initial angle and current angle of the two hands in order to trigger completion
+	 * @param live Whether it is a live gesture or not
+	 */
+	public RotateGesture(String name, Direction direction, float detectionThreshold, float completionThreshold, boolean live) {
+		super(name, live);
+		if(detectionThreshold <= 0)
+			throw new IllegalArgumentException("detectionThreshold <= 0");
+		if(completionThreshold <= 0 || completionThreshold < detectionThreshold)
+			throw new IllegalArgumentException("completionThreshold <= 0 or completionThreshold < detectionThreshold");
+
+		this.direction = direction;
+		this.detectionThreshold = detectionThreshold;
+		this.completionThreshold = completionThreshold;
+		initialAngle = 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Gesture newInstance() {
+		return new RotateGesture(getName(), direction, detectionThreshold, completionThreshold, isLive());
+	}
+
+	@Override
+	protected void doReset() {
+		super.doReset();
+		initialAngle = 0;
+		data.remove(INITIAL_ANGLE);
+		data.remove(CURRENT_ANGLE);
+	}
+
+	/**
+	 * @param diff The rotation (in radians), positive if counterclockwise
+	 * @return true if the rotation is in the allowed direction
+	 */
+	private boolean isAllowedDirection(float diff) {
+		return direction == Direction.BOTH || (direction == Direction.COUNTERCLOCKWISE && diff > 0) || (direction == Direction.CLOCKWISE && diff < 0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public GestureState doUpdateState(HandData[] hands, boolean touchReleased) {
+		switch(currentState) {
+		case NOT_DETECTED:
+			if(hands != null) {
+				initialAngle = (float) getHandPair().getAngle();
+				return GestureState.POSSIBLE_DETECTION;
+			}
+			else
+				return GestureState.NOT_DETECTED;
+
+		case POSSIBLE_DETECTION:
+			if(hands != null) {
+				for(int i = 0; i < 2; ++i)
+					if(!hands[i].isTouching()) return GestureState.NOT_DETECTED;
+
+				float diff = (float) getHandPair().getAngle() - initialAngle;
+				if(Math.abs(diff) >= detectionThreshold) {
+					if(isAllowedDirection(diff)) {
+						data.put(INITIAL_ANGLE, initialAngle);
+						return GestureState.IN_PROGRESS;
+					}
+					else {
+						return GestureState.NOT_DETECTED;
+					}
+				}
+				else {
+					return GestureState.POSSIBLE_DETECTION;
+				}
+			}
+			else
+				return GestureState.NOT_DETECTED;
+
+		case IN_PROGRESS:
+			if(hands != null) {
+				for(int i = 0; i < 2; ++i)
+					if(!hands[i].isTouching())
+						return isLive() ? GestureState.COMPLETED : GestureState.NOT_DETECTED;
+
+				float currAngle = (float) getHandPair().getAngle();
+				data.put(CURRENT_ANGLE, currAngle);
+				if(isLive()) return GestureState.IN_PROGRESS;
+
+				//check if we reached the threshold
+				float diff = currAngle - initialAngle;
+				if(Math.abs(diff) >= completionThreshold) {
+					if(isAllowedDirection(diff)) {
+						return GestureState.COMPLETED;
+					}
+					else {
+						return GestureState.NOT_DETECTED;
+					}
+				}
+				else {
+					return GestureState.IN_PROGRESS;
+				}
+			}
+			else if(isLive())
+				return GestureState.COMPLETED;	//even if touchReleased == false consider it complete
+			else
+				return GestureState.NOT_DETECTED;
+
+		case COMPLETED:
+			if(hands == null || (!hands[0].isTouching() && !hands[1].isTouching()))
+				return GestureState.NOT_DETECTED;
+			else
+				return GestureState.COMPLETED;
+
+		default:	//unknown state...
+			return GestureState.NOT_DETECTED;
+		}
+	}
+}
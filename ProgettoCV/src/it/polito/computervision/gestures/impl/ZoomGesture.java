@@ -1,25 +1,28 @@
 package it.polito.computervision.gestures.impl;
 
-import org.opencv.core.Core;
-import org.opencv.core.Mat;
-import org.opencv.core.MatOfFloat;
-
+import it.polito.computervision.gestures.FloatKey;
 import it.polito.computervision.gestures.Gesture;
 import it.polito.computervision.gestures.GestureState;
+import it.polito.computervision.gestures.ThresholdAdapter;
 import it.polito.computervision.gestures.TwoHandGesture;
 import it.polito.computervision.virtualscreen.HandData;
 
 /**
  * Implements a zoom gesture. Can be configured with allowed directions, thresholds and whether it is live or not.
- * Custom data:
+ * Thresholds can also adapt to the user (see {@link #setAdaptiveThresholds(float, float)}).
+ * Custom data (see the key constants):
  * 	-initialDistance: float (the initial distance between the two hands, in mm, when both have touched the screen)
  * 	-currentDistance: float (the current distance between the two hands, in mm)
+ * 	-detectionThreshold, completionThreshold: float (the thresholds in use, only if adaptive, see {@link ThresholdAdapter})
  * 
  * @author Giovanni Piumatti
  *
  */
 public class ZoomGesture extends TwoHandGesture {
 
+	public static final FloatKey INITIAL_DISTANCE = FloatKey.of("initialDistance");
+	public static final FloatKey CURRENT_DISTANCE = FloatKey.of("currentDistance");
+
 	public enum Direction { INWARD, OUTWARD, BOTH }
 
 	public static final float DETECTION_THRESHOLD = 35.f;
@@ -27,6 +30,8 @@ public class ZoomGesture extends TwoHandGesture {
 
 	private float detectionThreshold, initialDistance, completionThreshold;
 	private Direction direction;
+	private boolean detected;
+	private ThresholdAdapter adapter;
 
 	/**
 	 * Creates a ZoomGesture with the given name, both directions allowed, default thresholds, live (zoom).
@@ -65,14 +70,84 @@ public class ZoomGesture extends TwoHandGesture {
 		this.detectionThreshold = detectionThreshold;
 		initialDistance = -1;
 		this.completionThreshold = completionThreshold;
+		detected = false;
+		adapter = null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Gesture newInstance() {
+		ZoomGesture g = new ZoomGesture(getName(), direction, detectionThreshold, completionThreshold, isLive());
+		if(adapter != null)
+			g.setAdaptiveThresholds(adapter.getMinScale(), adapter.getMaxScale());
+		return g;
+	}
+
+	/**
+	 * Makes the thresholds adapt to the jitter of the hands and to the typical amplitude of the zooms of the user (see {@link ThresholdAdapter}),
+	 * starting from the configured ones. Must be called before registering the gesture, so that each gesture session learns its own thresholds.
+	 * @param minScale The minimum ratio between the adapted and the configured thresholds (0 < minScale <= 1)
+	 * @param maxScale The maximum ratio between the adapted and the configured thresholds (>= 1)
+	 */
+	public void setAdaptiveThresholds(float minScale, float maxScale) {
+		adapter = new ThresholdAdapter(detectionThreshold, completionThreshold, minScale, maxScale);
+	}
+
+	/**
+	 * 
+	 * @return the {@link ThresholdAdapter} of this gesture, or null if thresholds are fixed
+	 */
+	public ThresholdAdapter getThresholdAdapter() {
+		return adapter;
+	}
+
+	/**
+	 * 
+	 * @return the detection threshold in use (in mm)
+	 */
+	public float getDetectionThreshold() {
+		return adapter != null ? adapter.getDetectionThreshold() : detectionThreshold;
+	}
+
+	/**
+	 * 
+	 * @return the completion threshold in use (in mm)
+	 */
+	public float getCompletionThreshold() {
+		return adapter != null ? adapter.getCompletionThreshold() : completionThreshold;
+	}
+
+	/**
+	 * Feeds the positions of the touching hands to the {@link ThresholdAdapter}, starting a new touch if the gesture is not detected yet
+	 * @param hands The tracked hands
+	 */
+	private void adapt(HandData[] hands) {
+		if(currentState == GestureState.NOT_DETECTED) {
+			adapter.beginTouch(hands[0].getId(), hands[1].getId());
+			data.put(ThresholdAdapter.DETECTION_THRESHOLD, adapter.getDetectionThreshold());
+			data.put(ThresholdAdapter.COMPLETION_THRESHOLD, adapter.getCompletionThreshold());
+		}
+		else
+			adapter.observeAmplitude(Math.abs(getHandPair().getDistance() - initialDistance));
+
+		for(int i = 0; i < 2; ++i)
+			adapter.observe(hands[i].getId(), getTime(), hands[i].getPosition().getX(), hands[i].getPosition().getY());
 	}
 
 	@Override
 	protected void doReset() {
 		super.doReset();
 		initialDistance = -1;
-		data.remove("initialDistance");
-		data.remove("currentDistance");
+		data.remove(INITIAL_DISTANCE);
+		data.remove(CURRENT_DISTANCE);
+		if(adapter != null) {
+			adapter.endTouch(detected);
+			data.remove(ThresholdAdapter.DETECTION_THRESHOLD);
+			data.remove(ThresholdAdapter.COMPLETION_THRESHOLD);
+		}
+		detected = false;
 	}
 	
 	/**
@@ -80,15 +155,14 @@ public class ZoomGesture extends TwoHandGesture {
 	 */
 	@Override
 	public GestureState doUpdateState(HandData[] hands, boolean touchReleased) {
-		Mat[] handPoints = new Mat[2];
+		if(adapter != null && hands != null && hands[0].isTouching() && hands[1].isTouching())
+			adapt(hands);
+
+		float detection = getDetectionThreshold(), completion = getCompletionThreshold();
 		switch(currentState) {
 		case NOT_DETECTED:
 			if(hands != null) {
-				for(int i = 0; i < 2; ++i)
-					handPoints[i] = new MatOfFloat(hands[i].getPosition().getX(), hands[i].getPosition().getY());
-				
-				Core.subtract(handPoints[0], handPoints[1], handPoints[0]);
-				initialDistance = (float) Core.norm(handPoints[0]);
+				initialDistance = getHandPair().getDistance();
 				return GestureState.POSSIBLE_DETECTION;
 			}
 			else
@@ -96,17 +170,15 @@ public class ZoomGesture extends TwoHandGesture {
 
 		case POSSIBLE_DETECTION:
 			if(hands != null) {
-				for(int i = 0; i < 2; ++i) {
+				for(int i = 0; i < 2; ++i)
 					if(!hands[i].isTouching()) return GestureState.NOT_DETECTED;
-					handPoints[i] = new MatOfFloat(hands[i].getPosition().getX(), hands[i].getPosition().getY());
-				}
 				
-				Core.subtract(handPoints[0], handPoints[1], handPoints[0]);
-				float currDistance = (float) Core.norm(handPoints[0]);
+				float currDistance = getHandPair().getDistance();
 				float diff = currDistance - initialDistance;
-				if(Math.abs(diff) >= detectionThreshold) {
+				if(Math.abs(diff) >= detection) {
 					if(direction == Direction.BOTH || (direction == Direction.OUTWARD && diff > 0) || (direction == Direction.INWARD && diff < 0)) {
-						data.put("initialDistance", initialDistance);
+						detected = true;
+						data.put(INITIAL_DISTANCE, initialDistance);
 						return GestureState.IN_PROGRESS;
 					}
 					else {
@@ -127,18 +199,14 @@ public class ZoomGesture extends TwoHandGesture {
 						return isLive() ? GestureState.COMPLETED : GestureState.NOT_DETECTED;
 				
 				//check if we reached the threshold
-				for(int i = 0; i < 2; ++i)
-					handPoints[i] = new MatOfFloat(hands[i].getPosition().getX(), hands[i].getPosition().getY());
-				
-				Core.subtract(handPoints[0], handPoints[1], handPoints[0]);
-				float currDistance = (float) Core.norm(handPoints[0]);
+				float currDistance = getHandPair().getDistance();
 				
-				data.put("currentDistance", currDistance);
+				data.put(CURRENT_DISTANCE, currDistance);
 				if(isLive()) return GestureState.IN_PROGRESS;
 				
 				float diff = currDistance - initialDistance;
 				
-				if(Math.abs(diff) >= completionThreshold) {
+				if(Math.abs(diff) >= completion) {
 					if(direction == Direction.BOTH || (direction == Direction.OUTWARD && diff > 0) || (direction == Direction.INWARD && diff < 0)) {
 						return GestureState.COMPLETED;
 					}
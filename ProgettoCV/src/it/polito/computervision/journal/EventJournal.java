@@ -0,0 +1,265 @@
+package it.polito.computervision.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Singleton in-memory journal of application events (gesture transitions, hands found and lost, actions, messages).
+ * Events are recorded without locks into a preallocated ring buffer, and a background daemon thread writes them,
+ * one per line, to the output (the standard output by default). Recording an event never blocks and never does I/O:
+ * if the writer cannot keep up and the buffer is full, events are dropped and the number of dropped events is written instead.
+ * Events below the minimum {@link Level} are discarded before being recorded, so callers should check {@link #isEnabled(Level)}
+ * before building expensive messages.
+ * @author Giovanni Piumatti
+ *
+ */
+public class EventJournal implements Runnable {
+
+	/**
+	 * The number of events the journal can hold before the writer drains them
+	 */
+	public static final int CAPACITY = 8192;
+	/**
+	 * How long (in ms) the writer waits for new events when the journal is empty
+	 */
+	public static final long WRITE_INTERVAL = 20;
+
+	private static EventJournal instance = null;
+
+	private final int capacity, mask;
+	private final long[] times;
+	private final Level[] levels;
+	private final EventType[] types;
+	private final Object[] subjects, firstArgs, secondArgs;
+	private final int[] values;
+
+	private final AtomicLongArray published;
+	private final AtomicLong claimed, dropped;
+	private volatile long consumed;
+	private volatile int minLevel;
+
+	private PrintStream out;
+	private StringBuilder line;
+
+	private EventJournal(int capacity) {
+		this.capacity = capacity;
+		mask = capacity - 1;
+		times = new long[capacity];
+		levels = new Level[capacity];
+		types = new EventType[capacity];
+		subjects = new Object[capacity];
+		firstArgs = new Object[capacity];
+		secondArgs = new Object[capacity];
+		values = new int[capacity];
+		published = new AtomicLongArray(capacity);
+		for(int i = 0; i < capacity; ++i)
+			published.set(i, -1);
+		claimed = new AtomicLong(0);
+		dropped = new AtomicLong(0);
+		consumed = 0;
+		minLevel = Level.INFO.ordinal();
+		out = System.out;
+		line = new StringBuilder();
+
+		Thread writer = new Thread(this, "EventJournal");
+		writer.setDaemon(true);
+		writer.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+	}
+
+	public static synchronized EventJournal getInstance() {
+		if(instance == null)
+			instance = new EventJournal(CAPACITY);
+
+		return instance;
+	}
+
+	/**
+	 * Sets the minimum level of the events to record
+	 * @param level The minimum {@link Level}
+	 */
+	public void setLevel(Level level) {
+		minLevel = level.ordinal();
+	}
+
+	/**
+	 *
+	 * @return the minimum level of the events to record
+	 */
+	public Level getLevel() {
+		return Level.values()[minLevel];
+	}
+
+	/**
+	 * @param level The {@link Level} to check
+	 * @return true if events of the given level are recorded, false otherwise
+	 */
+	public boolean isEnabled(Level level) {
+		return level.ordinal() >= minLevel;
+	}
+
+	/**
+	 * Sets the stream the events are written to. The previous stream is flushed, but not closed.
+	 * @param os The stream to write to
+	 */
+	public synchronized void setOutput(OutputStream os) {
+		out.flush();
+		out = os instanceof PrintStream ? (PrintStream) os : new PrintStream(os, false);
+	}
+
+	/**
+	 * Appends the events to the given file
+	 * @param file The file to write to
+	 * @throws FileNotFoundException if the file cannot be opened
+	 */
+	public void setOutput(File file) throws FileNotFoundException {
+		setOutput(new PrintStream(new BufferedOutputStream(new FileOutputStream(file, true)), false));
+	}
+
+	/**
+	 * Records an event. The arguments should be immutable objects that already exist (e.g. names or enum constants),
+	 * since they are converted to strings only when the event is written.
+	 * @param level The level of the event
+	 * @param type The type of the event
+	 * @param subject The subject of the event (see {@link EventType}), can be null
+	 * @param firstArg The first argument of the event, can be null
+	 * @param secondArg The second argument of the event, can be null
+	 * @param value A numeric value associated to the event
+	 */
+	public void record(Level level, EventType type, Object subject, Object firstArg, Object secondArg, int value) {
+		if(level.ordinal() < minLevel)
+			return;
+
+		long seq;
+		do {
+			seq = claimed.get();
+			if(seq - consumed >= capacity) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while(!claimed.compareAndSet(seq, seq + 1));
+
+		int i = (int) seq & mask;
+		times[i] = System.currentTimeMillis();
+		levels[i] = level;
+		types[i] = type;
+		subjects[i] = subject;
+		firstArgs[i] = firstArg;
+		secondArgs[i] = secondArg;
+		values[i] = value;
+		//publish the event to the writer
+		published.lazySet(i, seq);
+	}
+
+	/**
+	 * Records a message
+	 * @param level The level of the message
+	 * @param message The message
+	 */
+	public void message(Level level, String message) {
+		record(level, EventType.MESSAGE, message, null, null, 0);
+	}
+
+	/**
+	 * Writes all the recorded events and closes the output, unless it is the standard output or error. The events recorded afterwards are written to the standard output.
+	 */
+	public synchronized void close() {
+		drain();
+		if(out != System.out && out != System.err)
+			out.close();
+		else
+			out.flush();
+		out = System.out;
+	}
+
+	/**
+	 * Writes all the recorded events and flushes the output
+	 */
+	public synchronized void flush() {
+		drain();
+		out.flush();
+	}
+
+	/**
+	 * Writes the events recorded so far
+	 * @return the number of events written
+	 */
+	private synchronized int drain() {
+		int n = 0;
+		long seq = consumed;
+		int i = (int) seq & mask;
+		while(published.get(i) == seq) {
+			format(i);
+			out.println(line);
+			subjects[i] = firstArgs[i] = secondArgs[i] = null;
+			consumed = ++seq;
+			i = (int) seq & mask;
+			++n;
+		}
+
+		long lost = dropped.getAndSet(0);
+		if(lost > 0)
+			out.println(System.currentTimeMillis() + " " + Level.WARN + " " + EventType.MESSAGE + " " + lost + " events dropped");
+
+		return n;
+	}
+
+	/**
+	 * Formats the event in the given slot
+	 * @param i The index of the slot
+	 */
+	private void format(int i) {
+		line.setLength(0);
+		line.append(times[i]).append(' ').append(levels[i]).append(' ').append(types[i]);
+		switch(types[i]) {
+		case GESTURE:
+			line.append(' ').append(subjects[i]).append(' ').append(firstArgs[i]).append(" -> ").append(secondArgs[i]).append(" session=").append(values[i]);
+			break;
+		case HAND_FOUND:
+		case HAND_LOST:
+			line.append(" hand=").append(values[i]);
+			break;
+		case ACTION:
+			line.append(' ').append(subjects[i]).append(' ').append(firstArgs[i]).append(" session=").append(values[i]);
+			break;
+		default:
+			line.append(' ').append(subjects[i]);
+			break;
+		}
+	}
+
+	/**
+	 * The writer loop
+	 */
+	@Override
+	public final void run() {
+		boolean dirty = false;
+		while(true) {
+			if(drain() > 0)
+				dirty = true;
+			else {
+				if(dirty) {
+					synchronized(this) {
+						out.flush();
+					}
+					dirty = false;
+				}
+				LockSupport.parkNanos(WRITE_INTERVAL * 1000000L);
+			}
+		}
+	}
+}
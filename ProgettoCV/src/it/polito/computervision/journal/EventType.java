@@ -0,0 +1,29 @@
+package it.polito.computervision.journal;
+
+/**
+ * The type of an event recorded in the {@link EventJournal}.
+ * @author Giovanni Piumatti
+ *
+ */
+public enum EventType {
+	/**
+	 * A gesture changed state. Subject: the gesture name, arguments: the old and the new state, value: the session ID
+	 */
+	GESTURE,
+	/**
+	 * A new hand is being tracked. Value: the hand ID
+	 */
+	HAND_FOUND,
+	/**
+	 * A hand is no longer tracked. Value: the hand ID
+	 */
+	HAND_LOST,
+	/**
+	 * A gesture event was dispatched to an action. Subject: the gesture name, first argument: the state of the gesture, value: the session ID
+	 */
+	ACTION,
+	/**
+	 * A free-form message. Subject: the message
+	 */
+	MESSAGE
+}
@@ -0,0 +1,21 @@
+package it.polito.computervision.journal;
+
+/**
+ * The level of an event recorded in the {@link EventJournal}. Events below the minimum level of the journal are discarded.
+ * @author Giovanni Piumatti
+ *
+ */
+public enum Level {
+	/**
+	 * Frequent events, only useful when debugging (e.g. gestures entering or leaving POSSIBLE_DETECTION)
+	 */
+	DEBUG,
+	/**
+	 * Normal events (e.g. gestures starting or completing, hands found or lost)
+	 */
+	INFO,
+	/**
+	 * Unexpected events
+	 */
+	WARN
+}
@@ -5,6 +5,8 @@ package it.polito.computervision.virtualscreen;
 
 import org.opencv.core.Size;
 
+import com.primesense.nite.Point3D;
+
 /**
  * Implements the common functionality of a {@link VirtualScreen}
  * @author giovanni
@@ -63,4 +65,14 @@ public abstract class AbstractVirtualScreen implements VirtualScreen {
 	public void setDepth(float depth) {
 		this.depth = depth;
 	}
+
+	/**
+	 * Computes the signed distance of the given 3D point from the virtual screen. The default implementation assumes
+	 * a screen facing the sensor at its depth (i.e. the Z coordinate of the point minus the depth), subclasses should override it if their shape differs.
+	 * @param point The 3D point
+	 * @return the distance (in mm), positive if the point is in front of the virtual screen, zero or negative if it is touching (i.e. behind it)
+	 */
+	public float getDistance(Point3D<Float> point) {
+		return point.getZ() - depth;
+	}
 }
@@ -0,0 +1,489 @@
+package it.polito.computervision.virtualscreen;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A hand tracker working on raw depth frames, used when the NiTE hand tracker is not available (see {@link VirtualScreenManager#startFallback(int, org.openni.VideoStream)}).
+ * Hands are the nearest blobs of the depth frame: the frame is divided into cells, and starting from the cell with the nearest pixel,
+ * a blob is grown from the nearest pixel of each cell, including the connected pixels that are at most {@link #HAND_DEPTH} behind it.
+ * Blobs whose area is compatible with a hand are candidates, bigger ones (e.g. the body) are discarded.
+ * Hands must therefore be held in front of the body, as with the NiTE wake-up gesture.
+ * Candidates are associated with the hands of the previous frame greedily, nearest pairs first, within the distance a hand can travel
+ * at {@link #MAX_SPEED}. A new candidate becomes a tracked hand after it has been seen in {@link #CONFIRM_FRAMES} frames,
+ * and a tracked hand is lost after it has been missing for {@link #LOST_FRAMES} frames.
+ * The frame is subsampled with a configurable step, and buffers are reused, so that a 640x480 frame is processed in a few milliseconds on a single core.
+ * @author Giovanni Piumatti
+ *
+ */
+public class DepthHandTracker {
+
+	/**
+	 * Depth range (in mm) of the pixels that are considered
+	 */
+	public static final int MIN_DEPTH = 400, MAX_DEPTH = 4000;
+	/**
+	 * How far (in mm) behind its nearest pixel a blob extends
+	 */
+	public static final float HAND_DEPTH = 150.f;
+	/**
+	 * Maximum difference of depth (in mm) between two neighboring pixels of a blob
+	 */
+	public static final float MAX_DEPTH_STEP = 40.f;
+	/**
+	 * Area (in mm^2) of the blobs that can be hands
+	 */
+	public static final float MIN_HAND_AREA = 2500.f, MAX_HAND_AREA = 40000.f;
+	/**
+	 * Maximum speed (in mm/s) of a hand, which bounds the distance between the positions of a hand in two frames
+	 */
+	public static final float MAX_SPEED = 3000.f;
+	/**
+	 * Weight of the previous position of a hand when smoothing its position
+	 */
+	public static final float SMOOTHING = 0.5f;
+	/**
+	 * How many frames a new hand must be seen in before it is tracked
+	 */
+	public static final int CONFIRM_FRAMES = 3;
+	/**
+	 * How many frames a tracked hand can be missing from before it is lost
+	 */
+	public static final int LOST_FRAMES = 5;
+	/**
+	 * Default subsampling step of the depth frame (in pixels)
+	 */
+	public static final int DEFAULT_STEP = 2;
+
+	/**
+	 * Side (in subsampled pixels) of the cells the blobs are grown from
+	 */
+	private static final int CELL = 8;
+	/**
+	 * Minimum distance (in mm) a hand can travel between two frames, so that slow frames do not lose hands
+	 */
+	private static final float MIN_GATE = 50.f;
+
+	/**
+	 * A hand tracked by the {@link DepthHandTracker}. Mirrors the NiTE hand data: a hand is new in the first frame it is tracked in,
+	 * and lost in the frame it stops being tracked (in which it is not tracking anymore).
+	 */
+	public static class Hand {
+		private short id;
+		private float depthX, depthY, x, y, z;
+		private boolean confirmed, tracking, isNew, lost;
+		private int seen, missed;
+		private long lastSeen;
+
+		/**
+		 *
+		 * @return the unique ID of the hand
+		 */
+		public short getId() {
+			return id;
+		}
+
+		/**
+		 *
+		 * @return the X coordinate of the hand in the depth frame (in pixels, not mirrored)
+		 */
+		public float getDepthX() {
+			return depthX;
+		}
+
+		/**
+		 *
+		 * @return the Y coordinate of the hand in the depth frame (in pixels)
+		 */
+		public float getDepthY() {
+			return depthY;
+		}
+
+		/**
+		 *
+		 * @return the X coordinate of the hand (in world coordinates, in mm)
+		 */
+		public float getX() {
+			return x;
+		}
+
+		/**
+		 *
+		 * @return the Y coordinate of the hand (in world coordinates, in mm)
+		 */
+		public float getY() {
+			return y;
+		}
+
+		/**
+		 *
+		 * @return the Z coordinate of the hand (in world coordinates, i.e. its distance from the sensor in mm)
+		 */
+		public float getZ() {
+			return z;
+		}
+
+		/**
+		 *
+		 * @return true if the hand is tracked in this frame
+		 */
+		public boolean isTracking() {
+			return tracking;
+		}
+
+		/**
+		 *
+		 * @return true if this is the first frame the hand is tracked in
+		 */
+		public boolean isNew() {
+			return isNew;
+		}
+
+		/**
+		 *
+		 * @return true if the hand has been lost in this frame
+		 */
+		public boolean isLost() {
+			return lost;
+		}
+
+		@Override
+		public String toString() {
+			return id + ": (X:" + x + ",Y:" + y + ",Z:" + z + ")" + (isNew ? " new" : "") + (lost ? " lost" : "");
+		}
+	}
+
+	private final double focalScale;
+	private final int step;
+	private int maxHands;
+	private short nextId;
+	private List<Hand> hands, output;
+
+	//buffers
+	private int gw, gh;
+	private short[] grid;
+	private int[] labels, queue;
+	private long[] cells;
+	private float[] blobX, blobY, blobZ, blobU, blobV;
+	private int blobs;
+	private boolean[] assignedHand, assignedBlob;
+
+	/**
+	 * Creates a tracker with the default subsampling step, for a sensor with the {@link HandPoseDetector#DEFAULT_HORIZONTAL_FOV}
+	 * @param maxHands The maximum number of hands to track
+	 */
+	public DepthHandTracker(int maxHands) {
+		this(maxHands, HandPoseDetector.DEFAULT_HORIZONTAL_FOV, DEFAULT_STEP);
+	}
+
+	/**
+	 * @param maxHands The maximum number of hands to track
+	 * @param horizontalFov The horizontal field of view of the depth sensor (in degrees)
+	 * @param step The subsampling step of the depth frame (in pixels, 1 to use all pixels)
+	 */
+	public DepthHandTracker(int maxHands, float horizontalFov, int step) {
+		if(maxHands <= 0)
+			throw new IllegalArgumentException("maxHands must be > 0");
+		if(horizontalFov <= 0 || horizontalFov >= 180)
+			throw new IllegalArgumentException("horizontalFov must be in (0, 180)");
+		if(step < 1)
+			throw new IllegalArgumentException("step must be >= 1");
+
+		focalScale = 0.5 / Math.tan(Math.toRadians(horizontalFov) / 2);
+		this.step = step;
+		this.maxHands = maxHands;
+		nextId = 1;
+		hands = new ArrayList<Hand>();
+		output = new ArrayList<Hand>();
+		gw = gh = 0;
+		grid = new short[0];
+		labels = queue = new int[0];
+		cells = new long[0];
+		ensureBlobCapacity(maxHands);
+	}
+
+	/**
+	 * Finds the hands in a new depth frame
+	 * @param depth The depth frame (in mm, 0 where the depth is not available)
+	 * @param width The width of the frame (in pixels)
+	 * @param height The height of the frame (in pixels)
+	 * @param stride The distance between the first pixels of two consecutive rows (in pixels)
+	 * @param timestamp The timestamp of the frame (in microseconds)
+	 * @return the hands tracked in this frame and the ones lost in this frame. The list and the hands are reused by the next call.
+	 */
+	public synchronized List<Hand> update(ShortBuffer depth, int width, int height, int stride, long timestamp) {
+		if(depth == null || width <= 0 || height <= 0 || stride < width)
+			throw new IllegalArgumentException("Invalid depth frame");
+
+		float focal = (float) (focalScale * width);
+		subsample(depth, width, height, stride);
+		segment(focal);
+		associate(focal, width, height, timestamp);
+
+		output.clear();
+		for(int i = 0; i < hands.size(); ++i) {
+			Hand h = hands.get(i);
+			if(h.tracking || h.lost)
+				output.add(h);
+		}
+		return Collections.unmodifiableList(output);
+	}
+
+	/**
+	 * Sets the maximum number of hands to track. If there are more tracked hands, the ones in excess are lost on the next frame.
+	 * @param maxHands The maximum number of hands to track
+	 */
+	public synchronized void setMaxHands(int maxHands) {
+		if(maxHands <= 0)
+			throw new IllegalArgumentException("maxHands must be > 0");
+
+		this.maxHands = maxHands;
+		ensureBlobCapacity(maxHands);
+	}
+
+	public synchronized int getMaxHands() {
+		return maxHands;
+	}
+
+	/**
+	 * Forgets all hands
+	 */
+	public synchronized void clear() {
+		hands.clear();
+		output.clear();
+	}
+
+	/**
+	 * Copies the subsampled frame, leaving 0 where the depth is not available or out of range
+	 */
+	private void subsample(ShortBuffer depth, int width, int height, int stride) {
+		int w = (width + step - 1) / step, h = (height + step - 1) / step;
+		if(w != gw || h != gh) {
+			gw = w;
+			gh = h;
+			grid = new short[gw * gh];
+			labels = new int[gw * gh];
+			queue = new int[gw * gh];
+			cells = new long[((gw + CELL - 1) / CELL) * ((gh + CELL - 1) / CELL)];
+		}
+
+		for(int gy = 0; gy < gh; ++gy) {
+			int row = gy * step * stride;
+			for(int gx = 0; gx < gw; ++gx) {
+				int d = depth.get(row + gx * step) & 0xFFFF;
+				grid[gy * gw + gx] = (short) (d >= MIN_DEPTH && d <= MAX_DEPTH ? d : 0);
+			}
+		}
+	}
+
+	/**
+	 * Grows the blobs from the nearest pixel of each cell, nearest cells first, and keeps the ones that can be hands
+	 */
+	private void segment(float focal) {
+		//the nearest pixel of each cell, sorted by depth
+		int cw = (gw + CELL - 1) / CELL, ch = (gh + CELL - 1) / CELL, n = 0;
+		for(int cy = 0; cy < ch; ++cy) {
+			for(int cx = 0; cx < cw; ++cx) {
+				int best = 0, bestIndex = -1;
+				for(int gy = cy * CELL; gy < Math.min(gh, (cy + 1) * CELL); ++gy)
+					for(int gx = cx * CELL; gx < Math.min(gw, (cx + 1) * CELL); ++gx) {
+						int d = grid[gy * gw + gx];
+						if(d != 0 && (bestIndex < 0 || d < best)) {
+							best = d;
+							bestIndex = gy * gw + gx;
+						}
+					}
+				if(bestIndex >= 0)
+					cells[n++] = ((long) best << 32) | bestIndex;
+			}
+		}
+		Arrays.sort(cells, 0, n);
+		Arrays.fill(labels, 0);
+
+		//a few more candidates than hands, so that a spurious blob does not hide a hand
+		int maxBlobs = blobX.length, label = 0;
+		int maxStep = Math.round(MAX_DEPTH_STEP);
+		blobs = 0;
+		for(int c = 0; c < n && blobs < maxBlobs; ++c) {
+			int seed = (int) cells[c];
+			if(labels[seed] != 0)
+				continue;
+
+			int limit = grid[seed] + Math.round(HAND_DEPTH);
+			int head = 0, tail = 0, count = 0;
+			double sumU = 0, sumV = 0, sumZ = 0;
+			queue[tail++] = seed;
+			labels[seed] = ++label;
+			while(head < tail) {
+				int i = queue[head++];
+				int gx = i % gw, gy = i / gw, d = grid[i];
+				sumU += gx;
+				sumV += gy;
+				sumZ += d;
+				++count;
+
+				if(gx > 0)
+					tail = visit(i - 1, d, limit, maxStep, label, tail);
+				if(gx < gw - 1)
+					tail = visit(i + 1, d, limit, maxStep, label, tail);
+				if(gy > 0)
+					tail = visit(i - gw, d, limit, maxStep, label, tail);
+				if(gy < gh - 1)
+					tail = visit(i + gw, d, limit, maxStep, label, tail);
+			}
+
+			float z = (float) (sumZ / count);
+			float pixel = step * z / focal;
+			float area = count * pixel * pixel;
+			if(area >= MIN_HAND_AREA && area <= MAX_HAND_AREA) {
+				blobU[blobs] = (float) (sumU / count) * step;
+				blobV[blobs] = (float) (sumV / count) * step;
+				blobZ[blobs] = z;
+				++blobs;
+			}
+		}
+	}
+
+	/**
+	 * Adds a pixel to the blob being grown, if it belongs to it
+	 * @return the new tail of the queue
+	 */
+	private int visit(int i, int from, int limit, int maxStep, int label, int tail) {
+		int d = grid[i];
+		if(labels[i] == 0 && d != 0 && d <= limit && Math.abs(d - from) <= maxStep) {
+			labels[i] = label;
+			queue[tail++] = i;
+		}
+		return tail;
+	}
+
+	/**
+	 * Associates the candidates with the hands, nearest pairs first, then updates the state of the hands
+	 */
+	private void associate(float focal, int width, int height, long timestamp) {
+		for(int j = 0; j < blobs; ++j) {
+			blobX[j] = (blobU[j] - width / 2.f) * blobZ[j] / focal;
+			blobY[j] = (height / 2.f - blobV[j]) * blobZ[j] / focal;
+		}
+
+		//the hands lost in the previous frame are gone
+		for(int i = hands.size() - 1; i >= 0; --i)
+			if(hands.get(i).lost)
+				hands.remove(i);
+
+		if(assignedHand.length < hands.size())
+			assignedHand = new boolean[2 * hands.size()];
+		Arrays.fill(assignedHand, false);
+		Arrays.fill(assignedBlob, false);
+
+		//greedy association
+		while(true) {
+			int bestHand = -1, bestBlob = -1;
+			float best = Float.MAX_VALUE;
+			for(int i = 0; i < hands.size(); ++i) {
+				if(assignedHand[i])
+					continue;
+
+				Hand h = hands.get(i);
+				float gate = Math.max(MIN_GATE, MAX_SPEED * (timestamp - h.lastSeen) / 1000000.f);
+				for(int j = 0; j < blobs; ++j) {
+					if(assignedBlob[j])
+						continue;
+
+					float dx = blobX[j] - h.x, dy = blobY[j] - h.y, dz = blobZ[j] - h.z;
+					float dist = dx*dx + dy*dy + dz*dz;
+					if(dist <= gate * gate && dist < best) {
+						best = dist;
+						bestHand = i;
+						bestBlob = j;
+					}
+				}
+			}
+			if(bestHand < 0)
+				break;
+
+			assignedHand[bestHand] = assignedBlob[bestBlob] = true;
+			Hand h = hands.get(bestHand);
+			h.depthX = SMOOTHING * h.depthX + (1 - SMOOTHING) * blobU[bestBlob];
+			h.depthY = SMOOTHING * h.depthY + (1 - SMOOTHING) * blobV[bestBlob];
+			h.x = SMOOTHING * h.x + (1 - SMOOTHING) * blobX[bestBlob];
+			h.y = SMOOTHING * h.y + (1 - SMOOTHING) * blobY[bestBlob];
+			h.z = SMOOTHING * h.z + (1 - SMOOTHING) * blobZ[bestBlob];
+			h.lastSeen = timestamp;
+			h.missed = 0;
+			++h.seen;
+		}
+
+		for(int i = 0; i < hands.size(); ++i) {
+			Hand h = hands.get(i);
+			h.isNew = false;
+			if(!assignedHand[i])
+				++h.missed;
+		}
+
+		//tracked hands first, then candidates can take the remaining places
+		int tracked = 0;
+		for(int i = 0; i < hands.size(); ++i) {
+			Hand h = hands.get(i);
+			if(!h.confirmed)
+				continue;
+
+			if(h.missed > LOST_FRAMES || tracked >= maxHands) {
+				//reported once, then removed on the next frame
+				h.tracking = false;
+				h.lost = true;
+			}
+			else {
+				h.tracking = h.missed == 0;
+				++tracked;
+			}
+		}
+		for(int i = hands.size() - 1; i >= 0; --i) {
+			Hand h = hands.get(i);
+			if(!h.confirmed && h.missed > LOST_FRAMES)
+				hands.remove(i);
+		}
+		for(int i = 0; i < hands.size() && tracked < maxHands; ++i) {
+			Hand h = hands.get(i);
+			if(!h.confirmed && h.missed == 0 && h.seen >= CONFIRM_FRAMES) {
+				h.confirmed = h.tracking = h.isNew = true;
+				++tracked;
+			}
+		}
+
+		//new candidates
+		for(int j = 0; j < blobs; ++j) {
+			if(assignedBlob[j])
+				continue;
+
+			Hand h = new Hand();
+			h.id = nextId;
+			nextId = nextId == Short.MAX_VALUE ? 1 : (short) (nextId + 1);
+			h.depthX = blobU[j];
+			h.depthY = blobV[j];
+			h.x = blobX[j];
+			h.y = blobY[j];
+			h.z = blobZ[j];
+			h.lastSeen = timestamp;
+			h.seen = 1;
+			h.missed = 0;
+			h.confirmed = h.tracking = h.isNew = h.lost = false;
+			hands.add(h);
+		}
+	}
+
+	private void ensureBlobCapacity(int maxHands) {
+		int n = maxHands + 2;
+		blobX = new float[n];
+		blobY = new float[n];
+		blobZ = new float[n];
+		blobU = new float[n];
+		blobV = new float[n];
+		assignedBlob = new boolean[n];
+		assignedHand = new boolean[2 * n];
+		blobs = 0;
+	}
+}
@@ -0,0 +1,112 @@
+package it.polito.computervision.virtualscreen;
+
+import java.util.List;
+
+import org.openni.Point2D;
+
+/**
+ * Represents the fingertips of a hand and the direction it is pointing to, as found by the {@link FingertipDetector}.
+ * Since fingertips are found asynchronously, this data may refer to an earlier frame than the {@link HandData} it is attached to (see {@link #getTimestamp()}).
+ * @author Giovanni Piumatti
+ *
+ */
+public class FingertipData {
+
+	private final short handId;
+	private final long timestamp;
+	private final List<Point2D<Float>> fingertips;
+	private final Point2D<Float> pointingPosition;
+	private final float directionX, directionY, directionZ;
+
+	/**
+	 *
+	 * @param handId The unique ID of the hand
+	 * @param timestamp The timestamp of the frame the fingertips were found in (in microseconds)
+	 * @param fingertips The positions of the fingertips in depth coordinates (see {@link HandData#getProjectedPosition()})
+	 * @param pointingPosition The position of the pointing fingertip in depth coordinates, or null if the hand is not pointing
+	 * @param directionX The X component of the pointing direction (in world coordinates, normalized), or NaN if the hand is not pointing
+	 * @param directionY The Y component of the pointing direction
+	 * @param directionZ The Z component of the pointing direction
+	 */
+	public FingertipData(short handId, long timestamp, List<Point2D<Float>> fingertips, Point2D<Float> pointingPosition, float directionX, float directionY, float directionZ) {
+		if(fingertips == null)
+			throw new IllegalArgumentException("fingertips is null");
+
+		this.handId = handId;
+		this.timestamp = timestamp;
+		this.fingertips = fingertips;
+		this.pointingPosition = pointingPosition;
+		this.directionX = directionX;
+		this.directionY = directionY;
+		this.directionZ = directionZ;
+	}
+
+	/**
+	 *
+	 * @return the unique ID of the hand
+	 */
+	public short getHandId() {
+		return handId;
+	}
+
+	/**
+	 *
+	 * @return the timestamp of the frame the fingertips were found in (in microseconds)
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 *
+	 * @return the positions of the fingertips in depth coordinates, empty if none were found
+	 */
+	public List<Point2D<Float>> getFingertips() {
+		return fingertips;
+	}
+
+	/**
+	 *
+	 * @return true if the hand is pointing, i.e. at least one fingertip was found
+	 */
+	public boolean isPointing() {
+		return pointingPosition != null;
+	}
+
+	/**
+	 *
+	 * @return the position of the pointing fingertip (the farthest from the hand) in depth coordinates, or null if the hand is not pointing
+	 */
+	public Point2D<Float> getPointingPosition() {
+		return pointingPosition;
+	}
+
+	/**
+	 * The pointing ray starts from the hand position and goes through the pointing fingertip.
+	 * @return the X component of the direction of the pointing ray (in world coordinates, normalized), or NaN if the hand is not pointing
+	 */
+	public float getDirectionX() {
+		return directionX;
+	}
+
+	/**
+	 *
+	 * @return the Y component of the direction of the pointing ray (see {@link #getDirectionX()})
+	 */
+	public float getDirectionY() {
+		return directionY;
+	}
+
+	/**
+	 *
+	 * @return the Z component of the direction of the pointing ray (see {@link #getDirectionX()})
+	 */
+	public float getDirectionZ() {
+		return directionZ;
+	}
+
+	@Override
+	public String toString() {
+		return handId + ": " + fingertips.size() + " fingertips" + (isPointing() ? " pointing (" + directionX + "," + directionY + "," + directionZ + ")" : "");
+	}
+}
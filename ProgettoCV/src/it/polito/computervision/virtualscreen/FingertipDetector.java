@@ -0,0 +1,503 @@
+package it.polito.computervision.virtualscreen;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfInt4;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+import org.openni.Point2D;
+
+/**
+ * Finds the fingertips of the tracked hands and the direction they are pointing to (see {@link FingertipData}), with OpenCV.
+ * For each hand, a region of interest around its position is copied from the depth frame and analyzed on a worker thread:
+ * the pixels whose depth is close to the depth of the hand are thresholded, and the contour of the largest region is extracted.
+ * Fingertips are the ends of the deep convexity defects of the contour (the gaps between the fingers, or at the sides of a single extended finger)
+ * that are far enough from the hand position. Points on the border of the region of interest are discarded, since they belong to the arm.
+ * The pointing ray goes from the hand position through the fingertip farthest from it.
+ * It is fed once per frame (see {@link VirtualScreenManager}), but the analysis is asynchronous: the latest result of each hand is attached
+ * to its {@link HandData} as soon as it is available, so hand tracking is never delayed. The executor is bounded: while the analysis of a hand
+ * is in progress, or if all the workers are busy, new frames of that hand are skipped (see {@link #getSkippedCount()}).
+ * Requires the OpenCV native library to be loaded.
+ * @author Giovanni Piumatti
+ *
+ */
+public class FingertipDetector {
+
+	/**
+	 * Half the side (in mm) of the region of interest around a hand, large enough for extended fingers
+	 */
+	public static final float ROI_RADIUS = 160.f;
+	/**
+	 * How far (in mm) in front of the hand position and behind it the pixels of the hand can be
+	 */
+	public static final float DEPTH_NEAR = 100.f, DEPTH_FAR = 120.f;
+	/**
+	 * Minimum depth (in mm) of a convexity defect between two fingers
+	 */
+	public static final float DEFECT_MIN_DEPTH = 20.f;
+	/**
+	 * Minimum distance (in mm) of a fingertip from the hand position
+	 */
+	public static final float TIP_MIN_DISTANCE = 60.f;
+	/**
+	 * Fingertips closer than this distance (in mm) are merged
+	 */
+	public static final float TIP_MERGE_DISTANCE = 15.f;
+	public static final int MAX_FINGERTIPS = 5;
+
+	/**
+	 * Minimum distance (in pixels) of a fingertip from the border of the region of interest
+	 */
+	private static final int BORDER = 2;
+	/**
+	 * Maximum half side (in pixels) of the region of interest, when the hand is very close to the sensor
+	 */
+	private static final int MAX_ROI_RADIUS = 160;
+	/**
+	 * How long (in ms) {@link #shutdown()} waits for the analyses in progress
+	 */
+	private static final long SHUTDOWN_TIMEOUT = 1000;
+
+	/**
+	 * The region of interest of a hand and the buffers to analyze it. Only one analysis per hand can be in progress.
+	 */
+	private class Region implements Runnable {
+		private final short id;
+		private long frame;
+		private volatile boolean busy;
+		//set when the hand is gone, the buffers are released as soon as the region is not busy
+		private boolean evicted;
+		//inputs, written by the frame thread when the region is not busy
+		private short[] depth;
+		private int x0, y0, w, h, frameWidth, frameHeight;
+		private float x, y, z, focalLength;
+		private long timestamp;
+		//buffers of the worker
+		private byte[] pixels;
+		private Mat mask, hierarchy;
+		private MatOfInt hull;
+		private MatOfInt4 defects;
+		private List<MatOfPoint> contours;
+		private float[] tipX, tipY, tipDistance;
+
+		private Region(short id) {
+			this.id = id;
+			busy = evicted = false;
+			depth = new short[0];
+			pixels = new byte[0];
+			contours = new ArrayList<MatOfPoint>();
+			tipX = new float[2 * MAX_FINGERTIPS];
+			tipY = new float[2 * MAX_FINGERTIPS];
+			tipDistance = new float[2 * MAX_FINGERTIPS];
+		}
+
+		/**
+		 * Copies the region of interest from the current frame. Invoked on the frame thread.
+		 * @return false if the region is outside the frame
+		 */
+		private boolean copy(float x, float y, float z) {
+			int r = Math.min(MAX_ROI_RADIUS, Math.round(ROI_RADIUS * focal / z));
+			int cx = Math.round(x), cy = Math.round(y);
+			x0 = Math.max(0, cx - r);
+			y0 = Math.max(0, cy - r);
+			w = Math.min(width - 1, cx + r) - x0 + 1;
+			h = Math.min(height - 1, cy + r) - y0 + 1;
+			if(w <= 0 || h <= 0)
+				return false;
+
+			if(depth.length < w*h)
+				depth = new short[w*h];
+			for(int row = 0; row < h; ++row) {
+				frameDepth.position((y0 + row) * stride + x0);
+				frameDepth.get(depth, row * w, w);
+			}
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			frameWidth = width;
+			frameHeight = height;
+			focalLength = focal;
+			timestamp = frameTimestamp;
+			return true;
+		}
+
+		@Override
+		public void run() {
+			try {
+				results.put(id, analyze());
+			}
+			catch(RuntimeException e) {
+				//e.g. an OpenCV error on a degenerate contour, the next frame will be analyzed anyway
+				e.printStackTrace();
+			}
+			finally {
+				releaseContours();
+				synchronized(this) {
+					busy = false;
+					if(evicted)
+						release();
+				}
+			}
+		}
+
+		/**
+		 * Discards the region, releasing its buffers now, or at the end of the analysis in progress
+		 */
+		private synchronized void evict() {
+			evicted = true;
+			if(!busy)
+				release();
+		}
+
+		/**
+		 * Releases the native memory of the OpenCV buffers
+		 */
+		private void release() {
+			if(mask != null) {
+				mask.release();
+				mask = null;
+			}
+			if(hierarchy != null) {
+				hierarchy.release();
+				hull.release();
+				defects.release();
+				hierarchy = null;
+				hull = null;
+				defects = null;
+			}
+		}
+
+		/**
+		 * Finds the fingertips in the region of interest. Invoked on a worker thread.
+		 */
+		private FingertipData analyze() {
+			int near = Math.round(z - DEPTH_NEAR), far = Math.round(z + DEPTH_FAR);
+			if(pixels.length < w*h)
+				pixels = new byte[w*h];
+			for(int i = 0; i < w*h; ++i) {
+				int d = depth[i] & 0xFFFF;
+				pixels[i] = d != 0 && d >= near && d <= far ? (byte) 255 : 0;
+			}
+
+			if(mask == null || mask.rows() != h || mask.cols() != w) {
+				if(mask != null)
+					mask.release();
+				mask = new Mat(h, w, CvType.CV_8UC1);
+			}
+			if(hierarchy == null) {
+				hierarchy = new Mat();
+				hull = new MatOfInt();
+				defects = new MatOfInt4();
+			}
+			mask.put(0, 0, pixels);
+			Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+
+			MatOfPoint contour = null;
+			double maxArea = 0;
+			for(MatOfPoint c : contours) {
+				double area = Imgproc.contourArea(c);
+				if(area > maxArea) {
+					maxArea = area;
+					contour = c;
+				}
+			}
+			if(contour == null || contour.rows() < 4)
+				return noFingertips();
+
+			Imgproc.convexHull(contour, hull);
+			if(hull.rows() < 3)
+				return noFingertips();
+			Imgproc.convexityDefects(contour, hull, defects);
+
+			Point[] points = contour.toArray();
+			int[] d = defects.rows() > 0 ? defects.toArray() : new int[0];
+			float mmPerPixel = z / focalLength;
+			float minDefect = DEFECT_MIN_DEPTH / mmPerPixel, minDistance = TIP_MIN_DISTANCE / mmPerPixel, merge = TIP_MERGE_DISTANCE / mmPerPixel;
+			float hx = x - x0, hy = y - y0;
+			int tips = 0;
+			for(int i = 0; i + 3 < d.length; i += 4) {
+				//depth is a fixed point number with 8 fractional bits
+				if(d[i + 3] / 256.f < minDefect)
+					continue;
+
+				for(int k = 0; k < 2; ++k) {
+					Point p = points[d[i + k]];
+					float px = (float) p.x, py = (float) p.y;
+					float dist = (float) Math.sqrt((px - hx)*(px - hx) + (py - hy)*(py - hy));
+					if(dist < minDistance || px < BORDER || py < BORDER || px >= w - BORDER || py >= h - BORDER)
+						continue;
+
+					//merge with a close fingertip, keeping the farthest point
+					int j = 0;
+					while(j < tips && (tipX[j] - px)*(tipX[j] - px) + (tipY[j] - py)*(tipY[j] - py) > merge*merge)
+						++j;
+					if(j < tips) {
+						if(dist > tipDistance[j]) {
+							tipX[j] = px;
+							tipY[j] = py;
+							tipDistance[j] = dist;
+						}
+					}
+					else if(tips < tipX.length) {
+						tipX[tips] = px;
+						tipY[tips] = py;
+						tipDistance[tips++] = dist;
+					}
+				}
+			}
+			if(tips == 0)
+				return noFingertips();
+
+			//keep the farthest fingertips, the first one is pointing
+			sortByDistance(tips);
+			tips = Math.min(tips, MAX_FINGERTIPS);
+			List<Point2D<Float>> fingertips = new ArrayList<Point2D<Float>>(tips);
+			for(int i = 0; i < tips; ++i)
+				fingertips.add(project(tipX[i] + x0, tipY[i] + y0));
+
+			//pointing ray, from the hand position through the pointing fingertip
+			float tipZ = depthNear(Math.round(tipX[0]), Math.round(tipY[0]), near, far);
+			float dx = worldX(tipX[0] + x0, tipZ) - worldX(x, z), dy = worldY(tipY[0] + y0, tipZ) - worldY(y, z), dz = tipZ - z;
+			float norm = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+			if(norm == 0)
+				return new FingertipData(id, timestamp, Collections.unmodifiableList(fingertips), null, Float.NaN, Float.NaN, Float.NaN);
+			return new FingertipData(id, timestamp, Collections.unmodifiableList(fingertips), fingertips.get(0), dx / norm, dy / norm, dz / norm);
+		}
+
+		private FingertipData noFingertips() {
+			return new FingertipData(id, timestamp, Collections.<Point2D<Float>>emptyList(), null, Float.NaN, Float.NaN, Float.NaN);
+		}
+
+		/**
+		 * Sorts the fingertips found by decreasing distance from the hand position (there are only a few)
+		 */
+		private void sortByDistance(int tips) {
+			for(int i = 1; i < tips; ++i) {
+				float tx = tipX[i], ty = tipY[i], td = tipDistance[i];
+				int j = i - 1;
+				while(j >= 0 && tipDistance[j] < td) {
+					tipX[j + 1] = tipX[j];
+					tipY[j + 1] = tipY[j];
+					tipDistance[j + 1] = tipDistance[j];
+					--j;
+				}
+				tipX[j + 1] = tx;
+				tipY[j + 1] = ty;
+				tipDistance[j + 1] = td;
+			}
+		}
+
+		/**
+		 * @return the depth of a contour point, which may lie just outside the hand: the nearest depth of the hand around it, or the depth of the hand
+		 */
+		private float depthNear(int px, int py, int near, int far) {
+			for(int r = 0; r <= 2; ++r)
+				for(int yy = Math.max(0, py - r); yy <= Math.min(h - 1, py + r); ++yy)
+					for(int xx = Math.max(0, px - r); xx <= Math.min(w - 1, px + r); ++xx) {
+						int d = depth[yy * w + xx] & 0xFFFF;
+						if(d != 0 && d >= near && d <= far)
+							return d;
+					}
+			return z;
+		}
+
+		/**
+		 * @return the position in depth coordinates of a pixel of the frame, mirrored like {@link HandData#getProjectedPosition()}
+		 */
+		private Point2D<Float> project(float px, float py) {
+			return new Point2D<Float>((frameWidth - px) * VirtualScreenManager.PROJECTED_POSITION_MULTIPLIER, py * VirtualScreenManager.PROJECTED_POSITION_MULTIPLIER);
+		}
+
+		private float worldX(float px, float depth) {
+			return (px - frameWidth / 2.f) * depth / focalLength;
+		}
+
+		private float worldY(float py, float depth) {
+			return (frameHeight / 2.f - py) * depth / focalLength;
+		}
+
+		private void releaseContours() {
+			for(MatOfPoint c : contours)
+				c.release();
+			contours.clear();
+		}
+	}
+
+	private final double focalScale;
+	private final ThreadPoolExecutor executor;
+	private final Map<Short, FingertipData> results;
+	private Map<Short, Region> regions;
+	private long frame, skipped;
+
+	//the depth frame being processed
+	private ShortBuffer frameDepth;
+	private int width, height, stride;
+	private float focal;
+	private long frameTimestamp;
+
+	/**
+	 * Creates a detector using half of the available processors, for a sensor with the {@link HandPoseDetector#DEFAULT_HORIZONTAL_FOV}
+	 */
+	public FingertipDetector() {
+		this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), HandPoseDetector.DEFAULT_HORIZONTAL_FOV);
+	}
+
+	/**
+	 * @param threads The number of worker threads
+	 * @param horizontalFov The horizontal field of view of the depth sensor (in degrees)
+	 */
+	public FingertipDetector(int threads, float horizontalFov) {
+		if(threads < 1)
+			throw new IllegalArgumentException("threads < 1");
+		if(horizontalFov <= 0 || horizontalFov >= 180)
+			throw new IllegalArgumentException("horizontalFov must be in (0, 180)");
+
+		focalScale = 0.5 / Math.tan(Math.toRadians(horizontalFov) / 2);
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads), new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Fingertips-" + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		results = new ConcurrentHashMap<Short, FingertipData>();
+		regions = new HashMap<Short, Region>();
+		frame = skipped = 0;
+		frameDepth = null;
+	}
+
+	/**
+	 * Must be called before the hands of a new frame are submitted with {@link #submit(short, float, float, float)}
+	 * @param depth The depth frame (in mm, 0 where the depth is not available)
+	 * @param width The width of the frame (in pixels)
+	 * @param height The height of the frame (in pixels)
+	 * @param stride The distance between the first pixels of two consecutive rows (in pixels)
+	 * @param timestamp The timestamp of the frame (in microseconds)
+	 */
+	public synchronized void beginFrame(ShortBuffer depth, int width, int height, int stride, long timestamp) {
+		if(depth == null || width <= 0 || height <= 0 || stride < width)
+			throw new IllegalArgumentException("Invalid depth frame");
+
+		++frame;
+		frameDepth = depth.duplicate();
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+		focal = (float) (focalScale * width);
+		frameTimestamp = timestamp;
+	}
+
+	/**
+	 * Submits a hand of the current frame for analysis. Only the region of interest is copied, the analysis is performed asynchronously.
+	 * @param id The unique ID of the hand
+	 * @param x The X coordinate of the hand in the depth frame (in pixels, not mirrored)
+	 * @param y The Y coordinate of the hand in the depth frame (in pixels)
+	 * @param z The Z coordinate of the hand (in world coordinates, i.e. its distance from the sensor in mm)
+	 * @return true if the hand has been submitted, false if it has been skipped (e.g. the analysis of its previous frame is still in progress)
+	 */
+	public synchronized boolean submit(short id, float x, float y, float z) {
+		if(frameDepth == null)
+			throw new IllegalStateException("beginFrame() must be called first");
+
+		Region r = regions.get(id);
+		if(r == null) {
+			r = new Region(id);
+			regions.put(id, r);
+		}
+		r.frame = frame;
+
+		if(r.busy || !(z > 0) || !r.copy(x, y, z)) {
+			++skipped;
+			return false;
+		}
+
+		r.busy = true;
+		try {
+			executor.execute(r);
+			return true;
+		}
+		catch(RejectedExecutionException e) {
+			r.busy = false;
+			++skipped;
+			return false;
+		}
+	}
+
+	/**
+	 * Must be called after all the hands of the current frame have been submitted. Discards the hands that were not submitted.
+	 */
+	public synchronized void endFrame() {
+		frameDepth = null;
+		Iterator<Map.Entry<Short, Region>> it = regions.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Short, Region> e = it.next();
+			if(e.getValue().frame != frame) {
+				e.getValue().evict();
+				it.remove();
+			}
+		}
+		//also drops the results published by late analyses of hands that are gone
+		results.keySet().retainAll(regions.keySet());
+	}
+
+	/**
+	 * @param id The unique ID of the hand
+	 * @return the latest fingertips found for the hand, or null if none are available yet
+	 */
+	public FingertipData get(short id) {
+		return results.get(id);
+	}
+
+	/**
+	 *
+	 * @return the number of hands that have been skipped so far, since the workers were falling behind
+	 */
+	public synchronized long getSkippedCount() {
+		return skipped;
+	}
+
+	/**
+	 * Discards the results of all hands
+	 */
+	public synchronized void clear() {
+		for(Region r : regions.values())
+			r.evict();
+		regions.clear();
+		results.clear();
+	}
+
+	/**
+	 * Stops the workers and releases the buffers of all hands. The analyses in progress are completed, but no more hands can be submitted.
+	 */
+	public synchronized void shutdown() {
+		executor.shutdown();
+		try {
+			//the workers never take the lock of the detector
+			executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		//the regions still busy (if any) release their buffers when their analysis ends
+		clear();
+	}
+}
@@ -13,6 +13,14 @@ public class HandData {
 	private short id;
 	private Point2D<Float> position, projectedPosition;
 	private boolean touching;
+	private long timestamp;
+	private HandTrajectory trajectory;
+	private long trajectoryFrame;
+	private float velocityX, velocityY, accelerationX, accelerationY;
+	private double pathLength;
+	private float z, distance;
+	private HandPose pose;
+	private FingertipData fingertips;
 	
 	/**
 	 * 
@@ -22,10 +30,72 @@ public class HandData {
 	 * @param touching Whether the hand is touching the virtual screen or not
 	 */
 	public HandData(short id, Point2D<Float> position, Point2D<Float> projectedPosition, boolean touching) {
+		this(id, position, projectedPosition, touching, 0, null);
+	}
+
+	/**
+	 * 
+	 * @param id The unique ID of the hand
+	 * @param position The 2D position of the hand on the virtual screen (in world coordinates)
+	 * @param projectedPosition The 2D position of the hand in depth coordinates
+	 * @param touching Whether the hand is touching the virtual screen or not
+	 * @param timestamp The timestamp of the frame (in microseconds)
+	 * @param trajectory The recent trajectory of the hand (can be null)
+	 */
+	public HandData(short id, Point2D<Float> position, Point2D<Float> projectedPosition, boolean touching, long timestamp, HandTrajectory trajectory) {
+		this(id, position, projectedPosition, touching, timestamp, trajectory, Float.NaN, Float.NaN);
+	}
+
+	/**
+	 * 
+	 * @param id The unique ID of the hand
+	 * @param position The 2D position of the hand on the virtual screen (in world coordinates)
+	 * @param projectedPosition The 2D position of the hand in depth coordinates
+	 * @param touching Whether the hand is touching the virtual screen or not
+	 * @param timestamp The timestamp of the frame (in microseconds)
+	 * @param trajectory The recent trajectory of the hand (can be null)
+	 * @param z The Z coordinate of the hand (in world coordinates), or NaN if not available
+	 * @param distance The signed distance of the hand from the virtual screen (see {@link AbstractVirtualScreen#getDistance(com.primesense.nite.Point3D)}), or NaN if not available
+	 */
+	public HandData(short id, Point2D<Float> position, Point2D<Float> projectedPosition, boolean touching, long timestamp, HandTrajectory trajectory, float z, float distance) {
+		this(id, position, projectedPosition, touching, timestamp, trajectory, z, distance, HandPose.UNKNOWN);
+	}
+
+	/**
+	 * 
+	 * @param id The unique ID of the hand
+	 * @param position The 2D position of the hand on the virtual screen (in world coordinates)
+	 * @param projectedPosition The 2D position of the hand in depth coordinates
+	 * @param touching Whether the hand is touching the virtual screen or not
+	 * @param timestamp The timestamp of the frame (in microseconds)
+	 * @param trajectory The recent trajectory of the hand (can be null)
+	 * @param z The Z coordinate of the hand (in world coordinates), or NaN if not available
+	 * @param distance The signed distance of the hand from the virtual screen (see {@link AbstractVirtualScreen#getDistance(com.primesense.nite.Point3D)}), or NaN if not available
+	 * @param pose The pose of the hand
+	 */
+	public HandData(short id, Point2D<Float> position, Point2D<Float> projectedPosition, boolean touching, long timestamp, HandTrajectory trajectory, float z, float distance, HandPose pose) {
+		if(pose == null)
+			throw new IllegalArgumentException("pose is null");
+
 		this.id = id;
 		this.position = position;
 		this.projectedPosition = projectedPosition;
 		this.touching = touching;
+		this.timestamp = timestamp;
+		this.trajectory = trajectory;
+		//the trajectory keeps changing, so the kinematics of this frame are copied
+		if(trajectory != null) {
+			trajectoryFrame = trajectory.frame;
+			velocityX = trajectory.getVelocityX();
+			velocityY = trajectory.getVelocityY();
+			accelerationX = trajectory.getAccelerationX();
+			accelerationY = trajectory.getAccelerationY();
+			pathLength = trajectory.getPathLength();
+		}
+		this.z = z;
+		this.distance = distance;
+		this.pose = pose;
+		this.fingertips = null;
 	}
 
 	/**
@@ -60,8 +130,131 @@ public class HandData {
 		return touching;
 	}
 	
+	/**
+	 * 
+	 * @return the timestamp of the frame this data refers to (in microseconds)
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the live trajectory of this hand, which is updated on every frame and recycled for other hands when this one is lost.
+	 * It must only be used on the thread delivering the frames, while this frame is being processed: data kept after that
+	 * (e.g. by listeners running on another thread, or as the last known position of a hand) must use the kinematics copied in this object.
+	 * @return the recent trajectory of this hand, or null if it is not available or it has moved on to another frame
+	 */
+	public HandTrajectory getTrajectory() {
+		HandTrajectory t = trajectory;
+		return t != null && t.frame == trajectoryFrame && t.getId() == id ? t : null;
+	}
+
+	/**
+	 * 
+	 * @return the X component of the velocity of the hand in this frame (in mm/s), 0 if the trajectory is not available
+	 */
+	public float getVelocityX() {
+		return velocityX;
+	}
+
+	/**
+	 * 
+	 * @return the Y component of the velocity of the hand in this frame (in mm/s), 0 if the trajectory is not available
+	 */
+	public float getVelocityY() {
+		return velocityY;
+	}
+
+	/**
+	 * 
+	 * @return the magnitude of the velocity of the hand in this frame (in mm/s), 0 if the trajectory is not available
+	 */
+	public float getSpeed() {
+		return (float) Math.sqrt(velocityX*velocityX + velocityY*velocityY);
+	}
+
+	/**
+	 * 
+	 * @return the X component of the acceleration of the hand in this frame (in mm/s^2), 0 if the trajectory is not available
+	 */
+	public float getAccelerationX() {
+		return accelerationX;
+	}
+
+	/**
+	 * 
+	 * @return the Y component of the acceleration of the hand in this frame (in mm/s^2), 0 if the trajectory is not available
+	 */
+	public float getAccelerationY() {
+		return accelerationY;
+	}
+
+	/**
+	 * 
+	 * @return the length of the path travelled by the hand since its trajectory started, up to this frame (in mm), 0 if the trajectory is not available
+	 */
+	public double getPathLength() {
+		return pathLength;
+	}
+	
+	/**
+	 * 
+	 * @return true if the depth of the hand is available (see {@link #getZ()} and {@link #getDistance()})
+	 */
+	public boolean hasDepth() {
+		return !Float.isNaN(distance);
+	}
+
+	/**
+	 * 
+	 * @return the Z coordinate of the hand (in world coordinates, i.e. its distance from the sensor in mm), or NaN if not available
+	 */
+	public float getZ() {
+		return z;
+	}
+
+	/**
+	 * 
+	 * @return the signed distance of the hand from the virtual screen (in mm): positive in front of it, zero or negative when touching. NaN if not available
+	 */
+	public float getDistance() {
+		return distance;
+	}
+	
+	/**
+	 * 
+	 * @return the pose of the hand (see {@link HandPoseDetector}), {@link HandPose#UNKNOWN} if not available
+	 */
+	public HandPose getPose() {
+		return pose;
+	}
+
+	/**
+	 * Sets the pose of the hand, once it has been classified. Only used by the {@link VirtualScreenManager} before the hand is handed over to the listeners.
+	 * @param pose The pose of the hand
+	 */
+	void setPose(HandPose pose) {
+		this.pose = pose;
+	}
+	
+	/**
+	 * 
+	 * @return the latest fingertips found for this hand (see {@link FingertipDetector}), which may refer to an earlier frame, or null if not available
+	 */
+	public FingertipData getFingertips() {
+		return fingertips;
+	}
+
+	/**
+	 * Sets the latest fingertips found for the hand. Only used by the {@link VirtualScreenManager} before the hand is handed over to the listeners.
+	 * @param fingertips The fingertips of the hand
+	 */
+	void setFingertips(FingertipData fingertips) {
+		this.fingertips = fingertips;
+	}
+
 	@Override
 	public String toString() {
-		return id + ": (X:" + position.getX() + ",Y:" + position.getY() + ") " + touching;
+		return id + ": (X:" + position.getX() + ",Y:" + position.getY() + (hasDepth() ? ",Z:" + z + ") d=" + distance + " " : ") ") + touching + (pose != HandPose.UNKNOWN ? " " + pose : "");
 	}
 }
@@ -0,0 +1,21 @@
+package it.polito.computervision.virtualscreen;
+
+/**
+ * Represents the pose of a hand, as classified by the {@link HandPoseDetector}
+ * @author Giovanni Piumatti
+ *
+ */
+public enum HandPose {
+	/**
+	 * The pose is not available (e.g. pose detection is disabled, or the hand could not be segmented yet)
+	 */
+	UNKNOWN,
+	/**
+	 * The hand is open
+	 */
+	OPEN,
+	/**
+	 * The hand is closed (a fist, e.g. grabbing)
+	 */
+	CLOSED
+}
@@ -0,0 +1,489 @@
+package it.polito.computervision.virtualscreen;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Classifies the pose of the tracked hands (see {@link HandPose}) from the depth frame. For each hand, a region of interest around its position
+ * is cropped from the depth frame, and the hand is segmented by flood filling, from its position, the pixels whose depth is close to the depth of the hand.
+ * The hand is then classified with three cheap features of the segmented region: its area, its solidity (the ratio between its area and the area
+ * of its convex hull, which is low for an open hand with spread fingers) and the spread of its depth (which is higher for a fist, whose knuckles stick out).
+ * Each feature votes for a pose, and the thresholds of the two poses leave a gap between them. A new pose must be observed
+ * for {@link #STABLE_FRAMES} consecutive frames before it is reported, so that the pose does not flicker.
+ * It is fed once per frame (see {@link VirtualScreenManager}), and the pose of each hand is attached to its {@link HandData}.
+ * When there are several hands, they are classified concurrently on a worker pool. Buffers are reused, so no memory is allocated
+ * while the set of hands is stable.
+ * @author Giovanni Piumatti
+ *
+ */
+public class HandPoseDetector {
+
+	/**
+	 * Default horizontal field of view (in degrees) of the depth sensor
+	 */
+	public static final float DEFAULT_HORIZONTAL_FOV = 58.f;
+	/**
+	 * Half the side (in mm) of the region of interest around a hand
+	 */
+	public static final float HAND_RADIUS = 120.f;
+	/**
+	 * How far (in mm) in front of the hand position and behind it the pixels of the hand can be
+	 */
+	public static final float DEPTH_NEAR = 80.f, DEPTH_FAR = 120.f;
+	/**
+	 * Area (in mm^2) below which a hand is considered closed, and above which it is considered open
+	 */
+	public static final float CLOSED_MAX_AREA = 9000.f, OPEN_MIN_AREA = 11000.f;
+	/**
+	 * Solidity above which a hand is considered closed, and below which it is considered open
+	 */
+	public static final float CLOSED_MIN_SOLIDITY = 0.85f, OPEN_MAX_SOLIDITY = 0.75f;
+	/**
+	 * Standard deviation of the depth (in mm) above which a hand is considered closed, and below which it is considered open
+	 */
+	public static final float CLOSED_MIN_SPREAD = 18.f, OPEN_MAX_SPREAD = 12.f;
+	/**
+	 * How many consecutive frames a new pose must be observed for before it is reported
+	 */
+	public static final int STABLE_FRAMES = 2;
+
+	/**
+	 * Minimum number of pixels of a segmented hand, smaller regions are noise
+	 */
+	private static final int MIN_PIXELS = 50;
+	/**
+	 * Maximum half side (in pixels) of the region of interest, when the hand is very close to the sensor
+	 */
+	private static final int MAX_ROI_RADIUS = 128;
+	/**
+	 * Half side (in pixels) of the window searched for the first pixel of the hand, in case the hand position falls between the fingers
+	 */
+	private static final int SEED_RADIUS = 3;
+
+	/**
+	 * The classification state and the buffers of a hand
+	 */
+	private class Region implements Callable<Void> {
+		private short id;
+		private long frame;
+		private float x, y, z;
+		private HandPose pose, candidate;
+		private int candidateFrames;
+		private float area, solidity, spread;
+		private byte[] mask;
+		private int[] queue, left, right, hullX, hullY, pointX, pointY;
+
+		private Region() {
+			mask = new byte[0];
+			queue = left = right = hullX = hullY = pointX = pointY = new int[0];
+		}
+
+		private void reset(short id) {
+			this.id = id;
+			pose = HandPose.UNKNOWN;
+			candidate = null;
+			candidateFrames = 0;
+			area = solidity = spread = Float.NaN;
+		}
+
+		@Override
+		public Void call() {
+			observe(segment() ? classify() : null);
+			return null;
+		}
+
+		/**
+		 * Segments the hand and computes its features
+		 * @return true if the hand has been segmented
+		 */
+		private boolean segment() {
+			if(!(z > 0))
+				return false;
+
+			int r = Math.min(MAX_ROI_RADIUS, Math.round(HAND_RADIUS * focalLength / z));
+			int cx = Math.round(x), cy = Math.round(y);
+			int x0 = Math.max(0, cx - r), x1 = Math.min(width - 1, cx + r);
+			int y0 = Math.max(0, cy - r), y1 = Math.min(height - 1, cy + r);
+			int w = x1 - x0 + 1, h = y1 - y0 + 1;
+			if(w <= 0 || h <= 0)
+				return false;
+
+			ensureCapacity(w, h);
+			Arrays.fill(mask, 0, w*h, (byte) 0);
+			Arrays.fill(left, 0, h, Integer.MAX_VALUE);
+			Arrays.fill(right, 0, h, -1);
+			int near = Math.round(z - DEPTH_NEAR), far = Math.round(z + DEPTH_FAR);
+
+			//the pixel of the hand nearest to its position
+			int seed = -1, best = Integer.MAX_VALUE;
+			for(int dy = -SEED_RADIUS; dy <= SEED_RADIUS; ++dy)
+				for(int dx = -SEED_RADIUS; dx <= SEED_RADIUS; ++dx) {
+					int px = cx + dx - x0, py = cy + dy - y0;
+					if(px >= 0 && px < w && py >= 0 && py < h && dx*dx + dy*dy < best && inBand(px + x0, py + y0, near, far)) {
+						seed = py * w + px;
+						best = dx*dx + dy*dy;
+					}
+				}
+			if(seed < 0)
+				return false;
+
+			//4-connected flood fill
+			int head = 0, tail = 0, count = 0, minRow = h, maxRow = -1;
+			double sum = 0, sumSq = 0;
+			queue[tail++] = seed;
+			mask[seed] = 1;
+			while(head < tail) {
+				int i = queue[head++];
+				int px = i % w, py = i / w;
+				double d = depth(px + x0, py + y0);
+				sum += d;
+				sumSq += d*d;
+				++count;
+				if(px < left[py])
+					left[py] = px;
+				if(px > right[py])
+					right[py] = px;
+				minRow = Math.min(minRow, py);
+				maxRow = Math.max(maxRow, py);
+
+				if(px > 0 && mask[i - 1] == 0 && inBand(px - 1 + x0, py + y0, near, far)) {
+					mask[i - 1] = 1;
+					queue[tail++] = i - 1;
+				}
+				if(px < w - 1 && mask[i + 1] == 0 && inBand(px + 1 + x0, py + y0, near, far)) {
+					mask[i + 1] = 1;
+					queue[tail++] = i + 1;
+				}
+				if(py > 0 && mask[i - w] == 0 && inBand(px + x0, py - 1 + y0, near, far)) {
+					mask[i - w] = 1;
+					queue[tail++] = i - w;
+				}
+				if(py < h - 1 && mask[i + w] == 0 && inBand(px + x0, py + 1 + y0, near, far)) {
+					mask[i + w] = 1;
+					queue[tail++] = i + w;
+				}
+			}
+			if(count < MIN_PIXELS)
+				return false;
+
+			float mmPerPixel = z / focalLength;
+			area = count * mmPerPixel * mmPerPixel;
+			solidity = (float) Math.min(1, count / hullArea(minRow, maxRow));
+			double mean = sum / count;
+			spread = (float) Math.sqrt(Math.max(0, sumSq / count - mean*mean));
+			return true;
+		}
+
+		/**
+		 * Computes the area of the convex hull of the segmented region, with each pixel being a unit square.
+		 * The region is connected, so its rows are contiguous and the hull only depends on the leftmost and rightmost pixel of each row.
+		 * @return the area of the convex hull (in pixels)
+		 */
+		private double hullArea(int minRow, int maxRow) {
+			//the extreme corners of each horizontal line between the rows, sorted by Y and X
+			int n = 0;
+			for(int row = minRow; row <= maxRow + 1; ++row) {
+				int l = Integer.MAX_VALUE, r = Integer.MIN_VALUE;
+				if(row > minRow) {
+					l = left[row - 1];
+					r = right[row - 1] + 1;
+				}
+				if(row <= maxRow) {
+					l = Math.min(l, left[row]);
+					r = Math.max(r, right[row] + 1);
+				}
+				pointX[n] = l;
+				pointY[n++] = row;
+				pointX[n] = r;
+				pointY[n++] = row;
+			}
+
+			//monotone chain
+			int k = 0;
+			for(int i = 0; i < n; ++i) {
+				while(k >= 2 && cross(k - 2, k - 1, i) <= 0)
+					--k;
+				hullX[k] = pointX[i];
+				hullY[k++] = pointY[i];
+			}
+			for(int i = n - 2, t = k + 1; i >= 0; --i) {
+				while(k >= t && cross(k - 2, k - 1, i) <= 0)
+					--k;
+				hullX[k] = pointX[i];
+				hullY[k++] = pointY[i];
+			}
+
+			double a = 0;
+			for(int i = 0; i < k - 1; ++i)
+				a += (double) hullX[i] * hullY[i + 1] - (double) hullX[i + 1] * hullY[i];
+			return Math.abs(a) / 2;
+		}
+
+		/**
+		 * @return the cross product of the vectors from the hull point a to the hull point b and to the point p
+		 */
+		private long cross(int a, int b, int p) {
+			return (long) (hullX[b] - hullX[a]) * (pointY[p] - hullY[a]) - (long) (hullY[b] - hullY[a]) * (pointX[p] - hullX[a]);
+		}
+
+		/**
+		 * Lets each feature vote for a pose
+		 * @return the observed pose, or null if the features disagree
+		 */
+		private HandPose classify() {
+			int closed = 0, open = 0;
+			if(area <= CLOSED_MAX_AREA)
+				++closed;
+			else if(area >= OPEN_MIN_AREA)
+				++open;
+			if(solidity >= CLOSED_MIN_SOLIDITY)
+				++closed;
+			else if(solidity <= OPEN_MAX_SOLIDITY)
+				++open;
+			if(spread >= CLOSED_MIN_SPREAD)
+				++closed;
+			else if(spread <= OPEN_MAX_SPREAD)
+				++open;
+
+			return closed >= 2 ? HandPose.CLOSED : (open >= 2 ? HandPose.OPEN : null);
+		}
+
+		/**
+		 * Reports the observed pose once it has been stable for long enough
+		 * @param observed The pose observed in this frame, or null if no pose could be observed
+		 */
+		private void observe(HandPose observed) {
+			if(observed == null || observed == pose) {
+				candidate = null;
+				candidateFrames = 0;
+			}
+			else {
+				if(observed != candidate) {
+					candidate = observed;
+					candidateFrames = 0;
+				}
+				if(++candidateFrames >= STABLE_FRAMES) {
+					pose = observed;
+					candidate = null;
+					candidateFrames = 0;
+				}
+			}
+		}
+
+		private void ensureCapacity(int w, int h) {
+			if(mask.length < w*h) {
+				mask = new byte[w*h];
+				queue = new int[w*h];
+			}
+			if(left.length < h) {
+				left = new int[h];
+				right = new int[h];
+				pointX = new int[2*h + 2];
+				pointY = new int[2*h + 2];
+				hullX = new int[2*h + 3];
+				hullY = new int[2*h + 3];
+			}
+		}
+	}
+
+	private final float horizontalFov;
+	private final double focalScale;
+	private long frame;
+	private Map<Short, Region> regions;
+	private Deque<Region> pool;
+	private List<Region> active;
+	private ExecutorService executor;
+
+	//the depth frame being processed
+	private ShortBuffer depth;
+	private int width, height, stride;
+	private float focalLength;
+
+	/**
+	 * Creates a detector for a sensor with the {@link #DEFAULT_HORIZONTAL_FOV}
+	 */
+	public HandPoseDetector() {
+		this(DEFAULT_HORIZONTAL_FOV);
+	}
+
+	/**
+	 * @param horizontalFov The horizontal field of view of the depth sensor (in degrees)
+	 */
+	public HandPoseDetector(float horizontalFov) {
+		if(horizontalFov <= 0 || horizontalFov >= 180)
+			throw new IllegalArgumentException("horizontalFov must be in (0, 180)");
+
+		this.horizontalFov = horizontalFov;
+		focalScale = 0.5 / Math.tan(Math.toRadians(horizontalFov) / 2);
+		frame = 0;
+		regions = new HashMap<Short, Region>();
+		pool = new ArrayDeque<Region>();
+		active = new ArrayList<Region>();
+		executor = null;
+		depth = null;
+	}
+
+	/**
+	 * Must be called before the hands of a new frame are added with {@link #add(short, float, float, float)}
+	 * @param depth The depth frame (in mm, 0 where the depth is not available)
+	 * @param width The width of the frame (in pixels)
+	 * @param height The height of the frame (in pixels)
+	 * @param stride The distance between the first pixels of two consecutive rows (in pixels)
+	 */
+	public synchronized void beginFrame(ShortBuffer depth, int width, int height, int stride) {
+		if(depth == null || width <= 0 || height <= 0 || stride < width)
+			throw new IllegalArgumentException("Invalid depth frame");
+
+		++frame;
+		this.depth = depth;
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+		focalLength = (float) (focalScale * width);
+		active.clear();
+	}
+
+	/**
+	 * Adds a hand to classify in the current frame
+	 * @param id The unique ID of the hand
+	 * @param x The X coordinate of the hand in the depth frame (in pixels, not mirrored)
+	 * @param y The Y coordinate of the hand in the depth frame (in pixels)
+	 * @param z The Z coordinate of the hand (in world coordinates, i.e. its distance from the sensor in mm)
+	 */
+	public synchronized void add(short id, float x, float y, float z) {
+		if(depth == null)
+			throw new IllegalStateException("beginFrame() must be called first");
+
+		Region r = regions.get(id);
+		if(r == null) {
+			r = pool.isEmpty() ? new Region() : pool.pop();
+			r.reset(id);
+			regions.put(id, r);
+		}
+
+		r.x = x;
+		r.y = y;
+		r.z = z;
+		r.frame = frame;
+		active.add(r);
+	}
+
+	/**
+	 * Must be called after all the hands of the current frame have been added. Classifies them and discards the hands that were not added.
+	 */
+	public synchronized void endFrame() {
+		if(active.size() == 1) {
+			active.get(0).call();
+		}
+		else if(active.size() > 1) {
+			try {
+				for(Future<Void> f : getExecutor().invokeAll(active)) {
+					try {
+						f.get();
+					}
+					catch(ExecutionException e) {
+						e.getCause().printStackTrace();
+					}
+				}
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		active.clear();
+		depth = null;
+
+		Iterator<Map.Entry<Short, Region>> it = regions.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Short, Region> e = it.next();
+			if(e.getValue().frame != frame) {
+				pool.push(e.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param id The unique ID of the hand
+	 * @return the pose of the hand, {@link HandPose#UNKNOWN} if it is not known
+	 */
+	public synchronized HandPose getPose(short id) {
+		Region r = regions.get(id);
+		return r != null ? r.pose : HandPose.UNKNOWN;
+	}
+
+	/**
+	 * @param id The unique ID of the hand
+	 * @return the features of the hand observed in the last frame it was segmented in: area (in mm^2), solidity and depth spread (in mm),
+	 * or null if the hand is not known
+	 */
+	public synchronized float[] getFeatures(short id) {
+		Region r = regions.get(id);
+		return r != null ? new float[] { r.area, r.solidity, r.spread } : null;
+	}
+
+	/**
+	 *
+	 * @return the horizontal field of view of the depth sensor (in degrees)
+	 */
+	public float getHorizontalFov() {
+		return horizontalFov;
+	}
+
+	/**
+	 * Discards the state of all hands
+	 */
+	public synchronized void clear() {
+		for(Region r : regions.values())
+			pool.push(r);
+		regions.clear();
+	}
+
+	/**
+	 * @return the depth (in mm) of a pixel of the current frame
+	 */
+	private int depth(int x, int y) {
+		return depth.get(y * stride + x) & 0xFFFF;
+	}
+
+	/**
+	 * @return true if the depth of a pixel of the current frame is within the given range
+	 */
+	private boolean inBand(int x, int y, int near, int far) {
+		int d = depth(x, y);
+		return d != 0 && d >= near && d <= far;
+	}
+
+	/**
+	 *
+	 * @return the executor used to classify the hands concurrently
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if(executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "HandPose-" + count++);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+}
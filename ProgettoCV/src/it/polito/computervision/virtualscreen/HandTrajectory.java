@@ -0,0 +1,263 @@
+package it.polito.computervision.virtualscreen;
+
+/**
+ * Fixed-capacity history of the recent positions of a single hand on the {@link VirtualScreen}.
+ * Samples are stored in a primitive ring buffer, and kinematic quantities (velocity, acceleration, path length and curvature)
+ * are computed incrementally when a sample is added, so that every query is O(1) and no objects are allocated per frame.
+ * Positions are in mm (real world coordinates on the virtual screen), timestamps in microseconds.
+ * @author Giovanni Piumatti
+ *
+ */
+public class HandTrajectory {
+
+	private short id;
+	private int capacity, head, size;
+
+	private long[] timestamps;
+	private float[] x, y, vx, vy, ax, ay;
+	private double[] pathLength;
+
+	//the last frame this trajectory was updated in (used by HandTrajectoryTracker and HandData)
+	long frame;
+
+	/**
+	 * Creates an empty trajectory
+	 * @param id The unique ID of the hand
+	 * @param capacity The maximum number of samples to keep
+	 */
+	public HandTrajectory(short id, int capacity) {
+		if(capacity < 3)
+			throw new IllegalArgumentException("capacity must be >= 3");
+
+		this.id = id;
+		this.capacity = capacity;
+		timestamps = new long[capacity];
+		x = new float[capacity];
+		y = new float[capacity];
+		vx = new float[capacity];
+		vy = new float[capacity];
+		ax = new float[capacity];
+		ay = new float[capacity];
+		pathLength = new double[capacity];
+		clear();
+	}
+
+	/**
+	 * Removes all samples and assigns the trajectory to another hand, so that the buffers can be reused.
+	 * @param id The unique ID of the new hand
+	 */
+	void reset(short id) {
+		this.id = id;
+		clear();
+	}
+
+	/**
+	 * Removes all samples
+	 */
+	public void clear() {
+		head = -1;
+		size = 0;
+	}
+
+	/**
+	 * Adds a new sample. Samples older than the capacity are discarded.
+	 * Samples with a timestamp not greater than the last one are ignored.
+	 * @param timestamp The timestamp of the sample (in microseconds)
+	 * @param px The X coordinate (in mm)
+	 * @param py The Y coordinate (in mm)
+	 */
+	public void add(long timestamp, float px, float py) {
+		if(size > 0 && timestamp <= timestamps[head])
+			return;
+
+		int prev = head;
+		head = (head + 1) % capacity;
+		if(size < capacity)
+			++size;
+
+		timestamps[head] = timestamp;
+		x[head] = px;
+		y[head] = py;
+
+		if(prev < 0) {
+			vx[head] = vy[head] = ax[head] = ay[head] = 0.f;
+			pathLength[head] = 0;
+		}
+		else {
+			float dt = (timestamp - timestamps[prev]) / 1000000.f;
+			float dx = px - x[prev], dy = py - y[prev];
+			vx[head] = dx / dt;
+			vy[head] = dy / dt;
+			if(size > 2) {
+				ax[head] = (vx[head] - vx[prev]) / dt;
+				ay[head] = (vy[head] - vy[prev]) / dt;
+			}
+			else
+				ax[head] = ay[head] = 0.f;
+
+			pathLength[head] = pathLength[prev] + Math.sqrt(dx*dx + dy*dy);
+		}
+	}
+
+	/**
+	 * Converts an age (0 = most recent sample) into an index in the ring buffer
+	 */
+	private int index(int age) {
+		if(age < 0 || age >= size)
+			throw new IndexOutOfBoundsException("age: " + age + ", size: " + size);
+
+		int i = head - age;
+		return i < 0 ? i + capacity : i;
+	}
+
+	/**
+	 *
+	 * @return the unique ID of the hand
+	 */
+	public short getId() {
+		return id;
+	}
+
+	/**
+	 *
+	 * @return the number of samples currently stored
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return the maximum number of samples stored
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param age How many samples ago (0 = most recent)
+	 * @return the timestamp of the sample (in microseconds)
+	 */
+	public long getTimestamp(int age) {
+		return timestamps[index(age)];
+	}
+
+	/**
+	 * @param age How many samples ago (0 = most recent)
+	 * @return the X coordinate of the sample (in mm)
+	 */
+	public float getX(int age) {
+		return x[index(age)];
+	}
+
+	/**
+	 * @param age How many samples ago (0 = most recent)
+	 * @return the Y coordinate of the sample (in mm)
+	 */
+	public float getY(int age) {
+		return y[index(age)];
+	}
+
+	/**
+	 * @param age How many samples ago (0 = most recent)
+	 * @return the X component of the velocity at the sample (in mm/s)
+	 */
+	public float getVelocityX(int age) {
+		return vx[index(age)];
+	}
+
+	/**
+	 * @param age How many samples ago (0 = most recent)
+	 * @return the Y component of the velocity at the sample (in mm/s)
+	 */
+	public float getVelocityY(int age) {
+		return vy[index(age)];
+	}
+
+	/**
+	 *
+	 * @return the X component of the current velocity (in mm/s)
+	 */
+	public float getVelocityX() {
+		return size > 0 ? vx[head] : 0.f;
+	}
+
+	/**
+	 *
+	 * @return the Y component of the current velocity (in mm/s)
+	 */
+	public float getVelocityY() {
+		return size > 0 ? vy[head] : 0.f;
+	}
+
+	/**
+	 *
+	 * @return the magnitude of the current velocity (in mm/s)
+	 */
+	public float getSpeed() {
+		float vx = getVelocityX(), vy = getVelocityY();
+		return (float) Math.sqrt(vx*vx + vy*vy);
+	}
+
+	/**
+	 *
+	 * @return the X component of the current acceleration (in mm/s^2)
+	 */
+	public float getAccelerationX() {
+		return size > 0 ? ax[head] : 0.f;
+	}
+
+	/**
+	 *
+	 * @return the Y component of the current acceleration (in mm/s^2)
+	 */
+	public float getAccelerationY() {
+		return size > 0 ? ay[head] : 0.f;
+	}
+
+	/**
+	 *
+	 * @return the magnitude of the current acceleration (in mm/s^2)
+	 */
+	public float getAcceleration() {
+		float ax = getAccelerationX(), ay = getAccelerationY();
+		return (float) Math.sqrt(ax*ax + ay*ay);
+	}
+
+	/**
+	 *
+	 * @return the length of the path travelled by the hand since the trajectory started (in mm)
+	 */
+	public double getPathLength() {
+		return size > 0 ? pathLength[head] : 0;
+	}
+
+	/**
+	 * @param samples How many samples back to measure from (must be < {@link #size()})
+	 * @return the length of the path travelled by the hand over the last samples (in mm)
+	 */
+	public double getPathLength(int samples) {
+		return pathLength[head] - pathLength[index(samples)];
+	}
+
+	/**
+	 * Computes the signed curvature of the trajectory at the most recent sample (i.e. (v x a) / |v|^3).
+	 * @return the curvature (in 1/mm), or 0 if the hand is not moving
+	 */
+	public float getCurvature() {
+		if(size < 3)
+			return 0.f;
+
+		float vx = this.vx[head], vy = this.vy[head];
+		float speed = (float) Math.sqrt(vx*vx + vy*vy);
+		if(speed < 1e-3f)
+			return 0.f;
+
+		return (vx*ay[head] - vy*ax[head]) / (speed*speed*speed);
+	}
+
+	@Override
+	public String toString() {
+		return id + ": " + size + " samples, v=(" + getVelocityX() + "," + getVelocityY() + ") mm/s";
+	}
+}
@@ -0,0 +1,206 @@
+package it.polito.computervision.virtualscreen;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+
+/**
+ * Keeps a {@link HandTrajectory} for each tracked hand. It is fed once per frame (see {@link VirtualScreenManager}),
+ * and the trajectory of each hand is attached to its {@link HandData}, so that gestures can query the motion history of a hand.
+ * Trajectories of hands that are no longer tracked are recycled, so no buffers are allocated while the set of hands is stable.
+ * Hand IDs are mapped to the tracked trajectories by an open addressing table on primitive keys, rebuilt at the end of each frame,
+ * so looking up a hand does not allocate either.
+ * A recycled trajectory is marked as such, so the {@link HandData} of earlier frames stop returning it (see {@link HandData#getTrajectory()}).
+ * @author Giovanni Piumatti
+ *
+ */
+public class HandTrajectoryTracker {
+
+	public static final int DEFAULT_CAPACITY = 64;
+	/**
+	 * The frame of the trajectories in the pool, which no frame can match
+	 */
+	private static final long RECYCLED = -1;
+	private static final int MIN_TABLE_SIZE = 16;
+
+	private int capacity;
+	private long frame;
+	private Deque<HandTrajectory> pool;
+
+	/**
+	 * The tracked trajectories, and the table mapping the ID of each hand to its slot in them.
+	 * The table is emptied by bumping a generation counter instead of being cleared.
+	 */
+	private HandTrajectory[] tracked;
+	private int count;
+	private short[] keys;
+	private int[] slots, generations;
+	private int generation, mask;
+
+	/**
+	 * Creates a tracker keeping {@link #DEFAULT_CAPACITY} samples per hand
+	 */
+	public HandTrajectoryTracker() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity How many samples to keep for each hand
+	 */
+	public HandTrajectoryTracker(int capacity) {
+		if(capacity < 3)
+			throw new IllegalArgumentException("capacity must be >= 3");
+
+		this.capacity = capacity;
+		frame = 0;
+		pool = new ArrayDeque<HandTrajectory>();
+		tracked = new HandTrajectory[MIN_TABLE_SIZE / 2];
+		count = 0;
+		keys = new short[MIN_TABLE_SIZE];
+		slots = new int[MIN_TABLE_SIZE];
+		generations = new int[MIN_TABLE_SIZE];
+		generation = 1;
+		mask = MIN_TABLE_SIZE - 1;
+	}
+
+	/**
+	 * Must be called before the hands of a new frame are added with {@link #update(short, long, float, float)}
+	 */
+	public synchronized void beginFrame() {
+		++frame;
+	}
+
+	/**
+	 * Adds a sample to the trajectory of the given hand, creating it if necessary.
+	 * @param id The unique ID of the hand
+	 * @param timestamp The timestamp of the frame (in microseconds)
+	 * @param x The X coordinate on the virtual screen (in mm)
+	 * @param y The Y coordinate on the virtual screen (in mm)
+	 * @return the updated trajectory
+	 */
+	public synchronized HandTrajectory update(short id, long timestamp, float x, float y) {
+		int slot = slotOf(id);
+		HandTrajectory t;
+		if(slot >= 0)
+			t = tracked[slot];
+		else {
+			t = pool.isEmpty() ? new HandTrajectory(id, capacity) : pool.pop();
+			t.reset(id);
+			track(t);
+		}
+
+		t.add(timestamp, x, y);
+		t.frame = frame;
+		return t;
+	}
+
+	/**
+	 * Must be called after all the hands of the current frame have been added. Discards the trajectories of the hands that were not updated.
+	 */
+	public synchronized void endFrame() {
+		int n = 0;
+		for(int i = 0; i < count; ++i) {
+			HandTrajectory t = tracked[i];
+			if(t.frame == frame)
+				tracked[n++] = t;
+			else {
+				t.frame = RECYCLED;
+				pool.push(t);
+			}
+		}
+		if(n < count) {
+			Arrays.fill(tracked, n, count, null);
+			count = n;
+			rebuild();
+		}
+	}
+
+	/**
+	 * @param id The unique ID of the hand
+	 * @return the trajectory of the hand, or null if the hand is not being tracked
+	 */
+	public synchronized HandTrajectory get(short id) {
+		int slot = slotOf(id);
+		return slot >= 0 ? tracked[slot] : null;
+	}
+
+	/**
+	 *
+	 * @return the trajectories of all hands currently tracked
+	 */
+	public synchronized Collection<HandTrajectory> getAll() {
+		return Collections.unmodifiableCollection(Arrays.asList(Arrays.copyOf(tracked, count)));
+	}
+
+	/**
+	 * Discards all trajectories
+	 */
+	public synchronized void clear() {
+		for(int i = 0; i < count; ++i) {
+			tracked[i].frame = RECYCLED;
+			pool.push(tracked[i]);
+		}
+		Arrays.fill(tracked, 0, count, null);
+		count = 0;
+		rebuild();
+	}
+
+	/**
+	 * @return the slot of the trajectory of the hand, or -1 if it is not tracked
+	 */
+	private int slotOf(short id) {
+		for(int k = hash(id); generations[k] == generation; k = (k + 1) & mask)
+			if(keys[k] == id)
+				return slots[k];
+
+		return -1;
+	}
+
+	/**
+	 * Adds a trajectory to the tracked ones, growing the table to keep it at most half full
+	 */
+	private void track(HandTrajectory t) {
+		if(count == tracked.length)
+			tracked = Arrays.copyOf(tracked, count * 2);
+		tracked[count++] = t;
+		if(count * 2 > keys.length) {
+			int size = keys.length * 2;
+			keys = new short[size];
+			slots = new int[size];
+			generations = new int[size];
+			generation = 1;
+			mask = size - 1;
+			rebuild();
+		}
+		else
+			insert(t.getId(), count - 1);
+	}
+
+	/**
+	 * Empties the table and maps the tracked trajectories again
+	 */
+	private void rebuild() {
+		if(++generation == 0) {
+			//the counter wrapped around, stale entries could match again
+			Arrays.fill(generations, 0);
+			generation = 1;
+		}
+		for(int i = 0; i < count; ++i)
+			insert(tracked[i].getId(), i);
+	}
+
+	private void insert(short id, int slot) {
+		int k = hash(id);
+		while(generations[k] == generation)
+			k = (k + 1) & mask;
+		keys[k] = id;
+		slots[k] = slot;
+		generations[k] = generation;
+	}
+
+	private int hash(short id) {
+		return (id * 0x9E3779B9 >>> 16) & mask;
+	}
+}
@@ -17,7 +17,7 @@ public interface VirtualScreenInitializer {
 	 * Starts the {@link VirtualScreen} initialization procedure.
 	 * This method should be called only once.
 	 * @param vscreen (In/Out) the virtual screen that needs to be initialized
-	 * @param tracker The {@link HandTracker}
+	 * @param tracker The {@link HandTracker}, or null if the hands are not tracked by NiTE (see {@link VirtualScreenManager#startFallback(int, org.openni.VideoStream)})
 	 * @param callback The object providing the {@link InitializerCallback#initializationComplete(boolean)} callback.
 	 * 
 	 * @return true if this call is synchronous (the screen has been initialized in this call), false if it's asynchronous
@@ -11,6 +11,7 @@ public interface VirtualScreenListener {
 	/**
 	 * Invoked on each frame
 	 * @param hands The hands currently being tracked.
+	 * @param timestamp The timestamp of the frame (in microseconds), also available for frames without hands
 	 */
-	public void onNewFrame(List<HandData> hands);
+	public void onNewFrame(List<HandData> hands, long timestamp);
 }
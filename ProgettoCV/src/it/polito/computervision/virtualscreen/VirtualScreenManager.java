@@ -1,12 +1,22 @@
 package it.polito.computervision.virtualscreen;
 
+import java.lang.reflect.Constructor;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import it.polito.computervision.journal.EventJournal;
+import it.polito.computervision.journal.EventType;
+import it.polito.computervision.journal.Level;
 
 import org.opencv.core.Size;
+import org.openni.VideoFrameRef;
+import org.openni.VideoStream;
 
 import com.primesense.nite.HandTracker;
 import com.primesense.nite.HandTracker.NewFrameListener;
@@ -17,7 +27,9 @@ import com.primesense.nite.Point3D;
 
 /**
  * Singleton that manages the virtual screen. It needs to be initialized with a {@link VirtualScreen} and a {@link VirtualScreenInitializer}.
- * It updates {@link VirtualScreenListener}s on each frame with the current {@link HandData}.
+ * It updates {@link VirtualScreenListener}s on each frame with the current {@link HandData}, including the pose of each hand (see {@link HandPoseDetector}) and, if enabled, its fingertips (see {@link FingertipDetector}).
+ * Hands are normally tracked by the NiTE {@link HandTracker} (see {@link #start(int)}), but they can also be tracked on the raw frames of a depth stream
+ * with a {@link DepthHandTracker} (see {@link #startFallback(int, VideoStream)}), producing the same {@link HandData}.
  * @author giovanni
  *
  */
@@ -31,9 +43,29 @@ public class VirtualScreenManager implements NewFrameListener {
 	private VirtualScreen vscreen;
 	private HandTracker tracker;
 	private HandTrackerFrameRef lastFrame;
+	private VideoStream depthStream;
+	private VideoStream.NewFrameListener depthListener;
+	private DepthHandTracker fallback;
+	private VideoFrameRef lastDepthFrame;
+	private int frameWidth, frameHeight;
 	private Collection<VirtualScreenListener> listeners;
+	private HandTrajectoryTracker trajectories;
+	private HandPoseDetector poses;
+	//true if the pose detector has been set by the application, otherwise it is created on start for the field of view of the sensor
+	private boolean customPoses;
+	private FingertipDetector fingertips;
 	private boolean initialized, initDone, running, detecting;
 	private int handsToTrack, handsTracked;
+	/**
+	 * The hands NiTE is still reporting after they have been dropped to lower the budget (see {@link #setHandsToTrack(int)})
+	 */
+	private Set<Short> droppedHands;
+
+	/**
+	 * The constructor of {@link Point3D} is only visible to NiTE, so the points of the hands tracked without NiTE are created through reflection
+	 */
+	@SuppressWarnings("rawtypes")
+	private static Constructor<Point3D> pointConstructor = null;
 
 	/**
 	 * Creates an empty, uninitialized VirtualScreenManager
@@ -41,11 +73,28 @@ public class VirtualScreenManager implements NewFrameListener {
 	private VirtualScreenManager() {
 		vscreen = null;
 		lastFrame = null;
+		lastDepthFrame = null;
 		initialized = initDone = running = false;
-		tracker = HandTracker.create();
+		//created when needed, so that hands can be tracked without NiTE
+		tracker = null;
+		depthStream = null;
+		fallback = null;
+		frameWidth = frameHeight = 0;
+		depthListener = new VideoStream.NewFrameListener() {
+
+			@Override
+			public void onFrameReady(VideoStream stream) {
+				onDepthFrame(stream);
+			}
+		};
 		listeners = new HashSet<VirtualScreenListener>();
+		trajectories = new HandTrajectoryTracker();
+		poses = null;
+		customPoses = false;
+		fingertips = null;
 		handsToTrack = -1;
 		handsTracked = 0;
+		droppedHands = new HashSet<Short>();
 		detecting = false;
 	}
 
@@ -71,6 +120,8 @@ public class VirtualScreenManager implements NewFrameListener {
 		}
 
 		lastFrame = tracker.readFrame();
+		frameWidth = lastFrame.getDepthFrame().getWidth();
+		frameHeight = lastFrame.getDepthFrame().getHeight();
 
 		//check for newly found hands
 		for(GestureData gd : lastFrame.getGestures()) {
@@ -87,16 +138,43 @@ public class VirtualScreenManager implements NewFrameListener {
 		}
 		
 		for(com.primesense.nite.HandData hd : lastFrame.getHands()) {
-			if(hd.isLost()) {
+			if(hd.isNew()) {
+				EventJournal.getInstance().record(Level.INFO, EventType.HAND_FOUND, null, null, null, hd.getId());
+			}
+			if(hd.isLost() && !droppedHands.remove(hd.getId())) {
 				--handsTracked;
+				EventJournal.getInstance().record(Level.INFO, EventType.HAND_LOST, null, null, null, hd.getId());
 			}
 		}
 		
+		//forget the dropped hands NiTE has stopped reporting
+		if(!droppedHands.isEmpty()) {
+			Set<Short> reported = new HashSet<Short>();
+			for(com.primesense.nite.HandData hd : lastFrame.getHands())
+				reported.add(hd.getId());
+			droppedHands.retainAll(reported);
+		}
+
+		//the budget has been lowered, drop the hands found last (NiTE assigns increasing IDs)
+		if(handsTracked > handsToTrack) {
+			List<Short> ids = new ArrayList<Short>();
+			for(com.primesense.nite.HandData hd : lastFrame.getHands())
+				if(hd.isTracking() && !droppedHands.contains(hd.getId()))
+					ids.add(hd.getId());
+			Collections.sort(ids, Collections.reverseOrder());
+			for(int i = 0; i < ids.size() && handsTracked > handsToTrack; ++i) {
+				tracker.stopHandTracking(ids.get(i));
+				droppedHands.add(ids.get(i));
+				--handsTracked;
+				EventJournal.getInstance().record(Level.INFO, EventType.HAND_LOST, null, null, null, ids.get(i));
+			}
+		}
+
 		if(!detecting && handsTracked < handsToTrack) {
 			tracker.startGestureDetection(GESTURE_TYPE);
 			detecting = true;
 		}
-		else if(handsTracked == handsToTrack){
+		else if(handsTracked >= handsToTrack){
 			tracker.stopGestureDetection(GESTURE_TYPE);
 			detecting = false;
 		}
@@ -105,6 +183,40 @@ public class VirtualScreenManager implements NewFrameListener {
 			notifyListeners();
 	}
 
+	/**
+	 * Tracks the hands on a new frame of the depth stream, when NiTE is not used
+	 * @param stream The depth stream
+	 */
+	private synchronized void onDepthFrame(VideoStream stream) {
+		if(fallback == null || stream != depthStream)
+			return;
+
+		if(lastDepthFrame != null) {
+			lastDepthFrame.release();
+			lastDepthFrame = null;
+		}
+
+		lastDepthFrame = stream.readFrame();
+		frameWidth = lastDepthFrame.getWidth();
+		frameHeight = lastDepthFrame.getHeight();
+		List<DepthHandTracker.Hand> tracked = fallback.update(lastDepthFrame.getData().duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer(),
+				frameWidth, frameHeight, lastDepthFrame.getStrideInBytes() / 2, lastDepthFrame.getTimestamp());
+
+		for(DepthHandTracker.Hand h : tracked) {
+			if(h.isNew()) {
+				++handsTracked;
+				EventJournal.getInstance().record(Level.INFO, EventType.HAND_FOUND, null, null, null, h.getId());
+			}
+			if(h.isLost()) {
+				--handsTracked;
+				EventJournal.getInstance().record(Level.INFO, EventType.HAND_LOST, null, null, null, h.getId());
+			}
+		}
+
+		if(isInitialized())
+			notifyListeners(tracked);
+	}
+
 	/**
 	 * Initializes the {@link VirtualScreen} with the given {@link VirtualScreenInitializer}
 	 * @param vscreen The {@link VirtualScreen} to initialize
@@ -149,33 +261,161 @@ public class VirtualScreenManager implements NewFrameListener {
 		return initialized;
 	}
 
+	/**
+	 * 
+	 * @return the {@link HandTrajectoryTracker} fed with the positions of the tracked hands on each frame
+	 */
+	public HandTrajectoryTracker getTrajectories() {
+		return trajectories;
+	}
+
+	/**
+	 * Sets the {@link HandPoseDetector} that classifies the pose of the tracked hands on each frame.
+	 * By default a detector for the field of view of the sensor is created when the manager is started.
+	 * @param poses The {@link HandPoseDetector}, or null to disable pose detection (the pose of all hands will be {@link HandPose#UNKNOWN})
+	 */
+	public synchronized void setHandPoseDetector(HandPoseDetector poses) {
+		this.poses = poses;
+		customPoses = true;
+	}
+
+	/**
+	 * 
+	 * @return the {@link HandPoseDetector} in use, or null if pose detection is disabled
+	 */
+	public synchronized HandPoseDetector getHandPoseDetector() {
+		return poses;
+	}
+
+	/**
+	 * Sets the {@link FingertipDetector} that finds the fingertips of the tracked hands. Fingertips are found asynchronously,
+	 * and the latest ones found for each hand are attached to its {@link HandData}. The previous detector (if any) is shut down.
+	 * @param fingertips The {@link FingertipDetector}, or null to disable fingertip detection (the default)
+	 */
+	public synchronized void setFingertipDetector(FingertipDetector fingertips) {
+		if(this.fingertips != null && this.fingertips != fingertips)
+			this.fingertips.shutdown();
+		this.fingertips = fingertips;
+	}
+
+	/**
+	 * 
+	 * @return the {@link FingertipDetector} in use, or null if fingertip detection is disabled
+	 */
+	public synchronized FingertipDetector getFingertipDetector() {
+		return fingertips;
+	}
+
 	public synchronized Size getFrameSize() {
-		return lastFrame != null ? new Size(lastFrame.getDepthFrame().getWidth()*PROJECTED_POSITION_MULTIPLIER, lastFrame.getDepthFrame().getHeight()*PROJECTED_POSITION_MULTIPLIER) : new Size(0,0);
+		return frameWidth > 0 ? new Size(frameWidth*PROJECTED_POSITION_MULTIPLIER, frameHeight*PROJECTED_POSITION_MULTIPLIER) : new Size(0,0);
 	}
 	
 	/**
-	 * Starts notifying listeners of new frames
+	 * Starts notifying listeners of new frames, for a sensor with the {@link HandPoseDetector#DEFAULT_HORIZONTAL_FOV}
 	 * @param handsToTrack How many hands should we track
 	 */
 	public synchronized void start(int handsToTrack) {
+		start(handsToTrack, HandPoseDetector.DEFAULT_HORIZONTAL_FOV);
+	}
+
+	/**
+	 * Starts notifying listeners of new frames
+	 * @param handsToTrack How many hands should we track
+	 * @param horizontalFov The horizontal field of view of the depth sensor NiTE is tracking the hands on (in degrees)
+	 */
+	public synchronized void start(int handsToTrack, float horizontalFov) {
 		if(handsToTrack <= 0)
 			throw new IllegalArgumentException("handsToTrack must be > 0");
 
 		if(!running) {
+			createPoseDetector(horizontalFov);
+			if(tracker == null)
+				tracker = HandTracker.create();
 			running = true;
 			this.handsToTrack = handsToTrack;
 			handsTracked = 0;
+			droppedHands.clear();
 			tracker.startGestureDetection(GESTURE_TYPE);
 			detecting = true;
 			tracker.addNewFrameListener(this);
 		}
 	}
 
+	/**
+	 * Starts notifying listeners of new frames, tracking the hands on the frames of a depth stream with a {@link DepthHandTracker} instead of NiTE.
+	 * The stream can be read from a device or from a recording (see {@link org.openni.Device#open(String)}), and must have been started.
+	 * Hands are tracked as soon as they are held in front of the body, without a wake-up gesture.
+	 * @param handsToTrack How many hands should we track
+	 * @param depthStream The depth stream
+	 */
+	public synchronized void startFallback(int handsToTrack, VideoStream depthStream) {
+		if(handsToTrack <= 0)
+			throw new IllegalArgumentException("handsToTrack must be > 0");
+		if(depthStream == null)
+			throw new IllegalArgumentException("depthStream is null");
+
+		if(!running) {
+			running = true;
+			this.handsToTrack = handsToTrack;
+			handsTracked = 0;
+			this.depthStream = depthStream;
+			float horizontalFov = (float) Math.toDegrees(depthStream.getHorizontalFieldOfView());
+			fallback = new DepthHandTracker(handsToTrack, horizontalFov, DepthHandTracker.DEFAULT_STEP);
+			createPoseDetector(horizontalFov);
+			depthStream.addNewFrameListener(depthListener);
+		}
+	}
+
+	/**
+	 * Creates the default {@link HandPoseDetector} for the field of view of the sensor, unless the application has set its own
+	 * @param horizontalFov The horizontal field of view of the depth sensor (in degrees)
+	 */
+	private void createPoseDetector(float horizontalFov) {
+		if(!customPoses && (poses == null || poses.getHorizontalFov() != horizontalFov))
+			poses = new HandPoseDetector(horizontalFov);
+	}
+
+	/**
+	 * Changes how many hands are tracked while running. If the new budget is lower than the number of hands being tracked,
+	 * the hands found last are dropped from the next frame; if it is higher, new hands are looked for.
+	 * @param handsToTrack How many hands should we track
+	 */
+	public synchronized void setHandsToTrack(int handsToTrack) {
+		if(handsToTrack <= 0)
+			throw new IllegalArgumentException("handsToTrack must be > 0");
+
+		if(running) {
+			this.handsToTrack = handsToTrack;
+			if(fallback != null)
+				fallback.setMaxHands(handsToTrack);
+		}
+	}
+
+	/**
+	 *
+	 * @return how many hands are tracked, or -1 if not running
+	 */
+	public synchronized int getHandsToTrack() {
+		return handsToTrack;
+	}
+
 	/**
 	 * Stops notifying listeners of new frames
 	 */
 	public synchronized void stop() {
-		if(running) {
+		if(running && fallback != null) {
+			depthStream.removeNewFrameListener(depthListener);
+			if(lastDepthFrame != null) {
+				lastDepthFrame.release();
+				lastDepthFrame = null;
+			}
+			depthStream = null;
+			fallback = null;
+			handsToTrack = -1;
+			handsTracked = 0;
+			running = false;
+		}
+		else if(running) {
 			tracker.removeNewFrameListener(this);
 			if(detecting) {
 				tracker.stopGestureDetection(GESTURE_TYPE);
@@ -215,10 +455,16 @@ public class VirtualScreenManager implements NewFrameListener {
 			lastFrame.release();
 			lastFrame = null;
 		}
-		tracker.destroy();
-		tracker = null;
+		if(tracker != null) {
+			tracker.destroy();
+			tracker = null;
+		}
 		//deregister all listeners
 		listeners.clear();
+		trajectories.clear();
+		if(poses != null)
+			poses.clear();
+		setFingertipDetector(null);
 		initialized = initDone = false;
 	}
 
@@ -244,7 +490,7 @@ public class VirtualScreenManager implements NewFrameListener {
 	}
 
 	/**
-	 * Notifies the {@link VirtualScreenListener}s that a new frame is available
+	 * Notifies the {@link VirtualScreenListener}s of the hands tracked by NiTE in the last frame
 	 */
 	private void notifyListeners() {
 		if(lastFrame != null && vscreen != null) {
@@ -252,21 +498,115 @@ public class VirtualScreenManager implements NewFrameListener {
 			List<com.primesense.nite.HandData> handsOrig = lastFrame.getHands();
 			//convert to our own HandData
 			List<HandData> hands = new ArrayList<HandData>(handsOrig.size());
+			long timestamp = lastFrame.getTimestamp();
+			beginFrame(lastFrame.getDepthFrame(), timestamp);
 			for(com.primesense.nite.HandData hd : handsOrig) {
-				if(hd.isTracking()) {
+				if(hd.isTracking() && !droppedHands.contains(hd.getId())) {
 					Point3D<Float> pos = hd.getPosition();
 					com.primesense.nite.Point2D<Float> depthPos = tracker.convertHandCoordinatesToDepth(pos);
-					//mirror on the X axis
-					org.openni.Point2D<Float> projPos = new org.openni.Point2D<Float>((lastFrame.getDepthFrame().getWidth() - depthPos.getX())*PROJECTED_POSITION_MULTIPLIER, depthPos.getY()*PROJECTED_POSITION_MULTIPLIER);
-					hands.add(new HandData(hd.getId(), vscreen.get2DProjection(pos), projPos, vscreen.isTouching(pos)));
+					addHand(hands, hd.getId(), pos, depthPos.getX(), depthPos.getY(), timestamp);
 				}
 			}
+			endFrame(hands, timestamp);
+		}
+	}
+
+	/**
+	 * Notifies the {@link VirtualScreenListener}s of the hands tracked by the {@link DepthHandTracker} in the last depth frame
+	 * @param tracked The hands tracked in the frame
+	 */
+	private void notifyListeners(List<DepthHandTracker.Hand> tracked) {
+		if(lastDepthFrame != null && vscreen != null) {
+			List<HandData> hands = new ArrayList<HandData>(tracked.size());
+			long timestamp = lastDepthFrame.getTimestamp();
+			beginFrame(lastDepthFrame, timestamp);
+			for(DepthHandTracker.Hand h : tracked)
+				if(h.isTracking())
+					addHand(hands, h.getId(), createPoint(h.getX(), h.getY(), h.getZ()), h.getDepthX(), h.getDepthY(), timestamp);
+			endFrame(hands, timestamp);
+		}
+	}
+
+	/**
+	 * Prepares the per-hand processing of a frame
+	 * @param depthFrame The depth frame
+	 * @param timestamp The timestamp of the frame
+	 */
+	private void beginFrame(VideoFrameRef depthFrame, long timestamp) {
+		trajectories.beginFrame();
+		ShortBuffer depth = poses != null || fingertips != null ? depthFrame.getData().duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer() : null;
+		if(poses != null)
+			poses.beginFrame(depth, depthFrame.getWidth(), depthFrame.getHeight(), depthFrame.getStrideInBytes() / 2);
+		if(fingertips != null)
+			fingertips.beginFrame(depth, depthFrame.getWidth(), depthFrame.getHeight(), depthFrame.getStrideInBytes() / 2, timestamp);
+	}
+
+	/**
+	 * Converts a tracked hand to our own {@link HandData}
+	 * @param hands (out) The hands of the frame
+	 * @param id The unique ID of the hand
+	 * @param pos The position of the hand (in world coordinates)
+	 * @param depthX The X coordinate of the hand in the depth frame
+	 * @param depthY The Y coordinate of the hand in the depth frame
+	 * @param timestamp The timestamp of the frame
+	 */
+	private void addHand(List<HandData> hands, short id, Point3D<Float> pos, float depthX, float depthY, long timestamp) {
+		//mirror on the X axis
+		org.openni.Point2D<Float> projPos = new org.openni.Point2D<Float>((frameWidth - depthX)*PROJECTED_POSITION_MULTIPLIER, depthY*PROJECTED_POSITION_MULTIPLIER);
+		org.openni.Point2D<Float> vsPos = vscreen.get2DProjection(pos);
+		HandTrajectory trajectory = trajectories.update(id, timestamp, vsPos.getX(), vsPos.getY());
+		hands.add(new HandData(id, vsPos, projPos, vscreen.isTouching(pos), timestamp, trajectory, pos.getZ(), getDistance(pos)));
+		if(poses != null)
+			poses.add(id, depthX, depthY, pos.getZ());
+		if(fingertips != null)
+			fingertips.submit(id, depthX, depthY, pos.getZ());
+	}
+
+	/**
+	 * Completes the per-hand processing of a frame and notifies the listeners
+	 * @param hands The hands of the frame
+	 * @param timestamp The timestamp of the frame
+	 */
+	private void endFrame(List<HandData> hands, long timestamp) {
+		trajectories.endFrame();
+		if(poses != null) {
+			//the hands are classified concurrently, then the poses are attached before the hands are handed over
+			poses.endFrame();
+			for(int i = 0; i < hands.size(); ++i)
+				hands.get(i).setPose(poses.getPose(hands.get(i).getId()));
+		}
+		if(fingertips != null) {
+			//fingertips are found asynchronously, the latest ones available are attached without waiting
+			fingertips.endFrame();
+			for(int i = 0; i < hands.size(); ++i)
+				hands.get(i).setFingertips(fingertips.get(hands.get(i).getId()));
+		}
 
-			hands = Collections.unmodifiableList(hands);
-			//notify all listeners
-			for(VirtualScreenListener l : listeners) {
-				l.onNewFrame(hands);
+		hands = Collections.unmodifiableList(hands);
+		//notify all listeners
+		for(VirtualScreenListener l : listeners) {
+			l.onNewFrame(hands, timestamp);
+		}
+	}
+
+	/**
+	 * @return the signed distance of a point from the virtual screen, or NaN if the virtual screen cannot compute it (see {@link AbstractVirtualScreen#getDistance(Point3D)})
+	 */
+	private float getDistance(Point3D<Float> pos) {
+		return vscreen instanceof AbstractVirtualScreen ? ((AbstractVirtualScreen) vscreen).getDistance(pos) : Float.NaN;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Point3D<Float> createPoint(float x, float y, float z) {
+		try {
+			if(pointConstructor == null) {
+				pointConstructor = Point3D.class.getDeclaredConstructor(Object.class, Object.class, Object.class);
+				pointConstructor.setAccessible(true);
 			}
+			return pointConstructor.newInstance(x, y, z);
+		}
+		catch(ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot create NiTE points", e);
 		}
 	}
 
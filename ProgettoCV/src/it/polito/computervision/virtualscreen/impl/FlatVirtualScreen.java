@@ -12,7 +12,7 @@ import it.polito.computervision.virtualscreen.VirtualScreen;
 import it.polito.computervision.virtualscreen.AbstractVirtualScreen;
 
 /**
- * A simple flat {@link VirtualScreen}. A {@link Point3D} is touching if its Z-coordinate is <= depth.
+ * A simple flat {@link VirtualScreen}. A {@link Point3D} is touching if its Z-coordinate is <= depth, and its distance is its Z-coordinate minus depth.
  * The 2D projection is simply the input point with z = 0.
  * This implementation does not take into consideration the screen size (i.e. size is infinite)
  * @author Giovanni Piumatti